@@ -1 +1,34 @@
-mvn clean compile test package javadoc:javadoc license:add-third-party license:aggregate-download-licenses assembly:single
\ No newline at end of file
+#!/bin/sh
+set -e
+mvn clean compile test package javadoc:javadoc license:add-third-party license:aggregate-download-licenses assembly:single
+
+# Prepare the distribution for class data sharing (CDS), which makes the
+# command-line tool start much faster:
+# - The Saxon jar is signed, and classes from signed jars can't be stored in a
+#   CDS archive, so the signature is removed from the copy in the distribution
+# - A training run of the command-line tool over the test documents records
+#   the classes it loads in lib/ion-docval-cli.classlist. The CDS archive
+#   itself contains absolute paths and depends on the exact Java version, so
+#   bin/ion-docval-command-line creates it from this list on its first run.
+DIST_ZIP=$(ls target/ion-docval-*-dist.zip)
+DIST_NAME=$(basename "${DIST_ZIP}" -dist.zip)
+rm -rf target/cds
+mkdir target/cds
+unzip -q "${DIST_ZIP}" -d target/cds
+LIB="target/cds/${DIST_NAME}/lib"
+for JAR in "${LIB}"/Saxon-HE-*.jar; do
+    zip -q -d "${JAR}" 'META-INF/*.SF' 'META-INF/*.RSA' 'META-INF/*.DSA' 'META-INF/*.EC' || true
+done
+CP=""
+for JAR in "${LIB}"/*.jar; do
+    CP="${CP:+${CP}:}${JAR}"
+done
+# Validation errors in the test documents are expected (exit code 1 to 125)
+RESULT=0
+java -XX:DumpLoadedClassList="${LIB}/ion-docval-cli.classlist" -cp "${CP}" \
+    net.ionite.docval.commandline.CommandLineValidator -o none -j 1 --sch-cache target/cds/sch-cache \
+    -c src/benchmark/config/startup_benchmark.xml src/test/resources/xml/shiporder_*.xml src/test/resources/xml/SI-UBL-2.0_*.xml || RESULT=$?
+test "${RESULT}" -le 125
+rm -rf target/cds/sch-cache
+test -s "${LIB}/ion-docval-cli.classlist"
+(cd target/cds && zip -q -r "../$(basename "${DIST_ZIP}")" "${DIST_NAME}/lib")
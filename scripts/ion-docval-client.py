@@ -4,21 +4,25 @@
 # a running ion-docval-server instance.
 #
 # Prerequisites:
-# - A running ion-docval-server
+# - A running ion-docval-server, or the ion-docval command line tool
+#   when used with --worker
 # - python3-lxml package
 #
 
 import argparse
 import json
 import requests
+import shlex
 import socket
 import struct
+import subprocess
 import sys
 
 from lxml import etree
 from typing import Union
 
-PROTOCOL_VERSION = "Protocol: 1"
+# Sent at the start of every connection of the framed protocol
+FRAMED_PROTOCOL_MAGIC = b"DVF1"
 
 def main():
     pass
@@ -47,10 +51,12 @@ def get_document_from_sbdh(xml_bytes):
     sys.exit(0)
 
 class DocValClient:
-    def __init__(self, host, port, keyword=None):
+    def __init__(self, host, port, keyword=None, aggregate=False, detail=None):
         self.host = host
         self.port = port
         self.keyword = keyword
+        self.aggregate = aggregate
+        self.detail = detail
         
         #self.conn = ServerConnection(host, port)
     
@@ -79,8 +85,15 @@ class DocValClient:
         }
         
         url = f"http://{self.host}:{self.port}/api/validate"
+        params = []
         if keyword is not None:
-            url += f"?keyword={requests.utils.quote(keyword)}"
+            params.append(f"keyword={requests.utils.quote(keyword)}")
+        if self.aggregate:
+            params.append("aggregate=true")
+        if self.detail is not None:
+            params.append(f"detail={self.detail}")
+        if params:
+            url += "?" + "&".join(params)
         print(f"[XX] URL: {url}")
         response = requests.post(url, data=data, headers=headers)
         if (response.status_code == 200):
@@ -88,6 +101,93 @@ class DocValClient:
         result = {}
         return result
 
+class DocValWorkerClient(DocValClient):
+    """
+    Validates documents with a command line validator running in worker
+    mode (--worker), which is started once and kept running, so that the
+    validation files only need to be loaded once.
+    """
+    def __init__(self, command, keyword=None, aggregate=False, detail=None):
+        super().__init__(None, None, keyword, aggregate, detail)
+        if type(command) == str:
+            command = shlex.split(command)
+        if "--worker" not in command:
+            command = command + ["--worker"]
+        self.process = subprocess.Popen(command, stdin=subprocess.PIPE, stdout=subprocess.PIPE)
+        self.next_id = 1
+
+    def send_document_to_server(self, data, keyword):
+        request = {
+            'id': self.next_id,
+            'document': data.decode('utf-8') if type(data) == bytes else data
+        }
+        self.next_id += 1
+        if keyword is not None:
+            request['keyword'] = keyword
+        if self.aggregate:
+            request['aggregate'] = True
+        if self.detail is not None:
+            request['detail'] = self.detail
+        self.process.stdin.write(json.dumps(request).encode('utf-8') + b"\n")
+        self.process.stdin.flush()
+        # Requests are sent one at a time, so the next line is the response
+        line = self.process.stdout.readline()
+        if not line:
+            raise Exception("Worker process has stopped")
+        result = json.loads(line)
+        if 'failure' in result:
+            raise Exception(result['failure'])
+        return result
+
+    def close(self):
+        self.process.stdin.close()
+        self.process.wait()
+
+class DocValFramedClient(DocValClient):
+    """
+    Validates documents with a server listener that uses the framed
+    protocol (<Protocol>framed</Protocol>, or a Unix domain socket listener
+    when unix_path is given), over a single persistent connection.
+    """
+    def __init__(self, host, port, keyword=None, aggregate=False, detail=None, unix_path=None):
+        super().__init__(host, port, keyword, aggregate, detail)
+        if unix_path is not None:
+            self.sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+            self.sock.connect(unix_path)
+        else:
+            self.sock = socket.create_connection((host, port))
+        self.sock.sendall(FRAMED_PROTOCOL_MAGIC)
+
+    def _read_exactly(self, length):
+        data = b""
+        while len(data) < length:
+            chunk = self.sock.recv(length - len(data))
+            if not chunk:
+                raise Exception("Connection closed by server")
+            data += chunk
+        return data
+
+    def send_document_to_server(self, data, keyword):
+        params = []
+        if keyword is not None:
+            params.append(f"keyword={requests.utils.quote(keyword)}")
+        if self.aggregate:
+            params.append("aggregate=true")
+        if self.detail is not None:
+            params.append(f"detail={self.detail}")
+        header = "&".join(params).encode('utf-8')
+        if type(data) == str:
+            data = data.encode('utf-8')
+        self.sock.sendall(struct.pack(">I", len(header)) + header + struct.pack(">I", len(data)) + data)
+        status, length = struct.unpack(">BI", self._read_exactly(5))
+        body = self._read_exactly(length).decode('utf-8')
+        if status != 0:
+            raise Exception(body)
+        return json.loads(body)
+
+    def close(self):
+        self.sock.close()
+
 
 # Note: this derivation is done server-side if no keyword is passed; this
 # code is only here to locally derive the keyword so that it can be
@@ -138,10 +238,16 @@ def derive_keyword_from_xml(xml_bytes):
     
 
 def print_result_element(el_type, el, show_details):
-    print(f"{el_type}: {el['message']}")
+    if 'count' in el:
+        print(f"{el_type} ({el['count']}x): {el['message']}")
+    else:
+        print(f"{el_type}: {el['message']}")
     if show_details:
         print(f"       test: {el['test']}")
-        if 'location' in el:
+        if 'locations' in el:
+            for location in el['locations']:
+                print(f"   location: {location}")
+        elif 'location' in el:
             print(f"   location: {el['location']}")
         if 'line' in el:
             print(f"       line: {el['line']}")
@@ -152,11 +258,18 @@ def print_result_element(el_type, el, show_details):
 def print_result_data(result_data, show_details):
     print(f"Errors: {result_data['error_count']}")
     print(f"Warnings: {result_data['warning_count']}")
+    if result_data.get('truncated'):
+        print("Truncated: the maximum number of errors and warnings was reached")
     print("")
-    for err in result_data['errors']:
+    for err in result_data.get('errors', []):
         print_result_element("Error", err, show_details)
-    for warn in result_data['warnings']:
+    for warn in result_data.get('warnings', []):
         print_result_element("Warning", warn, show_details)
+    if result_data.get('skipped_validators'):
+        print("Skipped after errors:")
+        for validation_file in result_data['skipped_validators']:
+            print(f"    {validation_file}")
+        print("")
 
 def main():
     arg_parser = argparse.ArgumentParser()
@@ -168,6 +281,12 @@ def main():
     arg_parser.add_argument('-d', '--details', action="store_true", default=False, help="Print additional information about errors and warnings")
     arg_parser.add_argument('-r', '--read-keyword', action="store_true", help="Don't validate the document, but derive and print its keyword")
     arg_parser.add_argument('document', help="The filename of the document to validate")
+    arg_parser.add_argument('-w', '--worker', metavar='COMMAND',
+                            help="Don't connect to a server, but start the given ion-docval command line validator command in worker mode, e.g. 'java -jar ion-docval-cli.jar -c config.xml'")
+    arg_parser.add_argument('-f', '--framed', action="store_true", help="Connect to a server listener that uses the framed protocol instead of HTTP")
+    arg_parser.add_argument('-u', '--unix-socket', metavar='PATH', help="Connect to the server through the Unix domain socket at the given path (uses the framed protocol)")
+    arg_parser.add_argument('-a', '--aggregate', action="store_true", help="Group errors and warnings by the test that failed, with the number of failures of each")
+    arg_parser.add_argument('--detail', choices=['full', 'summary', 'counts'], help="Only return the error and warning counts (counts), or the counts and other information without the errors and warnings themselves (summary)")
     arg_parser.add_argument('-s', '--strip-sbdh', action="store_true", help="If the given XML file is an SBDH, validate the XML contained in the XML instead of the full file itself")
     
     args = arg_parser.parse_args()
@@ -177,8 +296,15 @@ def main():
             print(derive_keyword_from_xml(infile.read()))
         return 0
     else:
-        client = DocValClient(args.host, args.port, args.keyword)
+        if args.worker:
+            client = DocValWorkerClient(args.worker, args.keyword, args.aggregate, args.detail)
+        elif args.framed or args.unix_socket:
+            client = DocValFramedClient(args.host, args.port, args.keyword, args.aggregate, args.detail, args.unix_socket)
+        else:
+            client = DocValClient(args.host, args.port, args.keyword, args.aggregate, args.detail)
         result = client.validate_file(args.document, args.strip_sbdh)
+        if args.worker or args.framed or args.unix_socket:
+            client.close()
         print_result_data(result, args.details)
         return result["error_count"]
     
@@ -0,0 +1,19 @@
+#!/bin/sh
+#
+# Build and run the JMH microbenchmarks, with the GC (allocation) profiler.
+#
+# Results are written to benchmark-results/jmh-<version>.json, so that runs of
+# different versions can be compared (for instance with
+# https://jmh.morethan.io). Any arguments are passed on to JMH; for instance,
+# to run only the serialization benchmarks:
+#
+#   scripts/run_benchmarks.sh SerializationBenchmark
+#
+# Run this from the project root directory.
+set -e
+
+VERSION=$(mvn -q help:evaluate -Dexpression=project.version -DforceStdout)
+mvn -B -q -P benchmark -DskipTests package
+mkdir -p benchmark-results
+java -Ddocval.benchmark.resources=src/test/resources -jar target/benchmarks.jar \
+    -prof gc -rf json -rff "benchmark-results/jmh-${VERSION}.json" "$@"
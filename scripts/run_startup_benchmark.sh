@@ -0,0 +1,25 @@
+#!/bin/sh
+#
+# Build and run the startup benchmark: the compile time and retained heap of
+# each validation file in a configuration, and the time until a server is
+# ready (and has handled a first request) with eager and with lazy loading.
+#
+# The report is written to benchmark-results/startup-<version>.json, so that
+# releases can be compared. By default, the validation files of the test
+# resources are used (src/benchmark/config/startup_benchmark.xml); any
+# arguments are passed on to the benchmark, for instance to measure another
+# configuration:
+#
+#   scripts/run_startup_benchmark.sh -c /etc/ion-docval/config.xml
+#
+# Run this from the project root directory.
+set -e
+
+VERSION=$(mvn -q help:evaluate -Dexpression=project.version -DforceStdout)
+mvn -B -q -P benchmark -DskipTests package
+mkdir -p benchmark-results
+java -cp target/benchmarks.jar net.ionite.docval.benchmark.StartupBenchmark \
+    -c src/benchmark/config/startup_benchmark.xml \
+    -d src/test/resources/xml/SI-UBL-2.0_ok_minimal.xml \
+    -l "${VERSION}" -o json -O "benchmark-results/startup-${VERSION}.json" "$@"
+echo "Report written to benchmark-results/startup-${VERSION}.json"
@@ -0,0 +1,55 @@
+package net.ionite.docval.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Access to the documents and validation files used by the benchmarks.
+ *
+ * The benchmarks use the test data in src/test/resources, so that results
+ * remain comparable between versions. Set the system property
+ * docval.benchmark.resources to use a different directory, such as when the
+ * benchmarks are not run from the project directory.
+ *
+ * @author Ionite
+ */
+public class BenchmarkData {
+	private static final Path RESOURCES = Paths
+			.get(System.getProperty("docval.benchmark.resources", "src/test/resources"));
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Returns the path of the given test resource
+	 *
+	 * @param name The name of the resource, relative to the resources directory,
+	 *             such as xsd/shiporder_good.xsd
+	 * @return The path of the file
+	 */
+	public static String path(String name) {
+		Path path = RESOURCES.resolve(name);
+		if (!Files.exists(path)) {
+			throw new IllegalStateException("Benchmark resource not found: " + path.toAbsolutePath()
+					+ " (set -Ddocval.benchmark.resources to the test resources directory)");
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Returns the contents of the given test resource
+	 *
+	 * @param name The name of the resource, relative to the resources directory
+	 * @return The contents of the file
+	 */
+	public static byte[] read(String name) {
+		try {
+			return Files.readAllBytes(Paths.get(path(name)));
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+}
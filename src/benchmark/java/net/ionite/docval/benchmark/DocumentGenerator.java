@@ -0,0 +1,523 @@
+package net.ionite.docval.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Generates synthetic documents of a configurable size, for scaling tests.
+ *
+ * The documents are based on the minimal examples in the test resources, with
+ * the given number of lines. The amounts on the lines vary, and the totals are
+ * calculated from them, so that a generated invoice is valid against the EN
+ * 16931 rules. Optionally, a base64-encoded attachment of the given size is
+ * embedded, and a fraction of the lines can be made invalid (by leaving out the
+ * item name, which is mandatory in EN 16931 and Peppol BIS, but not in the
+ * schemas), so that the number of errors grows with the document.<br />
+ * <br />
+ * Generated documents are deterministic for a given seed.
+ *
+ * @author Ionite
+ */
+public class DocumentGenerator {
+	/** The supported document formats */
+	public enum Format {
+		/** UBL 2.1 Invoice, NLCIUS (SI-UBL 2.0) */
+		UBL_INVOICE,
+		/** UBL 2.1 Order, Peppol BIS Order 3 */
+		UBL_ORDER,
+		/** UN/CEFACT Cross Industry Invoice D16B, Peppol BIS Billing 3 */
+		CII_INVOICE;
+
+		/**
+		 * Returns the format for the given name, such as ubl-invoice
+		 *
+		 * @param name The name of the format, case-insensitive, with - or _
+		 * @return The format
+		 * @throws IllegalArgumentException if the name is not a known format
+		 */
+		public static Format fromName(String name) {
+			return valueOf(name.toUpperCase().replace('-', '_'));
+		}
+	}
+
+	private static final int TAX_PERCENT = 21;
+
+	private Format format;
+	private int lines = 1;
+	private int attachmentSize = 0;
+	private double errorRate = 0;
+	private long seed = 1;
+
+	/**
+	 * Construct a generator for the given document format
+	 *
+	 * @param format The format of the documents to generate
+	 */
+	public DocumentGenerator(Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * Set the number of lines in the generated documents (default 1)
+	 *
+	 * @param lines The number of lines, at least 1
+	 */
+	public void setLines(int lines) {
+		if (lines < 1) {
+			throw new IllegalArgumentException("Number of lines must be at least 1");
+		}
+		this.lines = lines;
+	}
+
+	/**
+	 * Set the size of the embedded attachment (default 0, no attachment)
+	 *
+	 * @param attachmentSize The size of the attachment in bytes, before base64
+	 *                       encoding
+	 */
+	public void setAttachmentSize(int attachmentSize) {
+		this.attachmentSize = attachmentSize;
+	}
+
+	/**
+	 * Set the fraction of lines that is made invalid (default 0, a valid
+	 * document)
+	 *
+	 * @param errorRate The fraction of invalid lines, between 0 and 1
+	 */
+	public void setErrorRate(double errorRate) {
+		if (errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("Error rate must be between 0 and 1");
+		}
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Set the seed for the line amounts, invalid lines and attachment data
+	 *
+	 * @param seed The seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Generate a document
+	 *
+	 * @return The (UTF-8 encoded) document
+	 */
+	public byte[] generate() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			write(outputStream);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Generate a document, and write it to the given stream. The stream is not
+	 * closed.
+	 *
+	 * @param outputStream The stream to write the (UTF-8 encoded) document to
+	 * @throws IOException if the document cannot be written
+	 */
+	public void write(OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 65536);
+		Random random = new Random(seed);
+		long[] quantities = new long[lines];
+		long[] prices = new long[lines];
+		boolean[] invalid = new boolean[lines];
+		long lineTotal = 0;
+		for (int i = 0; i < lines; i++) {
+			quantities[i] = 1 + random.nextInt(10);
+			prices[i] = 100 + random.nextInt(100000);
+			invalid[i] = errorRate > 0 && random.nextDouble() < errorRate;
+			lineTotal += quantities[i] * prices[i];
+		}
+		String attachment = null;
+		if (attachmentSize > 0) {
+			byte[] data = new byte[attachmentSize];
+			random.nextBytes(data);
+			attachment = Base64.getEncoder().encodeToString(data);
+		}
+		switch (format) {
+		case UBL_INVOICE:
+			writeUBLInvoice(writer, quantities, prices, invalid, lineTotal, attachment);
+			break;
+		case UBL_ORDER:
+			writeUBLOrder(writer, quantities, invalid, attachment);
+			break;
+		case CII_INVOICE:
+			writeCIIInvoice(writer, quantities, prices, invalid, lineTotal, attachment);
+			break;
+		}
+		writer.flush();
+	}
+
+	/* Format an amount in cents */
+	private static String amount(long cents) {
+		return String.format("%d.%02d", cents / 100, cents % 100);
+	}
+
+	/* The tax over the given amount in cents, rounded half up */
+	private static long tax(long cents) {
+		return (cents * TAX_PERCENT + 50) / 100;
+	}
+
+	private void writeUBLInvoice(Writer w, long[] quantities, long[] prices, boolean[] invalid, long lineTotal,
+			String attachment) throws IOException {
+		long taxTotal = tax(lineTotal);
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		w.write("<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"\n");
+		w.write("         xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\"\n");
+		w.write("         xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">\n");
+		w.write("    <cbc:UBLVersionID>2.1</cbc:UBLVersionID>\n");
+		w.write("    <cbc:CustomizationID>urn:cen.eu:en16931:2017#compliant#urn:fdc:nen.nl:nlcius:v1.0</cbc:CustomizationID>\n");
+		w.write("    <cbc:ProfileID>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</cbc:ProfileID>\n");
+		w.write("    <cbc:ID>GEN-" + quantities.length + "</cbc:ID>\n");
+		w.write("    <cbc:IssueDate>2021-01-01</cbc:IssueDate>\n");
+		w.write("    <cbc:DueDate>2021-01-31</cbc:DueDate>\n");
+		w.write("    <cbc:InvoiceTypeCode>380</cbc:InvoiceTypeCode>\n");
+		w.write("    <cbc:DocumentCurrencyCode>EUR</cbc:DocumentCurrencyCode>\n");
+		w.write("    <cac:OrderReference>\n");
+		w.write("        <cbc:ID>47806</cbc:ID>\n");
+		w.write("    </cac:OrderReference>\n");
+		if (attachment != null) {
+			w.write("    <cac:AdditionalDocumentReference>\n");
+			w.write("        <cbc:ID>attachment-1</cbc:ID>\n");
+			w.write("        <cac:Attachment>\n");
+			w.write("            <cbc:EmbeddedDocumentBinaryObject mimeCode=\"application/pdf\" filename=\"attachment.pdf\">");
+			w.write(attachment);
+			w.write("</cbc:EmbeddedDocumentBinaryObject>\n");
+			w.write("        </cac:Attachment>\n");
+			w.write("    </cac:AdditionalDocumentReference>\n");
+		}
+		w.write("    <cac:AccountingSupplierParty>\n");
+		w.write("        <cac:Party>\n");
+		w.write("            <cac:PostalAddress>\n");
+		w.write("                <cbc:StreetName>Simplerstraat 1</cbc:StreetName>\n");
+		w.write("                <cbc:CityName>InvoicingStad</cbc:CityName>\n");
+		w.write("                <cbc:PostalZone>1111 ZZ</cbc:PostalZone>\n");
+		w.write("                <cac:Country>\n");
+		w.write("                    <cbc:IdentificationCode>NL</cbc:IdentificationCode>\n");
+		w.write("                </cac:Country>\n");
+		w.write("            </cac:PostalAddress>\n");
+		w.write("            <cac:PartyTaxScheme>\n");
+		w.write("                <cbc:CompanyID>NL1111.11.111.B.01</cbc:CompanyID>\n");
+		w.write("                <cac:TaxScheme>\n");
+		w.write("                    <cbc:ID>VAT</cbc:ID>\n");
+		w.write("                </cac:TaxScheme>\n");
+		w.write("            </cac:PartyTaxScheme>\n");
+		w.write("            <cac:PartyLegalEntity>\n");
+		w.write("                <cbc:RegistrationName>SimplerInvoicing</cbc:RegistrationName>\n");
+		w.write("                <cbc:CompanyID schemeID=\"0106\">SITEST00000</cbc:CompanyID>\n");
+		w.write("            </cac:PartyLegalEntity>\n");
+		w.write("        </cac:Party>\n");
+		w.write("    </cac:AccountingSupplierParty>\n");
+		w.write("    <cac:AccountingCustomerParty>\n");
+		w.write("        <cac:Party>\n");
+		w.write("            <cbc:EndpointID schemeID=\"9944\">NL1234567890</cbc:EndpointID>\n");
+		w.write("            <cac:PostalAddress>\n");
+		w.write("                <cbc:StreetName>Teststraat 123</cbc:StreetName>\n");
+		w.write("                <cbc:CityName>Grotestad</cbc:CityName>\n");
+		w.write("                <cbc:PostalZone>1111 AA</cbc:PostalZone>\n");
+		w.write("                <cac:Country>\n");
+		w.write("                    <cbc:IdentificationCode>NL</cbc:IdentificationCode>\n");
+		w.write("                </cac:Country>\n");
+		w.write("            </cac:PostalAddress>\n");
+		w.write("            <cac:PartyLegalEntity>\n");
+		w.write("                <cbc:RegistrationName>Ontvanger</cbc:RegistrationName>\n");
+		w.write("                <cbc:CompanyID schemeID=\"0106\">11111111</cbc:CompanyID>\n");
+		w.write("            </cac:PartyLegalEntity>\n");
+		w.write("        </cac:Party>\n");
+		w.write("    </cac:AccountingCustomerParty>\n");
+		w.write("    <cac:PaymentMeans>\n");
+		w.write("        <cbc:PaymentMeansCode>30</cbc:PaymentMeansCode>\n");
+		w.write("        <cbc:PaymentID>Deb. 10202 / Fact. 12115118</cbc:PaymentID>\n");
+		w.write("        <cac:PayeeFinancialAccount>\n");
+		w.write("            <cbc:ID>NL11 BANK 1111111111</cbc:ID>\n");
+		w.write("        </cac:PayeeFinancialAccount>\n");
+		w.write("    </cac:PaymentMeans>\n");
+		w.write("    <cac:TaxTotal>\n");
+		w.write("        <cbc:TaxAmount currencyID=\"EUR\">" + amount(taxTotal) + "</cbc:TaxAmount>\n");
+		w.write("        <cac:TaxSubtotal>\n");
+		w.write("            <cbc:TaxableAmount currencyID=\"EUR\">" + amount(lineTotal) + "</cbc:TaxableAmount>\n");
+		w.write("            <cbc:TaxAmount currencyID=\"EUR\">" + amount(taxTotal) + "</cbc:TaxAmount>\n");
+		w.write("            <cac:TaxCategory>\n");
+		w.write("                <cbc:ID>S</cbc:ID>\n");
+		w.write("                <cbc:Percent>" + TAX_PERCENT + "</cbc:Percent>\n");
+		w.write("                <cac:TaxScheme>\n");
+		w.write("                    <cbc:ID>VAT</cbc:ID>\n");
+		w.write("                </cac:TaxScheme>\n");
+		w.write("            </cac:TaxCategory>\n");
+		w.write("        </cac:TaxSubtotal>\n");
+		w.write("    </cac:TaxTotal>\n");
+		w.write("    <cac:LegalMonetaryTotal>\n");
+		w.write("        <cbc:LineExtensionAmount currencyID=\"EUR\">" + amount(lineTotal) + "</cbc:LineExtensionAmount>\n");
+		w.write("        <cbc:TaxExclusiveAmount currencyID=\"EUR\">" + amount(lineTotal) + "</cbc:TaxExclusiveAmount>\n");
+		w.write("        <cbc:TaxInclusiveAmount currencyID=\"EUR\">" + amount(lineTotal + taxTotal) + "</cbc:TaxInclusiveAmount>\n");
+		w.write("        <cbc:PayableAmount currencyID=\"EUR\">" + amount(lineTotal + taxTotal) + "</cbc:PayableAmount>\n");
+		w.write("    </cac:LegalMonetaryTotal>\n");
+		for (int i = 0; i < quantities.length; i++) {
+			w.write("    <cac:InvoiceLine>\n");
+			w.write("        <cbc:ID>" + (i + 1) + "</cbc:ID>\n");
+			w.write("        <cbc:InvoicedQuantity unitCode=\"C62\">" + quantities[i] + "</cbc:InvoicedQuantity>\n");
+			w.write("        <cbc:LineExtensionAmount currencyID=\"EUR\">" + amount(quantities[i] * prices[i]) + "</cbc:LineExtensionAmount>\n");
+			w.write("        <cac:Item>\n");
+			if (!invalid[i]) {
+				w.write("            <cbc:Name>Generated item " + (i + 1) + "</cbc:Name>\n");
+			}
+			w.write("            <cac:ClassifiedTaxCategory>\n");
+			w.write("                <cbc:ID>S</cbc:ID>\n");
+			w.write("                <cbc:Percent>" + TAX_PERCENT + "</cbc:Percent>\n");
+			w.write("                <cac:TaxScheme>\n");
+			w.write("                    <cbc:ID>VAT</cbc:ID>\n");
+			w.write("                </cac:TaxScheme>\n");
+			w.write("            </cac:ClassifiedTaxCategory>\n");
+			w.write("        </cac:Item>\n");
+			w.write("        <cac:Price>\n");
+			w.write("            <cbc:PriceAmount currencyID=\"EUR\">" + amount(prices[i]) + "</cbc:PriceAmount>\n");
+			w.write("        </cac:Price>\n");
+			w.write("    </cac:InvoiceLine>\n");
+		}
+		w.write("</Invoice>\n");
+	}
+
+	private void writeUBLOrder(Writer w, long[] quantities, boolean[] invalid, String attachment)
+			throws IOException {
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		w.write("<Order xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Order-2\"\n");
+		w.write("       xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\"\n");
+		w.write("       xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">\n");
+		w.write("    <cbc:CustomizationID>urn:fdc:peppol.eu:poacc:trns:order:3</cbc:CustomizationID>\n");
+		w.write("    <cbc:ProfileID>urn:fdc:peppol.eu:poacc:bis:order_only:3</cbc:ProfileID>\n");
+		w.write("    <cbc:ID>GEN-" + quantities.length + "</cbc:ID>\n");
+		w.write("    <cbc:IssueDate>2021-01-07</cbc:IssueDate>\n");
+		w.write("    <cbc:DocumentCurrencyCode>EUR</cbc:DocumentCurrencyCode>\n");
+		w.write("    <cac:ValidityPeriod>\n");
+		w.write("        <cbc:EndDate>2021-01-31</cbc:EndDate>\n");
+		w.write("    </cac:ValidityPeriod>\n");
+		if (attachment != null) {
+			w.write("    <cac:AdditionalDocumentReference>\n");
+			w.write("        <cbc:ID>attachment-1</cbc:ID>\n");
+			w.write("        <cac:Attachment>\n");
+			w.write("            <cbc:EmbeddedDocumentBinaryObject mimeCode=\"application/pdf\" filename=\"attachment.pdf\">");
+			w.write(attachment);
+			w.write("</cbc:EmbeddedDocumentBinaryObject>\n");
+			w.write("        </cac:Attachment>\n");
+			w.write("    </cac:AdditionalDocumentReference>\n");
+		}
+		w.write("    <cac:BuyerCustomerParty>\n");
+		w.write("        <cac:Party>\n");
+		w.write("            <cbc:EndpointID schemeID=\"0106\">12345678</cbc:EndpointID>\n");
+		w.write("            <cac:PartyLegalEntity>\n");
+		w.write("                <cbc:RegistrationName>Buyer Inc.</cbc:RegistrationName>\n");
+		w.write("            </cac:PartyLegalEntity>\n");
+		w.write("        </cac:Party>\n");
+		w.write("    </cac:BuyerCustomerParty>\n");
+		w.write("    <cac:SellerSupplierParty>\n");
+		w.write("        <cac:Party>\n");
+		w.write("            <cbc:EndpointID schemeID=\"0106\">87654321</cbc:EndpointID>\n");
+		w.write("            <cac:PostalAddress>\n");
+		w.write("                <cac:Country>\n");
+		w.write("                    <cbc:IdentificationCode>NL</cbc:IdentificationCode>\n");
+		w.write("                </cac:Country>\n");
+		w.write("            </cac:PostalAddress>\n");
+		w.write("            <cac:PartyLegalEntity>\n");
+		w.write("                <cbc:RegistrationName>Supplier B.V.</cbc:RegistrationName>\n");
+		w.write("            </cac:PartyLegalEntity>\n");
+		w.write("        </cac:Party>\n");
+		w.write("    </cac:SellerSupplierParty>\n");
+		for (int i = 0; i < quantities.length; i++) {
+			w.write("    <cac:OrderLine>\n");
+			w.write("        <cac:LineItem>\n");
+			w.write("            <cbc:ID>" + (i + 1) + "</cbc:ID>\n");
+			w.write("            <cbc:Quantity unitCode=\"XPK\">" + quantities[i] + "</cbc:Quantity>\n");
+			w.write("            <cac:Item>\n");
+			if (!invalid[i]) {
+				w.write("                <cbc:Name>Generated item " + (i + 1) + "</cbc:Name>\n");
+			}
+			w.write("            </cac:Item>\n");
+			w.write("        </cac:LineItem>\n");
+			w.write("    </cac:OrderLine>\n");
+		}
+		w.write("</Order>\n");
+	}
+
+	private void writeCIIInvoice(Writer w, long[] quantities, long[] prices, boolean[] invalid, long lineTotal,
+			String attachment) throws IOException {
+		long taxTotal = tax(lineTotal);
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		w.write("<rsm:CrossIndustryInvoice xmlns:rsm=\"urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100\"\n");
+		w.write("    xmlns:ram=\"urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100\"\n");
+		w.write("    xmlns:udt=\"urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100\">\n");
+		w.write("    <rsm:ExchangedDocumentContext>\n");
+		w.write("        <ram:BusinessProcessSpecifiedDocumentContextParameter>\n");
+		w.write("            <ram:ID>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</ram:ID>\n");
+		w.write("        </ram:BusinessProcessSpecifiedDocumentContextParameter>\n");
+		w.write("        <ram:GuidelineSpecifiedDocumentContextParameter>\n");
+		w.write("            <ram:ID>urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0</ram:ID>\n");
+		w.write("        </ram:GuidelineSpecifiedDocumentContextParameter>\n");
+		w.write("    </rsm:ExchangedDocumentContext>\n");
+		w.write("    <rsm:ExchangedDocument>\n");
+		w.write("        <ram:ID>GEN-" + quantities.length + "</ram:ID>\n");
+		w.write("        <ram:TypeCode>380</ram:TypeCode>\n");
+		w.write("        <ram:IssueDateTime>\n");
+		w.write("            <udt:DateTimeString format=\"102\">20210101</udt:DateTimeString>\n");
+		w.write("        </ram:IssueDateTime>\n");
+		w.write("    </rsm:ExchangedDocument>\n");
+		w.write("    <rsm:SupplyChainTradeTransaction>\n");
+		for (int i = 0; i < quantities.length; i++) {
+			w.write("        <ram:IncludedSupplyChainTradeLineItem>\n");
+			w.write("            <ram:AssociatedDocumentLineDocument>\n");
+			w.write("                <ram:LineID>" + (i + 1) + "</ram:LineID>\n");
+			w.write("            </ram:AssociatedDocumentLineDocument>\n");
+			w.write("            <ram:SpecifiedTradeProduct>\n");
+			if (!invalid[i]) {
+				w.write("                <ram:Name>Generated item " + (i + 1) + "</ram:Name>\n");
+			}
+			w.write("            </ram:SpecifiedTradeProduct>\n");
+			w.write("            <ram:SpecifiedLineTradeAgreement>\n");
+			w.write("                <ram:NetPriceProductTradePrice>\n");
+			w.write("                    <ram:ChargeAmount>" + amount(prices[i]) + "</ram:ChargeAmount>\n");
+			w.write("                </ram:NetPriceProductTradePrice>\n");
+			w.write("            </ram:SpecifiedLineTradeAgreement>\n");
+			w.write("            <ram:SpecifiedLineTradeDelivery>\n");
+			w.write("                <ram:BilledQuantity unitCode=\"EA\">" + quantities[i] + "</ram:BilledQuantity>\n");
+			w.write("            </ram:SpecifiedLineTradeDelivery>\n");
+			w.write("            <ram:SpecifiedLineTradeSettlement>\n");
+			w.write("                <ram:ApplicableTradeTax>\n");
+			w.write("                    <ram:TypeCode>VAT</ram:TypeCode>\n");
+			w.write("                    <ram:CategoryCode>S</ram:CategoryCode>\n");
+			w.write("                    <ram:RateApplicablePercent>" + TAX_PERCENT + "</ram:RateApplicablePercent>\n");
+			w.write("                </ram:ApplicableTradeTax>\n");
+			w.write("                <ram:SpecifiedTradeSettlementLineMonetarySummation>\n");
+			w.write("                    <ram:LineTotalAmount>" + amount(quantities[i] * prices[i]) + "</ram:LineTotalAmount>\n");
+			w.write("                </ram:SpecifiedTradeSettlementLineMonetarySummation>\n");
+			w.write("            </ram:SpecifiedLineTradeSettlement>\n");
+			w.write("        </ram:IncludedSupplyChainTradeLineItem>\n");
+		}
+		w.write("        <ram:ApplicableHeaderTradeAgreement>\n");
+		w.write("            <ram:BuyerReference>123_reference</ram:BuyerReference>\n");
+		w.write("            <ram:SellerTradeParty>\n");
+		w.write("                <ram:Name>Seller Inc.</ram:Name>\n");
+		w.write("                <ram:SpecifiedLegalOrganization>\n");
+		w.write("                    <ram:ID>1234567890</ram:ID>\n");
+		w.write("                </ram:SpecifiedLegalOrganization>\n");
+		w.write("                <ram:PostalTradeAddress>\n");
+		w.write("                    <ram:CountryID>NL</ram:CountryID>\n");
+		w.write("                </ram:PostalTradeAddress>\n");
+		w.write("                <ram:URIUniversalCommunication>\n");
+		w.write("                    <ram:URIID schemeID=\"0106\">12345678</ram:URIID>\n");
+		w.write("                </ram:URIUniversalCommunication>\n");
+		w.write("                <ram:SpecifiedTaxRegistration>\n");
+		w.write("                    <ram:ID schemeID=\"VA\">NL1111111111B01</ram:ID>\n");
+		w.write("                </ram:SpecifiedTaxRegistration>\n");
+		w.write("            </ram:SellerTradeParty>\n");
+		w.write("            <ram:BuyerTradeParty>\n");
+		w.write("                <ram:Name>Buyers B.V.</ram:Name>\n");
+		w.write("                <ram:PostalTradeAddress>\n");
+		w.write("                    <ram:CountryID>NL</ram:CountryID>\n");
+		w.write("                </ram:PostalTradeAddress>\n");
+		w.write("                <ram:URIUniversalCommunication>\n");
+		w.write("                    <ram:URIID schemeID=\"0106\">87654321</ram:URIID>\n");
+		w.write("                </ram:URIUniversalCommunication>\n");
+		w.write("            </ram:BuyerTradeParty>\n");
+		if (attachment != null) {
+			w.write("            <ram:AdditionalReferencedDocument>\n");
+			w.write("                <ram:IssuerAssignedID>attachment-1</ram:IssuerAssignedID>\n");
+			w.write("                <ram:TypeCode>916</ram:TypeCode>\n");
+			w.write("                <ram:AttachmentBinaryObject mimeCode=\"application/pdf\" filename=\"attachment.pdf\">");
+			w.write(attachment);
+			w.write("</ram:AttachmentBinaryObject>\n");
+			w.write("            </ram:AdditionalReferencedDocument>\n");
+		}
+		w.write("        </ram:ApplicableHeaderTradeAgreement>\n");
+		w.write("        <ram:ApplicableHeaderTradeDelivery/>\n");
+		w.write("        <ram:ApplicableHeaderTradeSettlement>\n");
+		w.write("            <ram:PaymentReference>08/00355</ram:PaymentReference>\n");
+		w.write("            <ram:InvoiceCurrencyCode>EUR</ram:InvoiceCurrencyCode>\n");
+		w.write("            <ram:SpecifiedTradeSettlementPaymentMeans>\n");
+		w.write("                <ram:TypeCode>30</ram:TypeCode>\n");
+		w.write("                <ram:PayeePartyCreditorFinancialAccount>\n");
+		w.write("                    <ram:IBANID>NL11BANK1111111111</ram:IBANID>\n");
+		w.write("                </ram:PayeePartyCreditorFinancialAccount>\n");
+		w.write("            </ram:SpecifiedTradeSettlementPaymentMeans>\n");
+		w.write("            <ram:ApplicableTradeTax>\n");
+		w.write("                <ram:CalculatedAmount>" + amount(taxTotal) + "</ram:CalculatedAmount>\n");
+		w.write("                <ram:TypeCode>VAT</ram:TypeCode>\n");
+		w.write("                <ram:BasisAmount>" + amount(lineTotal) + "</ram:BasisAmount>\n");
+		w.write("                <ram:CategoryCode>S</ram:CategoryCode>\n");
+		w.write("                <ram:RateApplicablePercent>" + TAX_PERCENT + "</ram:RateApplicablePercent>\n");
+		w.write("            </ram:ApplicableTradeTax>\n");
+		w.write("            <ram:SpecifiedTradePaymentTerms>\n");
+		w.write("                <ram:DueDateDateTime>\n");
+		w.write("                    <udt:DateTimeString format=\"102\">20210131</udt:DateTimeString>\n");
+		w.write("                </ram:DueDateDateTime>\n");
+		w.write("            </ram:SpecifiedTradePaymentTerms>\n");
+		w.write("            <ram:SpecifiedTradeSettlementHeaderMonetarySummation>\n");
+		w.write("                <ram:LineTotalAmount>" + amount(lineTotal) + "</ram:LineTotalAmount>\n");
+		w.write("                <ram:TaxBasisTotalAmount>" + amount(lineTotal) + "</ram:TaxBasisTotalAmount>\n");
+		w.write("                <ram:TaxTotalAmount currencyID=\"EUR\">" + amount(taxTotal) + "</ram:TaxTotalAmount>\n");
+		w.write("                <ram:GrandTotalAmount>" + amount(lineTotal + taxTotal) + "</ram:GrandTotalAmount>\n");
+		w.write("                <ram:DuePayableAmount>" + amount(lineTotal + taxTotal) + "</ram:DuePayableAmount>\n");
+		w.write("            </ram:SpecifiedTradeSettlementHeaderMonetarySummation>\n");
+		w.write("        </ram:ApplicableHeaderTradeSettlement>\n");
+		w.write("    </rsm:SupplyChainTradeTransaction>\n");
+		w.write("</rsm:CrossIndustryInvoice>\n");
+	}
+
+	/**
+	 * Generate a single document, and write it to a file or stdout
+	 */
+	public static void main(String[] argv) throws IOException {
+		ArgumentParser parser = ArgumentParsers.newFor("document-generator").addHelp(true).build()
+				.description("Generate a synthetic document of the given size");
+		parser.addArgument("-f", "--format").setDefault("ubl-invoice")
+				.help("Document format: ubl-invoice (default), ubl-order or cii-invoice");
+		parser.addArgument("-n", "--lines").type(Integer.class).setDefault(1)
+				.help("Number of lines (default 1)");
+		parser.addArgument("-a", "--attachment-size").type(Integer.class).setDefault(0)
+				.help("Size in bytes of an embedded (base64) attachment (default 0, none)");
+		parser.addArgument("-e", "--error-rate").type(Double.class).setDefault(0.0)
+				.help("Fraction of the lines that is made invalid (default 0)");
+		parser.addArgument("--seed").type(Long.class).setDefault(1L).help("Random seed (default 1)");
+		parser.addArgument("-o", "--output").help("File to write the document to (default stdout)");
+		Namespace args = null;
+		try {
+			args = parser.parseArgs(argv);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(-1);
+		}
+		DocumentGenerator generator = new DocumentGenerator(Format.fromName(args.getString("format")));
+		generator.setLines(args.getInt("lines"));
+		generator.setAttachmentSize(args.getInt("attachment_size"));
+		generator.setErrorRate(args.getDouble("error_rate"));
+		generator.setSeed(args.getLong("seed"));
+		if (args.getString("output") != null) {
+			try (OutputStream outputStream = new FileOutputStream(args.getString("output"))) {
+				generator.write(outputStream);
+			}
+		} else {
+			generator.write(System.out);
+			System.out.flush();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package net.ionite.docval.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ionite.docval.xml.KeywordDeriver;
+
+/**
+ * Benchmarks keyword derivation for documents of different syntaxes and sizes.
+ *
+ * @author Ionite
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordDeriverBenchmark {
+	@Param({ "xml/SI-UBL-2.0_ok_minimal.xml", "xml/NLCIUS-CII_ok_example.xml",
+			"xml/TransportExecutionPlan_Example_Full.xml", "xml/shiporder_good.xml" })
+	public String document;
+
+	private byte[] source;
+
+	@Setup
+	public void setUp() {
+		source = BenchmarkData.read(document);
+	}
+
+	@Benchmark
+	public String deriveKeyword() {
+		return new KeywordDeriver().deriveKeyword(source);
+	}
+}
@@ -0,0 +1,366 @@
+package net.ionite.docval.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.simple.SimpleLogger;
+
+import net.ionite.docval.config.ConfigData;
+import net.ionite.docval.config.ConfigReader;
+import net.ionite.docval.metrics.DocValMetrics;
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidatorException;
+import net.ionite.docval.validation.ValidatorManager;
+import net.ionite.docval.validation.validator.DocumentValidator;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Measures how validation time and memory scale with the size of a document.
+ *
+ * For each validation file, documents of increasing size are generated with
+ * {@link DocumentGenerator}, and validated. The time and the memory allocated
+ * by the validation are reported per size, together with the scaling exponent:
+ * the slope of log(time) against log(lines), fitted over the larger documents.
+ * A slope of about 1 means the validation time grows linearly with the size;
+ * rules that scale quadratically show up with a slope of about 2.<br />
+ * <br />
+ * The results can be written as CSV, and as a gnuplot script that plots them
+ * on log-log axes.
+ *
+ * @author Ionite
+ */
+public class ScalingBenchmark {
+	/** Documents with fewer lines are dominated by fixed costs */
+	private static final int MIN_FIT_LINES = 100;
+	/** Size of the document used to warm up the validators */
+	private static final int WARMUP_LINES = 1000;
+	/** Scaling exponent above which a validator is reported as superlinear */
+	private static final double SUPERLINEAR_SLOPE = 1.5;
+
+	/** The measurements of one validator on one document size */
+	private static class Measurement {
+		String file;
+		String type;
+		int lines;
+		int documentBytes;
+		long nanos;
+		long allocatedBytes = -1;
+		long peakHeapBytes;
+		int errors;
+		int warnings;
+		String failure;
+	}
+
+	private Namespace args;
+
+	/**
+	 * Construct a ScalingBenchmark with the given command-line arguments
+	 *
+	 * @param argv String-array containing the command-line arguments
+	 */
+	public ScalingBenchmark(String[] argv) {
+		ArgumentParser parser = ArgumentParsers.newFor("scaling-benchmark").addHelp(true).build()
+				.description("Measure validation time and memory against the size of generated documents");
+		parser.addArgument("-s", "--schemafile").action(Arguments.append())
+				.help("Validation file (XSD, XSLT or SCH) to measure. Can be specified multiple times.");
+		parser.addArgument("-c", "--config").help("Measure all validation files of the given configuration file");
+		parser.addArgument("-f", "--format").setDefault("ubl-invoice")
+				.help("Format of the generated documents: ubl-invoice (default), ubl-order or cii-invoice");
+		parser.addArgument("-n", "--lines").setDefault("1,10,100,1000,10000,100000")
+				.help("Comma-separated document sizes, in lines (default 1,10,100,1000,10000,100000)");
+		parser.addArgument("-a", "--attachment-size").type(Integer.class).setDefault(0)
+				.help("Size in bytes of an embedded (base64) attachment (default 0, none)");
+		parser.addArgument("-e", "--error-rate").type(Double.class).setDefault(0.0)
+				.help("Fraction of the lines that is made invalid (default 0)");
+		parser.addArgument("-i", "--iterations").type(Integer.class).setDefault(3)
+				.help("Number of validations per size; the fastest is reported (default 3)");
+		parser.addArgument("-w", "--warmup").type(Double.class).setDefault(10.0)
+				.help("Seconds to warm up each validator with a document of " + WARMUP_LINES
+						+ " lines (or the largest size, if smaller) before measuring (default 10)");
+		parser.addArgument("-m", "--max-time").type(Double.class).setDefault(60.0)
+				.help("Skip larger sizes for a validator once a validation takes longer than this many seconds (default 60)");
+		parser.addArgument("--csv").help("Write the measurements to the given CSV file");
+		parser.addArgument("--gnuplot")
+				.help("Write a gnuplot script that plots the CSV file (requires --csv) to the given file");
+		try {
+			args = parser.parseArgs(argv);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(-1);
+		}
+	}
+
+	private List<String> validationFiles() throws Exception {
+		LinkedHashSet<String> files = new LinkedHashSet<String>();
+		List<String> schemaFiles = args.getList("schemafile");
+		if (schemaFiles != null) {
+			files.addAll(schemaFiles);
+		}
+		if (args.getString("config") != null) {
+			ConfigData configData = new ConfigReader(args.getString("config")).readConfig();
+			for (ConfigData.DocumentType docType : configData.documentTypes) {
+				files.addAll(docType.validationFiles);
+			}
+		}
+		return new ArrayList<String>(files);
+	}
+
+	private static List<Integer> parseSizes(String sizes) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		for (String size : sizes.split(",")) {
+			result.add(Integer.parseInt(size.trim()));
+		}
+		return result;
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		ArrayList<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	/*
+	 * Returns the bytes allocated by the current thread so far, or -1 if the JVM
+	 * does not support measuring this
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private Measurement measure(DocumentValidator validator, String file, int lines, byte[] document,
+			int iterations) {
+		Measurement measurement = new Measurement();
+		measurement.file = file;
+		measurement.type = DocValMetrics.validatorType(validator.getClass());
+		measurement.lines = lines;
+		measurement.documentBytes = document.length;
+		measurement.nanos = Long.MAX_VALUE;
+		List<MemoryPoolMXBean> pools = heapPools();
+		for (int i = 0; i < iterations; i++) {
+			System.gc();
+			for (MemoryPoolMXBean pool : pools) {
+				pool.resetPeakUsage();
+			}
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			ValidationResult result;
+			try {
+				result = validator.validate(document);
+			} catch (ValidatorException e) {
+				measurement.failure = e.getMessage();
+				return measurement;
+			}
+			long nanos = System.nanoTime() - start;
+			if (nanos < measurement.nanos) {
+				measurement.nanos = nanos;
+				measurement.allocatedBytes = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+			}
+			long peak = 0;
+			for (MemoryPoolMXBean pool : pools) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+			measurement.peakHeapBytes = Math.max(measurement.peakHeapBytes, peak);
+			measurement.errors = result.errorCount();
+			measurement.warnings = result.warningCount();
+		}
+		return measurement;
+	}
+
+	/*
+	 * Least-squares slope of log(time) against log(lines), over the documents
+	 * that are large enough, or NaN if there are not enough of them
+	 */
+	private static double scalingExponent(List<Measurement> measurements) {
+		ArrayList<Measurement> points = new ArrayList<Measurement>();
+		for (Measurement m : measurements) {
+			if (m.failure == null && m.lines >= MIN_FIT_LINES) {
+				points.add(m);
+			}
+		}
+		if (points.size() < 2) {
+			return Double.NaN;
+		}
+		double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+		for (Measurement m : points) {
+			double x = Math.log(m.lines);
+			double y = Math.log(m.nanos);
+			sumX += x;
+			sumY += y;
+			sumXY += x * y;
+			sumXX += x * x;
+		}
+		int n = points.size();
+		return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes < 0) {
+			return "-";
+		}
+		return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+	}
+
+	private static String csvField(String value) {
+		if (value.contains(",") || value.contains("\"")) {
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+	private void writeCSV(String fileName, Map<String, List<Measurement>> results) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+			writer.println("file,type,lines,document_bytes,time_ms,allocated_bytes,peak_heap_bytes,errors,warnings");
+			for (List<Measurement> measurements : results.values()) {
+				for (Measurement m : measurements) {
+					if (m.failure == null) {
+						writer.println(String.format("%s,%s,%d,%d,%.3f,%d,%d,%d,%d", csvField(m.file),
+								m.type, m.lines, m.documentBytes, m.nanos / 1000000.0, m.allocatedBytes,
+								m.peakHeapBytes, m.errors, m.warnings));
+					}
+				}
+			}
+		}
+	}
+
+	private void writeGnuplot(String fileName, String csvFile, Map<String, List<Measurement>> results)
+			throws IOException {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+			writer.println("# Plots validation time and allocated memory against document size");
+			writer.println("# Run with: gnuplot " + fileName);
+			writer.println("set datafile separator ','");
+			writer.println("set key autotitle columnhead");
+			writer.println("set terminal pngcairo size 1600,700");
+			writer.println("set output '" + csvFile.replaceAll("\\.csv$", "") + ".png'");
+			writer.println("set multiplot layout 1,2");
+			writer.println("set logscale xy");
+			writer.println("set key top left");
+			writer.println("set xlabel 'lines'");
+			StringBuilder timePlot = new StringBuilder();
+			StringBuilder memoryPlot = new StringBuilder();
+			for (String file : results.keySet()) {
+				if (timePlot.length() > 0) {
+					timePlot.append(", \\\n     ");
+					memoryPlot.append(", \\\n     ");
+				}
+				// Only plot the rows of this validator
+				String select = "(strcol(1) eq '" + file.replace("'", "''") + "' ? ";
+				String title = new File(file).getName().replace("'", "''");
+				timePlot.append("'").append(csvFile).append("' using 3:").append(select)
+						.append("$5 : NaN) with linespoints title '").append(title).append("'");
+				memoryPlot.append("'").append(csvFile).append("' using 3:").append(select)
+						.append("$6 / 1048576 : NaN) with linespoints title '").append(title).append("'");
+			}
+			writer.println("set ylabel 'validation time (ms)'");
+			writer.println("plot " + timePlot);
+			writer.println("set ylabel 'allocated (MiB)'");
+			writer.println("plot " + memoryPlot);
+			writer.println("unset multiplot");
+		}
+	}
+
+	/**
+	 * Run the benchmark, and print the results
+	 *
+	 * @throws Exception if the configuration cannot be read, or a validation file
+	 *                   cannot be loaded
+	 */
+	public void run() throws Exception {
+		List<String> files = validationFiles();
+		if (files.isEmpty()) {
+			System.err.println("At least one validation file is required: -s/--schemafile or -c/--config");
+			System.exit(-1);
+		}
+		if (args.getString("gnuplot") != null && args.getString("csv") == null) {
+			System.err.println("--gnuplot requires --csv");
+			System.exit(-1);
+		}
+		List<Integer> sizes = parseSizes(args.getString("lines"));
+		DocumentGenerator generator = new DocumentGenerator(DocumentGenerator.Format.fromName(args.getString("format")));
+		generator.setAttachmentSize(args.getInt("attachment_size"));
+		generator.setErrorRate(args.getDouble("error_rate"));
+		int iterations = Math.max(1, args.getInt("iterations"));
+		long maxNanos = (long) (args.getDouble("max_time") * 1000000000L);
+
+		LinkedHashMap<String, List<Measurement>> results = new LinkedHashMap<String, List<Measurement>>();
+		for (String file : files) {
+			DocumentValidator validator = ValidatorManager.createValidator(file);
+			generator.setLines(Math.min(WARMUP_LINES, Collections.max(sizes)));
+			byte[] warmupDocument = generator.generate();
+			long warmupEnd = System.nanoTime() + (long) (args.getDouble("warmup") * 1000000000L);
+			while (System.nanoTime() < warmupEnd) {
+				validator.validate(warmupDocument);
+			}
+			ArrayList<Measurement> measurements = new ArrayList<Measurement>();
+			results.put(file, measurements);
+			System.out.println(file);
+			System.out.println(String.format("%10s %12s %12s %12s %12s %8s %8s", "Lines", "Size", "Time (ms)",
+					"Allocated", "Peak heap", "Errors", "Warnings"));
+			for (int lines : sizes) {
+				generator.setLines(lines);
+				byte[] document = generator.generate();
+				Measurement m = measure(validator, file, lines, document, iterations);
+				measurements.add(m);
+				if (m.failure != null) {
+					System.out.println(String.format("%10d %12s  failed: %s", lines, formatBytes(m.documentBytes),
+							m.failure));
+					break;
+				}
+				System.out.println(String.format("%10d %12s %12.3f %12s %12s %8d %8d", lines,
+						formatBytes(m.documentBytes), m.nanos / 1000000.0, formatBytes(m.allocatedBytes),
+						formatBytes(m.peakHeapBytes), m.errors, m.warnings));
+				if (m.nanos > maxNanos) {
+					System.out.println("(skipping larger documents, validation took longer than the maximum time)");
+					break;
+				}
+			}
+			double slope = scalingExponent(measurements);
+			if (Double.isNaN(slope)) {
+				System.out.println("Scaling exponent: not enough documents of " + MIN_FIT_LINES + " lines or more");
+			} else {
+				System.out.println(String.format("Scaling exponent: %.2f%s", slope,
+						slope > SUPERLINEAR_SLOPE ? " (SUPERLINEAR)" : ""));
+			}
+			System.out.println();
+		}
+		if (args.getString("csv") != null) {
+			writeCSV(args.getString("csv"), results);
+		}
+		if (args.getString("gnuplot") != null) {
+			writeGnuplot(args.getString("gnuplot"), args.getString("csv"), results);
+		}
+	}
+
+	/**
+	 * Parse the command-line arguments and run the benchmark
+	 */
+	public static void main(String[] argv) throws Exception {
+		if (System.getProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY) == null) {
+			System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "off");
+		}
+		new ScalingBenchmark(argv).run();
+	}
+}
@@ -0,0 +1,84 @@
+package net.ionite.docval.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.ionite.docval.validation.ValidationResult;
+import net.sf.saxon.s9api.SaxonApiException;
+
+/**
+ * Benchmarks the JSON and XML serialization of validation results, for results
+ * with different numbers of errors.
+ *
+ * @author Ionite
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+	@Param({ "0", "10", "1000" })
+	public int errors;
+
+	private ValidationResult result;
+	private String json;
+
+	@Setup
+	public void setUp() {
+		result = new ValidationResult();
+		result.setDocumentTypeName("Benchmark document");
+		for (int i = 0; i < errors; i++) {
+			result.addError("[BR-" + i + "]-An Invoice shall have a value for element " + i,
+					"/*:Invoice[namespace-uri()='urn:oasis:names:specification:ubl:schema:xsd:Invoice-2'][1]/*:Line[" + i
+							+ "]",
+					i, 12, "exists(cbc:Element" + i + ")");
+		}
+		result.addWarning("A warning", "/*:Invoice[1]", null, null, "test");
+		json = result.toJSONString();
+	}
+
+	@Benchmark
+	public String toJSONString() {
+		return result.toJSONString();
+	}
+
+	@Benchmark
+	public ValidationResult fromJSONString() {
+		return ValidationResult.fromJSONString(json);
+	}
+
+	@Benchmark
+	public String toXMLString() throws SaxonApiException {
+		return result.toXMLString();
+	}
+
+	@Benchmark
+	public void writeXML(Blackhole blackhole) throws SaxonApiException {
+		result.writeXML(new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] data, int offset, int length) {
+				blackhole.consume(data);
+			}
+		});
+	}
+}
@@ -0,0 +1,385 @@
+package net.ionite.docval.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.simple.SimpleLogger;
+
+import net.ionite.docval.config.ConfigData;
+import net.ionite.docval.config.ConfigReader;
+import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.metrics.DocValMetrics;
+import net.ionite.docval.server.DocValClientException;
+import net.ionite.docval.server.DocValHttpClient;
+import net.ionite.docval.server.DocValHttpServer;
+import net.ionite.docval.validation.ValidatorManager;
+import net.ionite.docval.validation.validator.DocumentValidator;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Startup, compile-time and heap-footprint benchmark.
+ *
+ * The JMH benchmarks measure validation in a warmed-up JVM; this tool measures
+ * the costs that are paid when a server starts or a configuration is
+ * (re)loaded:
+ * <ul>
+ * <li>For each validation file, the time to compile it (through
+ * {@link ValidatorManager#createValidator(String)}), both the first time in
+ * this JVM and after warmup, and the heap that is retained by the compiled
+ * validator.</li>
+ * <li>For the configuration as a whole, the time until a server is ready to
+ * accept requests, the time of the first validation request, and the heap in
+ * use afterwards, with both eager and lazy loading of the validation files.
+ * Every run uses a fresh JVM, started with the classpath of this one.</li>
+ * </ul>
+ * Retained heap is measured as the difference in used heap (after garbage
+ * collection) before and after compilation, while holding a reference to the
+ * validator; this is an approximation, but good enough to compare validation
+ * files and releases.
+ *
+ * @author Ionite
+ */
+public class StartupBenchmark {
+	/** Marks the result line of a server child process */
+	private static final String CHILD_RESULT_PREFIX = "STARTUP-RESULT ";
+
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private Namespace args;
+
+	/**
+	 * Construct a StartupBenchmark with the given command-line arguments
+	 *
+	 * @param argv String-array containing the command-line arguments
+	 */
+	public StartupBenchmark(String[] argv) {
+		ArgumentParser parser = ArgumentParsers.newFor("startup-benchmark").addHelp(true).build().description(
+				"Measure the compile time and retained heap of validation files, and the startup time of the server");
+		parser.addArgument("-c", "--config").required(true)
+				.help("Configuration file with the document types and validation files to measure");
+		parser.addArgument("-i", "--iterations").type(Integer.class).setDefault(5)
+				.help("Number of times each validation file is compiled (default 5)");
+		parser.addArgument("-r", "--runs").type(Integer.class).setDefault(3)
+				.help("Number of server startups for each of eager and lazy loading (default 3, 0 to skip)");
+		parser.addArgument("-d", "--document")
+				.help("Document to send as first request to the started servers (optional)");
+		parser.addArgument("-k", "--keyword").help("Keyword to validate the first-request document with");
+		parser.addArgument("-j", "--jvm-arg").action(Arguments.append())
+				.help("Argument to pass to the JVMs of the startup runs, such as -Xmx512m. Can be specified multiple times.");
+		parser.addArgument("-l", "--label").help("Label (such as the version) to include in the report");
+		parser.addArgument("-o", "--output-format").choices("text", "json").setDefault("text")
+				.help("Output format, text (default) or json");
+		parser.addArgument("-O", "--output-file").help("Write the report to the given file instead of stdout");
+		parser.addArgument("--server-child").action(Arguments.storeTrue()).help(Arguments.SUPPRESS);
+		parser.addArgument("--lazy").action(Arguments.storeTrue()).help(Arguments.SUPPRESS);
+		try {
+			args = parser.parseArgs(argv);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(-1);
+		}
+	}
+
+	/*
+	 * Returns the used heap after a number of full collections; a single
+	 * System.gc() call does not always collect everything
+	 */
+	private static long usedHeapAfterGC() {
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static long median(List<Long> values) {
+		ArrayList<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		return sorted.get(sorted.size() / 2);
+	}
+
+	private static List<String> validationFiles(ConfigData configData) {
+		LinkedHashSet<String> files = new LinkedHashSet<String>();
+		for (ConfigData.DocumentType docType : configData.documentTypes) {
+			files.addAll(docType.validationFiles);
+		}
+		return new ArrayList<String>(files);
+	}
+
+	/*
+	 * Compile the given file the given number of times; the first compilation is
+	 * reported separately, as it includes loading the classes involved
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private JSONObject measureCompile(String fileName, int iterations) {
+		ArrayList<Long> times = new ArrayList<Long>();
+		DocumentValidator validator = null;
+		long retained = 0;
+		for (int i = 0; i < iterations; i++) {
+			validator = null;
+			long before = usedHeapAfterGC();
+			long start = System.nanoTime();
+			validator = ValidatorManager.createValidator(fileName);
+			times.add(System.nanoTime() - start);
+			// The validator is still referenced here, so it is not collected;
+			// the last measurement is the least affected by class loading
+			retained = Math.max(0, usedHeapAfterGC() - before);
+		}
+		JSONObject result = new JSONObject();
+		result.put("file", fileName);
+		result.put("type", DocValMetrics.validatorType(validator.getClass()));
+		result.put("first_compile_ms", toMillis(times.get(0)));
+		List<Long> warm = times.size() > 1 ? times.subList(1, times.size()) : times;
+		result.put("min_compile_ms", toMillis(Collections.min(warm)));
+		result.put("median_compile_ms", toMillis(median(warm)));
+		result.put("retained_heap_bytes", retained);
+		return result;
+	}
+
+	/*
+	 * Start a new JVM in server-child mode, and read its result line
+	 */
+	private JSONObject runServerChild(boolean lazy) throws IOException, InterruptedException {
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		List<String> jvmArgs = args.getList("jvm_arg");
+		if (jvmArgs != null) {
+			command.addAll(jvmArgs);
+		}
+		command.add("-D" + SimpleLogger.DEFAULT_LOG_LEVEL_KEY + "=off");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(StartupBenchmark.class.getName());
+		command.add("--server-child");
+		command.add("--config");
+		command.add(args.getString("config"));
+		if (lazy) {
+			command.add("--lazy");
+		}
+		if (args.getString("document") != null) {
+			command.add("--document");
+			command.add(args.getString("document"));
+			if (args.getString("keyword") != null) {
+				command.add("--keyword");
+				command.add(args.getString("keyword"));
+			}
+		}
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String resultLine = null;
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(CHILD_RESULT_PREFIX)) {
+					resultLine = line.substring(CHILD_RESULT_PREFIX.length());
+				} else {
+					output.append(line).append(System.lineSeparator());
+				}
+			}
+		}
+		int exitCode = process.waitFor();
+		if (exitCode != 0 || resultLine == null) {
+			throw new IOException("Server startup run failed with exit code " + exitCode + ":"
+					+ System.lineSeparator() + output);
+		}
+		try {
+			return (JSONObject) new JSONParser().parse(resultLine);
+		} catch (ParseException e) {
+			throw new IOException("Unable to parse result of server startup run: " + resultLine, e);
+		}
+	}
+
+	private static long getLong(JSONObject object, String key) {
+		return ((Number) object.get(key)).longValue();
+	}
+
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private JSONObject measureStartup(boolean lazy, int runs) throws IOException, InterruptedException {
+		ArrayList<Long> ready = new ArrayList<Long>();
+		ArrayList<Long> firstValidation = new ArrayList<Long>();
+		ArrayList<Long> heap = new ArrayList<Long>();
+		for (int i = 0; i < runs; i++) {
+			JSONObject run = runServerChild(lazy);
+			ready.add(getLong(run, "ready_ns"));
+			if (run.get("first_validation_ns") != null) {
+				firstValidation.add(getLong(run, "first_validation_ns"));
+			}
+			heap.add(getLong(run, "heap_used_bytes"));
+		}
+		JSONObject result = new JSONObject();
+		result.put("loading", lazy ? "lazy" : "eager");
+		result.put("runs", runs);
+		result.put("ready_ms", toMillis(median(ready)));
+		if (!firstValidation.isEmpty()) {
+			result.put("first_validation_ms", toMillis(median(firstValidation)));
+		}
+		result.put("heap_used_bytes", median(heap));
+		return result;
+	}
+
+	/*
+	 * Server-child mode: start a server with the configuration, optionally send a
+	 * first request, and print the measurements as a single JSON line
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private void runChild() throws IOException, ConfigurationError, DocValClientException {
+		ConfigData configData = new ConfigReader(args.getString("config")).readConfig();
+		configData.lazyLoad = args.getBoolean("lazy");
+		DocValHttpServer server = new DocValHttpServer(configData);
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		server.addListener("127.0.0.1", port);
+		server.start();
+		// JVM uptime, so that this includes starting the JVM and loading classes
+		long readyNanos = ManagementFactory.getRuntimeMXBean().getUptime() * 1000000L;
+
+		JSONObject result = new JSONObject();
+		result.put("ready_ns", readyNanos);
+		String document = args.getString("document");
+		if (document != null) {
+			DocValHttpClient client = new DocValHttpClient(
+					"http://127.0.0.1:" + port + "/api/validate");
+			byte[] data = Files.readAllBytes(Paths.get(document));
+			long start = System.nanoTime();
+			client.validate(data, args.getString("keyword"));
+			result.put("first_validation_ns", System.nanoTime() - start);
+		}
+		result.put("heap_used_bytes", usedHeapAfterGC());
+		server.halt(0);
+		System.out.println(CHILD_RESULT_PREFIX + result.toJSONString());
+	}
+
+	private static String formatBytes(long bytes) {
+		return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+	}
+
+	private static String textReport(JSONObject report) {
+		StringBuilder sb = new StringBuilder();
+		String nl = System.lineSeparator();
+		sb.append("Startup benchmark");
+		if (report.get("label") != null) {
+			sb.append(" ").append(report.get("label"));
+		}
+		sb.append(" (").append(report.get("date")).append(", Java ").append(report.get("java_version"))
+				.append(")").append(nl).append(nl);
+		sb.append(String.format("%-6s %12s %12s %12s %12s  %s", "Type", "First (ms)", "Min (ms)", "Median (ms)",
+				"Retained", "File")).append(nl);
+		for (Object o : (JSONArray) report.get("validation_files")) {
+			JSONObject file = (JSONObject) o;
+			sb.append(String.format("%-6s %12.3f %12.3f %12.3f %12s  %s", file.get("type"),
+					file.get("first_compile_ms"), file.get("min_compile_ms"), file.get("median_compile_ms"),
+					formatBytes(getLong(file, "retained_heap_bytes")), file.get("file"))).append(nl);
+		}
+		JSONArray startup = (JSONArray) report.get("startup");
+		if (startup != null && !startup.isEmpty()) {
+			sb.append(nl);
+			sb.append(String.format("%-8s %12s %16s %12s", "Loading", "Ready (ms)", "First req (ms)", "Heap"))
+					.append(nl);
+			for (Object o : startup) {
+				JSONObject run = (JSONObject) o;
+				Object first = run.get("first_validation_ms");
+				sb.append(String.format("%-8s %12.3f %16s %12s", run.get("loading"), run.get("ready_ms"),
+						first != null ? String.format("%.3f", first) : "-",
+						formatBytes(getLong(run, "heap_used_bytes")))).append(nl);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Run the benchmark, and write the report
+	 *
+	 * @throws Exception if the configuration cannot be read, or a measurement
+	 *                   fails
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	public void run() throws Exception {
+		if (args.getBoolean("server_child")) {
+			runChild();
+			return;
+		}
+		ConfigData configData = new ConfigReader(args.getString("config")).readConfig();
+		JSONObject report = new JSONObject();
+		if (args.getString("label") != null) {
+			report.put("label", args.getString("label"));
+		}
+		report.put("date", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").format(new Date()));
+		report.put("java_version", System.getProperty("java.version"));
+		report.put("config", new File(args.getString("config")).getPath());
+
+		JSONArray files = new JSONArray();
+		int iterations = Math.max(1, args.getInt("iterations"));
+		for (String fileName : validationFiles(configData)) {
+			files.add(measureCompile(fileName, iterations));
+		}
+		report.put("validation_files", files);
+
+		int runs = args.getInt("runs");
+		if (runs > 0) {
+			JSONArray startup = new JSONArray();
+			startup.add(measureStartup(false, runs));
+			startup.add(measureStartup(true, runs));
+			report.put("startup", startup);
+		}
+
+		String output = args.getString("output_format").equals("json") ? report.toJSONString()
+				: textReport(report);
+		String outputFile = args.getString("output_file");
+		if (outputFile != null) {
+			try (Writer writer = new FileWriter(outputFile)) {
+				writer.write(output);
+			}
+		} else {
+			System.out.println(output);
+		}
+	}
+
+	/**
+	 * Parse the command-line arguments and run the benchmark
+	 */
+	public static void main(String[] argv) throws Exception {
+		if (System.getProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY) == null) {
+			System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "off");
+		}
+		new StartupBenchmark(argv).run();
+		// The server and client threads of a child may keep the JVM alive
+		System.exit(0);
+	}
+}
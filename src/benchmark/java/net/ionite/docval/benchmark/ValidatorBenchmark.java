@@ -0,0 +1,84 @@
+package net.ionite.docval.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.validator.SCHValidator;
+import net.ionite.docval.validation.validator.XSDValidator;
+import net.ionite.docval.validation.validator.XSLTValidator;
+
+/**
+ * Benchmarks a single validation with each of the validator implementations.
+ * The validators are compiled once; only the validation itself is measured.
+ *
+ * @author Ionite
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+	private XSDValidator xsdValidator;
+	private XSLTValidator xsltValidator;
+	private SCHValidator schValidator;
+
+	private byte[] shiporder;
+	private byte[] shiporderInvalid;
+	private byte[] siUbl;
+	private byte[] siUblInvalid;
+
+	@Setup
+	public void setUp() {
+		xsdValidator = new XSDValidator(BenchmarkData.path("xsd/shiporder_good.xsd"));
+		xsltValidator = new XSLTValidator(BenchmarkData.path("xslt/si-ubl-2.0.xsl"));
+		schValidator = new SCHValidator(BenchmarkData.path("sch/shiporder_good.sch"));
+
+		shiporder = BenchmarkData.read("xml/shiporder_good.xml");
+		shiporderInvalid = BenchmarkData.read("xml/shiporder_bad_sch1.xml");
+		siUbl = BenchmarkData.read("xml/SI-UBL-2.0_ok_minimal.xml");
+		siUblInvalid = BenchmarkData.read("xml/SI-UBL-2.0_BR-NL-5_error_no_streetname.xml");
+	}
+
+	@Benchmark
+	public ValidationResult xsdValid() {
+		return xsdValidator.validate(shiporder);
+	}
+
+	@Benchmark
+	public ValidationResult xsdInvalid() {
+		return xsdValidator.validate(shiporderInvalid);
+	}
+
+	@Benchmark
+	public ValidationResult xsltValid() {
+		return xsltValidator.validate(siUbl);
+	}
+
+	@Benchmark
+	public ValidationResult xsltInvalid() {
+		return xsltValidator.validate(siUblInvalid);
+	}
+
+	@Benchmark
+	public ValidationResult schValid() {
+		return schValidator.validate(shiporder);
+	}
+
+	@Benchmark
+	public ValidationResult schInvalid() {
+		return schValidator.validate(shiporderInvalid);
+	}
+}
@@ -0,0 +1,115 @@
+package net.ionite.docval.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ionite.docval.config.ConfigData;
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidatorManager;
+import net.ionite.docval.xml.KeywordDeriver;
+
+/**
+ * Measures how the throughput of a single, shared ValidatorManager scales with
+ * the number of threads validating at the same time. The same benchmarks are
+ * run with 1, 2, 4 and 8 threads, and with as many threads as there are
+ * processors; ideally, throughput grows linearly up to the number of cores.
+ *
+ * Each validation derives the keyword from the document, and runs all
+ * validators configured for it, as the server does.
+ *
+ * @author Ionite
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidatorManagerBenchmark {
+	private ValidatorManager validatorManager;
+	private byte[] siUbl;
+	private byte[] shiporder;
+
+	@Setup
+	public void setUp() {
+		validatorManager = new ValidatorManager();
+		validatorManager.setUnknownKeywords(ConfigData.UnknownKeywords.FAIL);
+		siUbl = BenchmarkData.read("xml/SI-UBL-2.0_ok_minimal.xml");
+		shiporder = BenchmarkData.read("xml/shiporder_good.xml");
+
+		validatorManager.addValidator(new KeywordDeriver().deriveKeyword(siUbl),
+				BenchmarkData.path("xslt/si-ubl-2.0.xsl"), false);
+		validatorManager.addValidator("shiporder", BenchmarkData.path("xsd/shiporder_good.xsd"), false);
+		validatorManager.addValidator("shiporder", BenchmarkData.path("sch/shiporder_good.sch"), false);
+		// Make sure the validators are loaded before measuring
+		validatorManager.validate(null, siUbl);
+		validatorManager.validate("shiporder", shiporder);
+	}
+
+	private ValidationResult validateSiUbl() {
+		return validatorManager.validate(null, siUbl);
+	}
+
+	private ValidationResult validateShiporder() {
+		return validatorManager.validate("shiporder", shiporder);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public ValidationResult xsltThreads1() {
+		return validateSiUbl();
+	}
+
+	@Benchmark
+	@Threads(2)
+	public ValidationResult xsltThreads2() {
+		return validateSiUbl();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ValidationResult xsltThreads4() {
+		return validateSiUbl();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public ValidationResult xsltThreads8() {
+		return validateSiUbl();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ValidationResult xsltThreadsMax() {
+		return validateSiUbl();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public ValidationResult xsdSchThreads1() {
+		return validateShiporder();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ValidationResult xsdSchThreads4() {
+		return validateShiporder();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ValidationResult xsdSchThreadsMax() {
+		return validateShiporder();
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * JMH microbenchmarks for the validation engines and result serialization,
+ * and stand-alone benchmarks for startup time and for scaling with document
+ * size. These are only built with the 'benchmark' Maven profile.
+ *
+ * @author Ionite
+ */
+package net.ionite.docval.benchmark;
@@ -1,20 +1,46 @@
 package net.ionite.docval.commandline;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.simple.SimpleLogger;
 
 import net.ionite.docval.config.ConfigReader;
 import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.validation.AggregatedResultItem;
 import net.ionite.docval.validation.ValidationResult;
 import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidationTimings;
 import net.ionite.docval.validation.ValidatorException;
 import net.ionite.docval.validation.ValidatorManager;
+import net.ionite.docval.validation.result.LocationPath;
+import net.ionite.docval.validation.validator.SCHValidator;
 import net.ionite.docval.xml.KeywordDeriver;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sourceforge.argparse4j.ArgumentParsers;
@@ -25,73 +51,212 @@ import net.sourceforge.argparse4j.inf.Namespace;
 
 /**
  * Stand-alone command-line validation tool.
- * 
+ *
  * This is a complete validation tool that can be run from the command-line. It
- * accepts a single document to validate, and multiple XSD, SCH or SVRL (XSLT)
- * files to validate the document against. <br />
+ * accepts one or more documents to validate, and multiple XSD, SCH or SVRL
+ * (XSLT) files to validate the documents against. <br />
  * <br />
  * Prints information about the validation results depending on the given
  * output-format value.<br />
  * <br />
+ * Documents can be given as files, directories (which are searched
+ * recursively for files matching the --pattern option), or glob patterns such
+ * as <code>data/**&#47;*.xml</code>. When more than one document is given, they
+ * are validated in batch mode: the validation files are compiled once, and the
+ * documents are validated in parallel (see --threads). The results are printed
+ * in the order of the documents.<br />
+ * <br />
+ * In worker mode (--worker), the tool reads validation requests from stdin,
+ * and writes the results to stdout, until stdin is closed. Every request is a
+ * single line of JSON, with the document to validate in one of the fields
+ * <code>file</code> (a file name), <code>document</code> (the XML document as
+ * a string) or <code>document_base64</code> (the base64-encoded document), and
+ * optionally an <code>id</code> (any JSON value), <code>keyword</code>,
+ * <code>timings</code> (boolean), <code>sbdh</code> (boolean),
+ * <code>aggregate</code> (boolean) and <code>detail</code> (full, summary or
+ * counts). Requests
+ * are handled in parallel; every result is written as soon as it is ready, as
+ * a single line of JSON with the validation result and the <code>id</code> of
+ * the request, or, if the document could not be validated, the
+ * <code>id</code> and a <code>failure</code> message. The validation files
+ * are compiled once, and stay loaded for all requests.<br />
+ * <br />
+ * Converting Schematron (.sch) files to stylesheets is slow; with --sch-cache,
+ * the converted stylesheets are stored in the given directory, and reused by
+ * later runs.<br />
+ * <br />
+ * With --sbdh, documents that are wrapped in a Standard Business Document
+ * Header (SBDH) are unwrapped, and their payload is validated; the keyword is
+ * taken from the header, or derived from the payload.<br />
+ * <br />
+ * With --aggregate, errors and warnings are grouped by the test that failed:
+ * every failed test is reported once, with the number of failures and the
+ * locations of the first few (see --max-locations).<br />
+ * <br />
+ * With --detail summary or --detail counts, errors and warnings are only
+ * counted, which is cheaper than collecting them; the output then contains
+ * the counts (and, for summary, the other information about the result), but
+ * no errors and warnings.<br />
+ * <br />
  * Instead of validating a document, the command line tool can also print the
  * value of the derived keyword for the given document file. See
  * {@link net.ionite.docval.xml.KeywordDeriver} for more information about
  * derived keywords.<br />
  * <br />
  * Return code is the number of errors encountered, or a negative value if the
- * validation could not be performed.<br />
+ * validation could not be performed. In batch mode, the return code is the
+ * number of documents that have errors or could not be validated, up to a
+ * maximum of 125.<br />
  *
  * @author Ionite
  */
 public class CommandLineValidator {
-	private static void printResultItem(String itemType, ValidationResultItem item, boolean showDetails) {
-		System.out.println(itemType + ": " + item.message);
+	/** The highest return code in batch mode, so that it is not seen as a signal */
+	private static final int MAX_BATCH_RETURN_CODE = 125;
+
+	private static void printResultItem(PrintStream out, String itemType, ValidationResultItem item,
+			boolean showDetails) {
+		AggregatedResultItem aggregate = item instanceof AggregatedResultItem ? (AggregatedResultItem) item : null;
+		if (aggregate != null) {
+			out.println(itemType + " (" + aggregate.getCount() + "x): " + item.getMessage());
+		} else {
+			out.println(itemType + ": " + item.getMessage());
+		}
 
 		if (showDetails) {
-			System.out.println("    Test: " + item.test);
-			if (item.location != null) {
-				System.out.println("    Location: " + item.location);
+			out.println("    Test: " + item.getTest());
+			if (aggregate != null) {
+				for (LocationPath location : aggregate.getLocations()) {
+					out.println("    Location: " + location);
+				}
+			} else if (item.getLocation() != null) {
+				out.println("    Location: " + item.getLocation());
 			}
-			if (item.line != null) {
-				System.out.println("    Location: " + item.line);
+			if (item.getLine() != null) {
+				out.println("    Location: " + item.getLine());
 			}
-			if (item.column != null) {
-				System.out.println("    Location: " + item.column);
+			if (item.getColumn() != null) {
+				out.println("    Location: " + item.getColumn());
 			}
-			System.out.println("");
+			out.println("");
+		}
+	}
+
+	private static String formatMillis(long nanos) {
+		return String.format("%.3f ms", nanos / 1000000.0);
+	}
+
+	private static void printTimings(PrintStream out, ValidationTimings timings) {
+		out.println("Timings:");
+		if (timings.getReadNanos() != null) {
+			out.println("    Read: " + formatMillis(timings.getReadNanos()));
+		}
+		if (timings.getKeywordDerivationNanos() != null) {
+			out.println("    Keyword derivation: " + formatMillis(timings.getKeywordDerivationNanos()));
+		}
+		for (ValidationTimings.ValidatorTiming timing : timings.getValidators()) {
+			out.println("    " + timing.type + " " + timing.file + ": " + formatMillis(timing.nanos));
 		}
+		out.println("    Total: " + formatMillis(timings.getTotalNanos()));
+		out.println("");
+	}
+
+	/**
+	 * The outcome of the validation of a single document: either a result, or
+	 * the reason it could not be validated
+	 */
+	private static class DocumentResult {
+		String file;
+		String keyword;
+		ValidationResult result;
+		String failure;
+	}
+
+	/** Totals over the documents of a batch */
+	private static class BatchTotals {
+		long documents;
+		long documentsWithErrors;
+		long failed;
+		long errors;
+		long warnings;
 	}
 
 	private Namespace args;
 	private ArgumentParser parser;
+	private PrintStream out = System.out;
+	private InputStream in = System.in;
+	private ValidatorManager validatorManager;
+	/** Keywords for which the --schemafile validators have been added */
+	private ConcurrentHashMap<String, Boolean> schemaFileKeywords = new ConcurrentHashMap<String, Boolean>();
 
 	/**
 	 * Construct an CommandLineValidator with the given command-line arguments
-	 * 
+	 *
 	 * @param argv String-array containing the command-line arguments
 	 */
 	public CommandLineValidator(String[] argv) {
 		parseArguments(argv);
 	}
 
+	/**
+	 * Set the stream to print the results to (default System.out)
+	 *
+	 * @param out The stream to print the results to
+	 */
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Set the stream to read worker requests from (default System.in)
+	 *
+	 * @param in The stream to read worker requests from
+	 */
+	public void setInput(InputStream in) {
+		this.in = in;
+	}
+
 	private void parseArguments(String[] argv) {
 		parser = ArgumentParsers.newFor("ion-docval-command-line").addHelp(true).build()
-				.description("Validate a document given any number of XSD or Schematron XSLT files");
+				.description("Validate documents given any number of XSD or Schematron XSLT files");
 		parser.addArgument("-c", "--config").help("Use configuration file with schema/schematron definitions");
-		parser.addArgument("-o", "--output-format").setDefault("text")
-				.help("Output format, one of: short, text, details (default), none, json, xml");
+		parser.addArgument("-o", "--output-format").setDefault("text").help(
+				"Output format, one of: short, text (default), details, none, json, xml; for multiple documents also jsonl (one JSON object per document) or summary (totals, and the documents with errors or warnings)");
 		parser.addArgument("-d", "--derive-keyword").action(Arguments.storeConst()).setConst(true).setDefault(false)
 				.help("Do not validate the file, but print the derived keyword");
 		parser.addArgument("-v", "--verbose").action(Arguments.storeConst()).setConst(true).setDefault(false)
 				.help("Print verbose debug output");
 		parser.addArgument("-V", "--version").action(Arguments.storeConst()).setConst(true).setDefault(false)
 				.help("Print the software version and exit");
+		parser.addArgument("-t", "--timings").action(Arguments.storeConst()).setConst(true).setDefault(false)
+				.help("Include the time spent in each validation stage in the output");
 		parser.addArgument("-k", "--keyword")
 				.help("Use the given keyword to select the correct validation when using a config file");
+		parser.addArgument("-j", "--threads").type(Integer.class)
+				.setDefault(Runtime.getRuntime().availableProcessors())
+				.help("Number of documents to validate in parallel (default: the number of processors)");
+		parser.addArgument("-p", "--pattern").setDefault("*.xml")
+				.help("File name pattern of the documents to validate in directories (default *.xml)");
 
 		parser.addArgument("-s", "--schemafile").action(Arguments.append())
 				.help("Validation file XML Schema or Schematron XSLT file. Can be specified multiple times.");
-		parser.addArgument("document-file").help("XML Document to validate");
+		parser.addArgument("--sch-cache").setDefault(System.getenv("ION_DOCVAL_SCH_CACHE")).help(
+				"Directory to cache the stylesheets converted from Schematron (.sch) files in, so that later runs do not need to convert them again (default: the ION_DOCVAL_SCH_CACHE environment variable, if set)");
+		parser.addArgument("--max-items").type(Integer.class).help(
+				"Stop validating a document after this many errors and warnings, and mark the result as truncated (default: the MaxResultItems option of the configuration, or no limit)");
+		parser.addArgument("--aggregate").action(Arguments.storeConst()).setConst(true).setDefault(false).help(
+				"Group errors and warnings by the test that failed, with the number of failures and the first locations of each");
+		parser.addArgument("--max-locations").type(Integer.class).setDefault(ValidationResult.DEFAULT_MAX_LOCATIONS)
+				.help("The number of locations to show for each failed test with --aggregate (default "
+						+ ValidationResult.DEFAULT_MAX_LOCATIONS + ")");
+		parser.addArgument("--detail").choices("full", "summary", "counts").setDefault("full").help(
+				"The amount of detail in the result: full (default), summary (no errors and warnings, only their counts and the other information about the result) or counts (only the error and warning counts)");
+		parser.addArgument("--sbdh").action(Arguments.storeConst()).setConst(true).setDefault(false).help(
+				"Unwrap documents in a Standard Business Document Header (SBDH) envelope, and validate (or derive the keyword of) the payload");
+		parser.addArgument("-w", "--worker").action(Arguments.storeConst()).setConst(true).setDefault(false)
+				.help("Run as a worker: read validation requests from stdin and write the results to stdout, as lines of JSON");
+		parser.addArgument("document-file").nargs("*")
+				.help("XML document to validate, directory with documents, or glob pattern. Can be specified multiple times.");
 		try {
 			args = parser.parseArgs(argv);
 		} catch (ArgumentParserException e) {
@@ -100,15 +265,461 @@ public class CommandLineValidator {
 		}
 	}
 
+	private static boolean isGlob(String argument) {
+		return argument.indexOf('*') >= 0 || argument.indexOf('?') >= 0 || argument.indexOf('[') >= 0
+				|| argument.indexOf('{') >= 0;
+	}
+
+	/*
+	 * Returns the files matching the given glob pattern; the directory part
+	 * before the first wildcard is searched recursively
+	 */
+	private static List<Path> expandGlob(String pattern) throws IOException {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		Path base = Paths.get(pattern).getRoot();
+		for (Path element : Paths.get(pattern)) {
+			if (isGlob(element.toString())) {
+				break;
+			}
+			base = base == null ? element : base.resolve(element);
+		}
+		if (base == null) {
+			base = Paths.get("");
+		}
+		if (!Files.isDirectory(base)) {
+			return new ArrayList<Path>();
+		}
+		try (Stream<Path> paths = Files.walk(base)) {
+			return paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * Expand the document-file arguments to the list of files to validate
+	 */
+	private List<Path> collectDocuments(List<String> arguments) throws IOException {
+		ArrayList<Path> documents = new ArrayList<Path>();
+		PathMatcher nameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + args.getString("pattern"));
+		for (String argument : arguments) {
+			Path path = Paths.get(argument);
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> paths = Files.walk(path)) {
+					paths.filter(p -> Files.isRegularFile(p) && nameMatcher.matches(p.getFileName())).sorted()
+							.forEach(documents::add);
+				}
+			} else if (!Files.exists(path) && isGlob(argument)) {
+				List<Path> matches = expandGlob(argument);
+				if (matches.isEmpty()) {
+					throw new IOException("No files match " + argument);
+				}
+				documents.addAll(matches);
+			} else {
+				documents.add(path);
+			}
+		}
+		return documents;
+	}
+
+	/*
+	 * Make sure the validation files given with --schemafile are used for the
+	 * given keyword. This blocks other threads that use the same keyword until
+	 * the validators have been added.
+	 */
+	private void addSchemaFiles(String keyword) {
+		ArrayList<String> sfiles = args.get("schemafile");
+		if (sfiles == null || keyword == null) {
+			return;
+		}
+		schemaFileKeywords.computeIfAbsent(keyword, kw -> {
+			for (String validationFile : sfiles) {
+				validatorManager.addValidator(kw, validationFile, false);
+			}
+			return Boolean.TRUE;
+		});
+	}
+
+	/*
+	 * Read, and validate, a single document. The file is read only once; the
+	 * keyword (if not given) is derived from the data that was read.
+	 */
+	private DocumentResult validateDocument(Path documentFile, boolean timings) throws IOException {
+		long readStart = System.nanoTime();
+		byte[] document = Files.readAllBytes(documentFile);
+		long readNanos = System.nanoTime() - readStart;
+		return validateDocument(documentFile.toString(), document, readNanos, args.get("keyword"), timings,
+				validatorManager.getUnwrapSBDH(), args.getBoolean("aggregate"), args.getString("detail"));
+	}
+
+	/*
+	 * Validate a document that has already been read. The keyword is derived
+	 * from the document if it is null. If sbdh is true, the payload of an SBDH
+	 * document is validated. If aggregate is true, the errors and warnings are
+	 * grouped by test. The detail is one of full, summary or counts.
+	 */
+	private DocumentResult validateDocument(String file, byte[] document, Long readNanos, String keyword,
+			boolean timings, boolean sbdh, boolean aggregate, String detail) {
+		DocumentResult documentResult = new DocumentResult();
+		documentResult.file = file;
+
+		Long keywordDerivationNanos = null;
+		if (keyword == null) {
+			long start = System.nanoTime();
+			KeywordDeriver keywordDeriver = new KeywordDeriver();
+			keywordDeriver.setUnwrapSBDH(sbdh);
+			keyword = keywordDeriver.deriveKeyword(document);
+			keywordDerivationNanos = System.nanoTime() - start;
+		}
+		documentResult.keyword = keyword;
+		addSchemaFiles(keyword);
+
+		ValidationResult result = new ValidationResult();
+		result.setAggregated(aggregate);
+		result.setMaxLocations(args.getInt("max_locations"));
+		result.setDetail(ValidationResult.Detail.valueOf(detail.toUpperCase()));
+		validatorManager.validate(keyword, document, timings, sbdh, result);
+		if (timings) {
+			result.getTimings().setReadNanos(readNanos);
+			if (keywordDerivationNanos != null) {
+				// The keyword was derived here rather than by the manager
+				result.getTimings().setKeywordDerivationNanos(keywordDerivationNanos);
+			}
+		}
+		documentResult.result = result;
+		return documentResult;
+	}
+
+	private void printResult(ValidationResult result, String format, boolean timings) {
+		switch (format) {
+		case "text":
+		case "details":
+			out.println("Errors: " + result.errorCount());
+			out.println("Warnings: " + result.warningCount());
+			if (result.isTruncated()) {
+				out.println("Truncated: the maximum number of errors and warnings was reached");
+			}
+			out.println("");
+			if (result.errorCount() > 0 || result.warningCount() > 0) {
+				for (ValidationResultItem item : result.getErrors()) {
+					printResultItem(out, "Error", item, format.equals("details"));
+				}
+				for (ValidationResultItem item : result.getWarnings()) {
+					printResultItem(out, "Warning", item, format.equals("details"));
+				}
+				out.println("");
+			}
+			if (!result.getSkippedValidators().isEmpty()) {
+				out.println("Skipped after errors:");
+				for (String validationFile : result.getSkippedValidators()) {
+					out.println("    " + validationFile);
+				}
+				out.println("");
+			}
+			if (timings) {
+				printTimings(out, result.getTimings());
+			}
+			break;
+		case "short":
+			out.println("Errors: " + result.errorCount());
+			out.println("Warnings: " + result.warningCount());
+			if (timings) {
+				printTimings(out, result.getTimings());
+			}
+			break;
+		case "none":
+			break;
+		case "xml":
+			try {
+				out.println(result.toXMLString());
+			} catch (SaxonApiException saxError) {
+				saxError.printStackTrace();
+				out.println("<Error><Detail>Unable to convert validation results to XML</Detail></Error>");
+			}
+			break;
+		case "json":
+		case "jsonl":
+			out.println(result.toJSONString());
+			break;
+		default:
+			out.println("Unknown output format: " + format);
+		}
+	}
+
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private void printBatchResult(DocumentResult documentResult, String format, boolean timings) {
+		switch (format) {
+		case "json":
+		case "jsonl":
+			JSONObject json = documentResult.result != null ? documentResult.result.toJSON() : new JSONObject();
+			json.put("file", documentResult.file);
+			if (documentResult.keyword != null) {
+				json.put("keyword", documentResult.keyword);
+			}
+			if (documentResult.failure != null) {
+				json.put("failure", documentResult.failure);
+			}
+			out.println(json.toJSONString());
+			break;
+		case "summary":
+			if (documentResult.failure != null) {
+				out.println(String.format("%8s %8s  %s: %s", "-", "-", documentResult.file, documentResult.failure));
+			} else if (documentResult.result.errorCount() > 0 || documentResult.result.warningCount() > 0) {
+				out.println(String.format("%8d %8d  %s", documentResult.result.errorCount(),
+						documentResult.result.warningCount(), documentResult.file));
+			}
+			break;
+		case "none":
+			break;
+		default:
+			out.println("File: " + documentResult.file);
+			if (documentResult.failure != null) {
+				out.println("Error: " + documentResult.failure);
+				out.println("");
+			} else {
+				printResult(documentResult.result, format, timings);
+				if (format.equals("short")) {
+					out.println("");
+				}
+			}
+		}
+	}
+
+	private static String failureMessage(Throwable error) {
+		// The messages of ValidatorExceptions already include the cause
+		if (error instanceof ValidatorException && error.getMessage() != null) {
+			return error.getMessage();
+		}
+		return error.toString();
+	}
+
+	/*
+	 * Validate a single document in batch mode; errors are recorded in the
+	 * result, so that they do not stop the validation of the other documents
+	 */
+	private DocumentResult validateBatchDocument(Path documentFile, boolean timings) {
+		try {
+			return validateDocument(documentFile, timings);
+		} catch (IOException | RuntimeException error) {
+			DocumentResult documentResult = new DocumentResult();
+			documentResult.file = documentFile.toString();
+			documentResult.failure = failureMessage(error);
+			return documentResult;
+		}
+	}
+
+	/*
+	 * Validate the given documents in parallel, and print the results in the
+	 * order of the documents. Only a limited number of results is kept in
+	 * memory at any time.
+	 */
+	private int runBatch(List<Path> documents, String format, boolean timings) {
+		int threads = Math.max(1, args.getInt("threads"));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ion-docval-batch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ArrayDeque<Future<DocumentResult>> pending = new ArrayDeque<Future<DocumentResult>>();
+		int window = threads * 4;
+		BatchTotals totals = new BatchTotals();
+		if (format.equals("summary")) {
+			out.println(String.format("%8s %8s  %s", "Errors", "Warnings", "File"));
+		}
+		try {
+			for (Path document : documents) {
+				if (pending.size() >= window) {
+					finishBatchResult(pending.poll(), format, timings, totals);
+				}
+				pending.add(executor.submit(() -> validateBatchDocument(document, timings)));
+			}
+			while (!pending.isEmpty()) {
+				finishBatchResult(pending.poll(), format, timings, totals);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (format.equals("summary")) {
+			out.println("");
+			out.println("Documents: " + totals.documents);
+			out.println("Documents with errors: " + totals.documentsWithErrors);
+			out.println("Documents that could not be validated: " + totals.failed);
+			out.println("Errors: " + totals.errors);
+			out.println("Warnings: " + totals.warnings);
+		}
+		return (int) Math.min(totals.documentsWithErrors + totals.failed, MAX_BATCH_RETURN_CODE);
+	}
+
+	/*
+	 * Wait for the given document result, print it, and add it to the totals
+	 */
+	private void finishBatchResult(Future<DocumentResult> future, String format, boolean timings,
+			BatchTotals totals) {
+		DocumentResult documentResult;
+		try {
+			documentResult = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ValidatorException("Interrupted while waiting for validation", e);
+		} catch (ExecutionException e) {
+			// validateBatchDocument() catches all exceptions but Errors
+			throw new ValidatorException("Validation failed", e.getCause());
+		}
+		totals.documents++;
+		if (documentResult.failure != null) {
+			totals.failed++;
+		} else {
+			if (documentResult.result.errorCount() > 0) {
+				totals.documentsWithErrors++;
+			}
+			totals.errors += documentResult.result.errorCount();
+			totals.warnings += documentResult.result.warningCount();
+		}
+		printBatchResult(documentResult, format, timings);
+	}
+
+	/*
+	 * Handle a single worker request, and return the response
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private JSONObject handleWorkerRequest(JSONObject request) {
+		DocumentResult documentResult;
+		try {
+			String keyword = (String) request.get("keyword");
+			if (keyword == null) {
+				keyword = args.get("keyword");
+			}
+			boolean timings = args.getBoolean("timings");
+			if (request.get("timings") != null) {
+				timings = Boolean.TRUE.equals(request.get("timings"));
+			}
+			boolean sbdh = validatorManager.getUnwrapSBDH();
+			if (request.get("sbdh") != null) {
+				sbdh = Boolean.TRUE.equals(request.get("sbdh"));
+			}
+			boolean aggregate = args.getBoolean("aggregate");
+			if (request.get("aggregate") != null) {
+				aggregate = Boolean.TRUE.equals(request.get("aggregate"));
+			}
+			String detail = args.getString("detail");
+			if (request.get("detail") != null) {
+				detail = (String) request.get("detail");
+				if (!detail.equals("full") && !detail.equals("summary") && !detail.equals("counts")) {
+					throw new ValidatorException("Bad value for detail: " + detail);
+				}
+			}
+			if (request.get("file") != null) {
+				String file = (String) request.get("file");
+				long readStart = System.nanoTime();
+				byte[] document = Files.readAllBytes(Paths.get(file));
+				documentResult = validateDocument(file, document, System.nanoTime() - readStart, keyword, timings,
+						sbdh, aggregate, detail);
+			} else if (request.get("document") != null) {
+				byte[] document = ((String) request.get("document")).getBytes(StandardCharsets.UTF_8);
+				documentResult = validateDocument(null, document, null, keyword, timings, sbdh, aggregate, detail);
+			} else if (request.get("document_base64") != null) {
+				byte[] document = Base64.getDecoder().decode((String) request.get("document_base64"));
+				documentResult = validateDocument(null, document, null, keyword, timings, sbdh, aggregate, detail);
+			} else {
+				throw new ValidatorException("Request has no file, document or document_base64 field");
+			}
+		} catch (IOException | RuntimeException error) {
+			documentResult = new DocumentResult();
+			documentResult.failure = failureMessage(error);
+		}
+		JSONObject response = documentResult.result != null ? documentResult.result.toJSON() : new JSONObject();
+		response.put("id", request.get("id"));
+		if (documentResult.file != null) {
+			response.put("file", documentResult.file);
+		}
+		if (documentResult.keyword != null) {
+			response.put("keyword", documentResult.keyword);
+		}
+		if (documentResult.failure != null) {
+			response.put("failure", documentResult.failure);
+		}
+		return response;
+	}
+
+	private void writeWorkerResponse(PrintStream output, JSONObject response) {
+		String line = response.toJSONString();
+		synchronized (output) {
+			output.println(line);
+			output.flush();
+		}
+	}
+
+	/*
+	 * Read requests from the input until it is closed, and validate them in
+	 * parallel. Only a limited number of requests is read ahead.
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private int runWorker() throws IOException {
+		int threads = Math.max(1, args.getInt("threads"));
+		PrintStream output = out;
+		if (output == System.out) {
+			// JSON is written as UTF-8, regardless of the platform encoding
+			try {
+				output = new PrintStream(System.out, false, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		final PrintStream responseOutput = output;
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ion-docval-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		int window = threads * 4;
+		Semaphore outstanding = new Semaphore(window);
+		JSONParser jsonParser = new JSONParser();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				JSONObject request;
+				try {
+					request = (JSONObject) jsonParser.parse(line);
+				} catch (ParseException | ClassCastException error) {
+					JSONObject response = new JSONObject();
+					response.put("id", null);
+					response.put("failure", "Request is not a JSON object: " + error.toString());
+					writeWorkerResponse(responseOutput, response);
+					continue;
+				}
+				outstanding.acquireUninterruptibly();
+				executor.submit(() -> {
+					try {
+						writeWorkerResponse(responseOutput, handleWorkerRequest(request));
+					} finally {
+						outstanding.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				// Wait for the outstanding requests
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * Execute the validation
-	 * 
+	 *
 	 * @return The number of errors found by the validation, or a negative number if
 	 *         the validation could not be performed.
 	 */
 	public int run() {
 		if ((Boolean) args.get("version")) {
-			System.out.println(this.getClass().getPackage().getImplementationVersion());
+			out.println(this.getClass().getPackage().getImplementationVersion());
 			System.exit(0);
 		}
 		if ((Boolean) args.get("verbose")) {
@@ -117,48 +728,81 @@ public class CommandLineValidator {
 			System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "OFF");
 		}
 
-		ValidatorManager validatorManager = new ValidatorManager();
-		String documentFile = args.get("document_file");
-		FileInputStream documentStream;
-		if (documentFile == null) {
-			System.err.println("Missing required argument: -f/--document-file");
+		boolean worker = args.getBoolean("worker");
+		List<String> documentArguments = args.getList("document_file");
+		if (worker && (!documentArguments.isEmpty() || args.getBoolean("derive_keyword"))) {
+			System.err.println("In worker mode, documents are read from stdin; no document-file arguments or -d allowed");
+			return -1;
+		}
+		if (!worker && documentArguments.isEmpty()) {
+			System.err.println("Missing required argument: document-file");
 			parser.printHelp();
 			return -1;
 		}
-
+		List<Path> documents;
 		try {
-			documentStream = new FileInputStream(documentFile);
-		} catch (FileNotFoundException fnfe) {
-			System.err.println(fnfe);
+			documents = collectDocuments(documentArguments);
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+			return -1;
+		}
+		if (!worker && documents.isEmpty()) {
+			System.err.println("No documents to validate");
 			return -1;
 		}
+		// Batch mode as soon as more than one document could be given
+		boolean batch = documents.size() > 1 || documentArguments.size() > 1
+				|| (!worker && !documents.get(0).toString().equals(documentArguments.get(0)));
 
 		if (args.getBoolean("derive_keyword")) {
-			KeywordDeriver kwd = new KeywordDeriver();
-			System.out.println(kwd.deriveKeyword(documentStream));
-			return 0;
+			KeywordDeriver keywordDeriver = new KeywordDeriver();
+			keywordDeriver.setUnwrapSBDH(args.getBoolean("sbdh"));
+			if (!batch) {
+				try {
+					out.println(keywordDeriver.deriveKeyword(Files.readAllBytes(documents.get(0))));
+				} catch (IOException ioe) {
+					System.err.println(ioe);
+					return -1;
+				}
+				return 0;
+			}
+			int failed = 0;
+			for (Path document : documents) {
+				try {
+					out.println(document + ": " + keywordDeriver.deriveKeyword(Files.readAllBytes(document)));
+				} catch (IOException | ValidatorException error) {
+					System.err.println(document + ": " + failureMessage(error));
+					failed++;
+				}
+			}
+			return Math.min(failed, MAX_BATCH_RETURN_CODE);
 		}
 
-		String keyword = args.get("keyword");
-		if (keyword == null) {
-			KeywordDeriver kwd = new KeywordDeriver();
-			keyword = kwd.deriveKeyword(documentStream);
+		if (args.get("sch_cache") != null) {
+			SCHValidator.setCacheDirectory(args.get("sch_cache"));
 		}
-
+		validatorManager = new ValidatorManager();
 		String configFile = args.get("config");
 		if (configFile != null) {
 			ConfigReader configReader = new ConfigReader(configFile);
 			try {
 				validatorManager.applyConfig(configReader.readConfig());
 			} catch (ConfigurationError configError) {
-				System.out.println(configError.getMessage());
+				out.println(configError.getMessage());
 				return -2;
 			} catch (IOException ioe) {
-				System.out.println(ioe.getMessage());
+				out.println(ioe.getMessage());
 				return -3;
 			}
 		}
 
+		if (args.getBoolean("sbdh")) {
+			validatorManager.setUnwrapSBDH(true);
+		}
+		if (args.get("max_items") != null) {
+			validatorManager.setMaxResultItems(args.getInt("max_items"));
+		}
+
 		ArrayList<String> sfiles = args.get("schemafile");
 		if ((sfiles == null || sfiles.size() < 1) && configFile == null) {
 			System.err.println("At least one schema/xsl file is required: -s/--schemafile or -c/--config");
@@ -166,58 +810,40 @@ public class CommandLineValidator {
 			return -1;
 		}
 		if (sfiles != null) {
+			// Compile the validation files once, before any document is validated
 			for (String validationFile : sfiles) {
-				validatorManager.addValidator(keyword, validationFile, false);
+				validatorManager.getValidator(validationFile);
 			}
 		}
 
-		ValidationResult result;
-		try {
-			result = validatorManager.validate(keyword, Files.readAllBytes(Paths.get(documentFile)));
-			String of = args.get("output_format");
-			if (of == null) {
-				of = "text";
-			}
-			switch (of) {
-			case "text":
-			case "details":
-				System.out.println("Errors: " + result.errorCount());
-				System.out.println("Warnings: " + result.warningCount());
-				System.out.println("");
-				if (result.errorCount() > 0 || result.warningCount() > 0) {
-					for (ValidationResultItem item : result.getErrors()) {
-						printResultItem("Error", item, args.getString("output_format").equals("details"));
-					}
-					for (ValidationResultItem item : result.getWarnings()) {
-						printResultItem("Warning", item, args.getString("output_format").equals("details"));
-					}
-					System.out.println("");
-				}
-				break;
-			case "short":
-				System.out.println("Errors: " + result.errorCount());
-				System.out.println("Warnings: " + result.warningCount());
-				break;
-			case "none":
-				break;
-			case "xml":
-				try {
-					System.out.println(result.toXMLString());
-				} catch (SaxonApiException saxError) {
-					saxError.printStackTrace();
-					System.out.println("<Error><Detail>Unable to convert validation results to XML</Detail></Error>");
-				}
-				break;
-			case "json":
-				System.out.println(result.toJSONString());
-				break;
-			default:
-				System.out.println("Unknown output format: " + args.get("output_format"));
+		if (worker) {
+			try {
+				return runWorker();
+			} catch (IOException ioe) {
+				System.err.println(ioe);
+				return -1;
 			}
+		}
+
+		boolean timings = args.getBoolean("timings");
+		String of = args.get("output_format");
+		if (of == null) {
+			of = "text";
+		}
+		if (batch) {
+			if (of.equals("xml")) {
+				System.err.println("XML output is not supported for multiple documents, use json, jsonl or summary");
+				return -1;
+			}
+			return runBatch(documents, of, timings);
+		}
+
+		try {
+			ValidationResult result = validateDocument(documents.get(0), timings).result;
+			printResult(result, of, timings);
 			return result.errorCount();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		} catch (IOException ioe) {
+			System.err.println(ioe);
 			return -1;
 		}
 	}
@@ -1,18 +1,19 @@
 
 package net.ionite.docval.config;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import net.sf.saxon.s9api.Processor;
+import net.ionite.docval.xml.XMLOutput;
 import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.Serializer;
-import net.sf.saxon.s9api.XdmNode;
-import net.sf.saxon.sapling.SaplingDocument;
-import net.sf.saxon.sapling.SaplingElement;
-import net.sf.saxon.sapling.Saplings;
 
 /**
  * Configuration data class, for the several components of ion-docval
@@ -35,6 +36,22 @@ public class ConfigData {
 		IGNORE
 	}
 
+	/**
+	 * Defines when the validation of a document stops before all validation
+	 * files of its document type have been run
+	 */
+	public enum FailFast {
+		/** Always run all validation files */
+		ALWAYS,
+		/**
+		 * Skip the remaining validation files if an XML Schema validation reported
+		 * errors
+		 */
+		STOP_ON_XSD_ERROR,
+		/** Skip the remaining validation files as soon as there are any errors */
+		STOP_ON_FIRST_ERROR
+	}
+
 	/**
 	 * If set to true, the ValidatorManager will automatically reload validation
 	 * files when they have changed on disk
@@ -50,6 +67,16 @@ public class ConfigData {
 	 * accessed though cursory checks (existence, read access) are performed
 	 */
 	public boolean lazyLoad = false;
+	/**
+	 * If set to true, documents that are wrapped in a Standard Business Document
+	 * Header are unwrapped, and their payload is validated
+	 */
+	public boolean unwrapSBDH = false;
+	/**
+	 * The maximum number of errors and warnings in a single validation result;
+	 * validation of a document stops when it is reached. 0 means no limit
+	 */
+	public int maxResultItems = 0;
 	/** Validation server configuration */
 	public Server server;
 
@@ -58,10 +85,27 @@ public class ConfigData {
 
 	/** Listen options for the server configuration */
 	public class Listen {
+		/** Protocol value for HTTP listeners */
+		public static final String HTTP = "http";
+		/** Protocol value for framed protocol listeners */
+		public static final String FRAMED = "framed";
+
 		/** The IP address to listen on */
 		public String address;
 		/** The port number to listen on */
 		public int port;
+		/** The protocol to use, HTTP (the default) or FRAMED */
+		public String protocol = HTTP;
+		/**
+		 * The path of a Unix domain socket to listen on instead of an address and
+		 * port; Unix domain sockets always use the FRAMED protocol
+		 */
+		public String path = null;
+		/**
+		 * The permissions of the Unix domain socket file, as an octal file mode such
+		 * as 660; null for the default
+		 */
+		public String permissions = null;
 
 		/**
 		 * Constructor for the Listen options
@@ -73,12 +117,62 @@ public class ConfigData {
 			this.address = address;
 			this.port = port;
 		}
+
+		/**
+		 * Constructor for the Listen options with a protocol
+		 * 
+		 * @param address  The IP address to listen on
+		 * @param port     The port number to listen on
+		 * @param protocol The protocol to use, HTTP or FRAMED
+		 */
+		public Listen(String address, int port, String protocol) {
+			this(address, port);
+			this.protocol = protocol;
+		}
 	}
 
 	/** Server configuration */
 	public class Server {
 		/** The listen options, one entry for each address/port combination */
 		public ArrayList<Listen> listen;
+		/**
+		 * Responses larger than this number of bytes are compressed, if the client
+		 * accepts compressed responses
+		 */
+		public int compressionThreshold = 1024;
+		/**
+		 * The maximum size in bytes of a compressed request body when it is
+		 * decoded
+		 */
+		public long maxDecodedRequestSize = 256L * 1024 * 1024;
+		/**
+		 * The maximum size in bytes of a document sent with the framed protocol
+		 */
+		public int maxFramedDocumentSize = 256 * 1024 * 1024;
+		/**
+		 * The maximum number of connections each framed protocol listener serves
+		 * at once
+		 */
+		public int maxFramedConnections = 256;
+		/**
+		 * The number of worker threads for parallel validation; 0 means the number
+		 * of available processors
+		 */
+		public int workerThreads = 0;
+		/**
+		 * The directory where asynchronous validation jobs are stored; if null, the
+		 * job API is disabled
+		 */
+		public String jobDirectory = null;
+		/** The number of threads that run asynchronous validation jobs */
+		public int jobThreads = 1;
+		/** The maximum number of asynchronous validation jobs that are not finished */
+		public int maxQueuedJobs = 100;
+		/**
+		 * The number of seconds finished asynchronous validation jobs are kept; 0
+		 * keeps them until they are deleted
+		 */
+		public long jobRetention = 24 * 60 * 60;
 
 		/**
 		 * Constructor for the Server options
@@ -121,6 +215,11 @@ public class ConfigData {
 		 * against
 		 */
 		public ArrayList<String> validationFiles;
+		/**
+		 * When to skip the remaining validation files of this document type, once
+		 * earlier ones have reported errors
+		 */
+		public FailFast failFast = FailFast.ALWAYS;
 
 		/**
 		 * Constructor for DocumentType options
@@ -161,19 +260,20 @@ public class ConfigData {
 		}
 
 		/**
-		 * Serialize this document type configuration as an XML Sapling
+		 * Write this document type configuration as an XML element to the given
+		 * writer
 		 * 
-		 * @return SaplingElement containing an XML representation of this document type
-		 *         configuration
+		 * @param writer The XMLStreamWriter to write the DocumentType element to
+		 * @throws XMLStreamException if the element cannot be written
 		 */
-		public SaplingElement toXMLSaplingElement() {
-			SaplingElement element = Saplings.elem("DocumentType").withChild(Saplings.elem("Name").withText(name));
+		public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+			writer.writeStartElement("DocumentType");
+			XMLOutput.writeTextElement(writer, "Name", name);
 			if (description != null && !"".equals(description)) {
-				element = element.withChild(Saplings.elem("Description").withText(description));
+				XMLOutput.writeTextElement(writer, "Description", description);
 			}
-			element = element.withChild(Saplings.elem("Keyword").withText(keyword));
-
-			return element;
+			XMLOutput.writeTextElement(writer, "Keyword", keyword);
+			writer.writeEndElement();
 		}
 	}
 
@@ -211,6 +311,29 @@ public class ConfigData {
 		return documentTypesAsJSON().toString();
 	}
 
+	/**
+	 * Write the document types configured in this ConfigData instance as XML to
+	 * the given output stream. The output stream is not closed.
+	 * 
+	 * @param outputStream The stream to write the (UTF-8 encoded) XML to
+	 * @throws SaxonApiException if there is an error writing the XML data
+	 */
+	public void writeDocumentTypesXML(OutputStream outputStream) throws SaxonApiException {
+		try {
+			XMLStreamWriter writer = XMLOutput.createWriter(outputStream);
+			writer.writeStartDocument();
+			writer.writeStartElement("DocumentTypes");
+			for (DocumentType docType : documentTypes) {
+				docType.writeXML(writer);
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException streamError) {
+			throw new SaxonApiException(streamError);
+		}
+	}
+
 	/**
 	 * Serialize the document types configured in this ConfigData instance as an XML
 	 * string
@@ -220,23 +343,8 @@ public class ConfigData {
 	 * @throws SaxonApiException if there is an error constructing the XML data
 	 */
 	public String documentTypesAsXMLString() throws SaxonApiException {
-		SaplingElement root = Saplings.elem("DocumentTypes");
-
-		for (DocumentType docType : documentTypes) {
-			root = root.withChild(docType.toXMLSaplingElement());
-		}
-
-		SaplingDocument doc = Saplings.doc().withChild(root);
-		Processor processor = new Processor(false); // False = does not required a feature from a licensed version of
-													// Saxon.
-		Serializer serializer = processor.newSerializer();
-		// Other properties found here:
-		// http://www.saxonica.com/html/documentation/javadoc/net/sf/saxon/s9api/Serializer.Property.html
-		serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "no");
-		serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
-		XdmNode xdmNode;
-		xdmNode = doc.toXdmNode(processor);
-		String result = serializer.serializeNodeToString(xdmNode);
-		return result;
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		writeDocumentTypesXML(outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
 	}
 }
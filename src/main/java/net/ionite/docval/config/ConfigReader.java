@@ -14,6 +14,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import net.ionite.docval.config.ConfigData.FailFast;
 import net.ionite.docval.config.ConfigData.UnknownKeywords;
 import net.ionite.docval.validation.ValidationResult;
 import net.ionite.docval.validation.ValidationResultItem;
@@ -36,6 +37,9 @@ public class ConfigReader {
 		private ConfigData.DocumentType _currentDocumentType;
 		private String _currentAddress = null;
 		private int _currentPort = 0;
+		private String _currentProtocol = ConfigData.Listen.HTTP;
+		private String _currentPath = null;
+		private String _currentPermissions = null;
 
 		@Override
 		public void characters(char ch[], int start, int length) {
@@ -52,6 +56,11 @@ public class ConfigReader {
 			case "DocumentType":
 				_currentDocumentType = configData.new DocumentType();
 				break;
+			case "Listen":
+				_currentProtocol = ConfigData.Listen.HTTP;
+				_currentPath = null;
+				_currentPermissions = null;
+				break;
 			case "Keyword":
 				break;
 			case "ValidationFile":
@@ -86,10 +95,19 @@ public class ConfigReader {
 			case "LazyLoad":
 				configData.lazyLoad = Boolean.parseBoolean(_currentValue.toString());
 				break;
+			case "UnwrapSBDH":
+				configData.unwrapSBDH = Boolean.parseBoolean(_currentValue.toString());
+				break;
+			case "MaxResultItems":
+				configData.maxResultItems = Integer.parseInt(_currentValue.toString());
+				break;
 			case "Server":
 				break;
 			case "Listen":
-				configData.server.listen.add(configData.new Listen(_currentAddress, _currentPort));
+				ConfigData.Listen listen = configData.new Listen(_currentAddress, _currentPort, _currentProtocol);
+				listen.path = _currentPath;
+				listen.permissions = _currentPermissions;
+				configData.server.listen.add(listen);
 				break;
 			case "Address":
 				_currentAddress = _currentValue.toString();
@@ -97,6 +115,42 @@ public class ConfigReader {
 			case "Port":
 				_currentPort = Integer.parseInt(_currentValue.toString());
 				break;
+			case "Protocol":
+				_currentProtocol = _currentValue.toString();
+				break;
+			case "Path":
+				_currentPath = _currentValue.toString();
+				break;
+			case "Permissions":
+				_currentPermissions = _currentValue.toString();
+				break;
+			case "CompressionThreshold":
+				configData.server.compressionThreshold = Integer.parseInt(_currentValue.toString());
+				break;
+			case "MaxDecodedRequestSize":
+				configData.server.maxDecodedRequestSize = Long.parseLong(_currentValue.toString());
+				break;
+			case "MaxFramedDocumentSize":
+				configData.server.maxFramedDocumentSize = Integer.parseInt(_currentValue.toString());
+				break;
+			case "MaxFramedConnections":
+				configData.server.maxFramedConnections = Integer.parseInt(_currentValue.toString());
+				break;
+			case "WorkerThreads":
+				configData.server.workerThreads = Integer.parseInt(_currentValue.toString());
+				break;
+			case "JobDirectory":
+				configData.server.jobDirectory = _currentValue.toString();
+				break;
+			case "JobThreads":
+				configData.server.jobThreads = Integer.parseInt(_currentValue.toString());
+				break;
+			case "MaxQueuedJobs":
+				configData.server.maxQueuedJobs = Integer.parseInt(_currentValue.toString());
+				break;
+			case "JobRetention":
+				configData.server.jobRetention = Long.parseLong(_currentValue.toString());
+				break;
 			case "DocumentType":
 				configData.documentTypes.add(_currentDocumentType);
 				break;
@@ -112,6 +166,19 @@ public class ConfigReader {
 			case "ValidationFile":
 				_currentDocumentType.validationFiles.add(_currentValue.toString());
 				break;
+			case "FailFast":
+				switch (_currentValue.toString().toLowerCase()) {
+				case "always":
+					_currentDocumentType.failFast = FailFast.ALWAYS;
+					break;
+				case "stop-on-xsd-error":
+					_currentDocumentType.failFast = FailFast.STOP_ON_XSD_ERROR;
+					break;
+				case "stop-on-first-error":
+					_currentDocumentType.failFast = FailFast.STOP_ON_FIRST_ERROR;
+					break;
+				}
+				break;
 			}
 		}
 	}
@@ -145,7 +212,7 @@ public class ConfigReader {
 			ValidationResult vr = configXMLValidator.validate(Files.readAllBytes(Paths.get(_fileName)));
 			for (ValidationResultItem item : vr.getWarnings()) {
 				// TODO log instead of print
-				System.err.println("Warning: " + item.message);
+				System.err.println("Warning: " + item.getMessage());
 			}
 			if (vr.errorCount() > 0) {
 				String errorMessage = "";
@@ -153,7 +220,7 @@ public class ConfigReader {
 					if (!errorMessage.equals("")) {
 						errorMessage += ", ";
 					}
-					errorMessage += item.message;
+					errorMessage += item.getMessage();
 				}
 				throw new ConfigurationError("Error in configuration file " + _fileName + ": " + errorMessage);
 			}
@@ -0,0 +1,113 @@
+package net.ionite.docval.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies and errors of the requests for one keyword.
+ *
+ * All latencies are kept, so percentiles are exact; at 8 bytes per request,
+ * this is no problem for the number of requests of a load test run.
+ *
+ * @author Ionite
+ */
+public class LatencyStats {
+	private long[] latencies = new long[1024];
+	private int count = 0;
+	private long errors = 0;
+
+	/**
+	 * Record the latency of a successful request
+	 *
+	 * @param nanos The latency in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+		latencies[count++] = nanos;
+	}
+
+	/**
+	 * Record a failed request
+	 */
+	public synchronized void recordError() {
+		errors++;
+	}
+
+	/**
+	 * Returns the number of successful requests
+	 *
+	 * @return The number of successful requests
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of failed requests
+	 *
+	 * @return The number of failed requests
+	 */
+	public synchronized long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the fraction of requests that failed
+	 *
+	 * @return The error rate, between 0 and 1
+	 */
+	public synchronized double getErrorRate() {
+		long total = count + errors;
+		return total == 0 ? 0.0 : (double) errors / total;
+	}
+
+	/**
+	 * Returns a sorted copy of the recorded latencies
+	 *
+	 * @return The latencies in nanoseconds, in increasing order
+	 */
+	public synchronized long[] getSortedLatencies() {
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Returns the given percentile of sorted latencies, using the nearest-rank
+	 * method
+	 *
+	 * @param sorted     The latencies, in increasing order
+	 * @param percentile The percentile, such as 99.9
+	 * @return The latency at the percentile, or 0 if there are no latencies
+	 */
+	public static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		// The small correction keeps rounding errors (such as 99.9 / 100 * 1000 =
+		// 999.0000000000001) from moving the rank up by one
+		int rank = (int) Math.ceil(percentile * sorted.length / 100.0 - 1e-9);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	/**
+	 * Add all latencies and errors of the given stats to these
+	 *
+	 * @param other The stats to add
+	 */
+	public void add(LatencyStats other) {
+		long[] otherLatencies;
+		long otherErrors;
+		synchronized (other) {
+			otherLatencies = Arrays.copyOf(other.latencies, other.count);
+			otherErrors = other.errors;
+		}
+		synchronized (this) {
+			for (long latency : otherLatencies) {
+				record(latency);
+			}
+			errors += otherErrors;
+		}
+	}
+}
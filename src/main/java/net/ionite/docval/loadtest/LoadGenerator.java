@@ -0,0 +1,374 @@
+package net.ionite.docval.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.ionite.docval.server.DocValHttpClient;
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidatorException;
+import net.ionite.docval.xml.KeywordDeriver;
+
+/**
+ * Sends documents to an ion-docval server at a given concurrency or rate, and
+ * records the latency of every request per keyword.
+ *
+ * There are two modes:
+ * <ul>
+ * <li>Closed loop (the default): a fixed number of concurrent clients each
+ * send a request as soon as their previous request has finished. This measures
+ * the maximum throughput at that concurrency.</li>
+ * <li>Open loop (when a rate is set): requests are started at a fixed rate,
+ * regardless of how many are still running. Latencies are measured from the
+ * time a request was scheduled to start, so a server that falls behind shows
+ * up in the latencies instead of silently lowering the request rate.</li>
+ * </ul>
+ *
+ * Documents are sent in round-robin order. Requests that fail (such as
+ * connection errors or non-200 responses) count as errors; documents with
+ * validation errors do not.
+ *
+ * @author Ionite
+ */
+public class LoadGenerator {
+	/** Label of documents without a keyword and from which none can be derived */
+	public static final String UNDERIVABLE = "(no keyword)";
+
+	/**
+	 * A document to send
+	 */
+	public static class Document {
+		/** The document name, such as the file name */
+		public final String name;
+		/** The keyword to send, or null to let the server derive it */
+		public final String keyword;
+		/** The keyword to report the latencies of this document under */
+		public final String label;
+		/** The document data */
+		public final byte[] data;
+
+		/**
+		 * Constructor
+		 *
+		 * @param name    The document name, such as the file name
+		 * @param keyword The keyword to send, or null to let the server derive it
+		 * @param label   The keyword to report the latencies of this document under
+		 * @param data    The document data
+		 */
+		public Document(String name, String keyword, String label, byte[] data) {
+			this.name = name;
+			this.keyword = keyword;
+			this.label = label;
+			this.data = data;
+		}
+	}
+
+	private Logger logger;
+	private DocValHttpClient client;
+	private ArrayList<Document> documents = new ArrayList<Document>();
+	private int concurrency = 1;
+	private double rate = 0;
+	private Duration duration = Duration.ofSeconds(30);
+	private Duration warmup = Duration.ofSeconds(5);
+	private long maxRequests = 0;
+
+	private ConcurrentHashMap<String, LatencyStats> stats;
+	private ConcurrentHashMap<String, LongAdder> errorMessages;
+	private AtomicLong issued;
+	private AtomicLong outstanding;
+	private volatile long lastCompletion;
+
+	/**
+	 * Construct a load generator that sends its requests with the given client
+	 *
+	 * @param client The client to send requests with
+	 */
+	public LoadGenerator(DocValHttpClient client) {
+		logger = LoggerFactory.getLogger(this.getClass().getName());
+		this.client = client;
+	}
+
+	/**
+	 * Add a document to send
+	 *
+	 * @param name    The name of the document
+	 * @param keyword The keyword to send, or null to let the server derive it.
+	 *                Latencies are reported per keyword; if null, the keyword is
+	 *                derived locally for reporting.
+	 * @param data    The document data
+	 */
+	public void addDocument(String name, String keyword, byte[] data) {
+		String label = keyword;
+		if (label == null) {
+			try {
+				label = new KeywordDeriver().deriveKeyword(data);
+			} catch (ValidatorException derivationError) {
+				label = UNDERIVABLE;
+			}
+		}
+		documents.add(new Document(name, keyword, label, data));
+	}
+
+	/**
+	 * Add all .xml files in the given directory and its subdirectories
+	 *
+	 * @param directory The directory to read the documents from
+	 * @param keyword   The keyword to send with each document, or null to let the
+	 *                  server derive it
+	 * @return The number of documents added
+	 * @throws IOException if the directory or a file cannot be read
+	 */
+	public int addDocuments(Path directory, String keyword) throws IOException {
+		ArrayList<Path> files;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			files = walk.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".xml"))
+					.sorted().collect(Collectors.toCollection(ArrayList::new));
+		}
+		for (Path file : files) {
+			addDocument(directory.relativize(file).toString(), keyword, Files.readAllBytes(file));
+		}
+		return files.size();
+	}
+
+	/**
+	 * Returns the documents that will be sent
+	 *
+	 * @return The list of documents
+	 */
+	public ArrayList<Document> getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Set the number of concurrent requests in closed-loop mode. Defaults to 1.
+	 *
+	 * @param concurrency The number of concurrent requests
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Set the number of requests to start per second. If set (larger than 0), the
+	 * generator runs in open-loop mode, and the concurrency setting is ignored.
+	 *
+	 * @param rate The number of requests per second, or 0 for closed-loop mode
+	 */
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Set how long to measure, after the warmup. Defaults to 30 seconds.
+	 *
+	 * @param duration The measurement duration
+	 */
+	public void setDuration(Duration duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * Set how long to send requests before measuring starts. Requests started
+	 * during the warmup are not included in the report. Defaults to 5 seconds.
+	 *
+	 * @param warmup The warmup duration
+	 */
+	public void setWarmup(Duration warmup) {
+		this.warmup = warmup;
+	}
+
+	/**
+	 * Set the maximum number of requests to send (including warmup requests); the
+	 * test stops when either this number or the duration is reached. Defaults to
+	 * 0, meaning no limit.
+	 *
+	 * @param maxRequests The maximum number of requests, or 0 for no limit
+	 */
+	public void setMaxRequests(long maxRequests) {
+		this.maxRequests = maxRequests;
+	}
+
+	private boolean mayIssue(long now, long end) {
+		if (now >= end) {
+			return false;
+		}
+		return maxRequests <= 0 || issued.incrementAndGet() <= maxRequests;
+	}
+
+	private void recordCompletion(Document document, long startTime, long measureFrom, Throwable error) {
+		long now = System.nanoTime();
+		lastCompletion = now;
+		if (startTime < measureFrom) {
+			return;
+		}
+		LatencyStats keywordStats = stats.computeIfAbsent(document.label, label -> new LatencyStats());
+		if (error == null) {
+			keywordStats.record(now - startTime);
+		} else {
+			if (error instanceof CompletionException && error.getCause() != null) {
+				error = error.getCause();
+			}
+			keywordStats.recordError();
+			String message = error.getClass().getSimpleName() + ": " + error.getMessage();
+			if (message.length() > 200) {
+				message = message.substring(0, 200) + "...";
+			}
+			if (errorMessages.size() < 100 || errorMessages.containsKey(message)) {
+				errorMessages.computeIfAbsent(message, m -> new LongAdder()).increment();
+			}
+		}
+	}
+
+	private CompletableFuture<ValidationResult> send(Document document) {
+		try {
+			return client.validateAsync(document.data, document.keyword);
+		} catch (RuntimeException exc) {
+			CompletableFuture<ValidationResult> failed = new CompletableFuture<ValidationResult>();
+			failed.completeExceptionally(exc);
+			return failed;
+		}
+	}
+
+	/*
+	 * Closed loop: each of the virtual clients sends its next request when the
+	 * previous one has completed
+	 */
+	private void runClosedLoop(long measureFrom, long end) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(concurrency);
+		AtomicLong sequence = new AtomicLong();
+		ExecutorService callbackExecutor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "ion-docval-loadtest");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			for (int i = 0; i < concurrency; i++) {
+				sendNext(sequence, measureFrom, end, done, callbackExecutor);
+			}
+			done.await();
+		} finally {
+			callbackExecutor.shutdown();
+		}
+	}
+
+	private void sendNext(AtomicLong sequence, long measureFrom, long end, CountDownLatch done,
+			ExecutorService callbackExecutor) {
+		long startTime = System.nanoTime();
+		if (!mayIssue(startTime, end)) {
+			done.countDown();
+			return;
+		}
+		Document document = documents.get((int) (sequence.getAndIncrement() % documents.size()));
+		send(document).whenCompleteAsync((result, error) -> {
+			recordCompletion(document, startTime, measureFrom, error);
+			sendNext(sequence, measureFrom, end, done, callbackExecutor);
+		}, callbackExecutor);
+	}
+
+	/*
+	 * Open loop: requests are started at a fixed rate. The latency of each
+	 * request is measured from its intended start time.
+	 */
+	private void runOpenLoop(long start, long measureFrom, long end) throws InterruptedException {
+		long period = Math.max(1, (long) (1000000000.0 / rate));
+		AtomicLong tick = new AtomicLong();
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ion-docval-loadtest-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CountDownLatch finished = new CountDownLatch(1);
+		try {
+			ScheduledFuture<?> schedule = scheduler.scheduleAtFixedRate(() -> {
+				long n = tick.getAndIncrement();
+				long intendedStart = start + n * period;
+				if (!mayIssue(intendedStart, end)) {
+					finished.countDown();
+					return;
+				}
+				Document document = documents.get((int) (n % documents.size()));
+				outstanding.incrementAndGet();
+				send(document).whenComplete((result, error) -> {
+					recordCompletion(document, intendedStart, measureFrom, error);
+					outstanding.decrementAndGet();
+				});
+			}, 0, period, TimeUnit.NANOSECONDS);
+			finished.await();
+			schedule.cancel(false);
+		} finally {
+			scheduler.shutdown();
+		}
+		// Wait for the requests that are still running, but not forever
+		long graceEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while (outstanding.get() > 0 && System.nanoTime() < graceEnd) {
+			Thread.sleep(10);
+		}
+		if (outstanding.get() > 0) {
+			logger.warn("{} requests still running at the end of the test, not included in the report",
+					outstanding.get());
+		}
+	}
+
+	/**
+	 * Run the load test
+	 *
+	 * @return The report with the results of the test
+	 * @throws InterruptedException if the test is interrupted
+	 * @throws IllegalStateException if no documents have been added
+	 */
+	public LoadTestReport run() throws InterruptedException {
+		if (documents.isEmpty()) {
+			throw new IllegalStateException("No documents to send");
+		}
+		stats = new ConcurrentHashMap<String, LatencyStats>();
+		errorMessages = new ConcurrentHashMap<String, LongAdder>();
+		issued = new AtomicLong();
+		outstanding = new AtomicLong();
+
+		long start = System.nanoTime();
+		long measureFrom = start + warmup.toNanos();
+		long end = measureFrom + duration.toNanos();
+		lastCompletion = start;
+		if (rate > 0) {
+			logger.info("Starting open-loop load test at {} requests per second", rate);
+			runOpenLoop(start, measureFrom, end);
+		} else {
+			logger.info("Starting closed-loop load test with {} concurrent requests", concurrency);
+			runClosedLoop(measureFrom, end);
+		}
+		// If the test stopped early (maxRequests), only count the time until the
+		// last request completed
+		long measuredNanos = Math.max(0, Math.min(end, lastCompletion) - measureFrom);
+
+		String mode = rate > 0 ? "open loop, " + rate + " requests/s" : "closed loop, concurrency " + concurrency;
+		LoadTestReport report = new LoadTestReport(mode, measuredNanos);
+		ArrayList<String> labels = new ArrayList<String>(stats.keySet());
+		Collections.sort(labels);
+		for (String label : labels) {
+			report.addKeyword(label, stats.get(label));
+		}
+		for (String message : errorMessages.keySet()) {
+			report.addErrorMessage(message, errorMessages.get(message).sum());
+		}
+		return report;
+	}
+}
@@ -0,0 +1,181 @@
+package net.ionite.docval.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+
+import org.slf4j.simple.SimpleLogger;
+
+import net.ionite.docval.config.ConfigData;
+import net.ionite.docval.config.ConfigReader;
+import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.server.DocValHttpClient;
+import net.ionite.docval.server.DocValHttpServer;
+import net.ionite.docval.validation.ValidatorManager;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Main class of the load test tool.
+ *
+ * Sends the XML documents in a directory to an ion-docval server, and reports
+ * throughput, error rates and latency percentiles per keyword. The server is
+ * either a running instance (--uri), or a server that is started in-process,
+ * with a configuration file (--config) or with validation files given on the
+ * command line (--validator).
+ */
+public class LoadTestMain {
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/*
+	 * Create the in-process server, with either the configuration file or the
+	 * validators given on the command line
+	 */
+	private static DocValHttpServer startServer(Namespace args) throws IOException, ConfigurationError {
+		DocValHttpServer server;
+		String configFile = args.getString("config");
+		if (configFile != null) {
+			ConfigData configData = new ConfigReader(configFile).readConfig();
+			server = new DocValHttpServer(configData);
+			if (configData.server != null) {
+				server.setCompressionThreshold(configData.server.compressionThreshold);
+				server.setWorkerThreads(configData.server.workerThreads);
+			}
+		} else {
+			ValidatorManager validatorManager = new ValidatorManager();
+			validatorManager.setUnknownKeywords(ConfigData.UnknownKeywords.WARN);
+			ArrayList<String> validators = args.get("validator");
+			for (String validator : validators) {
+				int eqPos = validator.lastIndexOf('=');
+				if (eqPos <= 0) {
+					throw new ConfigurationError("Validator must be given as KEYWORD=FILE: " + validator);
+				}
+				validatorManager.addValidator(validator.substring(0, eqPos), validator.substring(eqPos + 1), false);
+			}
+			server = new DocValHttpServer(validatorManager);
+		}
+		Integer workerThreads = args.getInt("worker_threads");
+		if (workerThreads != null) {
+			server.setWorkerThreads(workerThreads);
+		}
+		return server;
+	}
+
+	/**
+	 * Parse the command-line arguments and run the load test. Exit code is 0 if
+	 * the test was run (even if requests failed), and non-zero if it could not be
+	 * run.
+	 *
+	 * @param argv The command-line arguments provided
+	 */
+	public static void main(String[] argv) {
+		// For a server started in-process; see DocValHttpServerMain
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		ArgumentParser parser = ArgumentParsers.newFor("ion-docval-loadtest").addHelp(true).build()
+				.description("Send documents to an ion-docval server and report throughput and latency per keyword");
+		parser.addArgument("-u", "--uri").help(
+				"Validation URI of a running server (defaults to http://localhost:35791/api/validate, unless a server is started with -c or --validator)");
+		parser.addArgument("-c", "--config").help("Start a server in-process, with the given configuration file");
+		parser.addArgument("--validator").action(Arguments.append()).metavar("KEYWORD=FILE").help(
+				"Start a server in-process, with the given validation file for the given keyword. Can be specified multiple times.");
+		parser.addArgument("--worker-threads").type(Integer.class)
+				.help("Number of validation worker threads of the in-process server");
+		parser.addArgument("-d", "--documents").required(true)
+				.help("Directory with the XML documents to send (including subdirectories)");
+		parser.addArgument("-k", "--keyword")
+				.help("Send the given keyword with every document, instead of letting the server derive it");
+		parser.addArgument("-n", "--concurrency").type(Integer.class).setDefault(1)
+				.help("Number of concurrent requests (closed loop, default 1)");
+		parser.addArgument("-r", "--rate").type(Double.class).setDefault(0.0)
+				.help("Number of requests to start per second (open loop); overrides --concurrency");
+		parser.addArgument("-t", "--duration").type(Integer.class).setDefault(30)
+				.help("Measurement duration in seconds (default 30)");
+		parser.addArgument("-w", "--warmup").type(Integer.class).setDefault(5)
+				.help("Warmup duration in seconds, not included in the results (default 5)");
+		parser.addArgument("--requests").type(Long.class).setDefault(0L)
+				.help("Stop after this number of requests, including warmup (default: no limit)");
+		parser.addArgument("--no-compression").action(Arguments.storeConst()).setConst(true).setDefault(false)
+				.help("Do not compress requests or accept compressed responses");
+		parser.addArgument("-o", "--output-format").setDefault("text").help("Output format, one of: text, json");
+		parser.addArgument("-v", "--verbose").action(Arguments.storeConst()).setConst(true).setDefault(false)
+				.help("Print verbose debug output");
+
+		Namespace args;
+		try {
+			args = parser.parseArgs(argv);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(-1);
+			return;
+		}
+		if ((Boolean) args.get("verbose")) {
+			System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "DEBUG");
+		} else {
+			System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "WARN");
+		}
+
+		DocValHttpServer server = null;
+		try {
+			String uri = args.getString("uri");
+			if (args.get("config") != null || args.get("validator") != null) {
+				if (uri != null) {
+					System.err.println("Error: --uri cannot be combined with --config or --validator");
+					System.exit(-1);
+				}
+				server = startServer(args);
+				int port = findFreePort();
+				server.addListener("127.0.0.1", port);
+				server.start();
+				uri = "http://127.0.0.1:" + port + "/api/validate";
+			} else if (uri == null) {
+				uri = "http://localhost:35791/api/validate";
+			}
+
+			DocValHttpClient client = new DocValHttpClient(uri);
+			client.setCompression(!args.getBoolean("no_compression"));
+			LoadGenerator generator = new LoadGenerator(client);
+			int documentCount = generator.addDocuments(Paths.get(args.getString("documents")), args.getString("keyword"));
+			if (documentCount == 0) {
+				System.err.println("Error: no .xml files found in " + args.getString("documents"));
+				System.exit(-1);
+			}
+			generator.setConcurrency(args.getInt("concurrency"));
+			generator.setRate(args.getDouble("rate"));
+			generator.setDuration(Duration.ofSeconds(args.getInt("duration")));
+			generator.setWarmup(Duration.ofSeconds(args.getInt("warmup")));
+			generator.setMaxRequests(args.getLong("requests"));
+
+			LoadTestReport report = generator.run();
+			if ("json".equals(args.getString("output_format"))) {
+				System.out.println(report.toJSON().toJSONString());
+			} else {
+				System.out.println("Target: " + uri + " (" + documentCount + " documents)");
+				System.out.print(report.toText());
+			}
+			System.exit(0);
+		} catch (ConfigurationError configError) {
+			System.err.println(configError.getMessage());
+			System.exit(-2);
+		} catch (IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(-3);
+		} catch (InterruptedException interrupted) {
+			System.exit(1);
+		} finally {
+			if (server != null) {
+				server.halt(0);
+			}
+		}
+	}
+}
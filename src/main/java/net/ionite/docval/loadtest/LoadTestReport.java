@@ -0,0 +1,176 @@
+package net.ionite.docval.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The results of a load test: throughput, error rate and latency percentiles
+ * per keyword, and for all requests together.
+ *
+ * @author Ionite
+ */
+public class LoadTestReport {
+	/** The percentiles that are reported */
+	public static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private String mode;
+	private long measuredNanos;
+	private LinkedHashMap<String, LatencyStats> keywords = new LinkedHashMap<String, LatencyStats>();
+	private LatencyStats total = new LatencyStats();
+	private LinkedHashMap<String, Long> errorMessages = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param mode          Description of the load test mode
+	 * @param measuredNanos The duration of the measurement period, in nanoseconds
+	 */
+	public LoadTestReport(String mode, long measuredNanos) {
+		this.mode = mode;
+		this.measuredNanos = measuredNanos;
+	}
+
+	/**
+	 * Add the results for a keyword
+	 *
+	 * @param keyword The keyword
+	 * @param stats   The latencies and errors of the requests for the keyword
+	 */
+	public void addKeyword(String keyword, LatencyStats stats) {
+		keywords.put(keyword, stats);
+		total.add(stats);
+	}
+
+	/**
+	 * Add an error message, with the number of times it occurred
+	 *
+	 * @param message The error message
+	 * @param count   The number of failed requests with this message
+	 */
+	public void addErrorMessage(String message, long count) {
+		errorMessages.put(message, count);
+	}
+
+	/**
+	 * Returns the results per keyword
+	 *
+	 * @return Map of the keywords to their results
+	 */
+	public Map<String, LatencyStats> getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * Returns the results of all requests together
+	 *
+	 * @return The results of all requests
+	 */
+	public LatencyStats getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the number of successful requests per second, for the given stats
+	 *
+	 * @param stats The results to get the throughput of
+	 * @return The number of successful requests per second
+	 */
+	public double getThroughput(LatencyStats stats) {
+		return measuredNanos == 0 ? 0.0 : stats.getCount() / (measuredNanos / 1e9);
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static String percentileName(double percentile) {
+		return percentile == Math.rint(percentile) ? "p" + (long) percentile
+				: "p" + Double.toString(percentile);
+	}
+
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private JSONObject statsToJSON(String keyword, LatencyStats stats) {
+		JSONObject result = new JSONObject();
+		if (keyword != null) {
+			result.put("keyword", keyword);
+		}
+		long[] sorted = stats.getSortedLatencies();
+		result.put("requests", sorted.length + stats.getErrors());
+		result.put("errors", stats.getErrors());
+		result.put("error_rate", stats.getErrorRate());
+		result.put("throughput", getThroughput(stats));
+		for (double percentile : PERCENTILES) {
+			result.put(percentileName(percentile) + "_ms", toMillis(LatencyStats.percentile(sorted, percentile)));
+		}
+		result.put("max_ms", toMillis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+		return result;
+	}
+
+	/**
+	 * Returns the report as JSON
+	 *
+	 * @return The JSONObject representing the report
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		result.put("mode", mode);
+		result.put("duration_s", measuredNanos / 1e9);
+		result.put("total", statsToJSON(null, total));
+		JSONArray keywordList = new JSONArray();
+		for (Map.Entry<String, LatencyStats> entry : keywords.entrySet()) {
+			keywordList.add(statsToJSON(entry.getKey(), entry.getValue()));
+		}
+		result.put("keywords", keywordList);
+		JSONObject errors = new JSONObject();
+		errors.putAll(errorMessages);
+		result.put("error_messages", errors);
+		return result;
+	}
+
+	private void appendRow(StringBuilder text, String name, LatencyStats stats) {
+		long[] sorted = stats.getSortedLatencies();
+		text.append(String.format("%10d %7d %7.2f%% %10.1f", sorted.length + stats.getErrors(), stats.getErrors(),
+				stats.getErrorRate() * 100, getThroughput(stats)));
+		for (double percentile : PERCENTILES) {
+			text.append(String.format(" %9.2f", LatencyStats.percentile(sorted, percentile) / 1e6));
+		}
+		text.append(String.format(" %9.2f", (sorted.length == 0 ? 0 : sorted[sorted.length - 1]) / 1e6));
+		text.append("  ").append(name).append('\n');
+	}
+
+	/**
+	 * Returns the report as a human-readable table. Latencies are in
+	 * milliseconds, throughput in successful requests per second.
+	 *
+	 * @return The report text
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		text.append("Mode: ").append(mode).append('\n');
+		text.append(String.format("Measured: %.1f s%n%n", measuredNanos / 1e9));
+		text.append(String.format("%10s %7s %8s %10s", "requests", "errors", "err%", "req/s"));
+		for (double percentile : PERCENTILES) {
+			text.append(String.format(" %9s", percentileName(percentile)));
+		}
+		text.append(String.format(" %9s  %s%n", "max", "keyword"));
+		for (Map.Entry<String, LatencyStats> entry : keywords.entrySet()) {
+			appendRow(text, entry.getKey(), entry.getValue());
+		}
+		appendRow(text, "(total)", total);
+		if (!errorMessages.isEmpty()) {
+			text.append("\nErrors:\n");
+			ArrayList<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+					errorMessages.entrySet());
+			entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+			for (Map.Entry<String, Long> entry : entries) {
+				text.append(String.format("%10d  %s%n", entry.getValue(), entry.getKey()));
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Load generator for the ion-docval HTTP server, to measure throughput and
+ * latency percentiles of a server configuration
+ *
+ * @author Ionite
+ */
+package net.ionite.docval.loadtest;
@@ -0,0 +1,38 @@
+package net.ionite.docval.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter. Increments are lock-free, and cheap even
+ * when many threads update the same counter.
+ *
+ * @author Ionite
+ */
+public class Counter {
+	private final LongAdder value = new LongAdder();
+
+	/**
+	 * Increment the counter by one
+	 */
+	public void inc() {
+		value.increment();
+	}
+
+	/**
+	 * Increment the counter by the given amount
+	 *
+	 * @param amount The amount to add, must not be negative
+	 */
+	public void inc(long amount) {
+		value.add(amount);
+	}
+
+	/**
+	 * Returns the current value of the counter
+	 *
+	 * @return The current value
+	 */
+	public long get() {
+		return value.sum();
+	}
+}
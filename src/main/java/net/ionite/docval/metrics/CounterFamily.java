@@ -0,0 +1,39 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A counter metric with labels
+ *
+ * @author Ionite
+ */
+public class CounterFamily extends MetricFamily<Counter> {
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       The metric name; by convention, this ends with _total
+	 * @param help       The description of the metric
+	 * @param labelNames The names of the labels of this metric
+	 */
+	public CounterFamily(String name, String help, String... labelNames) {
+		super(name, help, labelNames);
+	}
+
+	@Override
+	protected Counter newChild() {
+		return new Counter();
+	}
+
+	@Override
+	protected String getType() {
+		return "counter";
+	}
+
+	@Override
+	protected void writeChild(Writer writer, List<String> labelValues, Counter child) throws IOException {
+		writeSample(writer, getName(), labelValues, null, null, Long.toString(child.get()));
+	}
+}
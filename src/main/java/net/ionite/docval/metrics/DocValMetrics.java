@@ -0,0 +1,185 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The metrics collected by ion-docval.
+ *
+ * Durations are recorded in seconds, sizes in bytes. Keyword labels should
+ * only be given for configured keywords (see {@link #UNKNOWN}), so that the
+ * number of time series stays bounded whatever clients send.
+ *
+ * @author Ionite
+ */
+public class DocValMetrics {
+	/** Label value to use for keywords that have no configured validators */
+	public static final String UNKNOWN = "unknown";
+
+	/** Duration buckets from 0.5 milliseconds to about 16 seconds */
+	private static final double[] DURATION_BUCKETS = Histogram.exponential(0.0005, 2, 16);
+	/** Size buckets from 256 bytes to 64 megabytes */
+	private static final double[] SIZE_BUCKETS = Histogram.exponential(256, 4, 10);
+
+	private final MetricsRegistry registry = new MetricsRegistry();
+
+	private final HistogramFamily requestDuration = registry.register(new HistogramFamily(
+			"docval_http_request_duration_seconds",
+			"Time to handle a validation request, including reading the request and sending the response",
+			DURATION_BUCKETS, "keyword", "format"));
+	private final CounterFamily requestErrors = registry.register(new CounterFamily("docval_http_request_errors_total",
+			"Validation requests that could not be handled, by HTTP status code", "status"));
+	private final HistogramFamily requestSize = registry.register(new HistogramFamily(
+			"docval_http_request_size_bytes", "Size of validated documents, after decompression", SIZE_BUCKETS));
+	private final HistogramFamily validatorDuration = registry.register(new HistogramFamily(
+			"docval_validator_duration_seconds", "Time spent in a single validator (XSD, XSLT or SCH)",
+			DURATION_BUCKETS, "type", "file"));
+	private final HistogramFamily keywordDerivationDuration = registry
+			.register(new HistogramFamily("docval_keyword_derivation_duration_seconds",
+					"Time to derive the keyword of a document", DURATION_BUCKETS));
+	private final CounterFamily validations = registry.register(
+			new CounterFamily("docval_validations_total", "Number of validated documents", "keyword"));
+	private final CounterFamily validationErrors = registry.register(new CounterFamily(
+			"docval_validation_errors_total", "Number of validation errors reported", "keyword"));
+	private final CounterFamily validationWarnings = registry.register(new CounterFamily(
+			"docval_validation_warnings_total", "Number of validation warnings reported", "keyword"));
+	private final HistogramFamily validatorLoadDuration = registry.register(new HistogramFamily(
+			"docval_validator_load_duration_seconds",
+			"Time to load (and compile) a validation file, on first use or on reload", DURATION_BUCKETS, "type",
+			"file"));
+	private final HistogramFamily configApplyDuration = registry
+			.register(new HistogramFamily("docval_config_apply_duration_seconds",
+					"Time to apply a (re)loaded configuration", DURATION_BUCKETS));
+	private final GaugeFamily queueDepth = registry.register(
+			new GaugeFamily("docval_executor_queue_depth", "Number of tasks waiting for a thread", "pool"));
+	private final GaugeFamily activeThreads = registry.register(
+			new GaugeFamily("docval_executor_active_threads", "Number of threads executing a task", "pool"));
+
+	/**
+	 * Returns the registry holding all metrics, which can be used to add more
+	 *
+	 * @return The metrics registry
+	 */
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Returns the validator type label for the given validator class, such as XSD
+	 * for XSDValidator
+	 *
+	 * @param validatorClass The class of the validator
+	 * @return The validator type
+	 */
+	public static String validatorType(Class<?> validatorClass) {
+		String name = validatorClass.getSimpleName();
+		if (name.endsWith("Validator") && name.length() > "Validator".length()) {
+			return name.substring(0, name.length() - "Validator".length());
+		}
+		return name;
+	}
+
+	/**
+	 * Record a handled validation request
+	 *
+	 * @param keyword The keyword of the document, or {@link #UNKNOWN}
+	 * @param format  The response format (such as json or xml)
+	 * @param nanos   The time it took to handle the request, in nanoseconds
+	 */
+	public void observeRequest(String keyword, String format, long nanos) {
+		requestDuration.labels(keyword, format).observeNanos(nanos);
+	}
+
+	/**
+	 * Record a validation request that was answered with an error status
+	 *
+	 * @param status The HTTP status code of the response
+	 */
+	public void countRequestError(int status) {
+		requestErrors.labels(Integer.toString(status)).inc();
+	}
+
+	/**
+	 * Record the size of a validated document
+	 *
+	 * @param bytes The size of the document in bytes
+	 */
+	public void observeRequestSize(long bytes) {
+		requestSize.labels().observe(bytes);
+	}
+
+	/**
+	 * Record the time spent in a single validator
+	 *
+	 * @param type  The validator type, see {@link #validatorType(Class)}
+	 * @param file  The validation file
+	 * @param nanos The time spent, in nanoseconds
+	 */
+	public void observeValidator(String type, String file, long nanos) {
+		validatorDuration.labels(type, file).observeNanos(nanos);
+	}
+
+	/**
+	 * Record the time it took to derive the keyword of a document
+	 *
+	 * @param nanos The time spent, in nanoseconds
+	 */
+	public void observeKeywordDerivation(long nanos) {
+		keywordDerivationDuration.labels().observeNanos(nanos);
+	}
+
+	/**
+	 * Record the outcome of a validation
+	 *
+	 * @param keyword  The keyword of the document, or {@link #UNKNOWN}
+	 * @param errors   The number of errors
+	 * @param warnings The number of warnings
+	 */
+	public void countResult(String keyword, int errors, int warnings) {
+		validations.labels(keyword).inc();
+		validationErrors.labels(keyword).inc(errors);
+		validationWarnings.labels(keyword).inc(warnings);
+	}
+
+	/**
+	 * Record the time it took to load a validation file
+	 *
+	 * @param type  The validator type, see {@link #validatorType(Class)}
+	 * @param file  The validation file
+	 * @param nanos The time spent, in nanoseconds
+	 */
+	public void observeValidatorLoad(String type, String file, long nanos) {
+		validatorLoadDuration.labels(type, file).observeNanos(nanos);
+	}
+
+	/**
+	 * Record the time it took to apply a configuration
+	 *
+	 * @param nanos The time spent, in nanoseconds
+	 */
+	public void observeConfigApply(long nanos) {
+		configApplyDuration.labels().observeNanos(nanos);
+	}
+
+	/**
+	 * Report the queue depth and number of active threads of the given executor
+	 *
+	 * @param pool     The name of the pool, used as label value
+	 * @param executor The executor
+	 */
+	public void monitorExecutor(String pool, ThreadPoolExecutor executor) {
+		queueDepth.set(() -> executor.getQueue().size(), pool);
+		activeThreads.set(() -> executor.getActiveCount(), pool);
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text exposition format
+	 *
+	 * @param writer The writer to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		registry.writePrometheus(writer);
+	}
+}
@@ -0,0 +1,52 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A gauge metric with labels. Gauge values are not stored; each child is a
+ * callback that is asked for the current value when the metrics are written.
+ *
+ * @author Ionite
+ */
+public class GaugeFamily extends MetricFamily<DoubleSupplier> {
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       The metric name
+	 * @param help       The description of the metric
+	 * @param labelNames The names of the labels of this metric
+	 */
+	public GaugeFamily(String name, String help, String... labelNames) {
+		super(name, help, labelNames);
+	}
+
+	/**
+	 * Set the callback that provides the value for the given label values,
+	 * replacing any earlier callback for them
+	 *
+	 * @param supplier    The callback that returns the current value
+	 * @param labelValues The label values
+	 */
+	public void set(DoubleSupplier supplier, String... labelValues) {
+		children.put(labelKey(labelValues), supplier);
+	}
+
+	@Override
+	protected DoubleSupplier newChild() {
+		return () -> Double.NaN;
+	}
+
+	@Override
+	protected String getType() {
+		return "gauge";
+	}
+
+	@Override
+	protected void writeChild(Writer writer, List<String> labelValues, DoubleSupplier child) throws IOException {
+		writeSample(writer, getName(), labelValues, null, null, formatValue(child.getAsDouble()));
+	}
+}
@@ -0,0 +1,126 @@
+package net.ionite.docval.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket boundaries.
+ *
+ * Observations are counted in the first bucket whose upper bound is greater
+ * than or equal to the observed value. Each bucket is a separate LongAdder, so
+ * recording a value is lock-free and needs no allocation. Exponential bucket
+ * boundaries (see {@link #exponential(double, double, int)}) give a constant
+ * relative precision over a wide range of values, as in HDR histograms.
+ *
+ * @author Ionite
+ */
+public class Histogram {
+	private final double[] upperBounds;
+	/** One counter per bucket, plus one for values above the last bound */
+	private final LongAdder[] buckets;
+	private final DoubleAdder sum = new DoubleAdder();
+
+	/**
+	 * Construct a histogram with the given bucket upper bounds
+	 *
+	 * @param upperBounds The upper bounds of the buckets, in increasing order
+	 */
+	public Histogram(double[] upperBounds) {
+		this.upperBounds = upperBounds.clone();
+		buckets = new LongAdder[upperBounds.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Returns bucket bounds that grow exponentially
+	 *
+	 * @param start  The upper bound of the first bucket
+	 * @param factor The factor between consecutive bounds
+	 * @param count  The number of buckets
+	 * @return Array with the upper bounds
+	 */
+	public static double[] exponential(double start, double factor, int count) {
+		double[] bounds = new double[count];
+		double bound = start;
+		for (int i = 0; i < count; i++) {
+			bounds[i] = bound;
+			bound *= factor;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Record a value
+	 *
+	 * @param value The value to record
+	 */
+	public void observe(double value) {
+		int index = Arrays.binarySearch(upperBounds, value);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		buckets[index].increment();
+		sum.add(value);
+	}
+
+	/**
+	 * Record a duration, given in nanoseconds, in seconds
+	 *
+	 * @param nanos The duration in nanoseconds
+	 */
+	public void observeNanos(long nanos) {
+		observe(nanos / 1e9);
+	}
+
+	/**
+	 * Returns the upper bounds of the buckets (not including the implicit +Inf
+	 * bucket)
+	 *
+	 * @return The bucket upper bounds
+	 */
+	public double[] getUpperBounds() {
+		return upperBounds.clone();
+	}
+
+	/**
+	 * Returns the cumulative counts of the buckets: element i is the number of
+	 * observations less than or equal to upper bound i. The last element is the
+	 * total count.
+	 *
+	 * @return The cumulative bucket counts
+	 */
+	public long[] getCumulativeCounts() {
+		long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			total += buckets[i].sum();
+			counts[i] = total;
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the total number of observations
+	 *
+	 * @return The number of observations
+	 */
+	public long getCount() {
+		long total = 0;
+		for (LongAdder bucket : buckets) {
+			total += bucket.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sum of all observed values
+	 *
+	 * @return The sum of the observed values
+	 */
+	public double getSum() {
+		return sum.sum();
+	}
+}
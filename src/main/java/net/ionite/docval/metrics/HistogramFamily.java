@@ -0,0 +1,50 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A histogram metric with labels; all children share the same bucket bounds
+ *
+ * @author Ionite
+ */
+public class HistogramFamily extends MetricFamily<Histogram> {
+	private final double[] upperBounds;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name        The metric name
+	 * @param help        The description of the metric
+	 * @param upperBounds The upper bounds of the buckets, in increasing order
+	 * @param labelNames  The names of the labels of this metric
+	 */
+	public HistogramFamily(String name, String help, double[] upperBounds, String... labelNames) {
+		super(name, help, labelNames);
+		this.upperBounds = upperBounds.clone();
+	}
+
+	@Override
+	protected Histogram newChild() {
+		return new Histogram(upperBounds);
+	}
+
+	@Override
+	protected String getType() {
+		return "histogram";
+	}
+
+	@Override
+	protected void writeChild(Writer writer, List<String> labelValues, Histogram child) throws IOException {
+		long[] counts = child.getCumulativeCounts();
+		for (int i = 0; i < upperBounds.length; i++) {
+			writeSample(writer, getName() + "_bucket", labelValues, "le", formatValue(upperBounds[i]),
+					Long.toString(counts[i]));
+		}
+		long count = counts[counts.length - 1];
+		writeSample(writer, getName() + "_bucket", labelValues, "le", "+Inf", Long.toString(count));
+		writeSample(writer, getName() + "_sum", labelValues, null, null, formatValue(child.getSum()));
+		writeSample(writer, getName() + "_count", labelValues, null, null, Long.toString(count));
+	}
+}
@@ -0,0 +1,195 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named metric with zero or more labels. Each distinct combination of label
+ * values has its own child metric (such as a Counter or a Histogram), which is
+ * created on first use.
+ *
+ * Looking up a child does not take any locks once it exists; callers on hot
+ * paths can also keep a reference to the child itself.
+ *
+ * @author Ionite
+ *
+ * @param <T> The type of the child metrics
+ */
+public abstract class MetricFamily<T> {
+	private final String name;
+	private final String help;
+	private final String[] labelNames;
+	/** The children, by their label values */
+	protected final ConcurrentHashMap<List<String>, T> children = new ConcurrentHashMap<List<String>, T>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       The metric name
+	 * @param help       The description of the metric
+	 * @param labelNames The names of the labels of this metric
+	 */
+	protected MetricFamily(String name, String help, String... labelNames) {
+		this.name = name;
+		this.help = help;
+		this.labelNames = labelNames.clone();
+	}
+
+	/**
+	 * Returns the metric name
+	 *
+	 * @return The metric name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the child metric for the given label values, creating it if it does
+	 * not exist yet
+	 *
+	 * @param labelValues The label values, in the same order as the label names
+	 *                    this family was created with. Null values are treated
+	 *                    as empty strings.
+	 * @return The child metric
+	 * @throws IllegalArgumentException if the number of values does not match the
+	 *                                  number of labels
+	 */
+	public T labels(String... labelValues) {
+		List<String> key = labelKey(labelValues);
+		T child = children.get(key);
+		if (child == null) {
+			child = children.computeIfAbsent(key, k -> newChild());
+		}
+		return child;
+	}
+
+	/**
+	 * Converts the given label values to the key of the children map
+	 */
+	protected List<String> labelKey(String... labelValues) {
+		if (labelValues.length != labelNames.length) {
+			throw new IllegalArgumentException("Metric " + name + " has " + labelNames.length + " labels, got "
+					+ labelValues.length + " values");
+		}
+		String[] values = new String[labelValues.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = labelValues[i] == null ? "" : labelValues[i];
+		}
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * Create a new child metric
+	 *
+	 * @return The new child
+	 */
+	protected abstract T newChild();
+
+	/**
+	 * Returns the Prometheus metric type (counter, gauge or histogram)
+	 *
+	 * @return The metric type
+	 */
+	protected abstract String getType();
+
+	/**
+	 * Write the samples of a single child in the Prometheus text format
+	 *
+	 * @param writer      The writer to write to
+	 * @param labelValues The label values of the child
+	 * @param child       The child metric
+	 * @throws IOException if writing fails
+	 */
+	protected abstract void writeChild(Writer writer, List<String> labelValues, T child) throws IOException;
+
+	/**
+	 * Write this metric, with all its children, in the Prometheus text exposition
+	 * format
+	 *
+	 * @param writer The writer to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+		writer.write("# TYPE " + name + " " + getType() + "\n");
+		for (Map.Entry<List<String>, T> entry : children.entrySet()) {
+			writeChild(writer, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Write a single sample line
+	 *
+	 * @param writer      The writer to write to
+	 * @param sampleName  The name of the sample
+	 * @param labelValues The label values of the sample
+	 * @param extraLabel  The name of an additional label (such as 'le'), may be
+	 *                    null
+	 * @param extraValue  The value of the additional label
+	 * @param value       The sample value
+	 * @throws IOException if writing fails
+	 */
+	protected void writeSample(Writer writer, String sampleName, List<String> labelValues, String extraLabel,
+			String extraValue, String value) throws IOException {
+		StringBuilder line = new StringBuilder(sampleName);
+		if (labelNames.length > 0 || extraLabel != null) {
+			line.append('{');
+			String separator = "";
+			for (int i = 0; i < labelNames.length; i++) {
+				line.append(separator).append(labelNames[i]).append("=\"");
+				appendEscaped(line, labelValues.get(i));
+				line.append('"');
+				separator = ",";
+			}
+			if (extraLabel != null) {
+				line.append(separator).append(extraLabel).append("=\"");
+				appendEscaped(line, extraValue);
+				line.append('"');
+			}
+			line.append('}');
+		}
+		line.append(' ').append(value).append('\n');
+		writer.write(line.toString());
+	}
+
+	private static void appendEscaped(StringBuilder builder, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Format a double value the way Prometheus expects it
+	 *
+	 * @param value The value to format
+	 * @return The formatted value
+	 */
+	protected static String formatValue(double value) {
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		} else if (Double.isNaN(value)) {
+			return "NaN";
+		} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,67 @@
+package net.ionite.docval.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A collection of metrics that are written together, such as for a /metrics
+ * endpoint.
+ *
+ * Metrics are registered once, usually at startup; the registry itself is not
+ * involved when metrics are updated.
+ *
+ * @author Ionite
+ */
+public class MetricsRegistry {
+	private final CopyOnWriteArrayList<MetricFamily<?>> metrics = new CopyOnWriteArrayList<MetricFamily<?>>();
+
+	/**
+	 * Register the given metric
+	 *
+	 * @param <M>    The type of the metric
+	 * @param metric The metric to register
+	 * @return The metric
+	 * @throws IllegalArgumentException if a metric with the same name is already
+	 *                                  registered
+	 */
+	public <M extends MetricFamily<?>> M register(M metric) {
+		for (MetricFamily<?> existing : metrics) {
+			if (existing.getName().equals(metric.getName())) {
+				throw new IllegalArgumentException("Metric already registered: " + metric.getName());
+			}
+		}
+		metrics.add(metric);
+		return metric;
+	}
+
+	/**
+	 * Write all registered metrics in the Prometheus text exposition format
+	 * (version 0.0.4)
+	 *
+	 * @param writer The writer to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		for (MetricFamily<?> metric : metrics) {
+			metric.writePrometheus(writer);
+		}
+	}
+
+	/**
+	 * Returns all registered metrics in the Prometheus text exposition format
+	 *
+	 * @return String containing the metrics
+	 */
+	public String toPrometheusString() {
+		StringWriter writer = new StringWriter();
+		try {
+			writePrometheus(writer);
+		} catch (IOException ioe) {
+			// Cannot happen with a StringWriter
+			throw new IllegalStateException(ioe);
+		}
+		return writer.toString();
+	}
+}
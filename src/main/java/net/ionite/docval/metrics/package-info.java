@@ -0,0 +1,7 @@
+/**
+ * Lightweight, lock-free metrics (counters, gauges and histograms) with
+ * Prometheus text format output
+ *
+ * @author Ionite
+ */
+package net.ionite.docval.metrics;
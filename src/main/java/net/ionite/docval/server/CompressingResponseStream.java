@@ -0,0 +1,145 @@
+package net.ionite.docval.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Response body stream that compresses the response if it is larger than a
+ * given threshold.
+ *
+ * Data is buffered until the threshold is exceeded; at that point the response
+ * headers are sent (with the Content-Encoding header set, using chunked
+ * transfer encoding), and all data is compressed on its way to the client. If
+ * the stream is closed before the threshold is reached, the buffered data is
+ * sent uncompressed, with a Content-Length header.
+ *
+ * If no encoding is given, nothing is buffered, and the data is sent
+ * uncompressed using chunked transfer encoding.
+ */
+class CompressingResponseStream extends OutputStream {
+	/** The default threshold (in bytes) above which responses are compressed */
+	static final int DEFAULT_THRESHOLD = 1024;
+
+	private HttpExchange exchange;
+	private int statusCode;
+	private String encoding;
+	private int threshold;
+	private ByteArrayOutputStream buffer;
+	private OutputStream out = null;
+
+	/**
+	 * Construct a response stream for the given exchange
+	 *
+	 * @param exchange   The HTTP exchange to send the response to
+	 * @param statusCode The HTTP status code of the response
+	 * @param encoding   The content encoding to use, either "gzip", "deflate", or
+	 *                   null for no compression. See
+	 *                   {@link #selectEncoding(String)}
+	 * @param threshold  The response size above which the response is compressed
+	 */
+	CompressingResponseStream(HttpExchange exchange, int statusCode, String encoding, int threshold) {
+		this.exchange = exchange;
+		this.statusCode = statusCode;
+		this.encoding = encoding;
+		this.threshold = threshold;
+		this.buffer = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Select the content encoding to use for a response, given the value of the
+	 * Accept-Encoding header of the request. gzip is preferred over deflate.
+	 * Encodings with a quality value of 0 are not accepted.
+	 *
+	 * @param acceptEncoding The value of the Accept-Encoding header, may be null
+	 * @return "gzip", "deflate", or null if neither is accepted by the client
+	 */
+	static String selectEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		boolean deflate = false;
+		for (String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String name = parts[0].trim().toLowerCase();
+			boolean accepted = true;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(parameter.substring(2)) > 0;
+					} catch (NumberFormatException nfe) {
+						accepted = false;
+					}
+				}
+			}
+			if (accepted && ("gzip".equals(name) || "x-gzip".equals(name))) {
+				return "gzip";
+			} else if (accepted && "deflate".equals(name)) {
+				deflate = true;
+			}
+		}
+		return deflate ? "deflate" : null;
+	}
+
+	private void startResponse() throws IOException {
+		OutputStream body;
+		if (encoding != null) {
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+			exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+			exchange.sendResponseHeaders(statusCode, 0);
+			if ("gzip".equals(encoding)) {
+				body = new GZIPOutputStream(exchange.getResponseBody(), 8192);
+			} else {
+				body = new DeflaterOutputStream(exchange.getResponseBody());
+			}
+		} else {
+			exchange.sendResponseHeaders(statusCode, 0);
+			body = exchange.getResponseBody();
+		}
+		buffer.writeTo(body);
+		buffer = null;
+		out = body;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		if (out == null) {
+			if (encoding != null && buffer.size() + length <= threshold) {
+				buffer.write(data, offset, length);
+				return;
+			}
+			startResponse();
+		}
+		out.write(data, offset, length);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out == null) {
+			// Below the threshold; send it as-is
+			exchange.sendResponseHeaders(statusCode, buffer.size() == 0 ? -1 : buffer.size());
+			OutputStream body = exchange.getResponseBody();
+			buffer.writeTo(body);
+			body.close();
+		} else {
+			out.close();
+		}
+	}
+}
@@ -1,46 +1,440 @@
 package net.ionite.docval.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidatorException;
 
 /**
  * A client to the ion-docval server
- * 
+ *
+ * A single client instance holds one HTTP client, so that connections to the
+ * server are kept alive and reused. Instances are thread-safe, and are meant to
+ * be shared by all threads that talk to the same server.
+ *
+ * Besides the blocking validate() methods, there are validateAsync() methods
+ * that return a CompletableFuture. The number of requests that are sent to the
+ * server at the same time can be limited with
+ * {@link #setMaxConcurrentRequests(int)}; further requests are queued until
+ * earlier ones have finished.
+ *
  * @author Ionite
  *
  */
 public class DocValHttpClient {
-	private String uri = "http://localhost:35791/api/validate";
+	/** Request bodies larger than this number of bytes are compressed */
+	private static final int COMPRESSION_THRESHOLD = 1024;
+
+	private final String uri;
+	// The options can be changed while other threads are sending requests
+	private volatile boolean compression = true;
+	private volatile Duration connectTimeout = Duration.ofSeconds(10);
+	private volatile Duration requestTimeout = null;
+	private volatile boolean timings = false;
+	private volatile Boolean sbdh = null;
+	private volatile boolean aggregate = false;
+	private volatile ValidationResult.Detail detail = ValidationResult.Detail.FULL;
+	private volatile HttpClient httpClient;
 	private Logger logger;
 
+	/** The maximum number of requests in flight, 0 for no limit */
+	private int maxConcurrentRequests = 0;
+	/** The number of requests currently in flight */
+	private int activeRequests = 0;
+	/** Requests waiting for a slot, if maxConcurrentRequests has been reached */
+	private final ArrayDeque<Runnable> pendingRequests = new ArrayDeque<Runnable>();
+
 	/**
 	 * Construct a client with a default server URI:
 	 * http://localhost:35791/api/validate
 	 */
 	public DocValHttpClient() {
-		logger = LoggerFactory.getLogger(this.getClass().getName());
+		this("http://localhost:35791/api/validate");
 	}
 
 	/**
 	 * Construct a client with the given server URI
-	 * 
+	 *
 	 * @param uri The URI where the ion-docval-server is hosted
 	 */
 	public DocValHttpClient(String uri) {
 		logger = LoggerFactory.getLogger(this.getClass().getName());
 		this.uri = uri;
+		this.httpClient = buildHttpClient();
+	}
+
+	private HttpClient buildHttpClient() {
+		// The server speaks HTTP/1.1 only; this avoids an upgrade attempt on every
+		// new connection
+		return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(connectTimeout).build();
+	}
+
+	/**
+	 * Enable or disable compression. When enabled (the default), documents larger
+	 * than 1024 bytes are sent compressed, and the server is allowed to compress
+	 * its response.
+	 *
+	 * @param compression boolean specifying whether to enable or disable
+	 *                    compression
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Enable or disable timings. When enabled, the server includes the time spent
+	 * in each stage of the validation in the result (see
+	 * {@link ValidationResult#getTimings()}). Disabled by default.
+	 *
+	 * @param timings boolean specifying whether to request timings
+	 */
+	public void setTimings(boolean timings) {
+		this.timings = timings;
+	}
+
+	/**
+	 * Set whether the server unwraps documents in a Standard Business Document
+	 * Header (SBDH) envelope, and validates their payload. If not set, the
+	 * UnwrapSBDH option of the server configuration is used.
+	 *
+	 * @param sbdh boolean specifying whether to unwrap SBDH documents, or null
+	 *             for the server default
+	 */
+	public void setSBDH(Boolean sbdh) {
+		this.sbdh = sbdh;
+	}
+
+	/**
+	 * Enable or disable aggregated results. When enabled, the server groups the
+	 * errors and warnings by the test that failed (see
+	 * {@link ValidationResult#setAggregated(boolean)}). Disabled by default.
+	 * 
+	 * @param aggregate boolean specifying whether to request aggregated results
+	 */
+	public void setAggregate(boolean aggregate) {
+		this.aggregate = aggregate;
+	}
+
+	/**
+	 * Set the amount of detail the server returns. With SUMMARY or COUNTS, the
+	 * results contain the error and warning counts, but no errors and warnings
+	 * (see {@link ValidationResult#setDetail(ValidationResult.Detail)}). FULL by
+	 * default.
+	 * 
+	 * @param detail The amount of detail to request
+	 */
+	public void setDetail(ValidationResult.Detail detail) {
+		this.detail = detail;
+	}
+
+	/**
+	 * Set the maximum time to wait for a connection to the server. Defaults to 10
+	 * seconds. Note that this replaces the underlying HTTP client, so existing
+	 * connections are not reused after calling this method.
+	 *
+	 * @param connectTimeout The connect timeout
+	 */
+	public void setConnectTimeout(Duration connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.httpClient = buildHttpClient();
+	}
+
+	/**
+	 * Set the maximum time to wait for the response to a single request. By
+	 * default there is no timeout.
+	 *
+	 * @param requestTimeout The request timeout, or null for no timeout
+	 */
+	public void setRequestTimeout(Duration requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+	/**
+	 * Set the maximum number of requests that are sent to the server at the same
+	 * time. Further requests wait until a running request has finished. Defaults
+	 * to 0, meaning no limit.
+	 *
+	 * @param maxConcurrentRequests The maximum number of concurrent requests, or 0
+	 *                              for no limit
+	 */
+	public synchronized void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4);
+		GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+		gzipStream.write(data);
+		gzipStream.close();
+		return outputStream.toByteArray();
+	}
+
+	private static InputStream decodeResponseBody(HttpResponse<InputStream> response) throws IOException {
+		String contentEncoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+		if ("gzip".equalsIgnoreCase(contentEncoding)) {
+			return new GZIPInputStream(response.body());
+		} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+			return new InflaterInputStream(response.body());
+		}
+		return response.body();
+	}
+
+	/*
+	 * Parse the server response. The JSON is parsed straight from the (decoded)
+	 * response stream, without reading it into a String first.
+	 */
+	private ValidationResult parseResponse(HttpResponse<InputStream> response) {
+		logger.debug("Status code from " + uri + ": " + response.statusCode());
+		try (Reader reader = new InputStreamReader(decodeResponseBody(response), StandardCharsets.UTF_8)) {
+			if (response.statusCode() != 200) {
+				StringBuilder message = new StringBuilder();
+				char[] buffer = new char[1024];
+				int read;
+				while ((read = reader.read(buffer)) != -1) {
+					message.append(buffer, 0, read);
+				}
+				throw new ValidatorException(
+						"Server returned status " + response.statusCode() + ": " + message.toString());
+			}
+			return ValidationResult.fromJSON((JSONObject) new JSONParser().parse(reader));
+		} catch (ParseException e) {
+			throw new ValidatorException("JSON parse error: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private HttpRequest.Builder newRequestBuilder(String keyword) throws DocValClientException {
+		String requestUri = uri;
+		if (keyword != null) {
+			requestUri += (requestUri.contains("?") ? "&" : "?") + "keyword="
+					+ URLEncoder.encode(keyword, StandardCharsets.UTF_8);
+		}
+		if (timings) {
+			requestUri += (requestUri.contains("?") ? "&" : "?") + "timings=true";
+		}
+		if (sbdh != null) {
+			requestUri += (requestUri.contains("?") ? "&" : "?") + "sbdh=" + sbdh;
+		}
+		if (aggregate) {
+			requestUri += (requestUri.contains("?") ? "&" : "?") + "aggregate=true";
+		}
+		if (detail != ValidationResult.Detail.FULL) {
+			requestUri += (requestUri.contains("?") ? "&" : "?") + "detail=" + detail.name().toLowerCase();
+		}
+		try {
+			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().uri(URI.create(requestUri))
+					.header("Accept", "application/json").header("Content-Type", "application/xml");
+			if (compression) {
+				requestBuilder.header("Accept-Encoding", "gzip, deflate");
+			}
+			if (requestTimeout != null) {
+				requestBuilder.timeout(requestTimeout);
+			}
+			return requestBuilder;
+		} catch (IllegalArgumentException e) {
+			throw new DocValClientException("Malformed URI: " + requestUri, e);
+		}
+	}
+
+	/*
+	 * Runs the given request as soon as the concurrency limit allows it
+	 */
+	private CompletableFuture<ValidationResult> schedule(Supplier<CompletableFuture<ValidationResult>> request) {
+		CompletableFuture<ValidationResult> result = new CompletableFuture<ValidationResult>();
+		Runnable start = () -> {
+			CompletableFuture<ValidationResult> future;
+			try {
+				future = request.get();
+			} catch (Throwable error) {
+				future = new CompletableFuture<ValidationResult>();
+				future.completeExceptionally(error);
+			}
+			future.whenComplete((value, error) -> {
+				requestFinished();
+				if (error != null) {
+					result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+				} else {
+					result.complete(value);
+				}
+			});
+		};
+		synchronized (this) {
+			if (maxConcurrentRequests > 0 && activeRequests >= maxConcurrentRequests) {
+				pendingRequests.add(start);
+				return result;
+			}
+			activeRequests++;
+		}
+		start.run();
+		return result;
+	}
+
+	private void requestFinished() {
+		Runnable next;
+		synchronized (this) {
+			next = pendingRequests.poll();
+			if (next == null) {
+				activeRequests--;
+				return;
+			}
+		}
+		// The slot of the finished request is handed over to the next one. It is
+		// started on another thread: this may be called from the completion of the
+		// previous request, which may in turn have run inline (if it failed right
+		// away), so running it here would nest deeper with every queued request,
+		// and would prepare its body on a thread of the HTTP client.
+		ForkJoinPool.commonPool().execute(next);
+	}
+
+	private CompletableFuture<ValidationResult> send(String keyword, String description,
+			RequestBodySupplier bodySupplier) {
+		return schedule(() -> {
+			try {
+				if (keyword == null) {
+					logger.debug("Sending " + description + " to server at " + uri + ", derive keyword");
+				} else {
+					logger.debug("Sending " + description + " to server at " + uri + " with keyword " + keyword);
+				}
+				HttpRequest.Builder requestBuilder = newRequestBuilder(keyword);
+				HttpRequest request = bodySupplier.addBody(requestBuilder).build();
+				return httpClient.sendAsync(request, BodyHandlers.ofInputStream()).thenApply(this::parseResponse);
+			} catch (DocValClientException | IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Sets the body (and related headers) of a request
+	 */
+	private interface RequestBodySupplier {
+		HttpRequest.Builder addBody(HttpRequest.Builder requestBuilder) throws IOException;
+	}
+
+	/**
+	 * Send the given XML document to the server for validation, without waiting
+	 * for the result.
+	 *
+	 * @param documentData Byte-array containing the XML document to validate
+	 * @param keyword      The keyword the server uses to select which validation to
+	 *                     use, or null to let the server derive it
+	 * @return A future that completes with the validation result, or
+	 *         exceptionally with a DocValClientException (if the server could not
+	 *         be reached), or a ValidatorException (if the server did not return a
+	 *         validation result)
+	 */
+	public CompletableFuture<ValidationResult> validateAsync(byte[] documentData, String keyword) {
+		return send(keyword, "document of " + documentData.length + " bytes", requestBuilder -> {
+			if (compression && documentData.length > COMPRESSION_THRESHOLD) {
+				return requestBuilder.header("Content-Encoding", "gzip")
+						.POST(HttpRequest.BodyPublishers.ofByteArray(gzip(documentData)));
+			}
+			return requestBuilder.POST(HttpRequest.BodyPublishers.ofByteArray(documentData));
+		});
+	}
+
+	/**
+	 * Send the XML document in the given file to the server for validation,
+	 * without waiting for the result. The file is streamed to the server, and
+	 * compressed on the fly if compression is enabled.
+	 *
+	 * @param documentFile The file containing the XML document to validate
+	 * @param keyword      The keyword the server uses to select which validation to
+	 *                     use, or null to let the server derive it
+	 * @return A future that completes with the validation result, see
+	 *         {@link #validateAsync(byte[], String)}
+	 */
+	public CompletableFuture<ValidationResult> validateAsync(Path documentFile, String keyword) {
+		return send(keyword, "document " + documentFile, requestBuilder -> {
+			if (compression && Files.size(documentFile) > COMPRESSION_THRESHOLD) {
+				return requestBuilder.header("Content-Encoding", "deflate")
+						.POST(HttpRequest.BodyPublishers.ofInputStream(() -> {
+							try {
+								return new DeflaterInputStream(Files.newInputStream(documentFile));
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}));
+			}
+			return requestBuilder.POST(HttpRequest.BodyPublishers.ofFile(documentFile));
+		});
+	}
+
+	/**
+	 * Send the XML document in the given stream to the server for validation,
+	 * without waiting for the result. The stream is sent to the server as it is
+	 * read (compressed on the fly if compression is enabled), and closed when
+	 * done. Since a stream can only be read once, the request cannot be retried.
+	 *
+	 * @param documentStream The stream containing the XML document to validate
+	 * @param keyword        The keyword the server uses to select which validation
+	 *                       to use, or null to let the server derive it
+	 * @return A future that completes with the validation result, see
+	 *         {@link #validateAsync(byte[], String)}
+	 */
+	public CompletableFuture<ValidationResult> validateAsync(InputStream documentStream, String keyword) {
+		return send(keyword, "document stream", requestBuilder -> {
+			if (compression) {
+				return requestBuilder.header("Content-Encoding", "deflate").POST(
+						HttpRequest.BodyPublishers.ofInputStream(() -> new DeflaterInputStream(documentStream)));
+			}
+			return requestBuilder.POST(HttpRequest.BodyPublishers.ofInputStream(() -> documentStream));
+		});
+	}
+
+	/*
+	 * Wait for the given result, and unwrap the exception it may have completed
+	 * with
+	 */
+	private ValidationResult waitForResult(CompletableFuture<ValidationResult> future)
+			throws DocValClientException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new DocValClientException("Client request interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DocValClientException) {
+				throw (DocValClientException) cause;
+			} else if (cause instanceof RuntimeException && !(cause instanceof UncheckedIOException)) {
+				throw (RuntimeException) cause;
+			}
+			throw new DocValClientException("Error communicating with server at: " + uri, cause);
+		}
 	}
 
 	/**
@@ -48,7 +442,7 @@ public class DocValHttpClient {
 	 * derived from the document (see {@link net.ionite.docval.xml.KeywordDeriver}
 	 * for more information on keyword derivation). Parses the server's response
 	 * into a ValidationResult object.
-	 * 
+	 *
 	 * @param documentData Byte-array containing the XML document to validate
 	 * @return ValidationResult The validation result from the server
 	 * @throws DocValClientException If the server could not be reached, or it did
@@ -61,7 +455,7 @@ public class DocValHttpClient {
 	/**
 	 * Send the given XML document to the server for validation, using the given
 	 * keyword. Parses the server's response into a ValidationResult object.
-	 * 
+	 *
 	 * @param documentData Byte-array containing the XML document to validate
 	 * @param keyword      The keyword the server uses to select which validation to
 	 *                     use
@@ -70,32 +464,40 @@ public class DocValHttpClient {
 	 *                               not return a validation result.
 	 */
 	public ValidationResult validate(byte[] documentData, String keyword) throws DocValClientException {
-		try {
-			if (keyword == null) {
-				logger.debug("Sending document of " + documentData.length + " bytes to server at " + uri
-						+ ", derive keyword");
-			} else {
-				logger.debug("Sending document of " + documentData.length + " bytes to server at " + uri
-						+ " with keyword " + keyword);
-			}
-			if (keyword != null) {
-				uri += "?keyword=" + URLEncoder.encode(keyword, StandardCharsets.UTF_8.toString());
-			}
-			HttpRequest request = HttpRequest.newBuilder().uri(new URI(uri)).header("Accept", "application/json")
-					.header("Content-Type", "application/xml")
-					.POST(HttpRequest.BodyPublishers.ofByteArray(documentData)).build();
-
-			HttpResponse<String> response = HttpClient.newBuilder().build().send(request, BodyHandlers.ofString());
+		return waitForResult(validateAsync(documentData, keyword));
+	}
 
-			logger.debug("Status code from " + uri + ": " + response.statusCode());
+	/**
+	 * Send the XML document in the given file to the server for validation, using
+	 * the given keyword. Parses the server's response into a ValidationResult
+	 * object.
+	 *
+	 * @param documentFile The file containing the XML document to validate
+	 * @param keyword      The keyword the server uses to select which validation to
+	 *                     use, or null to let the server derive it
+	 * @return ValidationResult The validation result from the server
+	 * @throws DocValClientException If the file could not be read, the server
+	 *                               could not be reached, or it did not return a
+	 *                               validation result.
+	 */
+	public ValidationResult validate(Path documentFile, String keyword) throws DocValClientException {
+		return waitForResult(validateAsync(documentFile, keyword));
+	}
 
-			return ValidationResult.fromJSONString(response.body());
-		} catch (URISyntaxException e) {
-			throw new DocValClientException("Malformed URI: " + uri, e);
-		} catch (IOException e) {
-			throw new DocValClientException("Error communicating with server at: " + uri, e);
-		} catch (InterruptedException e) {
-			throw new DocValClientException("Client request interrupted", e);
-		}
+	/**
+	 * Send the XML document in the given stream to the server for validation,
+	 * using the given keyword. Parses the server's response into a
+	 * ValidationResult object.
+	 *
+	 * @param documentStream The stream containing the XML document to validate
+	 * @param keyword        The keyword the server uses to select which validation
+	 *                       to use, or null to let the server derive it
+	 * @return ValidationResult The validation result from the server
+	 * @throws DocValClientException If the stream could not be read, the server
+	 *                               could not be reached, or it did not return a
+	 *                               validation result.
+	 */
+	public ValidationResult validate(InputStream documentStream, String keyword) throws DocValClientException {
+		return waitForResult(validateAsync(documentStream, keyword));
 	}
 }
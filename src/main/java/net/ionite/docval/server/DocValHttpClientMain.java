@@ -20,18 +20,18 @@ import net.sourceforge.argparse4j.inf.Namespace;
  */
 public class DocValHttpClientMain {
 	private static void printResultItem(String itemType, ValidationResultItem item, boolean showDetails) {
-		System.out.println(itemType + ": " + item.message);
+		System.out.println(itemType + ": " + item.getMessage());
 
 		if (showDetails) {
-			System.out.println("    Test: " + item.test);
-			if (item.location != null) {
-				System.out.println("    Location: " + item.location);
+			System.out.println("    Test: " + item.getTest());
+			if (item.getLocation() != null) {
+				System.out.println("    Location: " + item.getLocation());
 			}
-			if (item.line != null) {
-				System.out.println("    Location: " + item.line);
+			if (item.getLine() != null) {
+				System.out.println("    Location: " + item.getLine());
 			}
-			if (item.column != null) {
-				System.out.println("    Location: " + item.column);
+			if (item.getColumn() != null) {
+				System.out.println("    Location: " + item.getColumn());
 			}
 			System.out.println("");
 		}
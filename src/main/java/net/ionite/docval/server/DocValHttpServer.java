@@ -1,14 +1,45 @@
 package net.ionite.docval.server;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +53,8 @@ import net.ionite.docval.config.ConfigData;
 import net.ionite.docval.config.ConfigData.Listen;
 import net.ionite.docval.config.ConfigReader;
 import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.metrics.DocValMetrics;
+import net.ionite.docval.validation.ValidationResult;
 import net.ionite.docval.validation.ValidatorException;
 import net.ionite.docval.validation.ValidatorManager;
 import net.ionite.docval.xml.KeywordDeriver;
@@ -33,16 +66,64 @@ enum ContentType {
 
 /**
  * HTTP Server for bulk- or continuous validation.
+ *
+ * When embedding the server, consider running the JVM with
+ * -Dsun.net.httpserver.nodelay=true (as DocValHttpServerMain does); without
+ * it, every request after the first on a persistent connection is delayed by
+ * about 40 ms.
  */
 public class DocValHttpServer extends Thread {
 	private Logger logger;
 	private ValidatorManager validatorManager;
 	private ArrayList<HttpServer> listeners;
+	private ArrayList<FramedListener> framedListeners = new ArrayList<FramedListener>();
+	/** The socket files of the Unix domain socket listeners, removed on halt */
+	private ArrayList<Path> socketFiles = new ArrayList<Path>();
 	private String configFile = null;
 	private ConfigData configData = null;
 
+	private int compressionThreshold = CompressingResponseStream.DEFAULT_THRESHOLD;
+	/** The default maximum size of a compressed request body, when decoded */
+	public static final long DEFAULT_MAX_DECODED_REQUEST_SIZE = 256L * 1024 * 1024;
+	private long maxDecodedRequestSize = DEFAULT_MAX_DECODED_REQUEST_SIZE;
+	/** The default maximum size of a document sent with the framed protocol */
+	public static final int DEFAULT_MAX_FRAMED_DOCUMENT_SIZE = 256 * 1024 * 1024;
+	private int maxFramedDocumentSize = DEFAULT_MAX_FRAMED_DOCUMENT_SIZE;
+	/** The default maximum number of connections of a framed protocol listener */
+	public static final int DEFAULT_MAX_FRAMED_CONNECTIONS = 256;
+	private int maxFramedConnections = DEFAULT_MAX_FRAMED_CONNECTIONS;
+	/** Executor that runs the HTTP request handlers */
+	private ThreadPoolExecutor requestExecutor = null;
+	/** Executor that validates the documents of batch requests */
+	private ThreadPoolExecutor workerPool = null;
+	/** Executor that reads and writes the connections of framed protocol listeners */
+	private ExecutorService connectionExecutor = null;
+	private int workerThreads = Runtime.getRuntime().availableProcessors();
+	/** Executor that runs asynchronous validation jobs, if enabled */
+	private ThreadPoolExecutor jobExecutor = null;
+	private ScheduledExecutorService jobCleaner = null;
+	/** The queue of asynchronous validation jobs, if enabled */
+	private JobQueue jobQueue = null;
+	/** The metrics reported on /metrics */
+	private final DocValMetrics metrics = new DocValMetrics();
+
+	/*
+	 * Returns the content encoding to use for the response to the given request
+	 * (either gzip, deflate, or null for no compression)
+	 */
+	private String getResponseEncoding(HttpExchange t) {
+		return CompressingResponseStream.selectEncoding(t.getRequestHeaders().getFirst("Accept-Encoding"));
+	}
+
 	private void respondToRequest(HttpExchange t, String responseContent, int statusCode) throws IOException {
 		byte[] responseBytes = responseContent.getBytes();
+		String encoding = getResponseEncoding(t);
+		if (encoding != null && responseBytes.length > compressionThreshold) {
+			OutputStream os = new CompressingResponseStream(t, statusCode, encoding, compressionThreshold);
+			os.write(responseBytes);
+			os.close();
+			return;
+		}
 		t.sendResponseHeaders(statusCode, responseBytes.length);
 
 		OutputStream os = t.getResponseBody();
@@ -50,6 +131,333 @@ public class DocValHttpServer extends Thread {
 		os.close();
 	}
 
+	/**
+	 * Writes XML content directly to an output stream
+	 */
+	private interface XMLContentWriter {
+		void writeXML(OutputStream outputStream) throws SaxonApiException;
+	}
+
+	/*
+	 * Stream XML content straight to the response body, using chunked transfer
+	 * encoding, and compressing it if the client accepts that. Since the headers
+	 * may already have been sent when the content is written, an error during
+	 * serialization can only be logged; the response is then cut short.
+	 */
+	private void respondWithXML(HttpExchange t, XMLContentWriter content, int statusCode) throws IOException {
+		OutputStream os = new CompressingResponseStream(t, statusCode, getResponseEncoding(t), compressionThreshold);
+		try {
+			content.writeXML(os);
+		} catch (SaxonApiException saxError) {
+			logger.error("Unable to write XML response", saxError);
+		} finally {
+			os.close();
+		}
+	}
+
+	/*
+	 * Return a HashMap of the query parameters Parameter values are URLDecoded
+	 */
+	private HashMap<String, String> readRequestParameters(HttpExchange t) {
+		return parseParameters(t.getRequestURI().getQuery());
+	}
+
+	/*
+	 * Return a HashMap of the parameters in the given query string, which may be
+	 * null. Parameter values are URLDecoded; a malformed escape sequence raises a
+	 * ValidatorException
+	 */
+	private static HashMap<String, String> parseParameters(String queryString) {
+		HashMap<String, String> result = new HashMap<String, String>();
+		if (queryString == null) {
+			return result;
+		}
+
+		int last = 0, next, l = queryString.length();
+		while (last < l) {
+			next = queryString.indexOf('&', last);
+			if (next == -1)
+				next = l;
+
+			if (next > last) {
+				int eqPos = queryString.indexOf('=', last);
+				try {
+					if (eqPos < 0 || eqPos > next)
+						result.put(URLDecoder.decode(queryString.substring(last, next), "utf-8"), "");
+					else
+						result.put(URLDecoder.decode(queryString.substring(last, eqPos), "utf-8"),
+								URLDecoder.decode(queryString.substring(eqPos + 1, next), "utf-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new ValidatorException("Unable to decode URL string", e);
+				} catch (IllegalArgumentException badEscape) {
+					throw new ValidatorException("Bad request parameters: " + badEscape.getMessage(), badEscape);
+				}
+			}
+			last = next + 1;
+		}
+		return result;
+	}
+
+	/*
+	 * Returns the request body, decompressing it on the fly if it has a
+	 * Content-Encoding. Returns null if the encoding is not supported. Errors in
+	 * the compressed data, here or while the body is read, and decoded bodies
+	 * larger than the maximum decoded size, are reported as
+	 * BadRequestBodyException.
+	 */
+	private InputStream getDecodedRequestBody(HttpExchange t, String contentEncoding) throws IOException {
+		InputStream is = t.getRequestBody();
+		try {
+			if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding)) {
+				return is;
+			} else if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+				// This already reads the gzip header
+				return new DecodedInputStream(new GZIPInputStream(is, 8192), maxDecodedRequestSize);
+			} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+				return new DecodedInputStream(new InflaterInputStream(is), maxDecodedRequestSize);
+			}
+		} catch (IOException ioe) {
+			throw new BadRequestBodyException("unable to decompress request body: " + ioe.getMessage(), ioe);
+		}
+		return null;
+	}
+
+	/*
+	 * Thrown when a compressed request body can't be decoded, or is too large
+	 * when decoded
+	 */
+	private static class BadRequestBodyException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		BadRequestBodyException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/*
+	 * Input stream around a decompressing stream, that reports errors in the
+	 * compressed data as BadRequestBodyException, and limits the size of the
+	 * decompressed data, so that a small compressed body can't fill the memory
+	 */
+	private static class DecodedInputStream extends FilterInputStream {
+		private final long maxSize;
+		private long count = 0;
+
+		DecodedInputStream(InputStream in, long maxSize) {
+			super(in);
+			this.maxSize = maxSize;
+		}
+
+		private void count(long read) throws BadRequestBodyException {
+			count += read;
+			if (count > maxSize) {
+				throw new BadRequestBodyException("decompressed request body is larger than " + maxSize + " bytes",
+						null);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b;
+			try {
+				b = in.read();
+			} catch (IOException ioe) {
+				throw new BadRequestBodyException("unable to decompress request body: " + ioe.getMessage(), ioe);
+			}
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			int read;
+			try {
+				read = in.read(data, offset, length);
+			} catch (IOException ioe) {
+				throw new BadRequestBodyException("unable to decompress request body: " + ioe.getMessage(), ioe);
+			}
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped data is decompressed as well, so it is read and counted
+			byte[] skipBuffer = new byte[(int) Math.min(n, 8192)];
+			int read = read(skipBuffer, 0, skipBuffer.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	private byte[] readRequestBody(InputStream is) throws IOException {
+		byte[] inBuffer = new byte[8192];
+		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+
+		int readBytes = 0;
+		while ((readBytes = is.read(inBuffer, 0, inBuffer.length)) != -1) {
+			outBuffer.write(inBuffer, 0, readBytes);
+		}
+		return outBuffer.toByteArray();
+	}
+
+	/*
+	 * Input stream that counts the number of bytes read from it
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			int read = in.read(data, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/*
+	 * Returns the keyword label to use in metrics for the given keyword; only
+	 * configured keywords are used as label values
+	 */
+	private String keywordLabel(String keyword) {
+		if (keyword != null && validatorManager.hasValidatorsForKeyword(keyword)) {
+			return keyword;
+		}
+		return DocValMetrics.UNKNOWN;
+	}
+
+	/*
+	 * Returns true if the request parameters ask for timings to be included in
+	 * the result (a 'timings' parameter that is not 'false' or '0')
+	 */
+	private boolean timingsRequested(HashMap<String, String> parameters) {
+		String timings = parameters.get("timings");
+		return timings != null && !"false".equalsIgnoreCase(timings) && !"0".equals(timings);
+	}
+
+	/*
+	 * Returns the value of the 'sbdh' request parameter (whether to unwrap an
+	 * SBDH envelope), or the default of the validator manager if it is not given
+	 */
+	private boolean sbdhRequested(HashMap<String, String> parameters) {
+		String sbdh = parameters.get("sbdh");
+		if (sbdh == null) {
+			return validatorManager.getUnwrapSBDH();
+		}
+		return !"false".equalsIgnoreCase(sbdh) && !"0".equals(sbdh);
+	}
+
+	/*
+	 * Returns true if the request parameters ask for an aggregated result (an
+	 * 'aggregate' parameter that is not 'false' or '0')
+	 */
+	private boolean aggregateRequested(HashMap<String, String> parameters) {
+		String aggregate = parameters.get("aggregate");
+		return aggregate != null && !"false".equalsIgnoreCase(aggregate) && !"0".equals(aggregate);
+	}
+
+	/*
+	 * Returns the value of the 'max_locations' request parameter (the number of
+	 * locations per test in an aggregated result), or the default if it is not
+	 * given
+	 */
+	private int maxLocationsRequested(HashMap<String, String> parameters) {
+		String maxLocations = parameters.get("max_locations");
+		if (maxLocations == null) {
+			return ValidationResult.DEFAULT_MAX_LOCATIONS;
+		}
+		try {
+			int value = Integer.parseInt(maxLocations);
+			if (value >= 0) {
+				return value;
+			}
+		} catch (NumberFormatException nfe) {
+			// handled below
+		}
+		throw new ValidatorException("Bad value for max_locations: " + maxLocations);
+	}
+
+	/*
+	 * Returns true if the request parameters ask for the result to be streamed
+	 * (a 'stream' parameter that is not 'false' or '0')
+	 */
+	private boolean streamRequested(HashMap<String, String> parameters) {
+		String stream = parameters.get("stream");
+		return stream != null && !"false".equalsIgnoreCase(stream) && !"0".equals(stream);
+	}
+
+	/*
+	 * Returns the value of the 'detail' request parameter (full, summary or
+	 * counts), or FULL if it is not given
+	 */
+	private ValidationResult.Detail detailRequested(HashMap<String, String> parameters) {
+		String detail = parameters.get("detail");
+		if (detail == null) {
+			return ValidationResult.Detail.FULL;
+		}
+		switch (detail.toLowerCase()) {
+		case "full":
+			return ValidationResult.Detail.FULL;
+		case "summary":
+			return ValidationResult.Detail.SUMMARY;
+		case "counts":
+			return ValidationResult.Detail.COUNTS;
+		default:
+			throw new ValidatorException("Bad value for detail: " + detail);
+		}
+	}
+
+	/*
+	 * Create the result for a validation request, with the output options of
+	 * the request parameters
+	 */
+	private ValidationResult createResult(HashMap<String, String> parameters) {
+		ValidationResult result = new ValidationResult();
+		result.setAggregated(aggregateRequested(parameters));
+		result.setMaxLocations(maxLocationsRequested(parameters));
+		result.setDetail(detailRequested(parameters));
+		return result;
+	}
+
 	class IndexHandler implements HttpHandler {
 		private Logger logger;
 
@@ -112,26 +520,15 @@ public class DocValHttpServer extends Thread {
 
 			String accept = requestHeaders.getFirst("Accept");
 			// We support three output formats: json, xml and html, and default to html?
-			int statusCode = 200;
-			String responseData = "";
-
 			if (accept.equals("application/xml") || accept.equals("text/xml")) {
 				responseHeaders.set("Content-Type", accept);
-				try {
-					responseData = configData.documentTypesAsXMLString();
-				} catch (SaxonApiException e) {
-					logger.error("Unable to convert document types to XML", e);
-					responseData = "<Error><Detail>Unable to convert document types to XML</Detail></Error>";
-					statusCode = 500;
-				}
+				respondWithXML(t, configData::writeDocumentTypesXML, 200);
 			} else if (accept.equals("application/json") || accept.equals("*/*")) {
 				responseHeaders.set("Content-Type", "application/json");
-				responseData = configData.documentTypesAsJSONString();
+				respondToRequest(t, configData.documentTypesAsJSONString(), 200);
 			} else {
 				respondToRequest(t, "\"Could not satisfy the request Accept header '" + accept + "' \"", 406);
-				return;
 			}
-			respondToRequest(t, responseData, statusCode);
 		}
 
 		public void handle(HttpExchange t) throws IOException {
@@ -152,6 +549,14 @@ public class DocValHttpServer extends Thread {
 		}
 	}
 
+	/**
+	 * Handler for single document validation requests.
+	 * 
+	 * The result is sent as JSON or XML, depending on the Accept header. With
+	 * the stream parameter, and a JSON response, the errors and warnings are
+	 * sent as lines of JSON while the validation runs, followed by a summary
+	 * (see {@link StreamingResultSink}).
+	 */
 	class ValidatorHandler implements HttpHandler {
 		private Logger logger;
 		private ValidatorManager validatorManager;
@@ -161,73 +566,38 @@ public class DocValHttpServer extends Thread {
 			logger = LoggerFactory.getLogger(this.getClass().getName());
 		}
 
-		/*
-		 * Return a HashMap of the query parameters Parameter values are URLDecoded
-		 */
-		private HashMap<String, String> readRequestParameters(HttpExchange t) {
-			HashMap<String, String> result = new HashMap<String, String>();
-			String queryString = t.getRequestURI().getQuery();
-			if (queryString == null) {
-				return result;
-			}
-
-			int last = 0, next, l = queryString.length();
-			while (last < l) {
-				next = queryString.indexOf('&', last);
-				if (next == -1)
-					next = l;
-
-				if (next > last) {
-					int eqPos = queryString.indexOf('=', last);
-					try {
-						if (eqPos < 0 || eqPos > next)
-							result.put(URLDecoder.decode(queryString.substring(last, next), "utf-8"), "");
-						else
-							result.put(URLDecoder.decode(queryString.substring(last, eqPos), "utf-8"),
-									URLDecoder.decode(queryString.substring(eqPos + 1, next), "utf-8"));
-					} catch (UnsupportedEncodingException e) {
-						throw new ValidatorException("Unable to decode URL string", e);
-					}
-				}
-				last = next + 1;
-			}
-			return result;
-		}
-
-		private byte[] readRequestBody(HttpExchange t) throws IOException {
-			InputStream is = t.getRequestBody();
-			byte[] inBuffer = new byte[8192];
-			ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-
-			int readBytes = 0;
-			while ((readBytes = is.read(inBuffer, 0, inBuffer.length)) != -1) {
-				outBuffer.write(inBuffer, 0, readBytes);
-			}
-			return outBuffer.toByteArray();
-		}
-
 		private void POST(HttpExchange t) throws IOException {
+			long start = System.nanoTime();
 			Headers requestHeaders = t.getRequestHeaders();
 			Headers responseHeaders = t.getResponseHeaders();
 
-			int contentLength = Integer.parseInt(requestHeaders.getFirst("Content-length"));
-			byte[] inputData;
+			String contentLengthHeader = requestHeaders.getFirst("Content-length");
+			String contentEncoding = requestHeaders.getFirst("Content-Encoding");
 
 			String contentType = requestHeaders.getFirst("Content-Type");
-			if (contentType.startsWith("application/xml") || contentType.startsWith("text/xml")) {
-				inputData = readRequestBody(t);
-				if (inputData.length != contentLength) {
-					throw new IOException("Data in HTTP POST body differs from length of Content-Length header");
-				}
-			} else {
+			if (contentType == null
+					|| !(contentType.startsWith("application/xml") || contentType.startsWith("text/xml"))) {
+				metrics.countRequestError(415);
 				respondToRequest(t, "\"Unsupported Content-Type: '" + contentType + "' \"", 415);
 				return;
 			}
+			InputStream is;
+			try {
+				is = getDecodedRequestBody(t, contentEncoding);
+			} catch (BadRequestBodyException bodyError) {
+				metrics.countRequestError(400);
+				respondToRequest(t, "Error: " + bodyError.getMessage(), 400);
+				return;
+			}
+			if (is == null) {
+				metrics.countRequestError(415);
+				respondToRequest(t, "\"Unsupported Content-Encoding: '" + contentEncoding + "' \"", 415);
+				return;
+			}
 
 			String accept = requestHeaders.getFirst("Accept");
 			// We support three output formats: json, xml and html, and default to html?
 			int statusCode = 200;
-			String responseData = "";
 			ContentType responseContentType;
 
 			if (accept.equals("application/xml") || accept.equals("text/xml")) {
@@ -237,38 +607,88 @@ public class DocValHttpServer extends Thread {
 				responseHeaders.set("Content-Type", "application/json");
 				responseContentType = ContentType.JSON;
 			} else {
+				metrics.countRequestError(406);
 				respondToRequest(t, "\"Could not satisfy the request Accept header '" + accept + "' \"", 406);
 				return;
 			}
 
-			// Determine output format based on Accept: header
-
 			// If the keyword is not specified, derive automatically
-			String keyword = readRequestParameters(t).getOrDefault("keyword", null);
-
+			HashMap<String, String> parameters = readRequestParameters(t);
+			String keyword = parameters.getOrDefault("keyword", null);
+			boolean timings = timingsRequested(parameters);
+			boolean sbdh = sbdhRequested(parameters);
+			ValidationResult result;
 			try {
-				switch (responseContentType) {
-				case XML:
-					try {
-						responseData = validatorManager.validate(keyword, inputData).toXMLString();
-					} catch (SaxonApiException saxError) {
-						logger.error("Unable to convert validation results to XML", saxError);
-						responseData = "<Error><Detail>Unable to convert validation results to XML</Detail></Error>";
-					}
-					break;
-				case JSON:
-					responseData = validatorManager.validate(keyword, inputData).toJSONString();
-					break;
-				}
+				result = createResult(parameters);
+			} catch (ValidatorException valError) {
+				metrics.countRequestError(400);
+				respondToRequest(t, "Error: " + valError.getMessage(), 400);
+				return;
+			}
+
+			StreamingResultSink sink = null;
+			if (streamRequested(parameters) && responseContentType == ContentType.JSON) {
+				sink = new StreamingResultSink(t);
+				result.setSink(sink);
+			}
 
-				statusCode = 200;
+			// The request body is passed to the validator manager as a stream, so that
+			// an XML Schema validation can start while the document is still being
+			// received
+			CountingInputStream input = new CountingInputStream(is);
+			try {
+				validatorManager.validate(keyword, input, timings, sbdh, result);
+			} catch (BadRequestBodyException bodyError) {
+				respondWithError(t, sink, "Error: " + bodyError.getMessage());
+				return;
 			} catch (ValidatorException valError) {
 				logger.error("Error processing request: " + valError.getMessage(), valError);
-				responseData = "Error: " + valError.getMessage();
-				statusCode = 400;
+				respondWithError(t, sink, "Error: " + valError.getMessage());
+				return;
+			}
+			if (sink != null && sink.isCancelled()) {
+				// The client went away, and the validation was aborted
+				logger.debug("Streaming client disconnected, validation aborted");
+				sink.fail("Cancelled");
+				return;
+			}
+			// The Content-Length refers to the encoded data, so we can only check it
+			// for uncompressed requests
+			if (is == t.getRequestBody() && contentLengthHeader != null
+					&& input.getCount() != Long.parseLong(contentLengthHeader)) {
+				respondWithError(t, sink, "Error: Data in HTTP POST body differs from length of Content-Length header");
+				return;
 			}
+			metrics.observeRequestSize(input.getCount());
 
-			respondToRequest(t, responseData, statusCode);
+			if (sink != null) {
+				sink.finish(result);
+				metrics.observeRequest(keywordLabel(result.getKeyword()), "ndjson", System.nanoTime() - start);
+				return;
+			}
+			switch (responseContentType) {
+			case XML:
+				respondWithXML(t, result::writeXML, statusCode);
+				break;
+			case JSON:
+				respondToRequest(t, result.toJSONString(), statusCode);
+				break;
+			}
+			metrics.observeRequest(keywordLabel(result.getKeyword()), responseContentType.name().toLowerCase(),
+					System.nanoTime() - start);
+		}
+
+		/*
+		 * Respond to a request that can't be validated with a 400 error, or, if a
+		 * streamed response has already been started, end it with the error
+		 */
+		private void respondWithError(HttpExchange t, StreamingResultSink sink, String message) throws IOException {
+			metrics.countRequestError(400);
+			if (sink != null && sink.isStarted()) {
+				sink.fail(message);
+			} else {
+				respondToRequest(t, message, 400);
+			}
 		}
 
 		public void handle(HttpExchange t) throws IOException {
@@ -289,6 +709,422 @@ public class DocValHttpServer extends Thread {
 		}
 	}
 
+	/**
+	 * Handler for batch validation requests.
+	 * 
+	 * The request body is either a ZIP archive (Content-Type application/zip) or
+	 * a multipart body (multipart/form-data or multipart/mixed), where each file
+	 * or part is a document to validate. The keyword query parameter, if given,
+	 * is used for all documents; a multipart part can override it with a Keyword
+	 * part header. Without a keyword, it is derived from each document.
+	 * 
+	 * The documents are validated in parallel on the worker pool of the server,
+	 * while the rest of the request is still being read, and the result of each
+	 * document is sent back as a single line of JSON (in NDJSON format) as soon as
+	 * it is available, so the order of the lines is not the order of the
+	 * documents. Each line contains the fields of the normal JSON validation
+	 * result, plus "index" (the position of the document in the request) and
+	 * "name" (the file or part name). If a document could not be validated at
+	 * all, the line contains an "error" field instead of the validation result.
+	 * If the request itself can't be read completely (for instance because the
+	 * archive is malformed), the response ends with a line that only has an
+	 * "error" field, and the documents that were still being validated are not
+	 * reported.
+	 */
+	class BatchValidatorHandler implements HttpHandler {
+		private Logger logger;
+		private ValidatorManager validatorManager;
+
+		public BatchValidatorHandler(ValidatorManager validatorManager) {
+			this.validatorManager = validatorManager;
+			logger = LoggerFactory.getLogger(this.getClass().getName());
+		}
+
+		/*
+		 * Validate a single document from the batch, and return the NDJSON line for
+		 * it
+		 */
+		@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+		private String validateDocument(int index, String name, String keyword, byte[] document,
+				boolean timings, boolean sbdh, HashMap<String, String> parameters) {
+			JSONObject line;
+			metrics.observeRequestSize(document.length);
+			try {
+				line = validatorManager.validate(keyword, document, timings, sbdh, createResult(parameters)).toJSON();
+			} catch (ValidatorException valError) {
+				logger.debug("Error validating batch document " + name + ": " + valError.getMessage());
+				line = new JSONObject();
+				line.put("error", valError.getMessage());
+			}
+			line.put("index", index);
+			line.put("name", name);
+			return line.toJSONString() + "\n";
+		}
+
+		private void POST(HttpExchange t) throws IOException {
+			Headers requestHeaders = t.getRequestHeaders();
+			String contentType = requestHeaders.getFirst("Content-Type");
+			String contentEncoding = requestHeaders.getFirst("Content-Encoding");
+			HashMap<String, String> parameters = readRequestParameters(t);
+			String defaultKeyword = parameters.getOrDefault("keyword", null);
+			boolean timings = timingsRequested(parameters);
+			boolean sbdh = sbdhRequested(parameters);
+			try {
+				// Check the output options before reading the documents
+				createResult(parameters);
+			} catch (ValidatorException valError) {
+				respondToRequest(t, "Error: " + valError.getMessage(), 400);
+				return;
+			}
+
+			if (contentType == null || !(contentType.startsWith("application/zip")
+					|| contentType.startsWith("multipart/form-data") || contentType.startsWith("multipart/mixed"))) {
+				respondToRequest(t, "\"Unsupported Content-Type: '" + contentType + "' \"", 415);
+				return;
+			}
+			InputStream is;
+			try {
+				is = getDecodedRequestBody(t, contentEncoding);
+			} catch (BadRequestBodyException bodyError) {
+				metrics.countRequestError(400);
+				respondToRequest(t, "Error: " + bodyError.getMessage(), 400);
+				return;
+			}
+			if (is == null) {
+				respondToRequest(t, "\"Unsupported Content-Encoding: '" + contentEncoding + "' \"", 415);
+				return;
+			}
+
+			String boundary = null;
+			if (!contentType.startsWith("application/zip")) {
+				boundary = MultipartParser.getBoundary(contentType);
+				if (boundary == null) {
+					respondToRequest(t, "Error: missing boundary in multipart Content-Type", 400);
+					return;
+				}
+			}
+
+			// The response is started right away, and the results are written while
+			// the rest of the request is still being read
+			t.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+			t.sendResponseHeaders(200, 0);
+			BatchResponse response = new BatchResponse(t.getResponseBody());
+			try {
+				int index = 0;
+				if (boundary == null) {
+					ZipInputStream zis = new ZipInputStream(is);
+					ZipEntry entry;
+					while ((entry = zis.getNextEntry()) != null) {
+						if (entry.isDirectory()) {
+							continue;
+						}
+						final byte[] document = readRequestBody(new DecodedInputStream(zis, maxDecodedRequestSize));
+						response.submit(index++, entry.getName(), defaultKeyword, document, timings, sbdh, parameters);
+					}
+				} else {
+					MultipartParser parser = new MultipartParser(is, boundary);
+					MultipartParser.Part part;
+					while ((part = parser.nextPart()) != null) {
+						String partName = part.getDispositionParameter("filename");
+						if (partName == null) {
+							partName = part.getDispositionParameter("name");
+						}
+						String name = partName != null ? partName : "part-" + index;
+						String keyword = part.headers.getOrDefault("keyword", defaultKeyword);
+						response.submit(index++, name, keyword, part.data, timings, sbdh, parameters);
+					}
+				}
+				response.finish();
+			} catch (IOException ioe) {
+				// Malformed archive or multipart body, or the client went away; the
+				// documents that are still being validated are cancelled
+				logger.error("Error reading batch request: " + ioe.getMessage());
+				response.fail("unable to read batch request: " + ioe.getMessage());
+			} catch (InterruptedException interrupted) {
+				response.fail("interrupted");
+				Thread.currentThread().interrupt();
+			} finally {
+				response.close();
+			}
+		}
+
+		/* The position and name of a document in a batch request */
+		private class BatchDocument {
+			final int index;
+			final String name;
+
+			BatchDocument(int index, String name) {
+				this.index = index;
+				this.name = name;
+			}
+		}
+
+		/*
+		 * The response to a batch request. Documents are submitted to the worker
+		 * pool as they are read, and their result lines are written as soon as they
+		 * are available. At most a fixed number of documents is outstanding (being
+		 * validated or waiting for it); when that number is reached, reading waits
+		 * for one of them to finish, so that the memory used does not depend on the
+		 * size of the batch.
+		 */
+		private class BatchResponse {
+			private final OutputStream os;
+			private final int window = workerThreads * 4;
+			private final ExecutorCompletionService<String> completionService = new ExecutorCompletionService<String>(
+					workerPool);
+			/** The outstanding documents, with their index and name */
+			private final HashMap<Future<String>, BatchDocument> outstanding = new HashMap<Future<String>, BatchDocument>();
+
+			BatchResponse(OutputStream os) {
+				this.os = os;
+			}
+
+			void submit(int index, String name, String keyword, byte[] document, boolean timings, boolean sbdh,
+					HashMap<String, String> parameters) throws IOException, InterruptedException {
+				while (outstanding.size() >= window) {
+					write(completionService.take());
+				}
+				Future<String> future = completionService
+						.submit(() -> validateDocument(index, name, keyword, document, timings, sbdh, parameters));
+				outstanding.put(future, new BatchDocument(index, name));
+				Future<String> done;
+				while ((done = completionService.poll()) != null) {
+					write(done);
+				}
+			}
+
+			@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+			private void write(Future<String> future) throws IOException, InterruptedException {
+				BatchDocument document = outstanding.remove(future);
+				String line;
+				try {
+					line = future.get();
+				} catch (ExecutionException execError) {
+					logger.error("Unexpected error in batch validation of " + document.name, execError.getCause());
+					JSONObject errorLine = new JSONObject();
+					errorLine.put("error", execError.getCause().toString());
+					errorLine.put("index", document.index);
+					errorLine.put("name", document.name);
+					line = errorLine.toJSONString() + "\n";
+				}
+				os.write(line.getBytes(StandardCharsets.UTF_8));
+				os.flush();
+			}
+
+			/* Write the results of the outstanding documents */
+			void finish() throws IOException, InterruptedException {
+				while (!outstanding.isEmpty()) {
+					write(completionService.take());
+				}
+			}
+
+			/* Cancel the outstanding documents, and end the response with an error line */
+			void fail(String message) {
+				for (Future<String> future : outstanding.keySet()) {
+					future.cancel(true);
+				}
+				outstanding.clear();
+				try {
+					os.write(("{\"error\":" + JSONValue.toJSONString(message) + "}\n").getBytes(StandardCharsets.UTF_8));
+				} catch (IOException ioe) {
+					logger.debug("Unable to send batch error: " + ioe.getMessage());
+				}
+			}
+
+			void close() {
+				try {
+					os.close();
+				} catch (IOException ioe) {
+					logger.debug("Unable to close batch response: " + ioe.getMessage());
+				}
+			}
+		}
+
+		public void handle(HttpExchange t) throws IOException {
+			logger.debug("BatchValidatorHandler.handle() called");
+			try {
+				String method = t.getRequestMethod();
+				logger.debug("Request method: " + method);
+
+				if ("POST".equals(method)) {
+					POST(t);
+				} else {
+					respondToRequest(t, "\"Method " + method + " not allowed", 405);
+				}
+			} catch (Exception e) {
+				logger.error("Exception while handling client request", e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Handler for asynchronous validation jobs (see {@link JobQueue}).
+	 * 
+	 * POST /api/jobs submits a document, with the same request parameters as
+	 * /api/validate, plus an optional 'callback' URL, and returns 202 with the job
+	 * status (id and status) and the URL of the job in the Location header. GET
+	 * /api/jobs/&lt;id&gt; returns the job status, GET /api/jobs/&lt;id&gt;/result
+	 * the validation result (in JSON or XML, depending on the Accept header) once
+	 * the job is done, and DELETE /api/jobs/&lt;id&gt; removes a finished job.
+	 */
+	class JobsHandler implements HttpHandler {
+		private Logger logger;
+
+		public JobsHandler() {
+			logger = LoggerFactory.getLogger(this.getClass().getName());
+		}
+
+		private void POST(HttpExchange t) throws IOException {
+			Headers requestHeaders = t.getRequestHeaders();
+			String contentType = requestHeaders.getFirst("Content-Type");
+			String contentEncoding = requestHeaders.getFirst("Content-Encoding");
+			if (contentType == null
+					|| !(contentType.startsWith("application/xml") || contentType.startsWith("text/xml"))) {
+				respondToRequest(t, "\"Unsupported Content-Type: '" + contentType + "' \"", 415);
+				return;
+			}
+			InputStream is;
+			try {
+				is = getDecodedRequestBody(t, contentEncoding);
+			} catch (BadRequestBodyException bodyError) {
+				metrics.countRequestError(400);
+				respondToRequest(t, "Error: " + bodyError.getMessage(), 400);
+				return;
+			}
+			if (is == null) {
+				respondToRequest(t, "\"Unsupported Content-Encoding: '" + contentEncoding + "' \"", 415);
+				return;
+			}
+			HashMap<String, String> parameters = readRequestParameters(t);
+			JobQueue.Job job;
+			try {
+				// Check the output options before storing the document
+				createResult(parameters);
+				job = jobQueue.submit(is, parameters);
+			} catch (BadRequestBodyException bodyError) {
+				metrics.countRequestError(400);
+				respondToRequest(t, "Error: " + bodyError.getMessage(), 400);
+				return;
+			} catch (JobQueue.QueueFullException fullError) {
+				respondToRequest(t, "Error: " + fullError.getMessage(), 503);
+				return;
+			} catch (ValidatorException valError) {
+				respondToRequest(t, "Error: " + valError.getMessage(), 400);
+				return;
+			}
+			logger.debug("Submitted validation job " + job.id);
+			t.getResponseHeaders().set("Location", "/api/jobs/" + job.id);
+			t.getResponseHeaders().set("Content-Type", "application/json");
+			respondToRequest(t, job.toJSON().toJSONString(), 202);
+		}
+
+		private void GET(HttpExchange t, JobQueue.Job job, boolean resultRequested) throws IOException {
+			if (!resultRequested) {
+				t.getResponseHeaders().set("Content-Type", "application/json");
+				respondToRequest(t, job.toJSON().toJSONString(), 200);
+				return;
+			}
+			synchronized (job) {
+				if (job.status != JobQueue.Status.DONE) {
+					respondToRequest(t, "Error: job " + job.id + " is " + job.status.name().toLowerCase(), 409);
+					return;
+				}
+			}
+			String resultJSON = jobQueue.readResult(job);
+			String accept = t.getRequestHeaders().getFirst("Accept");
+			if ("application/xml".equals(accept) || "text/xml".equals(accept)) {
+				t.getResponseHeaders().set("Content-Type", accept);
+				respondWithXML(t, ValidationResult.fromJSONString(resultJSON)::writeXML, 200);
+			} else {
+				t.getResponseHeaders().set("Content-Type", "application/json");
+				respondToRequest(t, resultJSON, 200);
+			}
+		}
+
+		private void DELETE(HttpExchange t, JobQueue.Job job) throws IOException {
+			if (!jobQueue.delete(job)) {
+				respondToRequest(t, "Error: job " + job.id + " has not finished", 409);
+				return;
+			}
+			t.sendResponseHeaders(204, -1);
+			t.close();
+		}
+
+		public void handle(HttpExchange t) throws IOException {
+			logger.debug("JobsHandler.handle() called");
+			try {
+				String method = t.getRequestMethod();
+				// The path is /api/jobs, /api/jobs/<id> or /api/jobs/<id>/result
+				String[] path = t.getRequestURI().getPath().substring("/api/jobs".length()).split("/");
+				if (path.length > 0 && !path[0].isEmpty()) {
+					respondToRequest(t, "Error: not found", 404);
+					return;
+				}
+				if (path.length <= 1) {
+					if ("POST".equals(method)) {
+						POST(t);
+					} else {
+						respondToRequest(t, "\"Method " + method + " not allowed", 405);
+					}
+					return;
+				}
+				JobQueue.Job job = jobQueue.get(path[1]);
+				boolean resultRequested = path.length == 3 && "result".equals(path[2]);
+				if (job == null || path.length > 3 || (path.length == 3 && !resultRequested)) {
+					respondToRequest(t, "Error: no such job", 404);
+				} else if ("GET".equals(method)) {
+					GET(t, job, resultRequested);
+				} else if ("DELETE".equals(method) && !resultRequested) {
+					DELETE(t, job);
+				} else {
+					respondToRequest(t, "\"Method " + method + " not allowed", 405);
+				}
+			} catch (Exception e) {
+				logger.error("Exception while handling client request", e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Handler for the metrics endpoint, which returns the server metrics in the
+	 * Prometheus text exposition format.
+	 */
+	class MetricsHandler implements HttpHandler {
+		private Logger logger;
+
+		public MetricsHandler() {
+			logger = LoggerFactory.getLogger(this.getClass().getName());
+		}
+
+		private void GET(HttpExchange t) throws IOException {
+			t.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			OutputStream os = new CompressingResponseStream(t, 200, getResponseEncoding(t), compressionThreshold);
+			Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+			try {
+				metrics.writePrometheus(writer);
+			} finally {
+				writer.close();
+			}
+		}
+
+		public void handle(HttpExchange t) throws IOException {
+			logger.debug("MetricsHandler.handle() called");
+			try {
+				String method = t.getRequestMethod();
+				if ("GET".equals(method)) {
+					GET(t);
+				} else {
+					respondToRequest(t, "\"Method " + method + " not allowed", 405);
+				}
+			} catch (Exception e) {
+				logger.error("Exception while handling client request", e);
+				throw e;
+			}
+		}
+	}
+
 	/**
 	 * Initialize a server with the configuration in the given configuration file.
 	 * 
@@ -309,8 +1145,23 @@ public class DocValHttpServer extends Thread {
 		if (configData.server == null || configData.server.listen == null || configData.server.listen.size() == 0) {
 			throw new ConfigurationError("No Server or Listen section in provided configuration file " + configFile);
 		}
+		setCompressionThreshold(configData.server.compressionThreshold);
+		setMaxDecodedRequestSize(configData.server.maxDecodedRequestSize);
+		setMaxFramedDocumentSize(configData.server.maxFramedDocumentSize);
+		setMaxFramedConnections(configData.server.maxFramedConnections);
+		setWorkerThreads(configData.server.workerThreads);
+		if (configData.server.jobDirectory != null) {
+			enableJobs(configData.server.jobDirectory, configData.server.jobThreads, configData.server.maxQueuedJobs,
+					configData.server.jobRetention);
+		}
 		for (Listen listen : configData.server.listen) {
-			addListener(listen.address, listen.port);
+			if (listen.path != null) {
+				addUnixListener(listen.path, listen.permissions);
+			} else if (Listen.FRAMED.equals(listen.protocol)) {
+				addFramedListener(listen.address, listen.port);
+			} else {
+				addListener(listen.address, listen.port);
+			}
 		}
 		setValidatorManager(validatorManager);
 	}
@@ -329,8 +1180,8 @@ public class DocValHttpServer extends Thread {
 		this.configData = configData;
 
 		ValidatorManager validatorManager = new ValidatorManager();
-		validatorManager.applyConfig(configData);
 		setValidatorManager(validatorManager);
+		validatorManager.applyConfig(configData);
 	}
 
 	/**
@@ -374,6 +1225,130 @@ public class DocValHttpServer extends Thread {
 	 */
 	public void setValidatorManager(ValidatorManager validatorManager) {
 		this.validatorManager = validatorManager;
+		validatorManager.setMetrics(metrics);
+	}
+
+	/**
+	 * Returns the metrics of this server, as reported on the /metrics endpoint
+	 * 
+	 * @return The server metrics
+	 */
+	public DocValMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the response size (in bytes) above which responses are compressed, if
+	 * the client accepts compressed responses (through the Accept-Encoding
+	 * header). Defaults to 1024.
+	 * 
+	 * @param compressionThreshold The threshold in bytes
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Set the maximum size (in bytes) of a compressed request body when it is
+	 * decoded; larger bodies are refused with status 400. Defaults to 256 MiB.
+	 * 
+	 * @param maxDecodedRequestSize The maximum size in bytes
+	 */
+	public void setMaxDecodedRequestSize(long maxDecodedRequestSize) {
+		this.maxDecodedRequestSize = maxDecodedRequestSize;
+	}
+
+	/**
+	 * Set the maximum size (in bytes) of a document sent with the framed
+	 * protocol; a larger document is answered with an error, and the connection
+	 * is closed. Defaults to 256 MiB. Must be called before framed protocol
+	 * listeners are added.
+	 * 
+	 * @param maxFramedDocumentSize The maximum size in bytes
+	 */
+	public void setMaxFramedDocumentSize(int maxFramedDocumentSize) {
+		this.maxFramedDocumentSize = maxFramedDocumentSize;
+	}
+
+	/**
+	 * Set the maximum number of connections each framed protocol listener serves
+	 * at once; further connections wait until another one is closed. Defaults to
+	 * 256. Must be called before framed protocol listeners are added.
+	 * 
+	 * @param maxFramedConnections The maximum number of connections
+	 */
+	public void setMaxFramedConnections(int maxFramedConnections) {
+		this.maxFramedConnections = maxFramedConnections;
+	}
+
+	/**
+	 * Set the number of worker threads used to validate documents in parallel.
+	 * Defaults to the number of available processors. Must be called before
+	 * listeners are added.
+	 * 
+	 * @param workerThreads The number of worker threads
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		if (workerThreads > 0) {
+			this.workerThreads = workerThreads;
+		}
+	}
+
+	private static ThreadFactory daemonThreadFactory(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static ThreadPoolExecutor newFixedThreadPool(int threads, String prefix) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				daemonThreadFactory(prefix));
+	}
+
+	/**
+	 * Enable the asynchronous job API (/api/jobs). Jobs are stored in the given
+	 * directory, and the jobs in it that were not finished are queued again. Must
+	 * be called before listeners are added.
+	 * 
+	 * @param directory The directory to store the jobs in
+	 * @param threads   The number of threads that run jobs
+	 * @param maxQueued The maximum number of jobs that are queued or running;
+	 *                  further jobs are refused
+	 * @param retention The number of seconds finished jobs and their results are
+	 *                  kept, 0 to keep them until they are deleted
+	 * @throws IOException if the job directory could not be read or created
+	 */
+	public void enableJobs(String directory, int threads, int maxQueued, long retention) throws IOException {
+		jobExecutor = newFixedThreadPool(Math.max(threads, 1), "ion-docval-job-");
+		metrics.monitorExecutor("job", jobExecutor);
+		jobQueue = new JobQueue(Paths.get(directory), jobExecutor, maxQueued, retention * 1000,
+				(document, parameters) -> validatorManager.validate(parameters.get("keyword"), document,
+						timingsRequested(parameters), sbdhRequested(parameters), createResult(parameters)));
+		if (retention > 0) {
+			// Look for expired jobs at least every minute, or more often if they
+			// expire sooner
+			long interval = Math.min(retention, 60);
+			jobCleaner = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("ion-docval-job-cleaner-"));
+			jobCleaner.scheduleWithFixedDelay(jobQueue::expire, 0, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	/*
+	 * Create the executors, if they have not been created yet. Requests are
+	 * handled on their own pool, so that a batch request that waits for its
+	 * documents to be validated never blocks the workers it is waiting for.
+	 */
+	private void createExecutors() {
+		if (workerPool == null) {
+			workerPool = newFixedThreadPool(workerThreads, "ion-docval-worker-");
+			requestExecutor = newFixedThreadPool(workerThreads * 2, "ion-docval-request-");
+			connectionExecutor = Executors.newCachedThreadPool(daemonThreadFactory("ion-docval-connection-"));
+			metrics.monitorExecutor("worker", workerPool);
+			metrics.monitorExecutor("request", requestExecutor);
+		}
 	}
 
 	/**
@@ -386,13 +1361,138 @@ public class DocValHttpServer extends Thread {
 		HttpServer listener = HttpServer.create(new InetSocketAddress(host, port), 100);
 		listener.createContext("/validate", new IndexHandler());
 		listener.createContext("/api/validate", new ValidatorHandler(validatorManager));
+		listener.createContext("/api/validate/batch", new BatchValidatorHandler(validatorManager));
+		listener.createContext("/metrics", new MetricsHandler());
+		if (jobQueue != null) {
+			listener.createContext("/api/jobs", new JobsHandler());
+		}
 		if (configData != null) {
 			listener.createContext("/api/document_types", new DocumentTypesHandler(configData));
 		}
-		listener.setExecutor(null); // creates a default executor
+		createExecutors();
+		listener.setExecutor(requestExecutor);
 		listeners.add(listener);
 	}
 
+	/*
+	 * Validate a request of the framed protocol
+	 */
+	private FramedListener.Response handleFramedRequest(FramedListener.Request request) {
+		long start = System.nanoTime();
+		HashMap<String, String> parameters;
+		ValidationResult result;
+		try {
+			parameters = parseParameters(request.header.isEmpty() ? null : request.header);
+			result = validatorManager.validate(parameters.get("keyword"), request.document,
+					timingsRequested(parameters), sbdhRequested(parameters), createResult(parameters));
+		} catch (ValidatorException valError) {
+			logger.debug("Error processing framed request: " + valError.getMessage());
+			metrics.countRequestError(400);
+			return new FramedListener.Response(FramedListener.STATUS_ERROR, "Error: " + valError.getMessage());
+		}
+		metrics.observeRequestSize(request.document.length);
+		metrics.observeRequest(keywordLabel(result.getKeyword()), "framed", System.nanoTime() - start);
+		return new FramedListener.Response(FramedListener.STATUS_RESULT, result.toJSONString());
+	}
+
+	/**
+	 * Add a listener for the framed protocol (see {@link FramedListener}) on the
+	 * given IP address/hostname and port number. The listener uses the worker
+	 * pool of the server for validation.
+	 * 
+	 * @throws IOException if the port could not be opened for listening.
+	 */
+	public void addFramedListener(String host, int port) throws IOException {
+		logger.debug("ion-docval framed protocol server binding to " + host + " port " + port);
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(new InetSocketAddress(host, port), 100);
+		createExecutors();
+		framedListeners.add(new FramedListener(channel, this::handleFramedRequest, connectionExecutor, workerPool,
+				maxFramedDocumentSize, maxFramedConnections));
+	}
+
+	/*
+	 * Returns the file permissions for the given octal file mode, such as 660
+	 */
+	private static Set<PosixFilePermission> parseFileMode(String mode) throws ConfigurationError {
+		int bits;
+		try {
+			bits = Integer.parseInt(mode, 8);
+		} catch (NumberFormatException nfe) {
+			bits = -1;
+		}
+		if (bits < 0 || bits > 0777) {
+			throw new ConfigurationError("Bad file mode for Unix domain socket: " + mode);
+		}
+		Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		// The values are ordered from owner read (0400) to others execute (0001)
+		PosixFilePermission[] values = PosixFilePermission.values();
+		for (int i = 0; i < values.length; i++) {
+			if ((bits & (0400 >> i)) != 0) {
+				permissions.add(values[i]);
+			}
+		}
+		return permissions;
+	}
+
+	/**
+	 * Add a listener on a Unix domain socket, for clients on the same host. It
+	 * uses the framed protocol (see {@link FramedListener}), since the HTTP server
+	 * can only listen on TCP ports, and shares the connection handling and the
+	 * executors of the framed protocol listeners.
+	 * 
+	 * Access is controlled with the permissions of the socket file: only users
+	 * that may write to it can connect. The permissions are set right after the
+	 * socket is created; to rule out connections in between, place the socket in
+	 * a directory that only those users can access. A socket file left behind by
+	 * a previous run is replaced, but only if nothing listens on it any more; if
+	 * another server still does, this fails. The file is removed when the server
+	 * is halted.
+	 * 
+	 * Unix domain sockets require Java 16 or later; on earlier versions, this
+	 * raises a ConfigurationError.
+	 * 
+	 * @param path        The path of the socket file
+	 * @param permissions The permissions of the socket file, as an octal file
+	 *                    mode (such as 660), or null for the default (660)
+	 * @throws IOException        if the socket could not be created, or another
+	 *                            server is listening on it
+	 * @throws ConfigurationError if the permissions are not a valid file mode, or
+	 *                            if the JVM does not support Unix domain sockets
+	 */
+	public void addUnixListener(String path, String permissions) throws IOException, ConfigurationError {
+		logger.debug("ion-docval framed protocol server binding to Unix domain socket " + path);
+		if (!UnixSockets.isSupported()) {
+			throw new ConfigurationError("Unable to listen on " + path + ": Unix domain sockets require Java 16 or later");
+		}
+		Set<PosixFilePermission> filePermissions = parseFileMode(permissions != null ? permissions : "660");
+		Path socketFile = Paths.get(path);
+		if (Files.exists(socketFile, LinkOption.NOFOLLOW_LINKS)) {
+			if (!Files.readAttributes(socketFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+				throw new IOException("Unable to listen on " + path + ": file exists and is not a socket");
+			}
+			if (UnixSockets.isListening(socketFile)) {
+				throw new IOException("Unable to listen on " + path + ": another server is listening on it");
+			}
+			Files.delete(socketFile);
+		}
+		ServerSocketChannel channel = null;
+		try {
+			channel = UnixSockets.bind(socketFile, 100);
+			Files.setPosixFilePermissions(socketFile, filePermissions);
+		} catch (IOException | UnsupportedOperationException error) {
+			if (channel != null) {
+				channel.close();
+			}
+			Files.deleteIfExists(socketFile);
+			throw new IOException("Unable to listen on " + path + ": " + error.getMessage(), error);
+		}
+		createExecutors();
+		framedListeners.add(new FramedListener(channel, this::handleFramedRequest, connectionExecutor, workerPool,
+				maxFramedDocumentSize, maxFramedConnections));
+		socketFiles.add(socketFile);
+	}
+
 	/**
 	 * Start the server on all the configured listeners
 	 */
@@ -402,6 +1502,14 @@ public class DocValHttpServer extends Thread {
 			logger.info("ion-docval-server listening on " + listener.getAddress().getHostName() + " port "
 					+ listener.getAddress().getPort());
 		}
+		for (FramedListener listener : framedListeners) {
+			listener.start();
+			try {
+				logger.info("ion-docval-server listening with the framed protocol on " + listener.getAddress());
+			} catch (IOException ioe) {
+				logger.debug("Unable to determine address of framed listener: " + ioe.getMessage());
+			}
+		}
 	}
 
 	/**
@@ -412,5 +1520,26 @@ public class DocValHttpServer extends Thread {
 		for (HttpServer listener : listeners) {
 			listener.stop(delay);
 		}
+		for (FramedListener listener : framedListeners) {
+			listener.stop();
+		}
+		for (Path socketFile : socketFiles) {
+			try {
+				Files.deleteIfExists(socketFile);
+			} catch (IOException ioe) {
+				logger.warn("Unable to remove socket file " + socketFile + ": " + ioe.getMessage());
+			}
+		}
+		if (workerPool != null) {
+			workerPool.shutdown();
+			requestExecutor.shutdown();
+			connectionExecutor.shutdown();
+		}
+		if (jobExecutor != null) {
+			jobExecutor.shutdown();
+		}
+		if (jobCleaner != null) {
+			jobCleaner.shutdown();
+		}
 	}
 }
@@ -0,0 +1,470 @@
+package net.ionite.docval.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener for the framed validation protocol: a compact binary protocol over
+ * persistent connections, for clients that validate many documents and don't
+ * need HTTP.
+ *
+ * A client starts every connection by sending the four bytes "DVF1". After
+ * that, it sends any number of requests, each consisting of:
+ * <ul>
+ * <li>the length of the header (a 32-bit big-endian integer)</li>
+ * <li>the header: the request parameters, in the form of a URL query string,
+ * with the same parameters as /api/validate (keyword, sbdh, timings,
+ * aggregate, max_locations and detail); it may be empty</li>
+ * <li>the length of the document (a 32-bit big-endian integer)</li>
+ * <li>the document</li>
+ * </ul>
+ * For every request, the server sends a response consisting of a status byte
+ * (0 for a validation result, 1 for an error), the length of the body (a
+ * 32-bit big-endian integer) and the body: the validation result in JSON, or
+ * the error message, both in UTF-8.
+ *
+ * Requests may be pipelined: a client does not have to wait for a response
+ * before it sends the next request. The requests of a connection are
+ * validated in parallel on the worker pool of the server (up to
+ * MAX_PIPELINED at a time), and the responses are sent in the order of the
+ * requests. A malformed request, or a document larger than the maximum
+ * document size, is answered with an error, after which the connection is
+ * closed. A listener serves a limited number of connections at once; further
+ * connections wait in the backlog of the server socket until another one is
+ * closed.
+ */
+class FramedListener {
+	/** The bytes a client sends at the start of every connection */
+	static final byte[] MAGIC = { 'D', 'V', 'F', '1' };
+	/** Response status for a validation result */
+	static final int STATUS_RESULT = 0;
+	/** Response status for an error */
+	static final int STATUS_ERROR = 1;
+	/** The maximum length of a request header */
+	static final int MAX_HEADER_LENGTH = 65536;
+	/** The maximum number of requests of one connection that are validated at once */
+	static final int MAX_PIPELINED = 32;
+	/**
+	 * The size of the buffer a document is read into at first; it grows as the
+	 * document is read, so that a large announced length does not allocate
+	 * memory before the data has actually been sent
+	 */
+	private static final int INITIAL_DOCUMENT_BUFFER = 65536;
+
+	/**
+	 * A request: the header with the request parameters, and the document
+	 */
+	static class Request {
+		final String header;
+		final byte[] document;
+
+		Request(String header, byte[] document) {
+			this.header = header;
+			this.document = document;
+		}
+	}
+
+	/**
+	 * A response: a status and a body
+	 */
+	static class Response {
+		final int status;
+		final byte[] body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Handles the requests of the listener
+	 */
+	interface Handler {
+		/**
+		 * Handle the given request. This is called on the worker pool, possibly for
+		 * several requests of the same connection at once.
+		 *
+		 * @param request The request
+		 * @return The response to send
+		 */
+		Response handle(Request request);
+	}
+
+	/*
+	 * Marks the end of the responses of a connection
+	 */
+	private static final Future<Response> END = CompletableFuture.completedFuture(null);
+
+	private Logger logger;
+	private final ServerSocketChannel serverChannel;
+	private final Handler handler;
+	private final ExecutorService connectionExecutor;
+	private final ExecutorService workerPool;
+	private final int maxDocumentSize;
+	private final Semaphore connectionSlots;
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+	private volatile boolean running = false;
+
+	/**
+	 * Construct a listener on a bound server socket channel. Connections are
+	 * accepted once the listener is started.
+	 *
+	 * @param serverChannel      The bound channel to accept connections on
+	 * @param handler            Handles the requests
+	 * @param connectionExecutor Runs the threads that read requests and send
+	 *                           responses; it needs two threads for every
+	 *                           connection
+	 * @param workerPool         Runs the handler
+	 * @param maxDocumentSize    The maximum size of a document, in bytes
+	 * @param maxConnections     The maximum number of connections that are
+	 *                           served at once
+	 */
+	FramedListener(ServerSocketChannel serverChannel, Handler handler, ExecutorService connectionExecutor,
+			ExecutorService workerPool, int maxDocumentSize, int maxConnections) {
+		logger = LoggerFactory.getLogger(this.getClass().getName());
+		this.serverChannel = serverChannel;
+		this.handler = handler;
+		this.connectionExecutor = connectionExecutor;
+		this.workerPool = workerPool;
+		this.maxDocumentSize = maxDocumentSize;
+		this.connectionSlots = new Semaphore(maxConnections);
+	}
+
+	/**
+	 * Returns the address the listener is bound to
+	 *
+	 * @return The local address of the server channel
+	 * @throws IOException if the address can't be determined
+	 */
+	SocketAddress getAddress() throws IOException {
+		return serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Start accepting connections, on a thread of its own
+	 */
+	void start() {
+		running = true;
+		Thread acceptThread = new Thread(this::acceptConnections, "ion-docval-framed-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Stop accepting connections, and close the open ones
+	 */
+	void stop() {
+		running = false;
+		closeQuietly(serverChannel);
+		for (SocketChannel connection : connections) {
+			closeQuietly(connection);
+		}
+	}
+
+	private void closeQuietly(Channel channel) {
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			logger.debug("Error closing channel: " + ioe.getMessage());
+		}
+	}
+
+	/*
+	 * Accept connections, as long as fewer than the maximum number of
+	 * connections are open; a slot is released when both threads of a
+	 * connection are done (see threadDone)
+	 */
+	private void acceptConnections() {
+		while (running) {
+			try {
+				connectionSlots.acquire();
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			SocketChannel connection;
+			try {
+				connection = serverChannel.accept();
+			} catch (ClosedChannelException closed) {
+				break;
+			} catch (IOException ioe) {
+				connectionSlots.release();
+				logger.error("Error accepting connection: " + ioe.getMessage(), ioe);
+				continue;
+			}
+			connections.add(connection);
+			AtomicInteger threads = new AtomicInteger(2);
+			if (!startThread(connection, () -> readRequests(connection, threads))) {
+				break;
+			}
+		}
+	}
+
+	/*
+	 * Read the requests of a connection, and pass them to the worker pool. The
+	 * responses are sent by a second thread, in the order of the requests; at
+	 * most MAX_PIPELINED requests are handled at once, after which reading waits
+	 * for responses to be sent, or for the connection to be closed.
+	 */
+	private void readRequests(SocketChannel connection, AtomicInteger threads) {
+		BlockingQueue<Future<Response>> pending = new ArrayBlockingQueue<Future<Response>>(MAX_PIPELINED);
+		if (!startThread(connection, () -> writeResponses(connection, pending, threads))) {
+			return;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream(connection)));
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(MAGIC, magic)) {
+				enqueue(connection, pending, CompletableFuture
+						.completedFuture(new Response(STATUS_ERROR, "Unsupported protocol, expected DVF1")));
+				return;
+			}
+			while (true) {
+				Request request;
+				try {
+					request = readRequest(in);
+				} catch (ProtocolException protocolError) {
+					enqueue(connection, pending, CompletableFuture
+							.completedFuture(new Response(STATUS_ERROR, "Error: " + protocolError.getMessage())));
+					return;
+				}
+				if (request == null) {
+					return;
+				}
+				if (!enqueue(connection, pending, workerPool.submit(() -> handler.handle(request)))) {
+					return;
+				}
+			}
+		} catch (IOException ioe) {
+			// The connection was closed, possibly in the middle of a request
+			logger.debug("Connection closed while reading: " + ioe.getMessage());
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				enqueue(connection, pending, END);
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				closeQuietly(connection);
+			}
+			threadDone(threads);
+		}
+	}
+
+	/*
+	 * Run a thread of the given connection. Returns false, and closes the
+	 * connection and releases its slot, if the server is stopping.
+	 */
+	private boolean startThread(SocketChannel connection, Runnable thread) {
+		try {
+			connectionExecutor.execute(thread);
+			return true;
+		} catch (RejectedExecutionException stopping) {
+			connections.remove(connection);
+			closeQuietly(connection);
+			connectionSlots.release();
+			return false;
+		}
+	}
+
+	/*
+	 * Add a response to the queue of the connection, waiting for room as long as
+	 * the connection is open. Returns false, and cancels the response, if the
+	 * connection was closed; the responses are then no longer sent.
+	 */
+	private static boolean enqueue(SocketChannel connection, BlockingQueue<Future<Response>> pending,
+			Future<Response> response) throws InterruptedException {
+		while (!pending.offer(response, 1, TimeUnit.SECONDS)) {
+			if (!connection.isOpen()) {
+				response.cancel(false);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Called when one of the two threads of a connection is done; when both
+	 * are, the connection slot is released
+	 */
+	private void threadDone(AtomicInteger threads) {
+		if (threads.decrementAndGet() == 0) {
+			connectionSlots.release();
+		}
+	}
+
+	/*
+	 * Thrown for malformed requests
+	 */
+	private static class ProtocolException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ProtocolException(String message) {
+			super(message);
+		}
+	}
+
+	/*
+	 * Read a request, or return null if the client closed the connection between
+	 * requests
+	 */
+	private Request readRequest(DataInputStream in) throws IOException {
+		int headerLength;
+		try {
+			headerLength = in.readInt();
+		} catch (EOFException eof) {
+			return null;
+		}
+		if (headerLength < 0 || headerLength > MAX_HEADER_LENGTH) {
+			throw new ProtocolException("bad header length " + headerLength);
+		}
+		byte[] header = new byte[headerLength];
+		in.readFully(header);
+		int documentLength = in.readInt();
+		if (documentLength < 0) {
+			throw new ProtocolException("bad document length " + documentLength);
+		}
+		if (documentLength > maxDocumentSize) {
+			throw new ProtocolException(
+					"document of " + documentLength + " bytes exceeds the maximum size of " + maxDocumentSize + " bytes");
+		}
+		return new Request(new String(header, StandardCharsets.UTF_8), readDocument(in, documentLength));
+	}
+
+	/*
+	 * Read a document of the given length, into a buffer that grows as the data
+	 * arrives
+	 */
+	private static byte[] readDocument(DataInputStream in, int length) throws IOException {
+		byte[] document = new byte[Math.min(length, INITIAL_DOCUMENT_BUFFER)];
+		int count = 0;
+		while (count < length) {
+			if (count == document.length) {
+				document = Arrays.copyOf(document, (int) Math.min(length, 2L * document.length));
+			}
+			int read = in.read(document, count, document.length - count);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			count += read;
+		}
+		return document;
+	}
+
+	/*
+	 * Send the responses of a connection as they become available, in the order
+	 * of the requests, and close the connection after the last one. Responses
+	 * are flushed when no further response is ready, so that pipelined
+	 * responses are sent together. If the connection fails, it is closed, and
+	 * the responses that are still queued are dropped, so that the reading
+	 * thread is not left waiting for room in the queue.
+	 */
+	private void writeResponses(SocketChannel connection, BlockingQueue<Future<Response>> pending,
+			AtomicInteger threads) {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream(connection)));
+			while (true) {
+				Future<Response> next = pending.poll();
+				if (next == null) {
+					out.flush();
+					next = pending.take();
+				}
+				if (next == END) {
+					out.flush();
+					break;
+				}
+				Response response;
+				try {
+					response = next.get();
+				} catch (ExecutionException execError) {
+					logger.error("Unexpected error in framed validation", execError.getCause());
+					response = new Response(STATUS_ERROR, "Error: " + execError.getCause().toString());
+				}
+				out.writeByte(response.status);
+				out.writeInt(response.body.length);
+				out.write(response.body);
+			}
+		} catch (IOException ioe) {
+			logger.debug("Connection closed while writing: " + ioe.getMessage());
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+		} finally {
+			connections.remove(connection);
+			closeQuietly(connection);
+			for (Future<Response> dropped = pending.poll(); dropped != null; dropped = pending.poll()) {
+				dropped.cancel(false);
+			}
+			threadDone(threads);
+		}
+	}
+
+	/*
+	 * Streams on the connection that read and write through the channel directly,
+	 * so that one thread can write while another one is blocked reading
+	 */
+	private static InputStream inputStream(SocketChannel connection) {
+		return new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] data, int offset, int length) throws IOException {
+				if (length == 0) {
+					return 0;
+				}
+				return connection.read(ByteBuffer.wrap(data, offset, length));
+			}
+		};
+	}
+
+	private static OutputStream outputStream(SocketChannel connection) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] data, int offset, int length) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+				while (buffer.hasRemaining()) {
+					connection.write(buffer);
+				}
+			}
+		};
+	}
+}
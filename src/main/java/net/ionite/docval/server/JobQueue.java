@@ -0,0 +1,472 @@
+package net.ionite.docval.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidatorException;
+
+/**
+ * Queue of asynchronous validation jobs, for documents that take too long to
+ * validate within a single request.
+ *
+ * A job is a document with the request parameters it was submitted with. The
+ * document is written to the job directory as it is received, so it is never
+ * held in memory as a whole, and validated later on a dedicated, fixed-size
+ * pool of threads, separate from the pools that serve synchronous requests.
+ * The state of every job is stored in the job directory as well (as
+ * &lt;id&gt;.job.json, with the result in &lt;id&gt;.result.json), so that
+ * queued jobs survive a restart of the server: jobs that were queued or
+ * running when the server stopped are queued again when it starts, up to the
+ * maximum number of queued jobs, and files that don't belong to any job (left
+ * behind when the server stopped while a document was being received) are
+ * removed.
+ *
+ * When a job is done, and it was submitted with a callback URL, its status is
+ * POSTed to that URL. Callbacks can only go to the local host.
+ *
+ * Finished jobs are kept until they are deleted (see {@link #delete(Job)}),
+ * or until they expire (see {@link #expire()}).
+ */
+class JobQueue {
+	/** The state of a job */
+	enum Status {
+		QUEUED, RUNNING, DONE, FAILED
+	}
+
+	/**
+	 * Validates the document of a job
+	 */
+	interface Validation {
+		/**
+		 * Validate the given document with the given request parameters
+		 *
+		 * @param document   The document
+		 * @param parameters The parameters the job was submitted with
+		 * @return The result of the validation
+		 * @throws IOException if the document could not be read
+		 */
+		ValidationResult validate(InputStream document, HashMap<String, String> parameters) throws IOException;
+	}
+
+	/**
+	 * Thrown when a job is not accepted, because the queue is full
+	 */
+	static class QueueFullException extends ValidatorException {
+		private static final long serialVersionUID = 1L;
+
+		QueueFullException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A single job. Its fields are only changed while holding its lock; once it
+	 * is finished, its files are also only written or deleted while holding it.
+	 */
+	static class Job {
+		final String id;
+		final HashMap<String, String> parameters;
+		final long submitted;
+		Status status = Status.QUEUED;
+		Long finished = null;
+		String error = null;
+
+		Job(String id, HashMap<String, String> parameters, long submitted) {
+			this.id = id;
+			this.parameters = parameters;
+			this.submitted = submitted;
+		}
+
+		/**
+		 * Returns the status of this job, as JSON
+		 */
+		@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+		synchronized JSONObject toJSON() {
+			JSONObject result = new JSONObject();
+			result.put("id", id);
+			result.put("status", status.name().toLowerCase());
+			result.put("submitted", submitted);
+			if (finished != null) {
+				result.put("finished", finished);
+			}
+			if (error != null) {
+				result.put("error", error);
+			}
+			return result;
+		}
+
+		/**
+		 * The JSON that is stored in the job directory: the status, and the
+		 * parameters
+		 */
+		@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+		synchronized JSONObject toStoredJSON() {
+			JSONObject result = toJSON();
+			JSONObject jsonParameters = new JSONObject();
+			jsonParameters.putAll(parameters);
+			result.put("parameters", jsonParameters);
+			return result;
+		}
+
+		@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+		static Job fromStoredJSON(JSONObject json) {
+			HashMap<String, String> parameters = new HashMap<String, String>();
+			JSONObject jsonParameters = (JSONObject) json.get("parameters");
+			if (jsonParameters != null) {
+				parameters.putAll(jsonParameters);
+			}
+			Job job = new Job((String) json.get("id"), parameters, (Long) json.get("submitted"));
+			job.status = Status.valueOf(((String) json.get("status")).toUpperCase());
+			job.finished = (Long) json.get("finished");
+			job.error = (String) json.get("error");
+			return job;
+		}
+	}
+
+	/** The time a callback may take, to connect or to respond */
+	private static final Duration CALLBACK_TIMEOUT = Duration.ofSeconds(30);
+
+	private Logger logger;
+	private final Path directory;
+	private final int maxQueued;
+	private final long retentionMillis;
+	private final ThreadPoolExecutor executor;
+	private final Validation validation;
+	/** Sends the callbacks of all jobs */
+	private final HttpClient callbackClient = HttpClient.newBuilder().connectTimeout(CALLBACK_TIMEOUT).build();
+	private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+	/** The number of jobs that are queued or running */
+	private final AtomicInteger unfinished = new AtomicInteger();
+
+	/**
+	 * Construct a job queue that stores its jobs in the given directory, and
+	 * queue the jobs in it that were not finished
+	 *
+	 * @param directory  The directory to store the jobs in; it is created if it
+	 *                   does not exist
+	 * @param executor   The executor to run the jobs on
+	 * @param maxQueued  The maximum number of jobs that are queued or running
+	 * @param retention  The time in milliseconds that finished jobs are kept,
+	 *                   0 to keep them until they are deleted
+	 * @param validation Validates the documents of the jobs
+	 * @throws IOException if the directory can't be read or created
+	 */
+	JobQueue(Path directory, ThreadPoolExecutor executor, int maxQueued, long retention, Validation validation)
+			throws IOException {
+		logger = LoggerFactory.getLogger(this.getClass().getName());
+		this.directory = directory;
+		this.executor = executor;
+		this.maxQueued = maxQueued;
+		this.retentionMillis = retention;
+		this.validation = validation;
+		Files.createDirectories(directory);
+		recover();
+	}
+
+	/*
+	 * Read the jobs in the job directory, and queue the ones that were not
+	 * finished, in the order they were submitted. Jobs beyond the maximum number
+	 * of queued jobs are marked as failed. Documents without a job, documents of
+	 * finished jobs and temporary files are removed.
+	 */
+	private void recover() throws IOException {
+		ArrayList<Job> queued = new ArrayList<Job>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.job.json")) {
+			for (Path file : files) {
+				Job job;
+				try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+					job = Job.fromStoredJSON((JSONObject) new JSONParser().parse(reader));
+				} catch (ParseException | RuntimeException error) {
+					logger.error("Ignoring unreadable job file " + file + ": " + error.getMessage());
+					continue;
+				}
+				jobs.put(job.id, job);
+				if (job.status == Status.QUEUED || job.status == Status.RUNNING) {
+					job.status = Status.QUEUED;
+					queued.add(job);
+				}
+			}
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{xml,tmp}")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				Job job = name.endsWith(".xml") ? jobs.get(name.substring(0, name.length() - 4)) : null;
+				if (job == null || job.status == Status.DONE || job.status == Status.FAILED) {
+					logger.info("Removing leftover job file " + file);
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		queued.sort((a, b) -> Long.compare(a.submitted, b.submitted));
+		for (Job job : queued) {
+			if (unfinished.get() >= maxQueued) {
+				logger.warn("Not resuming validation job " + job.id + ": too many validation jobs queued");
+				job.status = Status.FAILED;
+				job.finished = System.currentTimeMillis();
+				job.error = "Too many validation jobs queued (" + maxQueued + ")";
+				store(job);
+				Files.deleteIfExists(documentFile(job.id));
+				continue;
+			}
+			logger.info("Resuming validation job " + job.id);
+			unfinished.incrementAndGet();
+			executor.execute(() -> run(job));
+		}
+	}
+
+	private Path documentFile(String id) {
+		return directory.resolve(id + ".xml");
+	}
+
+	private Path jobFile(String id) {
+		return directory.resolve(id + ".job.json");
+	}
+
+	private Path resultFile(String id) {
+		return directory.resolve(id + ".result.json");
+	}
+
+	/*
+	 * Write the state of the job to the job directory. The file is replaced in
+	 * one step, so that it is never read half-written.
+	 */
+	private void store(Job job) throws IOException {
+		writeAtomically(jobFile(job.id), job.toStoredJSON().toJSONString());
+	}
+
+	private void writeAtomically(Path file, String content) throws IOException {
+		Path tempFile = directory.resolve(file.getFileName() + ".tmp");
+		Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Checks that the given callback URL can be used: it must be an http URL on
+	 * the local host
+	 *
+	 * @param callback The callback URL
+	 * @throws ValidatorException if the URL can't be used
+	 */
+	static void checkCallback(String callback) {
+		try {
+			URI uri = new URI(callback);
+			String host = uri.getHost();
+			if (!"http".equalsIgnoreCase(uri.getScheme()) || host == null || !(host.equalsIgnoreCase("localhost")
+					|| host.equals("127.0.0.1") || host.equals("[::1]"))) {
+				throw new ValidatorException("Callback URL must be an http URL on the local host: " + callback);
+			}
+		} catch (URISyntaxException uriError) {
+			throw new ValidatorException("Bad callback URL: " + callback);
+		}
+	}
+
+	/**
+	 * Returns the number of jobs that are queued or running
+	 *
+	 * @return The number of unfinished jobs
+	 */
+	int getUnfinishedCount() {
+		return unfinished.get();
+	}
+
+	/**
+	 * Submit a job. The document is read from the given stream, and stored in
+	 * the job directory, before this method returns.
+	 *
+	 * @param document   The document to validate
+	 * @param parameters The request parameters, as for a synchronous validation,
+	 *                   plus an optional callback URL
+	 * @return The new job
+	 * @throws IOException         if the document could not be read or stored
+	 * @throws QueueFullException  if the maximum number of unfinished jobs has
+	 *                             been reached
+	 * @throws ValidatorException if the callback URL can't be used
+	 */
+	Job submit(InputStream document, HashMap<String, String> parameters) throws IOException {
+		String callback = parameters.get("callback");
+		if (callback != null) {
+			checkCallback(callback);
+		}
+		Job job = new Job(UUID.randomUUID().toString(), parameters, System.currentTimeMillis());
+		// Counted before it is checked, so that concurrent submissions can't
+		// exceed the maximum
+		if (unfinished.incrementAndGet() > maxQueued) {
+			unfinished.decrementAndGet();
+			throw new QueueFullException("Too many validation jobs queued (" + maxQueued + ")");
+		}
+		jobs.put(job.id, job);
+		try {
+			Files.copy(document, documentFile(job.id), StandardCopyOption.REPLACE_EXISTING);
+			store(job);
+		} catch (IOException ioe) {
+			jobs.remove(job.id);
+			unfinished.decrementAndGet();
+			Files.deleteIfExists(documentFile(job.id));
+			throw ioe;
+		}
+		executor.execute(() -> run(job));
+		return job;
+	}
+
+	/*
+	 * Validate the document of the job, store the result, and call the callback
+	 * URL, if any
+	 */
+	private void run(Job job) {
+		Status status;
+		String error = null;
+		try {
+			synchronized (job) {
+				job.status = Status.RUNNING;
+			}
+			store(job);
+			ValidationResult result;
+			try (InputStream document = Files.newInputStream(documentFile(job.id))) {
+				result = validation.validate(document, job.parameters);
+			}
+			writeAtomically(resultFile(job.id), result.toJSONString());
+			status = Status.DONE;
+		} catch (IOException | RuntimeException failure) {
+			logger.error("Validation job " + job.id + " failed: " + failure.getMessage(), failure);
+			status = Status.FAILED;
+			error = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+		}
+		// Stored while holding the lock, so that the job can't be deleted (or
+		// expire) between finishing and storing it, which would leave its file
+		// behind
+		synchronized (job) {
+			job.status = status;
+			job.finished = System.currentTimeMillis();
+			job.error = error;
+			try {
+				store(job);
+				Files.deleteIfExists(documentFile(job.id));
+			} catch (IOException ioe) {
+				logger.error("Unable to store state of validation job " + job.id, ioe);
+			}
+		}
+		unfinished.decrementAndGet();
+		String callback = job.parameters.get("callback");
+		if (callback != null) {
+			callBack(job, callback);
+		}
+	}
+
+	/*
+	 * POST the status of the finished job to its callback URL, without waiting
+	 * for the response. Failures are logged, but the job is not affected by
+	 * them.
+	 */
+	private void callBack(Job job, String callback) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(new URI(callback)).timeout(CALLBACK_TIMEOUT)
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(job.toJSON().toJSONString())).build();
+		} catch (URISyntaxException uriError) {
+			logger.error("Callback for validation job " + job.id + " failed: " + uriError.getMessage());
+			return;
+		}
+		callbackClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+			if (failure != null) {
+				Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+						? failure.getCause()
+						: failure;
+				logger.error("Callback for validation job " + job.id + " failed: " + cause.getMessage());
+			} else {
+				logger.debug("Callback for validation job " + job.id + " returned status " + response.statusCode());
+			}
+		});
+	}
+
+	/**
+	 * Returns the job with the given id
+	 *
+	 * @param id The job id
+	 * @return The job, or null if there is no such job
+	 */
+	Job get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Returns the result of the given job, as JSON
+	 *
+	 * @param job A job that is done
+	 * @return The result, as stored
+	 * @throws IOException if the result could not be read
+	 */
+	String readResult(Job job) throws IOException {
+		return new String(Files.readAllBytes(resultFile(job.id)), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Delete a finished job, and its result
+	 *
+	 * @param job The job
+	 * @return False if the job is still queued or running
+	 * @throws IOException if the files of the job could not be deleted
+	 */
+	boolean delete(Job job) throws IOException {
+		synchronized (job) {
+			if (job.status == Status.QUEUED || job.status == Status.RUNNING) {
+				return false;
+			}
+			jobs.remove(job.id);
+			Files.deleteIfExists(resultFile(job.id));
+			Files.deleteIfExists(jobFile(job.id));
+		}
+		return true;
+	}
+
+	/**
+	 * Delete the jobs that finished longer ago than the retention time, and their
+	 * results. Does nothing if finished jobs are kept until they are deleted.
+	 * This is meant to be called periodically.
+	 */
+	void expire() {
+		if (retentionMillis <= 0) {
+			return;
+		}
+		long expired = System.currentTimeMillis() - retentionMillis;
+		for (Job job : jobs.values()) {
+			synchronized (job) {
+				if (job.finished == null || job.finished > expired) {
+					continue;
+				}
+			}
+			try {
+				logger.debug("Validation job " + job.id + " expired");
+				delete(job);
+			} catch (IOException ioe) {
+				logger.error("Unable to delete expired validation job " + job.id + ": " + ioe.getMessage());
+			}
+		}
+	}
+}
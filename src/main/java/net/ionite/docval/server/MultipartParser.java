@@ -0,0 +1,194 @@
+package net.ionite.docval.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Minimal parser for multipart request bodies (RFC 2046), such as
+ * multipart/form-data and multipart/mixed.
+ *
+ * Only what is needed for the batch validation endpoint is supported: each
+ * part is returned with its headers and data; nested multiparts are not
+ * parsed. The body is read as a stream, one part at a time, so that only the
+ * current part is held in memory.
+ */
+class MultipartParser {
+	/**
+	 * A single part of a multipart body
+	 */
+	static class Part {
+		/** The part headers, with lower-case names */
+		HashMap<String, String> headers = new HashMap<String, String>();
+		/** The data of the part */
+		byte[] data;
+
+		/**
+		 * Returns the value of the given parameter of the Content-Disposition header
+		 * (such as 'name' or 'filename'), or null if not present
+		 */
+		String getDispositionParameter(String parameter) {
+			String disposition = headers.get("content-disposition");
+			if (disposition == null) {
+				return null;
+			}
+			for (String element : disposition.split(";")) {
+				String[] keyValue = element.trim().split("=", 2);
+				if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase(parameter)) {
+					String value = keyValue[1].trim();
+					if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+						value = value.substring(1, value.length() - 1);
+					}
+					return value;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** The maximum size of the headers of a part */
+	static final int MAX_HEADER_SIZE = 16384;
+
+	private final InputStream in;
+	private final byte[] delimiter;
+	private final int[] fallback;
+	private boolean started = false;
+	private boolean finished = false;
+
+	/**
+	 * Construct a parser that reads the parts of a multipart body from the given
+	 * stream, one at a time
+	 *
+	 * @param in       The request body
+	 * @param boundary The boundary, as specified in the Content-Type header
+	 */
+	MultipartParser(InputStream in, String boundary) {
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+		delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		// Where to continue matching the delimiter after a mismatch (as in the
+		// Knuth-Morris-Pratt algorithm), so that the data is read only once
+		fallback = new int[delimiter.length];
+		for (int i = 1, j = 0; i < delimiter.length; i++) {
+			while (j > 0 && delimiter[i] != delimiter[j]) {
+				j = fallback[j - 1];
+			}
+			if (delimiter[i] == delimiter[j]) {
+				j++;
+			}
+			fallback[i] = j;
+		}
+	}
+
+	/**
+	 * Returns the boundary parameter of the given multipart Content-Type
+	 * header value, or null if there is none
+	 */
+	static String getBoundary(String contentType) {
+		for (String element : contentType.split(";")) {
+			String[] keyValue = element.trim().split("=", 2);
+			if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase("boundary")) {
+				String boundary = keyValue[1].trim();
+				if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+					boundary = boundary.substring(1, boundary.length() - 1);
+				}
+				return boundary;
+			}
+		}
+		return null;
+	}
+
+	private int readByte(String context) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new IOException("Unexpected end of multipart " + context);
+		}
+		return b;
+	}
+
+	/*
+	 * Read up to and including the next delimiter. The data before it is kept in
+	 * the given buffer, if not null. The first delimiter of the body does not
+	 * need to be preceded by a line break, so matching starts as if one was read
+	 * already.
+	 */
+	private void readToDelimiter(ByteArrayOutputStream data, int matched) throws IOException {
+		int j = matched;
+		while (j < delimiter.length) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException(started ? "Unexpected end of multipart body"
+						: "Multipart boundary not found in request body");
+			}
+			while (j > 0 && b != (delimiter[j] & 0xff)) {
+				// The bytes that no longer match are data after all
+				if (data != null) {
+					data.write(delimiter, 0, j - fallback[j - 1]);
+				}
+				j = fallback[j - 1];
+			}
+			if (b == (delimiter[j] & 0xff)) {
+				j++;
+			} else if (data != null) {
+				data.write(b);
+			}
+		}
+	}
+
+	/**
+	 * Read the next part of the body
+	 *
+	 * @return The next part, or null after the last part
+	 * @throws IOException if the body is not a well-formed multipart body, or
+	 *                     could not be read
+	 */
+	Part nextPart() throws IOException {
+		if (finished) {
+			return null;
+		}
+		if (!started) {
+			readToDelimiter(null, 2);
+			started = true;
+		}
+		// After the delimiter: either "--" (the closing delimiter) or the rest of
+		// the delimiter line
+		int b = readByte("body");
+		if (b == '-' && readByte("body") == '-') {
+			finished = true;
+			return null;
+		}
+		while (b != '\n') {
+			b = readByte("body");
+		}
+
+		Part part = new Part();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int headerSize = 0;
+		while (true) {
+			b = readByte("part headers");
+			if (++headerSize > MAX_HEADER_SIZE) {
+				throw new IOException("Multipart part headers too large");
+			}
+			if (b != '\n') {
+				line.write(b);
+				continue;
+			}
+			String header = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+			line.reset();
+			if (header.isEmpty()) {
+				break;
+			}
+			int colon = header.indexOf(':');
+			if (colon > 0) {
+				part.headers.put(header.substring(0, colon).trim().toLowerCase(), header.substring(colon + 1).trim());
+			}
+		}
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		readToDelimiter(data, 0);
+		part.data = data.toByteArray();
+		return part;
+	}
+}
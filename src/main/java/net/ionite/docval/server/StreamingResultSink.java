@@ -0,0 +1,133 @@
+package net.ionite.docval.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidationResultSink;
+
+/**
+ * Sends the errors and warnings of a validation to the client while they are
+ * produced, as lines of JSON (NDJSON), using chunked transfer encoding.
+ *
+ * Every error or warning is sent as a line with a single field "error" or
+ * "warning", containing the item as in the normal JSON result. When a
+ * validation file is done, a line with the field "validator_finished" (the
+ * name of the validation file) is sent. The last line has the field
+ * "summary", with the normal JSON result without the errors and warnings
+ * themselves (see {@link ValidationResult#toSummaryJSON()}), or, if the
+ * validation failed after the response was started, the field "failure" with
+ * the error message.
+ *
+ * The response headers are sent with the first line, so that errors that occur
+ * before anything has been sent can still be reported with a normal error
+ * response. If the client goes away, the sink is cancelled (see
+ * {@link #isCancelled()}), which aborts the validation, and the rest of the
+ * output is discarded.
+ */
+class StreamingResultSink implements ValidationResultSink {
+	private Logger logger;
+	private HttpExchange exchange;
+	private OutputStream out = null;
+	private volatile boolean broken = false;
+
+	/**
+	 * Construct a sink that sends its output to the given exchange
+	 *
+	 * @param exchange The HTTP exchange to send the response to
+	 */
+	StreamingResultSink(HttpExchange exchange) {
+		this.exchange = exchange;
+		logger = LoggerFactory.getLogger(this.getClass().getName());
+	}
+
+	/**
+	 * Returns true if the response has been started, i.e. if the response headers
+	 * have been sent
+	 *
+	 * @return True if the response has been started
+	 */
+	boolean isStarted() {
+		return out != null;
+	}
+
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private void writeLine(String field, Object value) {
+		if (broken) {
+			return;
+		}
+		JSONObject line = new JSONObject();
+		line.put(field, value);
+		try {
+			if (out == null) {
+				exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+				out = new CompressingResponseStream(exchange, 200, null, 0);
+			}
+			out.write((line.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		} catch (IOException ioe) {
+			// Most likely the client has closed the connection
+			logger.debug("Unable to send streamed result: " + ioe.getMessage());
+			broken = true;
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return broken;
+	}
+
+	@Override
+	public void error(ValidationResultItem item) {
+		writeLine("error", item.toJSON());
+	}
+
+	@Override
+	public void warning(ValidationResultItem item) {
+		writeLine("warning", item.toJSON());
+	}
+
+	@Override
+	public void validatorFinished(String validationFile) {
+		writeLine("validator_finished", validationFile);
+	}
+
+	/**
+	 * Send the summary of the result, and end the response
+	 *
+	 * @param result The result of the validation
+	 */
+	void finish(ValidationResult result) {
+		writeLine("summary", result.toSummaryJSON());
+		close();
+	}
+
+	/**
+	 * Report that the validation failed, and end the response. Only used when the
+	 * response has already been started.
+	 *
+	 * @param message The error message
+	 */
+	void fail(String message) {
+		writeLine("failure", message);
+		close();
+	}
+
+	private void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ioe) {
+				logger.debug("Unable to close streamed result: " + ioe.getMessage());
+			}
+		}
+	}
+}
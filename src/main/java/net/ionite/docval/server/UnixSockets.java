@@ -0,0 +1,121 @@
+package net.ionite.docval.server;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket support, which the JDK only has from Java 16 on.
+ *
+ * The server itself runs on Java 11, so the classes and methods involved
+ * (StandardProtocolFamily.UNIX, UnixDomainSocketAddress and
+ * ServerSocketChannel.open(ProtocolFamily)) are looked up when this class is
+ * first used, which is only when a Unix domain socket listener is added.
+ */
+final class UnixSockets {
+	private static final ProtocolFamily UNIX;
+	private static final Method OPEN_SERVER_CHANNEL;
+	private static final Method ADDRESS_OF;
+
+	static {
+		ProtocolFamily unix = null;
+		Method openServerChannel = null;
+		Method addressOf = null;
+		try {
+			unix = StandardProtocolFamily.valueOf("UNIX");
+			openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+			addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+		} catch (IllegalArgumentException | ReflectiveOperationException notSupported) {
+			unix = null;
+		}
+		UNIX = unix;
+		OPEN_SERVER_CHANNEL = openServerChannel;
+		ADDRESS_OF = addressOf;
+	}
+
+	private UnixSockets() {
+	}
+
+	/**
+	 * Returns true if the JVM supports Unix domain sockets
+	 *
+	 * @return True on Java 16 and later
+	 */
+	static boolean isSupported() {
+		return UNIX != null;
+	}
+
+	/**
+	 * Open a server socket channel for a Unix domain socket, and bind it to the
+	 * given path
+	 *
+	 * @param path    The path of the socket file, which must not exist
+	 * @param backlog The maximum number of pending connections
+	 * @return The bound channel
+	 * @throws IOException                   if the socket could not be created
+	 * @throws UnsupportedOperationException if the JVM does not support Unix
+	 *                                       domain sockets
+	 */
+	static ServerSocketChannel bind(Path path, int backlog) throws IOException {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+		}
+		ServerSocketChannel channel = (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, UNIX);
+		try {
+			channel.bind((SocketAddress) invoke(ADDRESS_OF, path), backlog);
+		} catch (IOException | RuntimeException error) {
+			channel.close();
+			throw error;
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns true if a process is listening on the socket at the given path.
+	 * A socket file that is left behind by a process that is gone refuses
+	 * connections.
+	 *
+	 * @param path The path of the socket file
+	 * @return True if a connection to the socket could be made
+	 * @throws IOException                   if connecting failed for another
+	 *                                       reason than a refused connection
+	 * @throws UnsupportedOperationException if the JVM does not support Unix
+	 *                                       domain sockets
+	 */
+	static boolean isListening(Path path) throws IOException {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+		}
+		try (SocketChannel channel = SocketChannel.open((SocketAddress) invoke(ADDRESS_OF, path))) {
+			return true;
+		} catch (ConnectException refused) {
+			return false;
+		}
+	}
+
+	/*
+	 * Invoke the given static method, passing on the exceptions it throws
+	 */
+	private static Object invoke(Method method, Object argument) throws IOException {
+		try {
+			return method.invoke(null, argument);
+		} catch (InvocationTargetException invocationError) {
+			Throwable cause = invocationError.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		} catch (IllegalAccessException accessError) {
+			throw new UnsupportedOperationException("Unix domain sockets are not available", accessError);
+		}
+	}
+}
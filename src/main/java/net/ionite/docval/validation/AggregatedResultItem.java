@@ -0,0 +1,110 @@
+package net.ionite.docval.validation;
+
+import java.util.ArrayList;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import net.ionite.docval.validation.result.LocationPath;
+
+/**
+ * A validation error or warning in an aggregated result (see
+ * {@link ValidationResult#setAggregated(boolean)}): all failures of the same
+ * test, with the message, line and column of the first one, the number of
+ * failures, and the locations of the first few.
+ *
+ * @author Ionite
+ *
+ */
+public class AggregatedResultItem extends ValidationResultItem {
+	/** Severity of errors */
+	public static final String ERROR = "error";
+	/** Severity of warnings */
+	public static final String WARNING = "warning";
+
+	private final String severity;
+	private int count;
+	private final ArrayList<LocationPath> locations = new ArrayList<LocationPath>();
+
+	/**
+	 * Construct an aggregated item from the first failure of a test
+	 *
+	 * @param severity The severity, ERROR or WARNING
+	 * @param first    The first failure of the test
+	 */
+	public AggregatedResultItem(String severity, ValidationResultItem first) {
+		super(first.getMessage(), first.getLocationPath(),
+				first.getLine() != null ? first.getLine() : UNKNOWN_POSITION,
+				first.getColumn() != null ? first.getColumn() : UNKNOWN_POSITION, first.getTest());
+		this.severity = severity;
+		this.count = 0;
+	}
+
+	/**
+	 * Returns the severity of the failures
+	 *
+	 * @return ERROR or WARNING
+	 */
+	public String getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * Returns the number of times the test failed
+	 *
+	 * @return The number of failures
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the locations of the first failures
+	 *
+	 * @return The locations, in document order
+	 */
+	public ArrayList<LocationPath> getLocations() {
+		return locations;
+	}
+
+	/**
+	 * Count a failure of the test, and keep its location if there is room for it
+	 *
+	 * @param location     The location of the failure, may be null
+	 * @param maxLocations The maximum number of locations to keep
+	 */
+	void addOccurrence(LocationPath location, int maxLocations) {
+		count++;
+		if (location != null && locations.size() < maxLocations) {
+			locations.add(location);
+		}
+	}
+
+	/**
+	 * Set the number of failures, for results read from JSON
+	 */
+	void setCount(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * Serialize this aggregated item to a JSONObject. This contains the fields of
+	 * a normal item, for the first failure, and the severity, the number of
+	 * failures (count) and the kept locations.
+	 *
+	 * @return The JSONObject representing this aggregated item
+	 */
+	@Override
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	public JSONObject toJSON() {
+		JSONObject result = super.toJSON();
+		result.put("severity", severity);
+		result.put("count", count);
+		JSONArray jsonLocations = new JSONArray();
+		for (LocationPath location : locations) {
+			jsonLocations.add(location.toString());
+		}
+		result.put("locations", jsonLocations);
+		return result;
+	}
+}
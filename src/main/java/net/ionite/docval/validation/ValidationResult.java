@@ -1,20 +1,23 @@
 package net.ionite.docval.validation;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
-import net.sf.saxon.s9api.Processor;
+import net.ionite.docval.validation.result.LocationPath;
+import net.ionite.docval.xml.XMLOutput;
 import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.Serializer;
-import net.sf.saxon.s9api.XdmNode;
-import net.sf.saxon.sapling.SaplingDocument;
-import net.sf.saxon.sapling.SaplingElement;
-import net.sf.saxon.sapling.Saplings;
 
 /**
  * Collects and serializes validation results.
@@ -33,6 +36,70 @@ public class ValidationResult {
 	private ArrayList<ValidationResultItem> warnings;
     /** The name of the document type, if set. May be null */
     private String _documentTypeName = null;
+	/**
+	 * The keyword the document was validated with (given or derived), if known.
+	 * Not part of the serialized result.
+	 */
+	private String _keyword = null;
+	/** The time spent in each stage of the validation, if requested. May be null */
+	private ValidationTimings _timings = null;
+	/**
+	 * The validation files that were not run, because an earlier one already
+	 * reported errors (see {@link net.ionite.docval.config.ConfigData.FailFast})
+	 */
+	private ArrayList<String> skippedValidators = new ArrayList<String>();
+	/**
+	 * The maximum number of errors and warnings (together) in this result, 0 for
+	 * no limit
+	 */
+	private int maxItems = 0;
+	/** True if errors or warnings were left out, because of maxItems */
+	private boolean truncated = false;
+	/**
+	 * True if errors and warnings are grouped by the test that failed (see
+	 * {@link #setAggregated(boolean)})
+	 */
+	private boolean aggregated = false;
+	/** The maximum number of locations kept for each aggregated item */
+	private int maxLocations = DEFAULT_MAX_LOCATIONS;
+	/** The aggregated items, by severity and test */
+	private HashMap<String, AggregatedResultItem> aggregates = new HashMap<String, AggregatedResultItem>();
+	/**
+	 * The total number of errors and warnings, when aggregated, or when the items
+	 * are not kept
+	 */
+	private int errorTotal = 0;
+	private int warningTotal = 0;
+	/** The amount of detail that is kept and serialized */
+	private Detail detail = Detail.FULL;
+	/** Receives the errors and warnings while they are added, may be null */
+	private ValidationResultSink sink = null;
+	/**
+	 * The line and column in the full document where the validated data starts,
+	 * if it is only a part of the document (see
+	 * {@link #setPositionOffset(int, int)})
+	 */
+	private int firstLine = 1;
+	private int firstColumn = 1;
+
+	/** The default maximum number of locations kept for each aggregated item */
+	public static final int DEFAULT_MAX_LOCATIONS = 5;
+
+	/**
+	 * The amount of detail in a result (see {@link ValidationResult#setDetail})
+	 */
+	public enum Detail {
+		/** All errors and warnings */
+		FULL,
+		/**
+		 * The error and warning counts, and the other information about the
+		 * result (document type, truncation, skipped validators, timings), but no
+		 * errors and warnings
+		 */
+		SUMMARY,
+		/** Only the error and warning counts */
+		COUNTS
+	}
 
 	/**
 	 * Constructor
@@ -46,13 +113,369 @@ public class ValidationResult {
         _documentTypeName = name;
     }
 
+	/**
+	 * Set the keyword the document was validated with
+	 * 
+	 * @param keyword The keyword, may be null
+	 */
+	public void setKeyword(String keyword) {
+		_keyword = keyword;
+	}
+
+	/**
+	 * Returns the keyword the document was validated with (either given or
+	 * derived from the document), or null if it is not known. The keyword is not
+	 * included in the JSON or XML output.
+	 * 
+	 * @return The keyword, may be null
+	 */
+	public String getKeyword() {
+		return _keyword;
+	}
+
+	/**
+	 * Set the timings of the validation; if set, they are included in the JSON
+	 * and XML output
+	 * 
+	 * @param timings The timings, may be null
+	 */
+	public void setTimings(ValidationTimings timings) {
+		_timings = timings;
+	}
+
+	/**
+	 * Returns the timings of the validation, or null if they were not recorded
+	 * 
+	 * @return The timings, may be null
+	 */
+	public ValidationTimings getTimings() {
+		return _timings;
+	}
+
+	/**
+	 * Record that the given validation file was not run for this document
+	 * 
+	 * @param validationFile The validation file that was skipped
+	 */
+	public void addSkippedValidator(String validationFile) {
+		skippedValidators.add(validationFile);
+	}
+
+	/**
+	 * Returns the validation files that were skipped, because earlier validation
+	 * files already reported errors. Empty if all validation files were run.
+	 * 
+	 * @return An ArrayList of validation file names
+	 */
+	public ArrayList<String> getSkippedValidators() {
+		return skippedValidators;
+	}
+
+	/**
+	 * Set the maximum number of errors and warnings (together) this result holds.
+	 * Once the maximum is reached, further errors and warnings are not added, and
+	 * the result is marked as truncated. Validators can check
+	 * {@link #isFull()} to stop early.
+	 * 
+	 * @param maxItems The maximum number of items, 0 for no limit
+	 */
+	public void setMaxItems(int maxItems) {
+		this.maxItems = maxItems;
+	}
+
+	/**
+	 * Returns the maximum number of errors and warnings in this result
+	 * 
+	 * @return The maximum number of items, 0 for no limit
+	 */
+	public int getMaxItems() {
+		return maxItems;
+	}
+
+	/**
+	 * Set the sink that receives the errors and warnings of this result while
+	 * they are added
+	 * 
+	 * @param sink The sink, may be null
+	 */
+	public void setSink(ValidationResultSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Returns the sink that receives the errors and warnings of this result
+	 * 
+	 * @return The sink, or null if there is none
+	 */
+	public ValidationResultSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Set the position in the full document where the validated data starts, if
+	 * only a part of a document is validated (such as the payload of a Standard
+	 * Business Document). The line and column numbers of the errors and warnings
+	 * that are added after this are made relative to the full document.
+	 * 
+	 * @param line   The line of the start of the validated data
+	 * @param column The column of the start of the validated data
+	 */
+	public void setPositionOffset(int line, int column) {
+		this.firstLine = line;
+		this.firstColumn = column;
+	}
+
+	/*
+	 * Make the line and column numbers of the given item relative to the full
+	 * document
+	 */
+	private void adjustPosition(ValidationResultItem item) {
+		if (firstLine == 1 && firstColumn == 1) {
+			return;
+		}
+		Integer line = item.getLine();
+		if (line != null) {
+			if (line == 1 && item.getColumn() != null) {
+				item.setColumn(item.getColumn() + firstColumn - 1);
+			}
+			item.setLine(line + firstLine - 1);
+		}
+	}
+
+	/**
+	 * Returns true if the maximum number of errors and warnings has been reached,
+	 * or if the sink of this result has been cancelled (see
+	 * {@link ValidationResultSink#isCancelled()}). An aggregated result is never
+	 * full otherwise, as failures of tests that are already in the result are
+	 * still counted.
+	 * 
+	 * @return True if no more items will be added to this result
+	 */
+	public boolean isFull() {
+		if (sink != null && sink.isCancelled()) {
+			return true;
+		}
+		return maxItems > 0 && keepsItems() && !aggregated && errors.size() + warnings.size() >= maxItems;
+	}
+
+	/**
+	 * Set the amount of detail of this result. With any level other than FULL,
+	 * errors and warnings are only counted, not kept, and validators can skip
+	 * building them (see {@link #keepsItems()}); the maximum number of items
+	 * and aggregation then do not apply. With COUNTS, the serialized result
+	 * only contains the error and warning counts.
+	 * 
+	 * This must be set before any errors or warnings are added.
+	 * 
+	 * @param detail The amount of detail
+	 */
+	public void setDetail(Detail detail) {
+		this.detail = detail;
+	}
+
+	/**
+	 * Returns the amount of detail of this result
+	 * 
+	 * @return The amount of detail
+	 */
+	public Detail getDetail() {
+		return detail;
+	}
+
+	/**
+	 * Returns true if errors and warnings are kept in this result. If not,
+	 * validators only need to report that a test failed (see
+	 * {@link #countError()} and {@link #countWarning()}).
+	 * 
+	 * @return True if errors and warnings are kept
+	 */
+	public boolean keepsItems() {
+		return detail == Detail.FULL;
+	}
+
+	/**
+	 * Count an error, without keeping it. If this result keeps its items, an
+	 * error without any information is added.
+	 */
+	public void countError() {
+		if (keepsItems()) {
+			addError(new ValidationResultItem(null, (LocationPath) null, ValidationResultItem.UNKNOWN_POSITION,
+					ValidationResultItem.UNKNOWN_POSITION, null));
+		} else {
+			errorTotal++;
+		}
+	}
+
+	/**
+	 * Count a warning, without keeping it. If this result keeps its items, a
+	 * warning without any information is added.
+	 */
+	public void countWarning() {
+		if (keepsItems()) {
+			addWarning(new ValidationResultItem(null, (LocationPath) null, ValidationResultItem.UNKNOWN_POSITION,
+					ValidationResultItem.UNKNOWN_POSITION, null));
+		} else {
+			warningTotal++;
+		}
+	}
+
+	/**
+	 * Group the errors and warnings by the test that failed. Instead of an item
+	 * for every failure, the result then holds an {@link AggregatedResultItem}
+	 * for every failed test, with the message of the first failure, the number
+	 * of failures, and the locations of the first few (see
+	 * {@link #setMaxLocations(int)}). The error and warning counts are still the
+	 * total number of failures. If a maximum number of items is set, it limits
+	 * the number of distinct tests.
+	 * 
+	 * This must be set before any errors or warnings are added.
+	 * 
+	 * @param aggregated True to group errors and warnings by test
+	 */
+	public void setAggregated(boolean aggregated) {
+		this.aggregated = aggregated;
+	}
+
+	/**
+	 * Returns true if the errors and warnings are grouped by test
+	 * 
+	 * @return True if this result is aggregated
+	 */
+	public boolean isAggregated() {
+		return aggregated;
+	}
+
+	/**
+	 * Set the maximum number of locations kept for each test, in an aggregated
+	 * result
+	 * 
+	 * @param maxLocations The maximum number of locations
+	 */
+	public void setMaxLocations(int maxLocations) {
+		this.maxLocations = maxLocations;
+	}
+
+	/**
+	 * Returns the maximum number of locations kept for each test, in an
+	 * aggregated result
+	 * 
+	 * @return The maximum number of locations
+	 */
+	public int getMaxLocations() {
+		return maxLocations;
+	}
+
+	/**
+	 * Returns the aggregated item for the given test, if this result is
+	 * aggregated and the test has failed before. Validators can use this to
+	 * skip building a full item for repeated failures (see
+	 * {@link #addOccurrence(AggregatedResultItem, LocationPath)}).
+	 * 
+	 * @param error True for an error, false for a warning
+	 * @param test  The test that failed
+	 * @return The aggregated item, or null if a full item should be added
+	 */
+	public AggregatedResultItem getAggregate(boolean error, String test) {
+		if (!aggregated || !keepsItems() || test == null) {
+			return null;
+		}
+		return aggregates.get(aggregateKey(error, test, null));
+	}
+
+	/**
+	 * Returns true if the location of another failure of the given aggregated
+	 * item would be kept
+	 * 
+	 * @param aggregate The aggregated item
+	 * @return True if there is room for another location
+	 */
+	public boolean wantsLocation(AggregatedResultItem aggregate) {
+		return aggregate.getLocations().size() < maxLocations;
+	}
+
+	/**
+	 * Count another failure of the test of the given aggregated item
+	 * 
+	 * @param aggregate The aggregated item, as returned by getAggregate
+	 * @param location  The location of the failure, may be null
+	 */
+	public void addOccurrence(AggregatedResultItem aggregate, LocationPath location) {
+		aggregate.addOccurrence(location, maxLocations);
+		if (AggregatedResultItem.ERROR.equals(aggregate.getSeverity())) {
+			errorTotal++;
+		} else {
+			warningTotal++;
+		}
+	}
+
+	private static String aggregateKey(boolean error, String test, String message) {
+		return (error ? "E" : "W") + (test != null ? "T" + test : "M" + message);
+	}
+
+	/*
+	 * Add the item to the aggregated item for its test, creating one if this is
+	 * the first failure of the test
+	 */
+	private void aggregate(boolean error, ValidationResultItem item) {
+		String key = aggregateKey(error, item.getTest(), item.getMessage());
+		AggregatedResultItem aggregate = aggregates.get(key);
+		if (aggregate == null) {
+			if (maxItems > 0 && aggregates.size() >= maxItems) {
+				truncated = true;
+				if (error) {
+					errorTotal++;
+				} else {
+					warningTotal++;
+				}
+				return;
+			}
+			aggregate = new AggregatedResultItem(error ? AggregatedResultItem.ERROR : AggregatedResultItem.WARNING,
+					item);
+			aggregates.put(key, aggregate);
+			addOccurrence(aggregate, item.getLocationPath());
+			if (error) {
+				errors.add(aggregate);
+				if (sink != null) {
+					sink.error(aggregate);
+				}
+			} else {
+				warnings.add(aggregate);
+				if (sink != null) {
+					sink.warning(aggregate);
+				}
+			}
+			return;
+		}
+		addOccurrence(aggregate, item.getLocationPath());
+	}
+
+	/**
+	 * Returns true if errors or warnings were left out of this result, because
+	 * the maximum number of items was reached. The error and warning counts are
+	 * then the counts up to that point.
+	 * 
+	 * @return True if the result is incomplete
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Mark this result as truncated (incomplete)
+	 * 
+	 * @param truncated True if errors or warnings were left out
+	 */
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
 	/**
 	 * Returns the number of errors
 	 * 
 	 * @return The number of errors
 	 */
 	public int errorCount() {
-		return errors.size();
+		return aggregated || !keepsItems() ? errorTotal : errors.size();
 	}
 
 	/**
@@ -61,7 +484,7 @@ public class ValidationResult {
 	 * @return The number of warnings
 	 */
 	public int warningCount() {
-		return warnings.size();
+		return aggregated || !keepsItems() ? warningTotal : warnings.size();
 	}
 
 	/**
@@ -75,7 +498,32 @@ public class ValidationResult {
 	 *                 String)
 	 */
 	public void addError(String message, String location, Integer line, Integer column, String test) {
-		errors.add(new ValidationResultItem(message, location, line, column, test));
+		addError(new ValidationResultItem(message, location, line, column, test));
+	}
+
+	/**
+	 * Add an error to the results
+	 * 
+	 * @param item The error
+	 */
+	public void addError(ValidationResultItem item) {
+		if (!keepsItems()) {
+			errorTotal++;
+			return;
+		}
+		adjustPosition(item);
+		if (aggregated) {
+			aggregate(true, item);
+			return;
+		}
+		if (isFull()) {
+			truncated = true;
+			return;
+		}
+		errors.add(item);
+		if (sink != null) {
+			sink.error(item);
+		}
 	}
 
 	/**
@@ -89,7 +537,32 @@ public class ValidationResult {
 	 *                 String)
 	 */
 	public void addWarning(String message, String location, Integer line, Integer column, String test) {
-		warnings.add(new ValidationResultItem(message, location, line, column, test));
+		addWarning(new ValidationResultItem(message, location, line, column, test));
+	}
+
+	/**
+	 * Add a warning to the results
+	 * 
+	 * @param item The warning
+	 */
+	public void addWarning(ValidationResultItem item) {
+		if (!keepsItems()) {
+			warningTotal++;
+			return;
+		}
+		adjustPosition(item);
+		if (aggregated) {
+			aggregate(false, item);
+			return;
+		}
+		if (isFull()) {
+			truncated = true;
+			return;
+		}
+		warnings.add(item);
+		if (sink != null) {
+			sink.warning(item);
+		}
 	}
 
 	/**
@@ -117,27 +590,64 @@ public class ValidationResult {
 	 */
 	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
 	public JSONObject toJSON() {
+		return toJSON(detail);
+	}
+
+	/**
+	 * Serialize this ValidationResult to JSON, without the errors and warnings
+	 * (at most at detail level SUMMARY). This is the summary that ends a
+	 * streamed result, where the errors and warnings have been sent separately.
+	 * 
+	 * @return the JSONObject representing the summary of this validation result
+	 */
+	public JSONObject toSummaryJSON() {
+		return toJSON(detail == Detail.COUNTS ? Detail.COUNTS : Detail.SUMMARY);
+	}
+
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	private JSONObject toJSON(Detail detail) {
 		JSONObject result = new JSONObject();
+		result.put("error_count", errorCount());
+		result.put("warning_count", warningCount());
+		if (detail == Detail.COUNTS) {
+			return result;
+		}
         if (_documentTypeName != null) {
             result.put("document_type", _documentTypeName);
         }
-		result.put("error_count", errorCount());
-		result.put("warning_count", warningCount());
-		JSONArray errorList = new JSONArray();
-		for (ValidationResultItem item : errors) {
-			errorList.add(item.toJSON());
+		if (detail == Detail.FULL) {
+			JSONArray errorList = new JSONArray();
+			for (ValidationResultItem item : errors) {
+				errorList.add(item.toJSON());
+			}
+			result.put("errors", errorList);
+			JSONArray warningList = new JSONArray();
+			for (ValidationResultItem item : warnings) {
+				warningList.add(item.toJSON());
+			}
+			result.put("warnings", warningList);
+		}
+		if (truncated) {
+			result.put("truncated", true);
 		}
-		result.put("errors", errorList);
-		JSONArray warningList = new JSONArray();
-		for (ValidationResultItem item : warnings) {
-			warningList.add(item.toJSON());
+		if (aggregated && detail == Detail.FULL) {
+			result.put("aggregated", true);
+		}
+		if (!skippedValidators.isEmpty()) {
+			JSONArray skippedList = new JSONArray();
+			skippedList.addAll(skippedValidators);
+			result.put("skipped_validators", skippedList);
+		}
+		if (_timings != null) {
+			result.put("timings", _timings.toJSON());
 		}
-		result.put("warnings", warningList);
 		return result;
 	}
 
 	/**
-	 * Deserialize the validation result object from the given JSON data
+	 * Deserialize the validation result object from the given JSON data. Data
+	 * without errors and warnings, but with their counts, gives a result with
+	 * detail level SUMMARY (see {@link #setDetail(Detail)}).
 	 */
 	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
 	public static ValidationResult fromJSON(JSONObject jsonData) throws ValidatorException {
@@ -145,9 +655,15 @@ public class ValidationResult {
 		Iterator<JSONObject> iterator;
 
 		JSONArray jsonErrors = (JSONArray) jsonData.get("errors");
+		if (jsonErrors == null && jsonData.get("error_count") != null) {
+			return summaryFromJSON(jsonData);
+		}
 		if (jsonErrors == null) {
 			throw new ValidatorException("no 'errors' field in JSON data");
 		}
+		if (Boolean.TRUE.equals(jsonData.get("aggregated"))) {
+			return aggregatedFromJSON(jsonData, jsonErrors);
+		}
 
 		iterator = jsonErrors.iterator();
 
@@ -168,13 +684,95 @@ public class ValidationResult {
 
 		while (iterator.hasNext()) {
 			JSONObject err = iterator.next();
-			result.addWarning((String) err.get("message"), (String) err.get("location"), (Integer) err.get("line"),
-					(Integer) err.get("column"), (String) err.get("test"));
+			Long lineLong = (Long) err.get("line");
+			Long columnLong = (Long) err.get("column");
+			result.addWarning((String) err.get("message"), (String) err.get("location"),
+					lineLong != null ? lineLong.intValue() : null, columnLong != null ? columnLong.intValue() : null,
+					(String) err.get("test"));
+		}
+
+		result.readSummaryFromJSON(jsonData);
+
+		return result;
+	}
+
+	/*
+	 * Deserialize an aggregated validation result; the items are not
+	 * aggregated again, but taken over as they are
+	 */
+	private static ValidationResult aggregatedFromJSON(JSONObject jsonData, JSONArray jsonErrors)
+			throws ValidatorException {
+		JSONArray jsonWarnings = (JSONArray) jsonData.get("warnings");
+		if (jsonWarnings == null) {
+			throw new ValidatorException("no 'warnings' field in JSON data");
 		}
+		ValidationResult result = new ValidationResult();
+		result.setAggregated(true);
+		for (Object err : jsonErrors) {
+			result.errors.add(aggregatedItemFromJSON(AggregatedResultItem.ERROR, (JSONObject) err));
+		}
+		for (Object warning : jsonWarnings) {
+			result.warnings.add(aggregatedItemFromJSON(AggregatedResultItem.WARNING, (JSONObject) warning));
+		}
+		Long errorCount = (Long) jsonData.get("error_count");
+		Long warningCount = (Long) jsonData.get("warning_count");
+		result.errorTotal = errorCount != null ? errorCount.intValue() : result.errors.size();
+		result.warningTotal = warningCount != null ? warningCount.intValue() : result.warnings.size();
+		result.readSummaryFromJSON(jsonData);
+		return result;
+	}
 
+	/*
+	 * Deserialize a validation result without errors and warnings
+	 */
+	private static ValidationResult summaryFromJSON(JSONObject jsonData) {
+		ValidationResult result = new ValidationResult();
+		result.setDetail(Detail.SUMMARY);
+		result.errorTotal = ((Long) jsonData.get("error_count")).intValue();
+		Long warningCount = (Long) jsonData.get("warning_count");
+		result.warningTotal = warningCount != null ? warningCount.intValue() : 0;
+		result.readSummaryFromJSON(jsonData);
 		return result;
 	}
 
+	/*
+	 * Read the fields other than the errors, warnings and their counts
+	 */
+	private void readSummaryFromJSON(JSONObject jsonData) {
+		_documentTypeName = (String) jsonData.get("document_type");
+		if (Boolean.TRUE.equals(jsonData.get("truncated"))) {
+			setTruncated(true);
+		}
+		JSONArray jsonSkipped = (JSONArray) jsonData.get("skipped_validators");
+		if (jsonSkipped != null) {
+			for (Object validationFile : jsonSkipped) {
+				addSkippedValidator((String) validationFile);
+			}
+		}
+		JSONObject jsonTimings = (JSONObject) jsonData.get("timings");
+		if (jsonTimings != null) {
+			setTimings(ValidationTimings.fromJSON(jsonTimings));
+		}
+	}
+
+	private static AggregatedResultItem aggregatedItemFromJSON(String severity, JSONObject jsonItem) {
+		Long lineLong = (Long) jsonItem.get("line");
+		Long columnLong = (Long) jsonItem.get("column");
+		AggregatedResultItem item = new AggregatedResultItem(severity,
+				new ValidationResultItem((String) jsonItem.get("message"), (String) jsonItem.get("location"),
+						lineLong != null ? lineLong.intValue() : null, columnLong != null ? columnLong.intValue() : null,
+						(String) jsonItem.get("test")));
+		Long count = (Long) jsonItem.get("count");
+		item.setCount(count != null ? count.intValue() : 1);
+		JSONArray jsonLocations = (JSONArray) jsonItem.get("locations");
+		if (jsonLocations != null) {
+			for (Object location : jsonLocations) {
+				item.getLocations().add(LocationPath.of((String) location));
+			}
+		}
+		return item;
+	}
+
 	/**
 	 * Deserialize the validation result object from the given JSON string
 	 */
@@ -195,19 +793,97 @@ public class ValidationResult {
 		return toJSON().toString();
 	}
 
-	private SaplingElement createErrorWarningXMLElement(String tag, ValidationResultItem item) {
-		SaplingElement errorElement = Saplings.elem(tag).withChild(Saplings.elem("Message").withText(item.message))
-				.withChild(Saplings.elem("Test").withText(item.test));
-		if (item.location != null) {
-			errorElement = errorElement.withChild(Saplings.elem("Location").withText(item.location));
+	private void writeErrorWarningXMLElement(XMLStreamWriter writer, String tag, ValidationResultItem item)
+			throws XMLStreamException {
+		writer.writeStartElement(tag);
+		XMLOutput.writeTextElement(writer, "Message", item.getMessage());
+		XMLOutput.writeTextElement(writer, "Test", item.getTest());
+		if (item.getLocationPath() != null) {
+			XMLOutput.writeTextElement(writer, "Location", item.getLocation());
+		}
+		if (item.getLine() != null) {
+			XMLOutput.writeTextElement(writer, "Line", item.getLine().toString());
+		}
+		if (item.getColumn() != null) {
+			XMLOutput.writeTextElement(writer, "Column", item.getColumn().toString());
+		}
+		if (item instanceof AggregatedResultItem) {
+			AggregatedResultItem aggregate = (AggregatedResultItem) item;
+			XMLOutput.writeTextElement(writer, "Count", Integer.toString(aggregate.getCount()));
+			if (!aggregate.getLocations().isEmpty()) {
+				writer.writeStartElement("Locations");
+				for (LocationPath location : aggregate.getLocations()) {
+					XMLOutput.writeTextElement(writer, "Location", location.toString());
+				}
+				writer.writeEndElement();
+			}
+		}
+		writer.writeEndElement();
+	}
+
+	/*
+	 * Write the elements after the error and warning counts
+	 */
+	private void writeDetailsXML(XMLStreamWriter writer) throws XMLStreamException {
+		if (_documentTypeName != null) {
+			XMLOutput.writeTextElement(writer, "DocumentType", _documentTypeName);
+		}
+		if (truncated) {
+			XMLOutput.writeTextElement(writer, "Truncated", "true");
+		}
+		if (aggregated && detail == Detail.FULL) {
+			XMLOutput.writeTextElement(writer, "Aggregated", "true");
+		}
+		if (!errors.isEmpty()) {
+			writer.writeStartElement("Errors");
+			for (ValidationResultItem item : errors) {
+				writeErrorWarningXMLElement(writer, "Error", item);
+			}
+			writer.writeEndElement();
+		}
+		if (!warnings.isEmpty()) {
+			writer.writeStartElement("Warnings");
+			for (ValidationResultItem item : warnings) {
+				writeErrorWarningXMLElement(writer, "Warning", item);
+			}
+			writer.writeEndElement();
 		}
-		if (item.line != null) {
-			errorElement = errorElement.withChild(Saplings.elem("Line").withText(item.line.toString()));
+		if (!skippedValidators.isEmpty()) {
+			writer.writeStartElement("SkippedValidators");
+			for (String validationFile : skippedValidators) {
+				XMLOutput.writeTextElement(writer, "ValidationFile", validationFile);
+			}
+			writer.writeEndElement();
+		}
+		if (_timings != null) {
+			_timings.writeXML(writer);
 		}
-		if (item.column != null) {
-			errorElement = errorElement.withChild(Saplings.elem("Column").withText(item.column.toString()));
+	}
+
+	/**
+	 * Serialize this ValidationResult to XML, writing it directly to the given
+	 * output stream. The data is written in a single pass, without building an
+	 * intermediate tree. The output stream is not closed.
+	 * 
+	 * @param outputStream The stream to write the (UTF-8 encoded) XML to
+	 * @throws SaxonApiException if the XML could not be written
+	 */
+	public void writeXML(OutputStream outputStream) throws SaxonApiException {
+		try {
+			XMLStreamWriter writer = XMLOutput.createWriter(outputStream);
+			writer.writeStartDocument();
+			writer.writeStartElement("ValidationResult");
+			XMLOutput.writeTextElement(writer, "ErrorCount", Integer.toString(errorCount()));
+			XMLOutput.writeTextElement(writer, "WarningCount", Integer.toString(warningCount()));
+			if (detail != Detail.COUNTS) {
+				writeDetailsXML(writer);
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException streamError) {
+			throw new SaxonApiException(streamError);
 		}
-		return errorElement;
 	}
 
 	/**
@@ -217,37 +893,8 @@ public class ValidationResult {
 	 * @throws SaxonApiException
 	 */
 	public String toXMLString() throws SaxonApiException {
-		SaplingElement root = Saplings.elem("ValidationResult")
-				.withChild(Saplings.elem("ErrorCount").withText(Integer.valueOf(errorCount()).toString()))
-				.withChild(Saplings.elem("WarningCount").withText(Integer.valueOf(warningCount()).toString()));
-        if (_documentTypeName != null) {
-            root = root.withChild(Saplings.elem("DocumentType").withText(_documentTypeName));
-        }
-		if (errorCount() > 0) {
-			SaplingElement errorsElement = Saplings.elem("Errors");
-			for (ValidationResultItem item : errors) {
-				errorsElement = errorsElement.withChild(createErrorWarningXMLElement("Error", item));
-			}
-			root = root.withChild(errorsElement);
-		}
-		if (warningCount() > 0) {
-			SaplingElement warningsElement = Saplings.elem("Warnings");
-			for (ValidationResultItem item : warnings) {
-				warningsElement = warningsElement.withChild(createErrorWarningXMLElement("Warning", item));
-			}
-			root = root.withChild(warningsElement);
-		}
-		SaplingDocument doc = Saplings.doc().withChild(root);
-
-		Processor processor = new Processor(false); // False = does not required a feature from a licensed version of
-													// Saxon.
-		Serializer serializer = processor.newSerializer();
-		// Other properties found here:
-		// http://www.saxonica.com/html/documentation/javadoc/net/sf/saxon/s9api/Serializer.Property.html
-		serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "no");
-		serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
-		XdmNode xdmNode = doc.toXdmNode(processor);
-		String result = serializer.serializeNodeToString(xdmNode);
-		return result;
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		writeXML(outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
 	}
 };
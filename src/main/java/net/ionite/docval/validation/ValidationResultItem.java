@@ -2,39 +2,73 @@ package net.ionite.docval.validation;
 
 import org.json.simple.JSONObject;
 
+import net.ionite.docval.validation.result.LocationPath;
+
 /**
  * Holds the data for a single validation warning or error.
- * 
+ *
+ * Large results can hold many thousands of items, so their texts are shared
+ * where possible: the message and test texts are usually shared with other
+ * items (see {@link net.ionite.docval.validation.result.StringTable}), and the
+ * location is kept as a {@link LocationPath} as well, which shares its parent
+ * path with other items, and whose string is shared by all items at the same
+ * location.
+ *
+ * The public fields are deprecated; use the accessors instead. The fields will
+ * be made private in a future release.
+ *
  * @author Ionite
  *
  */
 public class ValidationResultItem {
-	/** The message of the warning or error */
+	/** The value of the line or column when it is not known */
+	public static final int UNKNOWN_POSITION = -1;
+
+	/**
+	 * The message of the warning or error
+	 *
+	 * @deprecated Use {@link #getMessage()}
+	 */
+	@Deprecated
 	public String message;
 	/**
 	 * The location of the warning or error, e.g. an XPath, can be null if now known
 	 * or not relevant
+	 *
+	 * @deprecated Use {@link #getLocation()}
 	 */
+	@Deprecated
 	public String location;
 	/**
 	 * The line in the source document where the test failed. Can be null if the
 	 * line is not known
+	 *
+	 * @deprecated Use {@link #getLine()}
 	 */
+	@Deprecated
 	public Integer line;
 	/**
 	 * The column in the source document where the test failed. Can be null if the
 	 * column is not known
+	 *
+	 * @deprecated Use {@link #getColumn()}
 	 */
+	@Deprecated
 	public Integer column;
 	/**
 	 * The failed test, can be an XPath expression or a general String, such as "XML
 	 * Schema"
+	 *
+	 * @deprecated Use {@link #getTest()}
 	 */
+	@Deprecated
 	public String test;
+	/** The location in its compact form, null if location is null */
+	private LocationPath locationPath;
 
 	/**
 	 * Constructor for the validation result item
-	 * 
+	 *
 	 * @param message  The message of the warning or error
 	 * @param location The location of the warning or error, e.g. an XPath, can be
 	 *                 null if now known or not relevant
@@ -48,14 +82,115 @@ public class ValidationResultItem {
 	public ValidationResultItem(String message, String location, Integer line, Integer column, String test) {
 		this.message = message;
 		this.location = location;
-		this.line = line;
-		this.column = column;
+		this.locationPath = LocationPath.of(location);
+		setLine(line);
+		setColumn(column);
 		this.test = test;
 	}
 
+	/**
+	 * Constructor for the validation result item, with a compact location
+	 *
+	 * @param message  The message of the warning or error
+	 * @param location The location of the warning or error, can be null if now
+	 *                 known or not relevant
+	 * @param line     The line in the source document where the test failed, or
+	 *                 UNKNOWN_POSITION
+	 * @param column   The column in the source document where the test failed, or
+	 *                 UNKNOWN_POSITION
+	 * @param test     The failed test, can be an XPath expression or a general
+	 *                 String, such as "XML Schema"
+	 */
+	public ValidationResultItem(String message, LocationPath location, int line, int column, String test) {
+		this.message = message;
+		this.location = location != null ? location.toString() : null;
+		this.locationPath = location;
+		this.line = line >= 0 ? Integer.valueOf(line) : null;
+		this.column = column >= 0 ? Integer.valueOf(column) : null;
+		this.test = test;
+	}
+
+	/**
+	 * Returns the message of the warning or error
+	 *
+	 * @return The message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the location of the warning or error, e.g. an XPath
+	 *
+	 * @return The location, or null if not known or not relevant
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns the location of the warning or error in its compact form
+	 *
+	 * @return The location, or null if not known or not relevant
+	 */
+	public LocationPath getLocationPath() {
+		// The location may have been changed through the deprecated field
+		if (locationPath == null ? location != null
+				: locationPath.toString() != location && !locationPath.toString().equals(location)) {
+			locationPath = LocationPath.of(location);
+		}
+		return locationPath;
+	}
+
+	/**
+	 * Returns the line in the source document where the test failed
+	 *
+	 * @return The line number, or null if not known
+	 */
+	public Integer getLine() {
+		return line;
+	}
+
+	/**
+	 * Set the line in the source document where the test failed
+	 *
+	 * @param line The line number, or null if not known
+	 */
+	public void setLine(Integer line) {
+		this.line = line != null && line >= 0 ? line : null;
+	}
+
+	/**
+	 * Returns the column in the source document where the test failed
+	 *
+	 * @return The column number, or null if not known
+	 */
+	public Integer getColumn() {
+		return column;
+	}
+
+	/**
+	 * Set the column in the source document where the test failed
+	 *
+	 * @param column The column number, or null if not known
+	 */
+	public void setColumn(Integer column) {
+		this.column = column != null && column >= 0 ? column : null;
+	}
+
+	/**
+	 * Returns the failed test, an XPath expression or a general String, such as
+	 * "XML Schema"
+	 *
+	 * @return The test
+	 */
+	public String getTest() {
+		return test;
+	}
+
 	/**
 	 * Serialize this validation result item to a JSONObject
-	 * 
+	 *
 	 * @return The JSONObject representing this validation result item
 	 */
 	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
@@ -0,0 +1,54 @@
+package net.ionite.docval.validation;
+
+/**
+ * Receives the errors and warnings of a validation while they are produced,
+ * for instance to stream them to a client before the validation is finished.
+ *
+ * A sink is set on the ValidationResult that is passed to the validators (see
+ * {@link ValidationResult#setSink(ValidationResultSink)}). It is called for
+ * every error and warning that is added to the result, in the thread that
+ * runs the validation. Items are passed to the sink after they have been
+ * added; items that are not kept (because the result is full, or because it
+ * only counts them) are not. In an aggregated result, the sink receives every
+ * failed test once, when it first fails; the final counts are only known when
+ * the validation is done.
+ *
+ * @author Ionite
+ *
+ */
+public interface ValidationResultSink {
+	/**
+	 * Called for every error that is added to the result
+	 *
+	 * @param item The error
+	 */
+	void error(ValidationResultItem item);
+
+	/**
+	 * Called for every warning that is added to the result
+	 *
+	 * @param item The warning
+	 */
+	void warning(ValidationResultItem item);
+
+	/**
+	 * Called when a validation file has been run for the document. The default
+	 * implementation does nothing.
+	 *
+	 * @param validationFile The validation file
+	 */
+	default void validatorFinished(String validationFile) {
+	}
+
+	/**
+	 * Returns true if the output of the validation is no longer wanted, for
+	 * instance because the client it was sent to went away. The result is then
+	 * considered full (see {@link ValidationResult#isFull()}), so that the
+	 * validation is aborted. The default implementation returns false.
+	 *
+	 * @return True if the validation should be aborted
+	 */
+	default boolean isCancelled() {
+		return false;
+	}
+}
@@ -0,0 +1,231 @@
+package net.ionite.docval.validation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import net.ionite.docval.xml.XMLOutput;
+
+/**
+ * Holds the time spent in each stage of a single validation.
+ *
+ * Times are stored in nanoseconds, and serialized in milliseconds (with
+ * microsecond precision). Each validator parses the document itself, so the
+ * time of a validator includes the time to parse the document.
+ *
+ * @author Ionite
+ *
+ */
+public class ValidationTimings {
+	/**
+	 * The time spent in a single validator
+	 */
+	public static class ValidatorTiming {
+		/** The validation file the validator was loaded from */
+		public String file;
+		/** The validator type, such as XSD, XSLT or SCH */
+		public String type;
+		/** The time spent in the validator, in nanoseconds */
+		public long nanos;
+
+		/**
+		 * Constructor
+		 *
+		 * @param file  The validation file the validator was loaded from
+		 * @param type  The validator type, such as XSD, XSLT or SCH
+		 * @param nanos The time spent in the validator, in nanoseconds
+		 */
+		public ValidatorTiming(String file, String type, long nanos) {
+			this.file = file;
+			this.type = type;
+			this.nanos = nanos;
+		}
+	}
+
+	/** Time to read the document, null if not measured */
+	private Long readNanos = null;
+	/** Time to derive the keyword, null if the keyword was not derived */
+	private Long keywordDerivationNanos = null;
+	/** The validators that were run, in order */
+	private ArrayList<ValidatorTiming> validators = new ArrayList<ValidatorTiming>();
+	/** Total time of the validation, not including reading the document */
+	private long totalNanos = 0;
+
+	/**
+	 * Set the time it took to read the document (such as the request body or the
+	 * file)
+	 *
+	 * @param nanos The time in nanoseconds
+	 */
+	public void setReadNanos(Long nanos) {
+		readNanos = nanos;
+	}
+
+	/**
+	 * Returns the time it took to read the document, or null if not measured
+	 *
+	 * @return The time in nanoseconds, may be null
+	 */
+	public Long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * Set the time it took to derive the keyword of the document
+	 *
+	 * @param nanos The time in nanoseconds
+	 */
+	public void setKeywordDerivationNanos(Long nanos) {
+		keywordDerivationNanos = nanos;
+	}
+
+	/**
+	 * Returns the time it took to derive the keyword, or null if the keyword was
+	 * not derived
+	 *
+	 * @return The time in nanoseconds, may be null
+	 */
+	public Long getKeywordDerivationNanos() {
+		return keywordDerivationNanos;
+	}
+
+	/**
+	 * Add the time spent in a validator
+	 *
+	 * @param file  The validation file the validator was loaded from
+	 * @param type  The validator type, such as XSD, XSLT or SCH
+	 * @param nanos The time in nanoseconds
+	 */
+	public void addValidator(String file, String type, long nanos) {
+		validators.add(new ValidatorTiming(file, type, nanos));
+	}
+
+	/**
+	 * Returns the times of the validators that were run, in the order they were
+	 * run
+	 *
+	 * @return ArrayList of ValidatorTiming objects
+	 */
+	public ArrayList<ValidatorTiming> getValidators() {
+		return validators;
+	}
+
+	/**
+	 * Set the total time of the validation, including keyword derivation, but
+	 * not reading the document
+	 *
+	 * @param nanos The time in nanoseconds
+	 */
+	public void setTotalNanos(long nanos) {
+		totalNanos = nanos;
+	}
+
+	/**
+	 * Returns the total time of the validation
+	 *
+	 * @return The time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static long fromMillis(Object millis) {
+		return Math.round(((Number) millis).doubleValue() * 1000000.0);
+	}
+
+	/**
+	 * Serialize the timings to JSON; all times are in milliseconds
+	 *
+	 * @return The JSONObject representing these timings
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		if (readNanos != null) {
+			result.put("read_ms", toMillis(readNanos));
+		}
+		if (keywordDerivationNanos != null) {
+			result.put("keyword_derivation_ms", toMillis(keywordDerivationNanos));
+		}
+		JSONArray validatorList = new JSONArray();
+		for (ValidatorTiming timing : validators) {
+			JSONObject validator = new JSONObject();
+			validator.put("file", timing.file);
+			validator.put("type", timing.type);
+			validator.put("duration_ms", toMillis(timing.nanos));
+			validatorList.add(validator);
+		}
+		result.put("validators", validatorList);
+		result.put("total_ms", toMillis(totalNanos));
+		return result;
+	}
+
+	/**
+	 * Deserialize timings from the given JSON data
+	 *
+	 * @param jsonData The JSON data, as produced by {@link #toJSON()}
+	 * @return The timings
+	 */
+	@SuppressWarnings("unchecked") // JSONObject extends HashMap but is not generic itself
+	public static ValidationTimings fromJSON(JSONObject jsonData) {
+		ValidationTimings timings = new ValidationTimings();
+		if (jsonData.get("read_ms") != null) {
+			timings.setReadNanos(fromMillis(jsonData.get("read_ms")));
+		}
+		if (jsonData.get("keyword_derivation_ms") != null) {
+			timings.setKeywordDerivationNanos(fromMillis(jsonData.get("keyword_derivation_ms")));
+		}
+		JSONArray validatorList = (JSONArray) jsonData.get("validators");
+		if (validatorList != null) {
+			Iterator<JSONObject> iterator = validatorList.iterator();
+			while (iterator.hasNext()) {
+				JSONObject validator = iterator.next();
+				timings.addValidator((String) validator.get("file"), (String) validator.get("type"),
+						fromMillis(validator.get("duration_ms")));
+			}
+		}
+		if (jsonData.get("total_ms") != null) {
+			timings.setTotalNanos(fromMillis(jsonData.get("total_ms")));
+		}
+		return timings;
+	}
+
+	/**
+	 * Write the timings as a Timings XML element; all times are in milliseconds
+	 *
+	 * @param writer The writer to write the element to
+	 * @throws XMLStreamException if the element cannot be written
+	 */
+	public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement("Timings");
+		if (readNanos != null) {
+			XMLOutput.writeTextElement(writer, "Read", Double.toString(toMillis(readNanos)));
+		}
+		if (keywordDerivationNanos != null) {
+			XMLOutput.writeTextElement(writer, "KeywordDerivation",
+					Double.toString(toMillis(keywordDerivationNanos)));
+		}
+		if (!validators.isEmpty()) {
+			writer.writeStartElement("Validators");
+			for (ValidatorTiming timing : validators) {
+				writer.writeStartElement("Validator");
+				XMLOutput.writeTextElement(writer, "File", timing.file);
+				XMLOutput.writeTextElement(writer, "Type", timing.type);
+				XMLOutput.writeTextElement(writer, "Duration", Double.toString(toMillis(timing.nanos)));
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+		}
+		XMLOutput.writeTextElement(writer, "Total", Double.toString(toMillis(totalNanos)));
+		writer.writeEndElement();
+	}
+}
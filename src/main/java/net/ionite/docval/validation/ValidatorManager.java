@@ -2,20 +2,25 @@ package net.ionite.docval.validation;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.ionite.docval.config.ConfigData;
 import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.metrics.DocValMetrics;
 import net.ionite.docval.validation.validator.DocumentValidator;
 import net.ionite.docval.validation.validator.SCHValidator;
 import net.ionite.docval.validation.validator.XSDValidator;
 import net.ionite.docval.validation.validator.XSLTValidator;
 import net.ionite.docval.xml.KeywordDeriver;
+import net.ionite.docval.xml.SBDHUnwrapper;
 
 /**
  * The validator manager holds any number of validators for a specific keyword,
@@ -24,30 +29,51 @@ import net.ionite.docval.xml.KeywordDeriver;
  * 
  * It keeps any validator in memory, so that it can be reused for multiple
  * keywords
+ * 
+ * The manager can be used from multiple threads at the same time; applying a
+ * new configuration replaces the validator set atomically.
  */
 public class ValidatorManager {
 
 	/** The loaded validators based on their filename */
-	private HashMap<String, ValidatorManagerEntry> _validators;
+	private volatile ConcurrentHashMap<String, ValidatorManagerEntry> _validators;
 
 	/** The mapping of keywords to validation lists */
-	private HashMap<String, ArrayList<String>> _validationLists;
+	private volatile ConcurrentHashMap<String, ArrayList<String>> _validationLists;
     
     /**
      * Each keyword is also associated with a single document type
      * name
      */
-    private HashMap<String, String> _documentTypeNames;
+    private ConcurrentHashMap<String, String> _documentTypeNames;
+
+	/**
+	 * The fail-fast policy per keyword; keywords without an entry run all their
+	 * validators
+	 */
+	private volatile ConcurrentHashMap<String, ConfigData.FailFast> _failFast;
 
 	/**
 	 * If true, automatically check whether entries need to be reloaded
 	 */
-	private boolean _autoReload = false;
+	private volatile boolean _autoReload = false;
 
 	/**
 	 * Specify the way unknown keywords (i.e. unknown document types) are handled.
 	 */
-	private ConfigData.UnknownKeywords unknownKeywords = ConfigData.UnknownKeywords.FAIL;
+	private volatile ConfigData.UnknownKeywords unknownKeywords = ConfigData.UnknownKeywords.FAIL;
+
+	/** If true, documents wrapped in an SBDH are unwrapped by default */
+	private volatile boolean unwrapSBDH = false;
+
+	/**
+	 * The maximum number of errors and warnings in a single result, 0 for no
+	 * limit
+	 */
+	private volatile int maxResultItems = 0;
+
+	/** Metrics to record timings and results in, may be null */
+	private volatile DocValMetrics metrics = null;
 
 	private Logger logger;
 
@@ -58,7 +84,7 @@ public class ValidatorManager {
 	private class ValidatorManagerEntry {
 		private long _lastModified;
 		private String _fileName;
-		private DocumentValidator _validator;
+		private volatile DocumentValidator _validator;
 
 		public ValidatorManagerEntry(String fileName) {
 			_fileName = fileName;
@@ -82,21 +108,18 @@ public class ValidatorManager {
 			return _validator;
 		}
 
-		public void loadValidator() {
+		public synchronized void loadValidator() {
+			long start = System.nanoTime();
 			_lastModified = new File(_fileName).lastModified();
-			if (_fileName.endsWith(".xsd")) {
-				_validator = new XSDValidator(_fileName);
-			} else if (_fileName.endsWith(".xslt") || _fileName.endsWith(".xsl")) {
-				_validator = new XSLTValidator(_fileName);
-			} else if (_fileName.endsWith(".sch")) {
-				_validator = new SCHValidator(_fileName);
-			} else {
-				throw new ValidatorException(
-						"Unsupported validator file extension, must be .xsd, .xsl, or .xslt: " + _fileName);
+			_validator = createValidator(_fileName);
+			DocValMetrics currentMetrics = metrics;
+			if (currentMetrics != null) {
+				currentMetrics.observeValidatorLoad(DocValMetrics.validatorType(_validator.getClass()), _fileName,
+						System.nanoTime() - start);
 			}
 		}
 
-		public void checkReload() {
+		public synchronized void checkReload() {
 			long lastModified = new File(_fileName).lastModified();
 			if (lastModified > _lastModified) {
 				loadValidator();
@@ -112,14 +135,14 @@ public class ValidatorManager {
 	 */
 	private class ValidatorLoader {
 		/** The loaded validators based on their filename */
-		private HashMap<String, ValidatorManagerEntry> validators;
+		private ConcurrentHashMap<String, ValidatorManagerEntry> validators;
 
 		/** The mapping of keywords to validation lists */
-		private HashMap<String, ArrayList<String>> validationLists;
+		private ConcurrentHashMap<String, ArrayList<String>> validationLists;
 
 		public ValidatorLoader() {
-			validators = new HashMap<String, ValidatorManagerEntry>();
-			validationLists = new HashMap<String, ArrayList<String>>();
+			validators = new ConcurrentHashMap<String, ValidatorManagerEntry>();
+			validationLists = new ConcurrentHashMap<String, ArrayList<String>>();
 		}
 
 		public void addValidator(String keyword, String fileName, boolean lazyLoad) {
@@ -132,7 +155,7 @@ public class ValidatorManager {
 				validatorsForKeyword.add(fileName);
 			}
 			if (!lazyLoad) {
-				validators.get(fileName);
+				validators.computeIfAbsent(fileName, name -> new ValidatorManagerEntry(name));
 			}
 		}
 
@@ -140,23 +163,45 @@ public class ValidatorManager {
 			return validationLists.containsKey(keyword);
 		}
 
-		public HashMap<String, ValidatorManagerEntry> getValidators() {
+		public ConcurrentHashMap<String, ValidatorManagerEntry> getValidators() {
 			return validators;
 		}
 
-		public HashMap<String, ArrayList<String>> getValidationLists() {
+		public ConcurrentHashMap<String, ArrayList<String>> getValidationLists() {
 			return validationLists;
 		}
 	}
 
+	/**
+	 * Create (and compile) a validator for the given validation file. The type of
+	 * validator is determined by the file extension.
+	 * 
+	 * @param fileName The validation file (.xsd, .xsl, .xslt or .sch)
+	 * @return The DocumentValidator instance for the file
+	 * @throws ValidatorException if the file extension is not supported, or the
+	 *                            file cannot be loaded
+	 */
+	public static DocumentValidator createValidator(String fileName) {
+		if (fileName.endsWith(".xsd")) {
+			return new XSDValidator(fileName);
+		} else if (fileName.endsWith(".xslt") || fileName.endsWith(".xsl")) {
+			return new XSLTValidator(fileName);
+		} else if (fileName.endsWith(".sch")) {
+			return new SCHValidator(fileName);
+		}
+		throw new ValidatorException(
+				"Unsupported validator file extension, must be .xsd, .xsl, .xslt or .sch: " + fileName);
+	}
+
 	/**
 	 * Construct a new ValidatorManager
 	 */
 	public ValidatorManager() {
 		logger = LoggerFactory.getLogger(this.getClass().getName());
-		_validators = new HashMap<String, ValidatorManagerEntry>();
-		_validationLists = new HashMap<String, ArrayList<String>>();
-        _documentTypeNames = new HashMap<String, String>();
+		_validators = new ConcurrentHashMap<String, ValidatorManagerEntry>();
+		_validationLists = new ConcurrentHashMap<String, ArrayList<String>>();
+        _documentTypeNames = new ConcurrentHashMap<String, String>();
+		_failFast = new ConcurrentHashMap<String, ConfigData.FailFast>();
 	}
 
 	/**
@@ -190,6 +235,85 @@ public class ValidatorManager {
 		this.unknownKeywords = unknownKeywords;
 	}
 
+	/**
+	 * Set whether documents that are wrapped in a Standard Business Document
+	 * Header (SBDH) are unwrapped by default, so that their payload is validated
+	 * (see {@link #validate(String, byte[], boolean, boolean)}).
+	 * 
+	 * @param unwrapSBDH If true, unwrap SBDH documents by default
+	 */
+	public void setUnwrapSBDH(boolean unwrapSBDH) {
+		logger.debug("Unwrap SBDH set to {}", unwrapSBDH);
+		this.unwrapSBDH = unwrapSBDH;
+	}
+
+	/**
+	 * Set the maximum number of errors and warnings (together) in a single
+	 * validation result. When a validator reaches the maximum, it stops, the
+	 * remaining validators are skipped, and the result is marked as truncated
+	 * (see {@link ValidationResult#isTruncated()}). This protects against
+	 * documents that produce huge numbers of errors.
+	 * 
+	 * @param maxResultItems The maximum number of items, 0 (the default) for no
+	 *                       limit
+	 */
+	public void setMaxResultItems(int maxResultItems) {
+		logger.debug("Maximum result items set to {}", maxResultItems);
+		this.maxResultItems = maxResultItems;
+	}
+
+	/**
+	 * Returns the maximum number of errors and warnings in a single validation
+	 * result
+	 * 
+	 * @return The maximum number of items, 0 for no limit
+	 */
+	public int getMaxResultItems() {
+		return maxResultItems;
+	}
+
+	/**
+	 * Set the fail-fast policy for the given keyword: whether the remaining
+	 * validators for a document are skipped once earlier ones have reported
+	 * errors. Skipped validators are listed in the result (see
+	 * {@link ValidationResult#getSkippedValidators()}).
+	 * 
+	 * @param keyword  The keyword to set the policy for
+	 * @param failFast The policy
+	 */
+	public void setFailFast(String keyword, ConfigData.FailFast failFast) {
+		_failFast.put(keyword, failFast);
+	}
+
+	/**
+	 * Returns the fail-fast policy for the given keyword
+	 * 
+	 * @param keyword The keyword to get the policy for
+	 * @return The policy, ALWAYS if none was set
+	 */
+	public ConfigData.FailFast getFailFast(String keyword) {
+		return _failFast.getOrDefault(keyword, ConfigData.FailFast.ALWAYS);
+	}
+
+	/**
+	 * Returns whether documents wrapped in an SBDH are unwrapped by default.
+	 * 
+	 * @return True if SBDH documents are unwrapped by default
+	 */
+	public boolean getUnwrapSBDH() {
+		return unwrapSBDH;
+	}
+
+	/**
+	 * Set the metrics to record validation timings and results in. Null (the
+	 * default) disables recording.
+	 * 
+	 * @param metrics The metrics to record in, may be null
+	 */
+	public void setMetrics(DocValMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	/**
 	 * Apply the given configuration data.
 	 *
@@ -205,7 +329,9 @@ public class ValidatorManager {
 	 * @throws ConfigurationError if the configuration itself contains an error.
 	 */
 	public void applyConfig(ConfigData configData) throws IOException, ConfigurationError {
+		long start = System.nanoTime();
 		ValidatorLoader loader = new ValidatorLoader();
+		ConcurrentHashMap<String, ConfigData.FailFast> failFast = new ConcurrentHashMap<String, ConfigData.FailFast>();
 
 		for (ConfigData.DocumentType docType : configData.documentTypes) {
 			logger.info("Loading document type {} with keyword {}", docType.name, docType.keyword);
@@ -213,26 +339,33 @@ public class ValidatorManager {
 				throw new ConfigurationError("Duplicate Keyword for " + docType.name + ": " + docType.keyword);
 			}
             _documentTypeNames.put(docType.keyword, docType.name);
+			failFast.put(docType.keyword, docType.failFast);
 			for (String validationFile : docType.validationFiles) {
 				logger.info("Adding validation file {} to {}", validationFile, docType.name);
-				loader.addValidator(docType.keyword, validationFile, true);
-				// TODO: move to the loader?
 				if (configData.lazyLoad) {
 					// Only perform cursory checks
 					File vf = new File(validationFile);
 					FileReader reader = new FileReader(vf);
 					reader.close();
-				} else {
-					// Load it by retrieving it once
-					getValidator(validationFile);
 				}
+				// When not lazy loading, the loader compiles the validator now, into
+				// the new set of validators
+				loader.addValidator(docType.keyword, validationFile, configData.lazyLoad);
 			}
 		}
 		_validators = loader.getValidators();
 		_validationLists = loader.getValidationLists();
+		_failFast = failFast;
 
 		setAutoReload(configData.autoReload);
 		setUnknownKeywords(configData.unknownKeywords);
+		setUnwrapSBDH(configData.unwrapSBDH);
+		setMaxResultItems(configData.maxResultItems);
+
+		DocValMetrics currentMetrics = metrics;
+		if (currentMetrics != null) {
+			currentMetrics.observeConfigApply(System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -244,8 +377,7 @@ public class ValidatorManager {
 		ValidatorManagerEntry entry = _validators.get(fileName);
 		if (entry == null) {
 			logger.debug("Validator for {} not loaded yet", fileName);
-			entry = new ValidatorManagerEntry(fileName);
-			_validators.put(fileName, entry);
+			entry = _validators.computeIfAbsent(fileName, name -> new ValidatorManagerEntry(name));
 		} else if (_autoReload) {
 			logger.debug("Validator for {} loaded, checking whether a reload is necessary", fileName);
 			entry.checkReload();
@@ -283,7 +415,7 @@ public class ValidatorManager {
 			validatorsForKeyword.add(fileName);
 		}
 		if (!lazyLoad) {
-			_validators.get(fileName);
+			getValidator(fileName);
 		}
 	}
 
@@ -353,11 +485,129 @@ public class ValidatorManager {
 	 *                            exception in that case.
 	 */
 	public ValidationResult validate(String keyword, byte[] source) {
-		ValidationResult result = new ValidationResult();
+		return validate(keyword, source, false);
+	}
+
+	/**
+	 * Validate the given XML data for the given keyword, optionally recording the
+	 * time spent in keyword derivation and in each validator.
+	 * 
+	 * @param keyword        The keyword that selects which validation(s) to
+	 *                       execute
+	 * @param source         byte-array containing the XML document
+	 * @param collectTimings If true, the result contains the timings of the
+	 *                       validation (see {@link ValidationResult#getTimings()})
+	 * @return ValidationResult The result of the validation
+	 * @throws ValidatorException if there is no configuration for the given
+	 *                            keyword, and the manager is configured to raise an
+	 *                            exception in that case.
+	 */
+	public ValidationResult validate(String keyword, byte[] source, boolean collectTimings) {
+		return validate(keyword, source, collectTimings, unwrapSBDH);
+	}
+
+	/**
+	 * Validate the given XML data for the given keyword, optionally recording the
+	 * time spent in keyword derivation and in each validator, and optionally
+	 * unwrapping a Standard Business Document.
+	 * 
+	 * If unwrapSBDH is true, and the document is a Standard Business Document,
+	 * only its payload is validated; it is not copied, but validated in place.
+	 * If no keyword is given, the DOCUMENTID from the header is used, or the
+	 * keyword is derived from the payload if the header has none. Line and
+	 * column numbers in the result refer to the full document. If the document
+	 * can't be read as a Standard Business Document, it is validated as it is.
+	 * 
+	 * Depending on the fail-fast policy of the keyword (see
+	 * {@link #setFailFast(String, ConfigData.FailFast)}), validators may be
+	 * skipped once earlier ones have reported errors.
+	 * 
+	 * @param keyword        The keyword that selects which validation(s) to
+	 *                       execute
+	 * @param source         byte-array containing the XML document
+	 * @param collectTimings If true, the result contains the timings of the
+	 *                       validation (see {@link ValidationResult#getTimings()})
+	 * @param unwrapSBDH     If true, validate the payload of a Standard Business
+	 *                       Document instead of the full document
+	 * @return ValidationResult The result of the validation
+	 * @throws ValidatorException if there is no configuration for the given
+	 *                            keyword, and the manager is configured to raise an
+	 *                            exception in that case.
+	 */
+	public ValidationResult validate(String keyword, byte[] source, boolean collectTimings, boolean unwrapSBDH) {
+		return validate(keyword, source, collectTimings, unwrapSBDH, new ValidationResult());
+	}
+
+	/**
+	 * Validate the given XML data for the given keyword, as with
+	 * {@link #validate(String, byte[], boolean, boolean)}, adding the errors and
+	 * warnings to the given result. This allows callers to set options on the
+	 * result first, such as aggregation (see
+	 * {@link ValidationResult#setAggregated(boolean)}), or a maximum number of
+	 * items; if the result has no maximum, that of the manager is used.
+	 * 
+	 * @param keyword        The keyword that selects which validation(s) to
+	 *                       execute
+	 * @param source         byte-array containing the XML document
+	 * @param collectTimings If true, the result contains the timings of the
+	 *                       validation (see {@link ValidationResult#getTimings()})
+	 * @param unwrapSBDH     If true, validate the payload of a Standard Business
+	 *                       Document instead of the full document
+	 * @param result         The (empty) result to add the errors and warnings to
+	 * @return ValidationResult The given result
+	 * @throws ValidatorException if there is no configuration for the given
+	 *                            keyword, and the manager is configured to raise an
+	 *                            exception in that case.
+	 */
+	public ValidationResult validate(String keyword, byte[] source, boolean collectTimings, boolean unwrapSBDH,
+			ValidationResult result) {
+		long validationStart = System.nanoTime();
+		DocValMetrics currentMetrics = metrics;
+		if (result.getMaxItems() == 0) {
+			result.setMaxItems(maxResultItems);
+		}
+		ValidationTimings timings = null;
+		if (collectTimings) {
+			timings = new ValidationTimings();
+			result.setTimings(timings);
+		}
+		SBDHUnwrapper.Payload payload = null;
+		if (unwrapSBDH) {
+			long start = System.nanoTime();
+			try {
+				payload = new SBDHUnwrapper().unwrap(source);
+			} catch (ValidatorException sbdhError) {
+				// Let the validators report the problem with the document
+				logger.debug("Not unwrapping SBDH: {}", sbdhError.getMessage());
+			}
+			if (keyword == null && payload != null && payload.getDocumentIdentifier() != null) {
+				keyword = payload.getDocumentIdentifier();
+				if (timings != null) {
+					// Reading the header replaces the keyword derivation
+					timings.setKeywordDerivationNanos(System.nanoTime() - start);
+				}
+			}
+		}
+		byte[] data = payload != null ? payload.getData() : source;
+		int offset = payload != null ? payload.getOffset() : 0;
+		int length = payload != null ? payload.getLength() : source.length;
+		if (payload != null && payload.isSBDH()) {
+			// Line and column numbers refer to the full document
+			result.setPositionOffset(payload.getLine(), payload.getColumn());
+		}
+
 		if (keyword == null) {
+			long start = System.nanoTime();
 			try {
 				KeywordDeriver kwd = new KeywordDeriver();
-				keyword = kwd.deriveKeyword(source);
+				keyword = kwd.deriveKeyword(data, offset, length);
+				long elapsed = System.nanoTime() - start;
+				if (currentMetrics != null) {
+					currentMetrics.observeKeywordDerivation(elapsed);
+				}
+				if (timings != null) {
+					timings.setKeywordDerivationNanos(elapsed);
+				}
 			} catch (ValidatorException derivationError) {
 				String msg = "Unable to derive document type keyword: " + derivationError.toString();
 				if (msg.contains("Content is not allowed in prolog")) {
@@ -378,10 +628,18 @@ public class ValidatorManager {
 					break;
 				}
 				// Don't continue if we can't even derive the keyword.
+				if (timings != null) {
+					timings.setKeywordDerivationNanos(System.nanoTime() - start);
+					timings.setTotalNanos(System.nanoTime() - validationStart);
+				}
+				if (currentMetrics != null) {
+					currentMetrics.countResult(DocValMetrics.UNKNOWN, result.errorCount(), result.warningCount());
+				}
 				return result;
 			}
 		}
 
+		result.setKeyword(keyword);
 		ArrayList<String> validatorNames = getValidatorNamesForKeyword(keyword);
 		if (validatorNames.isEmpty()) {
 			logger.info("No document type configured with keyword: " + keyword + ", raising exception");
@@ -402,11 +660,304 @@ public class ValidatorManager {
 		} else {
             result.setDocumentTypeName(_documentTypeNames.get(keyword));
             
-			for (String validatorName : validatorNames) {
-				getValidator(validatorName).validate(source, result);
+			ConfigData.FailFast failFast = getFailFast(keyword);
+			for (int i = 0; i < validatorNames.size(); i++) {
+				String validatorName = validatorNames.get(i);
+				DocumentValidator validator = getValidator(validatorName);
+				int errorsBefore = result.errorCount();
+				runValidator(validatorName, validator, () -> validator.validate(data, offset, length, result),
+						result, currentMetrics, timings);
+				if (i + 1 < validatorNames.size() && stopAfter(failFast, validator, errorsBefore, result)) {
+					skipValidators(validatorNames, i + 1, result);
+					break;
+				}
+			}
+		}
+		if (timings != null) {
+			timings.setTotalNanos(System.nanoTime() - validationStart);
+		}
+		if (currentMetrics != null) {
+			currentMetrics.countResult(validatorNames.isEmpty() ? DocValMetrics.UNKNOWN : keyword,
+					result.errorCount(), result.warningCount());
+		}
+		return result;
+	}
+
+	/**
+	 * Validate the XML document read from the given stream for the given keyword,
+	 * optionally recording the time spent in each validator, and optionally
+	 * unwrapping a Standard Business Document.
+	 * 
+	 * If the keyword is given, and its first validator is an XML Schema, the
+	 * document is validated against that schema while it is being read, instead
+	 * of being read into memory first. If the keyword has more validators, the
+	 * data is kept in a buffer while it is read, for the later stages; if it has
+	 * none, the document is never held in memory as a whole. The read time in
+	 * the timings is then the time spent waiting for data from the stream, which
+	 * is also part of the time of the XML Schema validator.
+	 * 
+	 * In all other cases (no keyword, an unknown keyword, another first
+	 * validator, or SBDH unwrapping), the stream is read completely, and the
+	 * document is validated as with
+	 * {@link #validate(String, byte[], boolean, boolean)}.
+	 * 
+	 * The stream is read up to its end, but not closed.
+	 * 
+	 * @param keyword        The keyword that selects which validation(s) to
+	 *                       execute
+	 * @param source         stream containing the XML document
+	 * @param collectTimings If true, the result contains the timings of the
+	 *                       validation (see {@link ValidationResult#getTimings()})
+	 * @param unwrapSBDH     If true, validate the payload of a Standard Business
+	 *                       Document instead of the full document
+	 * @return ValidationResult The result of the validation
+	 * @throws IOException        if reading the stream fails
+	 * @throws ValidatorException if there is no configuration for the given
+	 *                            keyword, and the manager is configured to raise an
+	 *                            exception in that case.
+	 */
+	public ValidationResult validate(String keyword, InputStream source, boolean collectTimings, boolean unwrapSBDH)
+			throws IOException {
+		return validate(keyword, source, collectTimings, unwrapSBDH, new ValidationResult());
+	}
+
+	/**
+	 * Validate the XML document read from the given stream for the given keyword,
+	 * as with {@link #validate(String, InputStream, boolean, boolean)}, adding
+	 * the errors and warnings to the given result (see
+	 * {@link #validate(String, byte[], boolean, boolean, ValidationResult)}).
+	 * 
+	 * @param keyword        The keyword that selects which validation(s) to
+	 *                       execute
+	 * @param source         stream containing the XML document
+	 * @param collectTimings If true, the result contains the timings of the
+	 *                       validation (see {@link ValidationResult#getTimings()})
+	 * @param unwrapSBDH     If true, validate the payload of a Standard Business
+	 *                       Document instead of the full document
+	 * @param result         The (empty) result to add the errors and warnings to
+	 * @return ValidationResult The given result
+	 * @throws IOException        if reading the stream fails
+	 * @throws ValidatorException if there is no configuration for the given
+	 *                            keyword, and the manager is configured to raise an
+	 *                            exception in that case.
+	 */
+	public ValidationResult validate(String keyword, InputStream source, boolean collectTimings, boolean unwrapSBDH,
+			ValidationResult result) throws IOException {
+		ArrayList<String> validatorNames = keyword != null && !unwrapSBDH ? getValidatorNamesForKeyword(keyword)
+				: new ArrayList<String>();
+		DocumentValidator firstValidator = validatorNames.isEmpty() ? null : getValidator(validatorNames.get(0));
+		if (!(firstValidator instanceof XSDValidator)) {
+			long readStart = System.nanoTime();
+			BufferingInputStream buffer = new BufferingInputStream(source, true);
+			buffer.readFully();
+			long readNanos = System.nanoTime() - readStart;
+			validate(keyword, buffer.toByteArray(), collectTimings, unwrapSBDH, result);
+			if (collectTimings) {
+				result.getTimings().setReadNanos(readNanos);
+			}
+			return result;
+		}
+
+		long validationStart = System.nanoTime();
+		DocValMetrics currentMetrics = metrics;
+		if (result.getMaxItems() == 0) {
+			result.setMaxItems(maxResultItems);
+		}
+		ValidationTimings timings = null;
+		if (collectTimings) {
+			timings = new ValidationTimings();
+			result.setTimings(timings);
+		}
+		result.setKeyword(keyword);
+		result.setDocumentTypeName(_documentTypeNames.get(keyword));
+
+		BufferingInputStream input = new BufferingInputStream(source, validatorNames.size() > 1);
+		XSDValidator xsdValidator = (XSDValidator) firstValidator;
+		try {
+			runValidator(validatorNames.get(0), xsdValidator, () -> xsdValidator.validate(input, result), result,
+					currentMetrics, timings);
+		} catch (ValidatorException readError) {
+			if (readError.getCause() instanceof IOException) {
+				throw (IOException) readError.getCause();
 			}
+			throw readError;
+		}
+		int firstSkipped = validatorNames.size();
+		if (validatorNames.size() > 1 && stopAfter(getFailFast(keyword), xsdValidator, 0, result)) {
+			// The rest of the document is not needed anymore
+			firstSkipped = 1;
+			input.discardData();
+			skipValidators(validatorNames, firstSkipped, result);
+		}
+		// The parser stops at a fatal error, the rest is still needed for the
+		// other validators (and must be consumed in any case)
+		input.readFully();
+		for (int i = 1; i < firstSkipped; i++) {
+			String validatorName = validatorNames.get(i);
+			DocumentValidator validator = getValidator(validatorName);
+			runValidator(validatorName, validator,
+					() -> validator.validate(input.getBuffer(), 0, input.getCount(), result), result, currentMetrics,
+					timings);
+		}
+		if (timings != null) {
+			timings.setReadNanos(input.getReadNanos());
+			timings.setTotalNanos(System.nanoTime() - validationStart);
+		}
+		if (currentMetrics != null) {
+			currentMetrics.countResult(keyword, result.errorCount(), result.warningCount());
 		}
 		return result;
 	}
 
+	/*
+	 * Returns true if the remaining validators should be skipped, because the
+	 * result is truncated, or under the given fail-fast policy, after the given
+	 * validator has run. errorsBefore is the number of errors in the result
+	 * before that validator ran.
+	 */
+	private static boolean stopAfter(ConfigData.FailFast failFast, DocumentValidator validator, int errorsBefore,
+			ValidationResult result) {
+		if (result.isTruncated()) {
+			return true;
+		}
+		switch (failFast) {
+		case STOP_ON_XSD_ERROR:
+			return validator instanceof XSDValidator && result.errorCount() > errorsBefore;
+		case STOP_ON_FIRST_ERROR:
+			return result.errorCount() > 0;
+		default:
+			return false;
+		}
+	}
+
+	/* Record the validators from the given index on as skipped */
+	private static void skipValidators(ArrayList<String> validatorNames, int first, ValidationResult result) {
+		for (int i = first; i < validatorNames.size(); i++) {
+			result.addSkippedValidator(validatorNames.get(i));
+		}
+	}
+
+	/*
+	 * Run a single validator, record the time it took in the metrics and
+	 * timings, if either is given, and tell the sink of the result, if any, that
+	 * it is done
+	 */
+	private void runValidator(String validatorName, DocumentValidator validator, Runnable validation,
+			ValidationResult result, DocValMetrics currentMetrics, ValidationTimings timings) {
+		long start = System.nanoTime();
+		validation.run();
+		long elapsed = System.nanoTime() - start;
+		if (currentMetrics != null || timings != null) {
+			String type = DocValMetrics.validatorType(validator.getClass());
+			if (currentMetrics != null) {
+				currentMetrics.observeValidator(type, validatorName, elapsed);
+			}
+			if (timings != null) {
+				timings.addValidator(validatorName, type, elapsed);
+			}
+		}
+		if (result.getSink() != null) {
+			result.getSink().validatorFinished(validatorName);
+		}
+	}
+
+	/*
+	 * Input stream that keeps a copy of the data read from the underlying
+	 * stream, if requested, and does not close it (the XML parser closes its
+	 * input when it is done, but the rest of the stream may still be needed).
+	 * It also records the time spent waiting for the underlying stream.
+	 */
+	private static class BufferingInputStream extends FilterInputStream {
+		private byte[] buffer;
+		private int count = 0;
+		private long readNanos = 0;
+
+		BufferingInputStream(InputStream in, boolean keepData) {
+			super(in);
+			buffer = keepData ? new byte[8192] : null;
+		}
+
+		private void ensureRoom(int length) {
+			if (count + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+			}
+		}
+
+		private void keep(byte[] data, int offset, int length) {
+			if (buffer == null || length <= 0) {
+				return;
+			}
+			ensureRoom(length);
+			System.arraycopy(data, offset, buffer, count, length);
+			count += length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = in.read();
+			readNanos += System.nanoTime() - start;
+			if (b >= 0 && buffer != null) {
+				ensureRoom(1);
+				buffer[count++] = (byte) b;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			long start = System.nanoTime();
+			int read = in.read(data, offset, length);
+			readNanos += System.nanoTime() - start;
+			keep(data, offset, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped data must be kept as well
+			byte[] skipped = new byte[(int) Math.min(n, 8192)];
+			int read = read(skipped, 0, skipped.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		/* Stop keeping the data that is read */
+		void discardData() {
+			buffer = null;
+			count = 0;
+		}
+
+		/* Read the rest of the underlying stream */
+		void readFully() throws IOException {
+			byte[] data = new byte[8192];
+			while (read(data, 0, data.length) != -1) {
+			}
+		}
+
+		/* The data that has been read so far; only the first getCount() bytes */
+		byte[] getBuffer() {
+			return buffer;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		long getReadNanos() {
+			return readNanos;
+		}
+
+		byte[] toByteArray() {
+			return buffer.length == count ? buffer : Arrays.copyOf(buffer, count);
+		}
+	}
 };
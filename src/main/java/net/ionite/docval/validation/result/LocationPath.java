@@ -0,0 +1,178 @@
+package net.ionite.docval.validation.result;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Compact representation of the location (XPath) of a validation error or
+ * warning.
+ *
+ * A location is stored as its last step, and a reference to the location of
+ * its parent. Locations that are created through the same
+ * {@link LocationPath.Table} share their common parents, so the thousands of
+ * locations of errors in the lines of a large invoice store the path up to
+ * the line element only once. The full path is built when it is first needed
+ * (see {@link #toString()}).
+ *
+ * Instances are thread-safe.
+ */
+public final class LocationPath {
+	private final LocationPath parent;
+	private final String step;
+	/** The full path, once it has been built */
+	private String path;
+
+	private LocationPath(LocationPath parent, String step) {
+		this.parent = parent;
+		this.step = step;
+	}
+
+	/**
+	 * Returns a location path for the given path, that does not share anything
+	 * with other locations
+	 *
+	 * @param path The full path
+	 * @return The location path, or null if path is null
+	 */
+	public static LocationPath of(String path) {
+		if (path == null) {
+			return null;
+		}
+		return new LocationPath(null, path);
+	}
+
+	/**
+	 * Append the full path to the given StringBuilder
+	 *
+	 * @param builder The StringBuilder to append the path to
+	 */
+	public void appendTo(StringBuilder builder) {
+		if (parent != null) {
+			parent.appendTo(builder);
+		}
+		builder.append(step);
+	}
+
+	/**
+	 * Returns the length of the full path
+	 *
+	 * @return The number of characters in the path
+	 */
+	public int length() {
+		int length = 0;
+		for (LocationPath path = this; path != null; path = path.parent) {
+			length += path.step.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the full path. It is built once, so all users of this location
+	 * share the same String.
+	 *
+	 * @return The path as a String
+	 */
+	@Override
+	public String toString() {
+		if (parent == null) {
+			return step;
+		}
+		// Building it twice in a race is harmless, Strings are immutable
+		String result = path;
+		if (result == null) {
+			StringBuilder builder = new StringBuilder(length());
+			appendTo(builder);
+			result = builder.toString();
+			path = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the given path into its steps. A step starts at a '/' that is not
+	 * inside a predicate or a string literal.
+	 */
+	static ArrayList<String> split(String path) {
+		ArrayList<String> steps = new ArrayList<String>();
+		int depth = 0;
+		char quote = 0;
+		int start = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			} else if (c == '/' && depth == 0 && i > start) {
+				steps.add(path.substring(start, i));
+				start = i;
+			}
+		}
+		steps.add(path.substring(start));
+		return steps;
+	}
+
+	/**
+	 * Creates location paths that share their common parents, and their steps.
+	 *
+	 * A table is meant to be used for the results of a single validation; it is
+	 * not thread-safe.
+	 */
+	public static final class Table {
+		/** The top-level locations */
+		private final HashMap<String, LocationPath> roots = new HashMap<String, LocationPath>();
+		/** The child locations of each location that has any */
+		private final IdentityHashMap<LocationPath, HashMap<String, LocationPath>> children = new IdentityHashMap<LocationPath, HashMap<String, LocationPath>>();
+		/**
+		 * The step strings of the paths, so that a step that occurs under many
+		 * parents (such as cbc:ID) is stored once. They are not shared with other
+		 * validations: positional steps such as cac:InvoiceLine[1234] depend on
+		 * the document, and would soon fill up any table that outlives it.
+		 */
+		private final HashMap<String, String> steps = new HashMap<String, String>();
+
+		/**
+		 * Returns the location path for the given path
+		 *
+		 * @param path The full path
+		 * @return The location path, or null if path is null
+		 */
+		public LocationPath get(String path) {
+			if (path == null) {
+				return null;
+			}
+			LocationPath location = null;
+			for (String step : split(path)) {
+				HashMap<String, LocationPath> siblings;
+				if (location == null) {
+					siblings = roots;
+				} else {
+					siblings = children.get(location);
+					if (siblings == null) {
+						siblings = new HashMap<String, LocationPath>();
+						children.put(location, siblings);
+					}
+				}
+				LocationPath next = siblings.get(step);
+				if (next == null) {
+					String shared = steps.get(step);
+					if (shared == null) {
+						shared = step;
+						steps.put(shared, shared);
+					}
+					next = new LocationPath(location, shared);
+					siblings.put(next.step, next);
+				}
+				location = next;
+			}
+			return location;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package net.ionite.docval.validation.result;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded table of shared String instances.
+ *
+ * Validators that report the same texts over and over (such as the message
+ * and test of a Schematron assertion that fails on every line of an invoice)
+ * use this to store each distinct text only once. Unlike String.intern(), the
+ * table belongs to its owner (usually a single validator), and stops growing
+ * once the total length of its strings reaches the given maximum, so that
+ * texts that are not repeated (for instance messages that contain values from
+ * the document) can't fill up the heap.
+ *
+ * Instances are thread-safe.
+ */
+public final class StringTable {
+	private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+	private final AtomicLong length = new AtomicLong();
+	private final long maxLength;
+
+	/**
+	 * Construct a table that holds strings up to the given total length
+	 *
+	 * @param maxLength The maximum total length of the strings in the table, in
+	 *                  characters
+	 */
+	public StringTable(long maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Returns the shared instance of the given string. If the string is not in
+	 * the table yet, it is added, unless that would make the table exceed its
+	 * maximum length; then the string itself is returned.
+	 *
+	 * @param value The string to look up, may be null
+	 * @return An equal string, possibly a shared instance
+	 */
+	public String get(String value) {
+		if (value == null) {
+			return null;
+		}
+		String shared = strings.get(value);
+		if (shared != null) {
+			return shared;
+		}
+		// Reserve the space first, so that concurrent additions can't exceed the
+		// maximum together
+		if (length.addAndGet(value.length()) > maxLength) {
+			length.addAndGet(-value.length());
+			return value;
+		}
+		shared = strings.putIfAbsent(value, value);
+		if (shared != null) {
+			length.addAndGet(-value.length());
+			return shared;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the number of strings in the table
+	 *
+	 * @return The number of strings
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Returns the total length of the strings in the table
+	 *
+	 * @return The total length, in characters
+	 */
+	public long length() {
+		return length.get();
+	}
+}
@@ -1,5 +1,7 @@
 package net.ionite.docval.validation.validator;
 
+import java.util.Arrays;
+
 import net.ionite.docval.validation.ValidationResult;
 import net.ionite.docval.validation.ValidatorException;
 
@@ -41,4 +43,25 @@ public interface DocumentValidator {
 	 *                            validation
 	 */
 	public ValidationResult validate(byte[] source, ValidationResult result) throws ValidatorException;
+
+	/**
+	 * Validate the XML document in the given part of a byte array, and add the
+	 * errors and warnings to the given ValidationResult item. This is used to
+	 * validate a document embedded in another one, such as the payload of an
+	 * SBDH, without copying it.
+	 * 
+	 * The default implementation copies the document.
+	 * 
+	 * @param source The byte array containing the XML source to validate
+	 * @param offset The offset of the XML source in the array
+	 * @param length The length of the XML source
+	 * @param result Errors and warnings are added to this instance in-place
+	 * @return The modified ValidationResult instance
+	 * @throws ValidatorException Thrown when there is an error performing the
+	 *                            validation
+	 */
+	public default ValidationResult validate(byte[] source, int offset, int length, ValidationResult result)
+			throws ValidatorException {
+		return validate(Arrays.copyOfRange(source, offset, offset + length), result);
+	}
 };
@@ -3,7 +3,16 @@ package net.ionite.docval.validation.validator;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
@@ -28,9 +37,19 @@ import net.ionite.docval.xml.IgnoreErrorHandler;
  * 
  * Be aware that startup times are much faster if you use the .xsl directly, as
  * this class performs a (slow) conversion using the default Schematron skeleton
- * files.
+ * files. To avoid doing this conversion every time a process starts, a cache
+ * directory can be set with setCacheDirectory(); the converted stylesheets are
+ * then stored there, and reused as long as the .sch file does not change.
  */
 public class SCHValidator extends XSLTValidator {
+	/*
+	 * Part of the cache key; change this when the conversion pipeline changes, so
+	 * that stylesheets converted by older versions are not used anymore
+	 */
+	private static final String CACHE_FORMAT = "ion-docval-sch-1";
+
+	private static volatile Path cacheDirectory = null;
+
 	/**
 	 * Internal class to resolve URIs used in include/import statements Overrides
 	 * one specific file: iso_schematron_skeleton_for_saxon.xsl to load from the jar
@@ -83,14 +102,106 @@ public class SCHValidator extends XSLTValidator {
 		super(stream);
 	}
 
+	/**
+	 * Set the directory where stylesheets converted from .sch files are cached.
+	 * This applies to all SCH validators in this process that are loaded after
+	 * this call. The directory is created if it does not exist yet.
+	 * 
+	 * The cache key is the contents and the absolute path of the .sch file; files
+	 * it includes are not part of it, so if those change, the cache directory
+	 * should be cleared.
+	 * 
+	 * @param directory The cache directory, or null to disable caching (the
+	 *                  default)
+	 */
+	public static void setCacheDirectory(String directory) {
+		cacheDirectory = directory != null ? Paths.get(directory) : null;
+	}
+
+	/**
+	 * Returns the directory where stylesheets converted from .sch files are
+	 * cached, or null if caching is disabled
+	 * 
+	 * @return The cache directory, or null
+	 */
+	public static String getCacheDirectory() {
+		Path directory = cacheDirectory;
+		return directory != null ? directory.toString() : null;
+	}
+
+	/*
+	 * Returns the file in the cache directory for the current .sch file, or null
+	 * if there is no cache directory, or if the validator was created from a
+	 * stream
+	 */
+	private Path getCacheFile() throws IOException {
+		Path directory = cacheDirectory;
+		if (directory == null || _filename == null) {
+			return null;
+		}
+		Path schFile = Paths.get(_filename).toAbsolutePath().normalize();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(CACHE_FORMAT.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(schFile.toString().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(schFile));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest()) {
+				name.append(String.format("%02x", b));
+			}
+			return directory.resolve(name.append(".xsl").toString());
+		} catch (NoSuchAlgorithmException error) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(error);
+		}
+	}
+
+	/*
+	 * Store a converted stylesheet in the cache. The file is written under a
+	 * temporary name first, so that other processes never see a partial file.
+	 * Failing to write the cache is not an error.
+	 */
+	private void storeInCache(Path cacheFile, byte[] stylesheet) {
+		try {
+			Files.createDirectories(cacheFile.getParent());
+			Path tempFile = Files.createTempFile(cacheFile.getParent(), "sch-", ".tmp");
+			try {
+				Files.write(tempFile, stylesheet);
+				try {
+					Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException notSupported) {
+					Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			logger.debug("Stored converted stylesheet for {} in {}", _filename, cacheFile);
+		} catch (IOException error) {
+			logger.warn("Unable to store converted stylesheet for {} in cache: {}", _filename, error.toString());
+		}
+	}
+
 	/**
 	 * Override the initialization in the parent class This implementation loads the
 	 * given schematron, and converts it to an SVRL stylesheet, using the default
 	 * skeleton implementation as published on the schematron website.
 	 */
 	@Override
-	protected Transformer setupTransformer() {
+	protected Templates setupTemplates() {
 		try {
+			Path cacheFile = getCacheFile();
+			if (cacheFile != null && Files.isRegularFile(cacheFile)) {
+				logger.debug("Loading converted stylesheet for {} from {}", _filename, cacheFile);
+				try {
+					return loadTemplates(new ByteArrayInputStream(Files.readAllBytes(cacheFile)));
+				} catch (ValidatorException cacheError) {
+					// Convert the .sch file again, and replace the cached stylesheet
+					logger.warn("Unable to load cached stylesheet {}, ignoring it", cacheFile);
+				}
+			}
+
 			logger.debug("Starting Schematron to SVRL Stylesheet conversion");
 			// Run the given file (an .sch file) through the conversion pipeline
 			SAXTransformerFactory stf = (SAXTransformerFactory) TransformerFactory.newInstance();
@@ -124,7 +235,11 @@ public class SCHValidator extends XSLTValidator {
 			t.transform(new StreamSource(new File(_filename)), new SAXResult(th1));
 
 			logger.debug("Finished Schematron to SVRL Stylesheet conversion");
-			return loadTransformer(new ByteArrayInputStream(outputStream.toByteArray()));
+			Templates result = loadTemplates(new ByteArrayInputStream(outputStream.toByteArray()));
+			if (cacheFile != null) {
+				storeInCache(cacheFile, outputStream.toByteArray());
+			}
+			return result;
 		} catch (Exception error) {
 			throw new ValidatorException("Error setting up SCH validator for " + _filename, error);
 		}
@@ -21,11 +21,14 @@ import net.ionite.docval.validation.ValidatorException;
 /**
  * This class implements the DocumentValidor interface for XML Schema (XSD)
  * validation.
+ * 
+ * Instances are thread-safe; the compiled schema is shared, and each
+ * validation uses its own (cheap) javax.xml.validation.Validator.
  */
 public class XSDValidator implements DocumentValidator {
 	private String _filename;
 	private InputStream _stream;
-	private Validator _validator = null;
+	private volatile Schema _schema = null;
 	private Logger logger;
 
 	/**
@@ -63,11 +66,11 @@ public class XSDValidator implements DocumentValidator {
 	 *                            stream.
 	 */
 	public void reload() throws ValidatorException {
-		if (_filename == null && _validator != null) {
+		if (_filename == null && _schema != null) {
 			throw new ValidatorException("Can't reload an XSD validator based on a stream");
 		}
 		if (_filename != null) {
-			if (_validator == null) {
+			if (_schema == null) {
 				logger.debug("Loading {}", _filename);
 			} else {
 				logger.info("Reloading {}", _filename);
@@ -86,15 +89,22 @@ public class XSDValidator implements DocumentValidator {
 				throw new ValidatorException("Must have either stream or filename to load XSDValidator");
 			}
 			Schema schema = schemaFactory.newSchema(source);
-			_validator = schema.newValidator();
-			_validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-			_validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+			// Check that validators can be created from the new schema
+			createValidator(schema);
+			_schema = schema;
 		} catch (SAXException saxError) {
 			logger.error("Reloading file {} failed: ", _filename, saxError);
 			throw new ValidatorException("Error reading XSD file " + _filename, saxError);
 		}
 	}
 
+	private Validator createValidator(Schema schema) throws SAXException {
+		Validator validator = schema.newValidator();
+		validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+		validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+		return validator;
+	}
+
 	/**
 	 * Validate the given XML document, and return a new ValidationResult structure
 	 * containing the validation results.
@@ -114,9 +124,40 @@ public class XSDValidator implements DocumentValidator {
 	 * @param result The structure to add the validation results to
 	 */
 	public ValidationResult validate(byte[] source, ValidationResult result) throws ValidatorException {
+		return validate(source, 0, source.length, result);
+	}
+
+	/**
+	 * Validate the XML document in the given part of a byte array, and add the
+	 * validation results to the given ValidationResult structure
+	 * 
+	 * @param source Byte-array containing the XML document to validate
+	 * @param offset The offset of the XML document in the array
+	 * @param length The length of the XML document
+	 * @param result The structure to add the validation results to
+	 */
+	@Override
+	public ValidationResult validate(byte[] source, int offset, int length, ValidationResult result)
+			throws ValidatorException {
+		return validate(new ByteArrayInputStream(source, offset, length), result);
+	}
+
+	/**
+	 * Validate the XML document read from the given input stream, and add the
+	 * validation results to the given ValidationResult structure. The document
+	 * is validated as it is read, so it is never held in memory as a whole.
+	 * 
+	 * Reading stops at the end of the document, or at the first error that
+	 * makes the document unreadable; the stream may be closed by the parser.
+	 * 
+	 * @param source Stream containing the XML document to validate
+	 * @param result The structure to add the validation results to
+	 * @return The modified ValidationResult instance
+	 * @throws ValidatorException If reading the stream fails
+	 */
+	public ValidationResult validate(InputStream source, ValidationResult result) throws ValidatorException {
 		try {
-			StreamSource ssource = new StreamSource(new ByteArrayInputStream(source));
-			_validator.validate(ssource);
+			createValidator(_schema).validate(new StreamSource(source));
 		} catch (SAXParseException saxParseError) {
 			result.addError(saxParseError.getLocalizedMessage(), null, saxParseError.getLineNumber(),
 					saxParseError.getColumnNumber(), "XML Schema");
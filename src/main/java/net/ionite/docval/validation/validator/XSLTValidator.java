@@ -13,6 +13,7 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -27,8 +28,12 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import net.ionite.docval.validation.AggregatedResultItem;
 import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
 import net.ionite.docval.validation.ValidatorException;
+import net.ionite.docval.validation.result.LocationPath;
+import net.ionite.docval.validation.result.StringTable;
 import net.ionite.docval.xml.IgnoreErrorHandler;
 import net.sf.saxon.trans.XPathException;
 
@@ -40,6 +45,9 @@ import net.sf.saxon.trans.XPathException;
  * 
  * Using these files is much faster than using .SCH files with the SCHValidator
  * directly.
+ * 
+ * Instances are thread-safe; the compiled stylesheet is shared, and each
+ * validation uses its own Transformer.
  */
 public class XSLTValidator implements DocumentValidator {
 	/**
@@ -52,27 +60,59 @@ public class XSLTValidator implements DocumentValidator {
 	 * this validator is initialized with an inputstream. Null otherwise.
 	 */
 	protected InputStream _stream;
-	private Transformer transformer = null;
+	private volatile Templates templates = null;
+	/**
+	 * The maximum total length (in characters) of the messages and tests that are
+	 * shared between the results of this validator
+	 */
+	private static final long MAX_SHARED_STRINGS_LENGTH = 1024 * 1024;
+	/**
+	 * The messages and tests of the results of this validator; the same
+	 * assertions fail over and over, so their texts are only stored once.
+	 * Location steps are only shared within a single validation (see
+	 * {@link LocationPath.Table}).
+	 */
+	private volatile StringTable strings = new StringTable(MAX_SHARED_STRINGS_LENGTH);
 	/** General Logger instance */
 	protected Logger logger;
 
+	/**
+	 * Thrown by the SVRLHandler to abort the transformation, when the
+	 * ValidationResult can't hold any more errors or warnings, or its sink has
+	 * been cancelled
+	 */
+	private static class ResultFullException extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		ResultFullException() {
+			super("Maximum number of errors and warnings reached");
+		}
+	}
+
 	/**
 	 * Handle SVRL output and put and failed assertion information into the
-	 * ValidationResult instance
+	 * ValidationResult instance. If the result is full (see
+	 * {@link ValidationResult#isFull()}), the transformation is aborted at the
+	 * next failed assertion.
 	 */
 	private class SVRLHandler extends DefaultHandler {
 		private ValidationResult _result;
+		private StringTable _strings;
+		private LocationPath.Table _locations;
 
 		private boolean _inFailedAssert;
 		private String _flag;
 		private String _location;
 		private String _test;
+		private AggregatedResultItem _aggregate;
 		private StringBuilder _currentValue = new StringBuilder();
 
 		private HashMap<String, String> _nsPrefixes = new HashMap<String, String>();
 
-		public SVRLHandler(ValidationResult result) {
+		public SVRLHandler(ValidationResult result, StringTable strings) {
 			_result = result;
+			_strings = strings;
+			_locations = new LocationPath.Table();
 			_inFailedAssert = false;
 		}
 
@@ -91,26 +131,54 @@ public class XSLTValidator implements DocumentValidator {
 			}
 			if (qName.equals("svrl:failed-assert")) {
 				_flag = attributes.getValue("flag");
-				_location = applyPrefixes(attributes.getValue("location"));
+				_location = attributes.getValue("location");
 				_test = attributes.getValue("test");
+				// In an aggregated result, repeated failures of a test are only counted
+				_aggregate = _result.getAggregate(!"warning".equals(_flag), _test);
 			}
-			if (qName.equals("svrl:text")) {
+			if (qName.equals("svrl:text") && _aggregate == null && _result.keepsItems()) {
 				_inFailedAssert = true;
 				_currentValue.setLength(0);
 			}
 		}
 
 		@Override
-		public void endElement(String uri, String localName, String qName) {
+		public void endElement(String uri, String localName, String qName) throws SAXException {
 			if (qName.equalsIgnoreCase("svrl:text")) {
 				_inFailedAssert = false;
 			}
 
 			if (qName.equalsIgnoreCase("svrl:failed-assert")) {
+				if (_result.isFull()) {
+					_result.setTruncated(true);
+					throw new ResultFullException();
+				}
+				if (!_result.keepsItems()) {
+					// Only the counts are needed
+					if ("warning".equals(_flag)) {
+						_result.countWarning();
+					} else {
+						_result.countError();
+					}
+					return;
+				}
+				if (_aggregate != null) {
+					LocationPath location = null;
+					if (_location != null && _result.wantsLocation(_aggregate)) {
+						location = _locations.get(applyPrefixes(_location));
+					}
+					_result.addOccurrence(_aggregate, location);
+					_aggregate = null;
+					return;
+				}
+				ValidationResultItem item = new ValidationResultItem(_strings.get(_currentValue.toString()),
+						_locations.get(_location != null ? applyPrefixes(_location) : null),
+						ValidationResultItem.UNKNOWN_POSITION, ValidationResultItem.UNKNOWN_POSITION,
+						_strings.get(_test));
 				if ("warning".equals(_flag)) {
-					_result.addWarning(_currentValue.toString(), _location, null, null, _test);
+					_result.addWarning(item);
 				} else {
-					_result.addError(_currentValue.toString(), _location, null, null, _test);
+					_result.addError(item);
 				}
 			}
 		}
@@ -190,11 +258,11 @@ public class XSLTValidator implements DocumentValidator {
 	 *                            stream.
 	 */
 	public void reload() {
-		if (_filename == null && transformer != null) {
+		if (_filename == null && templates != null) {
 			throw new ValidatorException("Can't reload an XSLT validator based on a stream");
 		}
 		if (_filename != null) {
-			if (transformer == null) {
+			if (templates == null) {
 				logger.debug("Loading {}", _filename);
 			} else {
 				logger.info("Reloading {}", _filename);
@@ -202,7 +270,8 @@ public class XSLTValidator implements DocumentValidator {
 		} else {
 			logger.info("Loading XSLT validator from stream");
 		}
-		transformer = setupTransformer();
+		templates = setupTemplates();
+		strings = new StringTable(MAX_SHARED_STRINGS_LENGTH);
 	}
 
 	/**
@@ -224,14 +293,36 @@ public class XSLTValidator implements DocumentValidator {
 	 * @param result The structure to add the validation results to
 	 */
 	public ValidationResult validate(byte[] source, ValidationResult result) throws ValidatorException {
+		return validate(source, 0, source.length, result);
+	}
+
+	/**
+	 * Validate the XML document in the given part of a byte array, and add the
+	 * validation results to the given ValidationResult structure
+	 * 
+	 * @param source Byte-array containing the XML document to validate
+	 * @param offset The offset of the XML document in the array
+	 * @param length The length of the XML document
+	 * @param result The structure to add the validation results to
+	 */
+	@Override
+	public ValidationResult validate(byte[] source, int offset, int length, ValidationResult result)
+			throws ValidatorException {
 		try {
-			SAXResult parseResult = new SAXResult(new SVRLHandler(result));
-			transformer.transform(new StreamSource(new ByteArrayInputStream(source)), parseResult);
+			SAXResult parseResult = new SAXResult(new SVRLHandler(result, strings));
+			Transformer transformer = newTransformer(templates);
+			transformer.transform(new StreamSource(new ByteArrayInputStream(source, offset, length)), parseResult);
 		} catch (net.sf.saxon.type.ValidationException valError) {
 			// Report this as an error
 			result.addError("Error during schematron validation: " + valError.getMessage(), "Schematron validation",
 					null, null, null);
 		} catch (TransformerException tfError) {
+			if (isResultFull(tfError)) {
+				logger.debug("Stopped validation against SCH/XSLT {}: {}", _filename,
+						result.getSink() != null && result.getSink().isCancelled() ? "result cancelled"
+								: "maximum number of errors and warnings reached");
+				return result;
+			}
 			// Report it as an error if the issue was XML parsing
 			Throwable t = tfError;
 			while (t != null) {
@@ -254,10 +345,23 @@ public class XSLTValidator implements DocumentValidator {
 		return result;
 	}
 
+	/*
+	 * Returns true if the transformation was aborted by the SVRLHandler because
+	 * the result is full
+	 */
+	private static boolean isResultFull(Throwable error) {
+		for (Throwable t = error; t != null; t = t.getCause()) {
+			if (t instanceof ResultFullException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
-	 * Initialize the Saxon Transformer
+	 * Initialize the compiled Saxon stylesheet
 	 */
-	protected Transformer setupTransformer() {
+	protected Templates setupTemplates() {
 		try {
 			// Read the file as bytes, as we'll need to go through it twice
 			// and inputstreams are not reliable regarding mark() and reset()
@@ -267,7 +371,7 @@ public class XSLTValidator implements DocumentValidator {
 			} else {
 				fileData = _stream.readAllBytes();
 			}
-			return loadTransformer(new ByteArrayInputStream(fileData));
+			return loadTemplates(new ByteArrayInputStream(fileData));
 		} catch (IOException error) {
 			logger.error("Failed to set up XSLT transformer", error);
 			throw new ValidatorException("Error setting up XSLT transformer validator for " + _filename, error);
@@ -275,13 +379,13 @@ public class XSLTValidator implements DocumentValidator {
 	}
 
 	/**
-	 * Load the transformer in the given input stream.
+	 * Compile the stylesheet in the given input stream.
 	 * 
 	 * @param inputStream The input stream containing the XSLT
-	 * @throws ValidatorException if the transformer cannot be initialized from the
+	 * @throws ValidatorException if the stylesheet cannot be compiled from the
 	 *                            given stream data
 	 */
-	protected Transformer loadTransformer(InputStream inputStream) {
+	protected Templates loadTemplates(InputStream inputStream) {
 		try {
 			TransformerFactory transformFactory = TransformerFactory.newInstance();
 
@@ -302,14 +406,59 @@ public class XSLTValidator implements DocumentValidator {
 				throw new ValidatorException("Stylesheet does not appear to be SVRL Stylesheet: " + _filename);
 			}
 			inputStream.reset();
-			Transformer transformer = transformFactory.newTransformer(new StreamSource(inputStream));
-			transformer.setParameter(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			transformer.setErrorListener(new IgnoreErrorHandler());
-			return transformer;
+			return transformFactory.newTemplates(new StreamSource(inputStream));
 		} catch (ParserConfigurationException | SAXException | IOException | TransformerConfigurationException error) {
 			logger.error("Failed to load XSLT transformer", error);
 			throw new ValidatorException("Error setting up XSLT transformer validator for " + _filename, error);
 		}
 	}
 
+	/*
+	 * Create a transformer for a single validation
+	 */
+	private static Transformer newTransformer(Templates templates) throws TransformerConfigurationException {
+		Transformer transformer = templates.newTransformer();
+		transformer.setParameter(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		transformer.setErrorListener(new IgnoreErrorHandler());
+		return transformer;
+	}
+
+	/**
+	 * Initialize the Saxon Transformer
+	 * 
+	 * @return A new transformer for the stylesheet
+	 * @deprecated A transformer can't be used by multiple threads at once; use
+	 *             {@link #setupTemplates()}, which this method calls. Overriding
+	 *             it has no effect.
+	 */
+	@Deprecated
+	protected Transformer setupTransformer() {
+		return toTransformer(setupTemplates());
+	}
+
+	/**
+	 * Load the transformer in the given input stream.
+	 * 
+	 * @param inputStream The input stream containing the XSLT
+	 * @return A new transformer for the stylesheet
+	 * @throws ValidatorException if the transformer cannot be initialized from the
+	 *                            given stream data
+	 * @deprecated A transformer can't be used by multiple threads at once; use
+	 *             {@link #loadTemplates(InputStream)}, which this method calls.
+	 *             Overriding it has no effect.
+	 */
+	@Deprecated
+	protected Transformer loadTransformer(InputStream inputStream) {
+		return toTransformer(loadTemplates(inputStream));
+	}
+
+	private Transformer toTransformer(Templates templates) {
+		try {
+			return newTransformer(templates);
+		} catch (TransformerConfigurationException error) {
+			logger.error("Failed to load XSLT transformer", error);
+			throw new ValidatorException("Error setting up XSLT transformer validator for " + _filename, error);
+		}
+	}
+
 }
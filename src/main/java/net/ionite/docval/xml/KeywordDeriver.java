@@ -98,6 +98,12 @@ import net.ionite.docval.validation.ValidatorException;
  * FooBar
  * </pre>
  * <p>
+ * If SBDH unwrapping is enabled (see {@link #setUnwrapSBDH(boolean)}), and the
+ * document is a Standard Business Document, the keyword is the DOCUMENTID from
+ * the BusinessScope in its header, or, if the header has none, the keyword
+ * derived from the payload document.
+ * </p>
+ * <p>
  * You can use the <b>ion-docval-cli</b> tool to generate a derived keyword for
  * any given XML file (API: {@link net.ionite.docval.commandline.CommandLineValidator}).
  * </p>
@@ -106,6 +112,8 @@ import net.ionite.docval.validation.ValidatorException;
  *
  */
 public class KeywordDeriver {
+	private boolean unwrapSBDH = false;
+
 	private class DeriverXMLHandler extends DefaultHandler {
 		private StringBuilder _currentValue = new StringBuilder();
 
@@ -183,13 +191,44 @@ public class KeywordDeriver {
 	}
 
 	/**
-	 * Derive the keyword from the given InputStream
+	 * Set whether Standard Business Documents are unwrapped: if true, the keyword
+	 * is taken from the SBDH, or derived from the payload document (default
+	 * false). This only applies to {@link #deriveKeyword(byte[])}.
+	 * 
+	 * @param unwrapSBDH If true, unwrap Standard Business Documents
+	 */
+	public void setUnwrapSBDH(boolean unwrapSBDH) {
+		this.unwrapSBDH = unwrapSBDH;
+	}
+
+	/**
+	 * Derive the keyword from the given byte array
 	 * 
 	 * @param source The XML source to derive the keyword from
 	 * @return a String with the keyword.
 	 */
 	public String deriveKeyword(byte[] source) {
-		return deriveKeyword(new BufferedInputStream(new ByteArrayInputStream(source)));
+		if (unwrapSBDH) {
+			SBDHUnwrapper.Payload payload = new SBDHUnwrapper().unwrap(source);
+			if (payload.getDocumentIdentifier() != null) {
+				return payload.getDocumentIdentifier();
+			}
+			return deriveKeyword(payload.getData(), payload.getOffset(), payload.getLength());
+		}
+		return deriveKeyword(source, 0, source.length);
+	}
+
+	/**
+	 * Derive the keyword from the XML document in the given part of a byte array
+	 * 
+	 * @param source The byte array containing the XML source to derive the
+	 *               keyword from
+	 * @param offset The offset of the XML source in the array
+	 * @param length The length of the XML source
+	 * @return a String with the keyword.
+	 */
+	public String deriveKeyword(byte[] source, int offset, int length) {
+		return deriveKeyword(new BufferedInputStream(new ByteArrayInputStream(source, offset, length)));
 	}
 
 	/**
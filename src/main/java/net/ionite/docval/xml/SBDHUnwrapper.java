@@ -0,0 +1,463 @@
+package net.ionite.docval.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.ionite.docval.validation.ValidatorException;
+
+/**
+ * Finds the payload document in a Standard Business Document (SBDH envelope),
+ * as used in Peppol.
+ * <p>
+ * Only the envelope itself and the header are parsed; parsing stops at the
+ * start of the payload element. The payload is then located in the original
+ * byte array, so that it can be validated as a sub-range of that array
+ * without being copied or serialized again. Only in the following cases the
+ * payload is copied:
+ * <ul>
+ * <li>If the document is not encoded in UTF-8 (or US-ASCII), it is converted
+ * to UTF-8, because the payload has no XML declaration of its own</li>
+ * <li>If the StandardBusinessDocument element declares namespaces (other than
+ * the SBDH namespace itself), these declarations are added to the payload
+ * element, unless it declares the same prefixes itself</li>
+ * </ul>
+ * </p>
+ * <p>
+ * If the header contains a BusinessScope with a Scope of type DOCUMENTID, its
+ * InstanceIdentifier is returned as the document identifier; in Peppol, this
+ * has the same format as the keywords derived by {@link KeywordDeriver}.
+ * </p>
+ * <p>
+ * Documents that are not a StandardBusinessDocument are returned as they are.
+ * </p>
+ */
+public class SBDHUnwrapper {
+	/** The namespace of the Standard Business Document Header */
+	public static final String SBDH_NAMESPACE = "http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader";
+
+	/**
+	 * The result of unwrapping a document: the payload, as a range in a byte
+	 * array, and the information read from the header.
+	 */
+	public static class Payload {
+		private byte[] data;
+		private int offset;
+		private int length;
+		private boolean sbdh;
+		private String documentIdentifier;
+		private int line = 1;
+		private int column = 1;
+
+		/**
+		 * Returns the byte array that contains the payload. This is the original
+		 * document, unless the payload had to be copied.
+		 *
+		 * @return The byte array that contains the payload
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Returns the offset of the payload in the data array
+		 *
+		 * @return The offset of the payload
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the length of the payload in the data array
+		 *
+		 * @return The length of the payload
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns true if the document was a StandardBusinessDocument, false if it
+		 * was returned as it is
+		 *
+		 * @return true if the document was a StandardBusinessDocument
+		 */
+		public boolean isSBDH() {
+			return sbdh;
+		}
+
+		/**
+		 * Returns the InstanceIdentifier of the DOCUMENTID scope in the header, or
+		 * null if there is none
+		 *
+		 * @return The document identifier from the header, or null
+		 */
+		public String getDocumentIdentifier() {
+			return documentIdentifier;
+		}
+
+		/**
+		 * Returns the line number in the original document at which the payload
+		 * starts
+		 *
+		 * @return The line number of the start of the payload
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Returns the column number in the original document at which the payload
+		 * starts
+		 *
+		 * @return The column number of the start of the payload
+		 */
+		public int getColumn() {
+			return column;
+		}
+	}
+
+	/* Thrown by the handler to stop parsing once the payload has been reached */
+	private static class StopParsing extends SAXException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class SBDHHandler extends DefaultHandler {
+		private Locator locator;
+		private int depth = 0;
+		private boolean sbdh = false;
+		private String rootQName;
+		/* Namespace declarations on the StandardBusinessDocument element */
+		private Map<String, String> rootNamespaces = new LinkedHashMap<String, String>();
+		/* Position after the root start tag, or after the header end tag */
+		private int line;
+		private int column;
+		private String encoding;
+		private boolean payloadFound = false;
+
+		private boolean inBusinessScope = false;
+		private String scopeType;
+		private String scopeInstanceIdentifier;
+		private String documentIdentifier;
+		private StringBuilder currentValue = new StringBuilder();
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) {
+			if (depth == 0) {
+				rootNamespaces.put(prefix, uri);
+			}
+		}
+
+		@Override
+		public void characters(char ch[], int start, int length) {
+			currentValue.append(ch, start, length);
+		}
+
+		private void recordPosition() {
+			line = locator.getLineNumber();
+			column = locator.getColumnNumber();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes)
+				throws SAXException {
+			currentValue.setLength(0);
+			depth++;
+			if (depth == 1) {
+				if (locator instanceof Locator2) {
+					encoding = ((Locator2) locator).getEncoding();
+				}
+				if (SBDH_NAMESPACE.equals(uri) && "StandardBusinessDocument".equals(localName)) {
+					sbdh = true;
+					rootQName = qName;
+					recordPosition();
+				} else {
+					throw new StopParsing();
+				}
+			} else if (depth == 2 && !(SBDH_NAMESPACE.equals(uri) && "StandardBusinessDocumentHeader".equals(localName))) {
+				payloadFound = true;
+				throw new StopParsing();
+			} else if (SBDH_NAMESPACE.equals(uri) && "BusinessScope".equals(localName)) {
+				inBusinessScope = true;
+			} else if (inBusinessScope && SBDH_NAMESPACE.equals(uri) && "Scope".equals(localName)) {
+				scopeType = null;
+				scopeInstanceIdentifier = null;
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if (depth == 2) {
+				// End of the header
+				recordPosition();
+			} else if (inBusinessScope && SBDH_NAMESPACE.equals(uri)) {
+				if ("Type".equals(localName)) {
+					scopeType = currentValue.toString().trim();
+				} else if ("InstanceIdentifier".equals(localName)) {
+					scopeInstanceIdentifier = currentValue.toString().trim();
+				} else if ("Scope".equals(localName)) {
+					if (documentIdentifier == null && "DOCUMENTID".equals(scopeType)
+							&& scopeInstanceIdentifier != null && !scopeInstanceIdentifier.isEmpty()) {
+						documentIdentifier = scopeInstanceIdentifier;
+					}
+				} else if ("BusinessScope".equals(localName)) {
+					inBusinessScope = false;
+				}
+			}
+			currentValue.setLength(0);
+			depth--;
+		}
+	}
+
+	/**
+	 * Find the payload in the given document.
+	 *
+	 * @param source The document, which may or may not be a
+	 *               StandardBusinessDocument
+	 * @return The payload, or the full document if it is not a
+	 *         StandardBusinessDocument
+	 * @throws ValidatorException if the document can't be parsed, or if it is a
+	 *                            StandardBusinessDocument without a payload
+	 */
+	public Payload unwrap(byte[] source) {
+		SBDHHandler handler = new SBDHHandler();
+		try {
+			SAXParserFactory sfactory = SAXParserFactory.newInstance();
+			sfactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			sfactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			sfactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			sfactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			sfactory.setXIncludeAware(false);
+			sfactory.setNamespaceAware(true);
+			SAXParser parser = sfactory.newSAXParser();
+			parser.parse(new ByteArrayInputStream(source), handler);
+		} catch (StopParsing stop) {
+			// The payload, or a document that is not an SBDH, was found
+		} catch (IOException | SAXException | ParserConfigurationException error) {
+			throw new ValidatorException("Error reading SBDH: " + error.getMessage(), error);
+		}
+
+		Payload payload = new Payload();
+		if (!handler.sbdh) {
+			payload.data = source;
+			payload.offset = 0;
+			payload.length = source.length;
+			return payload;
+		}
+		if (!handler.payloadFound) {
+			throw new ValidatorException("Error reading SBDH: StandardBusinessDocument contains no payload document");
+		}
+		payload.sbdh = true;
+		payload.documentIdentifier = handler.documentIdentifier;
+
+		byte[] data = source;
+		if (handler.encoding != null && !"UTF-8".equalsIgnoreCase(handler.encoding)
+				&& !"US-ASCII".equalsIgnoreCase(handler.encoding)) {
+			// The payload is parsed without the XML declaration, so as UTF-8
+			String text = new String(source, Charset.forName(handler.encoding));
+			if (text.startsWith("\uFEFF")) {
+				text = text.substring(1);
+			}
+			data = text.getBytes(StandardCharsets.UTF_8);
+		}
+
+		int headerEnd = positionToOffset(data, handler.line, handler.column);
+		int start = findPayloadStart(data, headerEnd);
+		int end = findPayloadEnd(data, start, handler.rootQName);
+		payload.line = handler.line;
+		payload.column = handler.column;
+		for (int i = headerEnd; i < start; i++) {
+			if (data[i] == '\n' || (data[i] == '\r' && (i + 1 >= data.length || data[i + 1] != '\n'))) {
+				payload.line++;
+				payload.column = 1;
+			} else if ((data[i] & 0xC0) != 0x80) {
+				payload.column++;
+			}
+		}
+
+		byte[] namespaceDeclarations = getMissingNamespaceDeclarations(data, start, handler.rootNamespaces);
+		if (namespaceDeclarations.length > 0) {
+			// Copy the payload, with the declarations added to its start tag
+			int nameEnd = start + 1;
+			while (nameEnd < end && !isWhitespace(data[nameEnd]) && data[nameEnd] != '>' && data[nameEnd] != '/') {
+				nameEnd++;
+			}
+			ByteArrayOutputStream copy = new ByteArrayOutputStream(end - start + namespaceDeclarations.length);
+			copy.write(data, start, nameEnd - start);
+			copy.write(namespaceDeclarations, 0, namespaceDeclarations.length);
+			copy.write(data, nameEnd, end - nameEnd);
+			payload.data = copy.toByteArray();
+			payload.offset = 0;
+			payload.length = payload.data.length;
+		} else {
+			payload.data = data;
+			payload.offset = start;
+			payload.length = end - start;
+		}
+		return payload;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static boolean startsWith(byte[] data, int offset, String prefix) {
+		if (offset < 0 || offset + prefix.length() > data.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (data[offset + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] data, int from, String needle) {
+		for (int i = from; i + needle.length() <= data.length; i++) {
+			if (startsWith(data, i, needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] data, int before, String needle) {
+		for (int i = before - needle.length(); i >= 0; i--) {
+			if (startsWith(data, i, needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Convert a line and column number, as reported by the SAX parser, to an
+	 * offset in the UTF-8 encoded data. Columns count UTF-16 characters.
+	 */
+	private static int positionToOffset(byte[] data, int line, int column) {
+		int offset = 0;
+		for (int currentLine = 1; currentLine < line; currentLine++) {
+			while (offset < data.length && data[offset] != '\n' && data[offset] != '\r') {
+				offset++;
+			}
+			if (offset < data.length && data[offset] == '\r' && offset + 1 < data.length && data[offset + 1] == '\n') {
+				offset++;
+			}
+			offset++;
+		}
+		for (int characters = 1; characters < column && offset < data.length; offset++) {
+			int b = data[offset] & 0xFF;
+			if ((b & 0xC0) == 0x80) {
+				continue;
+			}
+			// Characters outside of the BMP are two UTF-16 characters
+			characters += b >= 0xF0 ? 2 : 1;
+		}
+		// Skip the continuation bytes of the last character
+		while (offset < data.length && (data[offset] & 0xC0) == 0x80) {
+			offset++;
+		}
+		return offset;
+	}
+
+	/*
+	 * Find the start tag of the payload, skipping whitespace, comments and
+	 * processing instructions
+	 */
+	private static int findPayloadStart(byte[] data, int offset) {
+		while (offset >= 0 && offset < data.length) {
+			if (isWhitespace(data[offset])) {
+				offset++;
+			} else if (startsWith(data, offset, "<!--")) {
+				int commentEnd = indexOf(data, offset + 4, "-->");
+				offset = commentEnd < 0 ? -1 : commentEnd + 3;
+			} else if (startsWith(data, offset, "<?")) {
+				int piEnd = indexOf(data, offset + 2, "?>");
+				offset = piEnd < 0 ? -1 : piEnd + 2;
+			} else if (data[offset] == '<') {
+				return offset;
+			} else {
+				break;
+			}
+		}
+		throw new ValidatorException("Error reading SBDH: payload document not found");
+	}
+
+	/*
+	 * Find the end of the payload: skip back over the end tag of the
+	 * StandardBusinessDocument, and any whitespace, comments and processing
+	 * instructions around it
+	 */
+	private static int findPayloadEnd(byte[] data, int start, String rootQName) {
+		int end = skipBackMisc(data, data.length, start);
+		int rootEndTag = lastIndexOf(data, end, "</");
+		if (rootEndTag < start || !startsWith(data, rootEndTag + 2, rootQName)) {
+			throw new ValidatorException("Error reading SBDH: end of StandardBusinessDocument not found");
+		}
+		end = skipBackMisc(data, rootEndTag, start);
+		if (end <= start || data[end - 1] != '>') {
+			throw new ValidatorException("Error reading SBDH: end of payload document not found");
+		}
+		return end;
+	}
+
+	private static int skipBackMisc(byte[] data, int end, int start) {
+		while (end > start) {
+			if (isWhitespace(data[end - 1])) {
+				end--;
+			} else if (startsWith(data, end - 3, "-->") && lastIndexOf(data, end - 3, "<!--") >= start) {
+				end = lastIndexOf(data, end - 3, "<!--");
+			} else if (startsWith(data, end - 2, "?>") && lastIndexOf(data, end - 2, "<?") >= start) {
+				end = lastIndexOf(data, end - 2, "<?");
+			} else {
+				break;
+			}
+		}
+		return end;
+	}
+
+	/*
+	 * Returns the namespace declarations of the StandardBusinessDocument element
+	 * that the payload start tag does not override, as attributes to add to it
+	 */
+	private static byte[] getMissingNamespaceDeclarations(byte[] data, int start, Map<String, String> rootNamespaces) {
+		StringBuilder declarations = new StringBuilder();
+		if (!rootNamespaces.isEmpty()) {
+			int tagEnd = indexOf(data, start, ">");
+			String startTag = new String(data, start, tagEnd - start, StandardCharsets.UTF_8);
+			for (Map.Entry<String, String> namespace : rootNamespaces.entrySet()) {
+				String attribute = namespace.getKey().isEmpty() ? "xmlns" : "xmlns:" + namespace.getKey();
+				if (SBDH_NAMESPACE.equals(namespace.getValue())
+						|| startTag.matches("(?s).*\\s" + Pattern.quote(attribute) + "\\s*=.*")) {
+					continue;
+				}
+				declarations.append(' ').append(attribute).append("=\"")
+						.append(namespace.getValue().replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;"))
+						.append('"');
+			}
+		}
+		return declarations.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,75 @@
+package net.ionite.docval.xml;
+
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+
+/**
+ * Shared XML serialization support.
+ *
+ * Creating a Saxon Processor is relatively expensive, so a single instance is
+ * shared by all serializers created here. Processor instances are thread-safe;
+ * the Serializer and XMLStreamWriter objects returned by this class are not,
+ * and must be used by one thread only.
+ *
+ * @author Ionite
+ *
+ */
+public class XMLOutput {
+	/** False = does not require a feature from a licensed version of Saxon. */
+	private static final Processor processor = new Processor(false);
+
+	private XMLOutput() {
+	}
+
+	/**
+	 * Returns the Saxon Processor shared by all XML output in ion-docval
+	 *
+	 * @return The shared Processor instance
+	 */
+	public static Processor getProcessor() {
+		return processor;
+	}
+
+	/**
+	 * Create a streaming XML writer that writes indented XML, including the XML
+	 * declaration, to the given output stream.
+	 *
+	 * The caller is responsible for calling writeStartDocument(), and for closing
+	 * the writer when done; this flushes the writer, but does not close the
+	 * underlying output stream.
+	 *
+	 * @param outputStream The stream to write the XML data to
+	 * @return XMLStreamWriter writing to the given stream
+	 * @throws SaxonApiException if the writer cannot be created
+	 */
+	public static XMLStreamWriter createWriter(OutputStream outputStream) throws SaxonApiException {
+		Serializer serializer = processor.newSerializer(outputStream);
+		// Other properties found here:
+		// http://www.saxonica.com/html/documentation/javadoc/net/sf/saxon/s9api/Serializer.Property.html
+		serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "no");
+		serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
+		return serializer.getXMLStreamWriter();
+	}
+
+	/**
+	 * Write a simple element with the given text content
+	 *
+	 * @param writer The writer to write the element to
+	 * @param name   The element name
+	 * @param text   The text content of the element
+	 * @throws XMLStreamException if the element cannot be written
+	 */
+	public static void writeTextElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+		writer.writeStartElement(name);
+		if (text != null) {
+			writer.writeCharacters(text);
+		}
+		writer.writeEndElement();
+	}
+}
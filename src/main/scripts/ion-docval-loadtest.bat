@@ -0,0 +1,6 @@
+@echo off
+set SPATH=%~dp0
+set LIB=%SPATH%\..\lib
+set CLASSPATH=%LIB%\*;%LIB%\ion-docval-*.jar
+
+java net.ionite.docval.loadtest.LoadTestMain %*
\ No newline at end of file
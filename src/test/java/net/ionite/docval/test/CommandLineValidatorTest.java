@@ -0,0 +1,127 @@
+package net.ionite.docval.test;
+
+import net.ionite.docval.commandline.CommandLineValidator;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class CommandLineValidatorTest {
+	private Path tempDir;
+
+	private String getDataFile(String fileName) {
+		return ClassLoader.getSystemResource(fileName).getFile();
+	}
+
+	/* Runs the validator with the given arguments, and returns its output */
+	private String run(int expectedReturnCode, String... argv) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CommandLineValidator validator = new CommandLineValidator(argv);
+		validator.setOutput(new PrintStream(output, true));
+		Assert.assertEquals(expectedReturnCode, validator.run());
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("docval-cli-test");
+		Files.createDirectory(tempDir.resolve("sub"));
+		FileCopy.copy(Paths.get(getDataFile("xml/shiporder_good.xml")), tempDir.resolve("a_good.xml"));
+		FileCopy.copy(Paths.get(getDataFile("xml/shiporder_bad1.xml")), tempDir.resolve("b_bad.xml"));
+		FileCopy.copy(Paths.get(getDataFile("xml/shiporder_bad2.xml")), tempDir.resolve("sub/c_malformed.xml"));
+		FileCopy.copy(Paths.get(getDataFile("xml/shiporder_good.xml")), tempDir.resolve("sub/d_good.txt"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(tempDir)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Test
+	public void testSingleDocument() {
+		String output = run(1, "-s", getDataFile("xsd/shiporder_good.xsd"), "-o", "short",
+				tempDir.resolve("b_bad.xml").toString());
+		Assert.assertEquals("Errors: 1\nWarnings: 0\n", output.replace(System.lineSeparator(), "\n"));
+	}
+
+	@Test
+	public void testDirectoryJSONLines() throws Exception {
+		// The directory is searched recursively, for *.xml files only
+		String output = run(2, "-s", getDataFile("xsd/shiporder_good.xsd"), "-o", "jsonl", "-j", "3",
+				tempDir.toString());
+		String[] lines = output.split(System.lineSeparator());
+		Assert.assertEquals(3, lines.length);
+		JSONParser parser = new JSONParser();
+		JSONObject good = (JSONObject) parser.parse(lines[0]);
+		Assert.assertEquals(tempDir.resolve("a_good.xml").toString(), good.get("file"));
+		Assert.assertEquals("shiporder", good.get("keyword"));
+		Assert.assertEquals(0L, good.get("error_count"));
+		JSONObject bad = (JSONObject) parser.parse(lines[1]);
+		Assert.assertEquals(tempDir.resolve("b_bad.xml").toString(), bad.get("file"));
+		Assert.assertEquals(1L, bad.get("error_count"));
+		JSONObject malformed = (JSONObject) parser.parse(lines[2]);
+		Assert.assertEquals(tempDir.resolve("sub/c_malformed.xml").toString(), malformed.get("file"));
+		Assert.assertNotNull(malformed.get("failure"));
+	}
+
+	@Test
+	public void testGlobSummary() {
+		String output = run(1, "-s", getDataFile("xsd/shiporder_good.xsd"), "-o", "summary",
+				tempDir.resolve("*_*.xml").toString()).replace(System.lineSeparator(), "\n");
+		Assert.assertTrue(output.contains("       1        0  " + tempDir.resolve("b_bad.xml") + "\n"));
+		Assert.assertFalse(output.contains("a_good.xml"));
+		Assert.assertTrue(output.contains("Documents: 2\nDocuments with errors: 1\n"));
+	}
+
+	@Test
+	public void testWorker() throws Exception {
+		String document = new String(Files.readAllBytes(tempDir.resolve("a_good.xml")), StandardCharsets.UTF_8);
+		JSONObject inline = new JSONObject();
+		inline.put("id", "inline");
+		inline.put("document", document);
+		String requests = "{\"id\": 1, \"file\": \"" + tempDir.resolve("b_bad.xml") + "\"}\n" + "\n"
+				+ inline.toJSONString() + "\n" + "{\"id\": 3, \"file\": \"" + tempDir.resolve("nonexistent.xml")
+				+ "\"}\n" + "not json\n";
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CommandLineValidator validator = new CommandLineValidator(
+				new String[] { "-s", getDataFile("xsd/shiporder_good.xsd"), "-j", "2", "--worker" });
+		validator.setOutput(new PrintStream(output, true, "UTF-8"));
+		validator.setInput(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals(0, validator.run());
+
+		// Responses are written as soon as they are ready, so match them by id
+		String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator());
+		Assert.assertEquals(4, lines.length);
+		JSONParser parser = new JSONParser();
+		Map<Object, JSONObject> responses = new HashMap<Object, JSONObject>();
+		for (String line : lines) {
+			JSONObject response = (JSONObject) parser.parse(line);
+			responses.put(response.get("id"), response);
+		}
+		Assert.assertEquals(1L, responses.get(1L).get("error_count"));
+		Assert.assertEquals("shiporder", responses.get(1L).get("keyword"));
+		Assert.assertEquals(0L, responses.get("inline").get("error_count"));
+		Assert.assertNotNull(responses.get(3L).get("failure"));
+		Assert.assertNotNull(responses.get(null).get("failure"));
+	}
+}
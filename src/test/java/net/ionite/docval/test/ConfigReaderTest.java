@@ -28,6 +28,21 @@ public class ConfigReaderTest {
 		}
 	}
 
+	@Test
+	public void loadFailFastConfig() {
+		try {
+			String configFile = getDataFile("config/test_config_failfast.xml");
+			ConfigReader configReader = new ConfigReader(configFile);
+			ConfigData configData = configReader.readConfig();
+			Assert.assertEquals(3, configData.documentTypes.size());
+			Assert.assertEquals(ConfigData.FailFast.ALWAYS, configData.documentTypes.get(0).failFast);
+			Assert.assertEquals(ConfigData.FailFast.STOP_ON_XSD_ERROR, configData.documentTypes.get(1).failFast);
+			Assert.assertEquals(ConfigData.FailFast.STOP_ON_FIRST_ERROR, configData.documentTypes.get(2).failFast);
+		} catch (ConfigurationError cfgError) {
+			Assert.fail("Should not have raised: " + cfgError);
+		}
+	}
+
 	@Test
 	public void loadBadConfigFile1() {
 		try {
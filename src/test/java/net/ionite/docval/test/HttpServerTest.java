@@ -1,6 +1,7 @@
 package net.ionite.docval.test;
 
 import net.ionite.docval.config.ConfigData.UnknownKeywords;
+import net.ionite.docval.validation.AggregatedResultItem;
 import net.ionite.docval.validation.ValidationResult;
 import net.ionite.docval.server.DocValHttpClient;
 import net.ionite.docval.server.DocValClientException;
@@ -8,16 +9,51 @@ import net.ionite.docval.server.DocValHttpServer;
 import net.ionite.docval.validation.ValidatorException;
 import net.ionite.docval.validation.ValidatorManager;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.simple.SimpleLogger;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 
 public class HttpServerTest {
 	static int DEFAULT_TEST_PORT = 35793;
@@ -170,4 +206,751 @@ public class HttpServerTest {
 		server.halt(0);
 	}
 
+	@Test
+	public void testCompressedRequestAndResponse() throws IOException, InterruptedException, URISyntaxException {
+		validatorManager.setUnknownKeywords(UnknownKeywords.ERROR);
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.setCompressionThreshold(0);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+			gzipStream.write(loadTestFile("xml/shiporder_bad1.xml"));
+		}
+		HttpRequest request = HttpRequest.newBuilder()
+				.uri(new URI("http://localhost:" + DEFAULT_TEST_PORT + "/api/validate?keyword=test1"))
+				.header("Accept", "application/json").header("Accept-Encoding", "gzip")
+				.header("Content-Type", "application/xml").header("Content-Encoding", "gzip")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(compressed.toByteArray())).build();
+		HttpResponse<InputStream> response = HttpClient.newHttpClient().send(request,
+				HttpResponse.BodyHandlers.ofInputStream());
+		Assert.assertEquals(200, response.statusCode());
+		Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+		String body = new String(new GZIPInputStream(response.body()).readAllBytes(), StandardCharsets.UTF_8);
+		ValidationResult result = ValidationResult.fromJSONString(body);
+		Assert.assertEquals(1, result.errorCount());
+		Assert.assertEquals(0, result.warningCount());
+		server.halt(0);
+	}
+
+	@Test
+	public void testUnsupportedContentEncoding() throws IOException, InterruptedException, URISyntaxException {
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		HttpRequest request = HttpRequest.newBuilder()
+				.uri(new URI("http://localhost:" + DEFAULT_TEST_PORT + "/api/validate"))
+				.header("Accept", "application/json").header("Content-Type", "application/xml")
+						.header("Accept", "application/json")
+				.header("Content-Encoding", "br")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(loadTestFile("xml/shiporder_good.xml"))).build();
+		HttpResponse<String> response = HttpClient.newHttpClient().send(request,
+				HttpResponse.BodyHandlers.ofString());
+		Assert.assertEquals(415, response.statusCode());
+		server.halt(0);
+	}
+
+	private int postGzip(String path, String contentType, byte[] body) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder().uri(new URI("http://localhost:" + DEFAULT_TEST_PORT + path))
+				.header("Accept", "application/json").header("Content-Type", contentType)
+				.header("Content-Encoding", "gzip").POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+		return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+	}
+
+	@Test
+	public void testCorruptCompressedRequest() throws Exception {
+		Path jobDirectory = Files.createTempDirectory("ion-docval-jobs");
+		server.enableJobs(jobDirectory.toString(), 1, 10, 0);
+		server.setMaxDecodedRequestSize(1000);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		byte[] corrupt = "not gzip data".getBytes(StandardCharsets.UTF_8);
+		Assert.assertEquals(400, postGzip("/api/validate", "application/xml", corrupt));
+		Assert.assertEquals(400, postGzip("/api/validate", "application/xml", new byte[0]));
+		Assert.assertEquals(400, postGzip("/api/validate/batch", "application/zip", corrupt));
+		Assert.assertEquals(400, postGzip("/api/jobs", "application/xml", corrupt));
+
+		// A valid gzip header, followed by garbage
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(loadTestFile("xml/shiporder_good.xml"));
+		}
+		byte[] truncated = Arrays.copyOf(compressed.toByteArray(), 20);
+		Assert.assertEquals(400, postGzip("/api/validate", "application/xml", truncated));
+		Assert.assertEquals(400, postGzip("/api/jobs", "application/xml", truncated));
+
+		// The decoded document is larger than the maximum decoded size
+		compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(new byte[100000]);
+		}
+		Assert.assertEquals(400, postGzip("/api/validate", "application/xml", compressed.toByteArray()));
+		Assert.assertEquals(400, postGzip("/api/jobs", "application/xml", compressed.toByteArray()));
+		server.halt(0);
+		// Refused jobs leave no files behind
+		Files.delete(jobDirectory);
+	}
+
+	@Test
+	public void testClientCompression() throws DocValClientException, IOException, InterruptedException {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.setCompressionThreshold(0);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		byte[] document = loadTestFile("xml/decimal_error.xml");
+		ValidationResult expected = validatorManager.validate("test1", document);
+		ValidationResult result = client.validate(document, "test1");
+		Assert.assertEquals(expected.toJSONString(), result.toJSONString());
+		client.setCompression(false);
+		result = client.validate(document, "test1");
+		Assert.assertEquals(expected.toJSONString(), result.toJSONString());
+		server.halt(0);
+	}
+
+	private HashMap<String, JSONObject> postBatch(byte[] body, String contentType, String query)
+			throws IOException, InterruptedException, URISyntaxException, ParseException {
+		HttpRequest request = HttpRequest.newBuilder()
+				.uri(new URI("http://localhost:" + DEFAULT_TEST_PORT + "/api/validate/batch" + query))
+				.header("Content-Type", contentType).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+		HttpResponse<String> response = HttpClient.newHttpClient().send(request,
+				HttpResponse.BodyHandlers.ofString());
+		Assert.assertEquals(200, response.statusCode());
+		Assert.assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").orElse(null));
+		HashMap<String, JSONObject> results = new HashMap<String, JSONObject>();
+		for (String line : response.body().split("\n")) {
+			JSONObject result = (JSONObject) new JSONParser().parse(line);
+			results.put((String) result.get("name"), result);
+		}
+		return results;
+	}
+
+	@Test
+	public void testBatchZip() throws IOException, InterruptedException, URISyntaxException, ParseException {
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("shiporder", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		ByteArrayOutputStream zipData = new ByteArrayOutputStream();
+		try (ZipOutputStream zos = new ZipOutputStream(zipData)) {
+			for (String name : new String[] { "shiporder_good.xml", "shiporder_bad1.xml", "shiporder_bad2.xml" }) {
+				zos.putNextEntry(new ZipEntry(name));
+				zos.write(loadTestFile("xml/" + name));
+				zos.closeEntry();
+			}
+		}
+		HashMap<String, JSONObject> results = postBatch(zipData.toByteArray(), "application/zip", "");
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals(0L, results.get("shiporder_good.xml").get("error_count"));
+		Assert.assertEquals(0L, results.get("shiporder_good.xml").get("index"));
+		Assert.assertEquals(1L, results.get("shiporder_bad1.xml").get("error_count"));
+		// Malformed XML, so the keyword cannot be derived
+		Assert.assertNotNull(results.get("shiporder_bad2.xml").get("error"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testBatchMultipart() throws IOException, InterruptedException, URISyntaxException, ParseException {
+		validatorManager.setUnknownKeywords(UnknownKeywords.FAIL);
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		String boundary = "docval-test-boundary";
+		String[][] parts = { { "shiporder_good.xml", null }, { "shiporder_bad1.xml", null },
+				{ "shiporder_bad2.xml", "unknown" } };
+		for (String[] part : parts) {
+			String headers = "--" + boundary + "\r\n" + "Content-Disposition: form-data; name=\"document\"; filename=\""
+					+ part[0] + "\"\r\n" + "Content-Type: application/xml\r\n"
+					+ (part[1] != null ? "Keyword: " + part[1] + "\r\n" : "") + "\r\n";
+			body.write(headers.getBytes(StandardCharsets.UTF_8));
+			body.write(loadTestFile("xml/" + part[0]));
+			body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+		}
+		body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+		HashMap<String, JSONObject> results = postBatch(body.toByteArray(),
+				"multipart/form-data; boundary=" + boundary, "?keyword=test1");
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals(0L, results.get("shiporder_good.xml").get("error_count"));
+		Assert.assertEquals(1L, results.get("shiporder_bad1.xml").get("error_count"));
+		Assert.assertNotNull(results.get("shiporder_bad2.xml").get("error"));
+		Assert.assertEquals(2L, results.get("shiporder_bad2.xml").get("index"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testBatchMultipartDelimiters() throws IOException, InterruptedException, URISyntaxException, ParseException {
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		// A preamble, and a document that contains (almost) the delimiter
+		String boundary = "docval-test-boundary";
+		String document = new String(loadTestFile("xml/shiporder_good.xml"), StandardCharsets.UTF_8)
+				.replace("John Smith", "John\r\n--docval-test-boundar\r\n--docval-test Smith");
+		String body = "This is the preamble\r\n--" + boundary + "\r\nContent-Disposition: form-data; name=\"first\"\r\n\r\n"
+				+ document + "\r\n--" + boundary + "\r\nContent-Disposition: form-data; name=\"second\"\r\n\r\n"
+				+ document + "\r\n--" + boundary + "--\r\nThis is the epilogue";
+		HashMap<String, JSONObject> results = postBatch(body.getBytes(StandardCharsets.UTF_8),
+				"multipart/form-data; boundary=" + boundary, "?keyword=test1");
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(0L, results.get("first").get("error_count"));
+		Assert.assertEquals(0L, results.get("second").get("error_count"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testBatchTruncated() throws IOException, InterruptedException, URISyntaxException, ParseException {
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		String boundary = "docval-test-boundary";
+		String body = "--" + boundary + "\r\nContent-Disposition: form-data; name=\"first\"\r\n\r\n"
+				+ new String(loadTestFile("xml/shiporder_good.xml"), StandardCharsets.UTF_8) + "\r\n--" + boundary
+				+ "\r\nContent-Disposition: form-data; name=\"second\"\r\n\r\n<shiporder";
+		// The response has already started when the end of the body turns out to
+		// be missing, so the error is reported in the last line
+		HashMap<String, JSONObject> results = postBatch(body.getBytes(StandardCharsets.UTF_8),
+				"multipart/form-data; boundary=" + boundary, "?keyword=test1");
+		Assert.assertTrue(((String) results.get(null).get("error")).contains("Unexpected end of multipart body"));
+		Assert.assertNull(results.get("second"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testClientReuseAndAsync() throws DocValClientException, IOException, InterruptedException,
+			ExecutionException {
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		// The keyword must not accumulate on the server URI between calls
+		Assert.assertEquals(0, client.validate(loadTestFile("xml/shiporder_good.xml"), "test1").errorCount());
+		Assert.assertEquals(1, client.validate(loadTestFile("xml/shiporder_bad1.xml"), "test1").errorCount());
+
+		client.setMaxConcurrentRequests(2);
+		ArrayList<CompletableFuture<ValidationResult>> futures = new ArrayList<CompletableFuture<ValidationResult>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(client.validateAsync(loadTestFile("xml/shiporder_bad1.xml"), "test1"));
+		}
+		for (CompletableFuture<ValidationResult> future : futures) {
+			Assert.assertEquals(1, future.get().errorCount());
+		}
+		server.halt(0);
+	}
+
+	@Test(timeout = 60000)
+	public void testClientQueuedFailures() throws InterruptedException {
+		// Nothing listens on this port, so the first request fails asynchronously;
+		// the queued ones fail as soon as they are started (the file is missing)
+		DocValHttpClient badClient = new DocValHttpClient("http://localhost:" + (DEFAULT_TEST_PORT + 1) + "/api/validate");
+		badClient.setMaxConcurrentRequests(1);
+		ArrayList<CompletableFuture<ValidationResult>> futures = new ArrayList<CompletableFuture<ValidationResult>>();
+		futures.add(badClient.validateAsync("<foo/>".getBytes(StandardCharsets.UTF_8), null));
+		Path missing = Paths.get("does-not-exist.xml");
+		for (int i = 0; i < 10000; i++) {
+			futures.add(badClient.validateAsync(missing, null));
+		}
+		for (CompletableFuture<ValidationResult> future : futures) {
+			try {
+				future.get();
+				Assert.fail("Should have failed");
+			} catch (ExecutionException expected) {
+				Assert.assertFalse(expected.getCause() instanceof StackOverflowError);
+			}
+		}
+	}
+
+	@Test
+	public void testClientStreams() throws DocValClientException, IOException, InterruptedException {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+
+		Path documentPath = Paths.get(ClassLoader.getSystemResource("xml/decimal_error.xml").getFile());
+		ValidationResult expected = validatorManager.validate("test1", Files.readAllBytes(documentPath));
+		Assert.assertEquals(expected.toJSONString(), client.validate(documentPath, "test1").toJSONString());
+		try (InputStream documentStream = Files.newInputStream(documentPath)) {
+			Assert.assertEquals(expected.toJSONString(), client.validate(documentStream, "test1").toJSONString());
+		}
+		client.setCompression(false);
+		Assert.assertEquals(expected.toJSONString(), client.validate(documentPath, "test1").toJSONString());
+		server.halt(0);
+	}
+
+	@Test
+	public void testMetricsEndpoint() throws DocValClientException, IOException, InterruptedException,
+			URISyntaxException {
+		validatorManager.setUnknownKeywords(UnknownKeywords.WARN);
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		client.validate(loadTestFile("xml/shiporder_bad1.xml"), "test1");
+		client.validate(loadTestFile("xml/shiporder_good.xml"), "no-such-keyword");
+
+		HttpRequest request = HttpRequest.newBuilder()
+				.uri(new URI("http://localhost:" + DEFAULT_TEST_PORT + "/metrics")).GET().build();
+		HttpResponse<String> response = HttpClient.newHttpClient().send(request,
+				HttpResponse.BodyHandlers.ofString());
+		Assert.assertEquals(200, response.statusCode());
+		Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+		String metrics = response.body();
+		Assert.assertTrue(metrics.contains("# TYPE docval_http_request_duration_seconds histogram"));
+		Assert.assertTrue(metrics
+				.contains("docval_http_request_duration_seconds_count{keyword=\"test1\",format=\"json\"} 1\n"));
+		Assert.assertTrue(metrics
+				.contains("docval_http_request_duration_seconds_count{keyword=\"unknown\",format=\"json\"} 1\n"));
+		Assert.assertTrue(metrics.contains("docval_validations_total{keyword=\"test1\"} 1\n"));
+		Assert.assertTrue(metrics.contains("docval_validation_errors_total{keyword=\"test1\"} 1\n"));
+		Assert.assertTrue(metrics.contains("docval_validation_warnings_total{keyword=\"unknown\"} 1\n"));
+		Assert.assertTrue(metrics.contains(
+				"docval_validator_duration_seconds_count{type=\"XSD\",file=\"" + fileName + "\"} 1\n"));
+		Assert.assertTrue(metrics.contains(
+				"docval_validator_load_duration_seconds_count{type=\"XSD\",file=\"" + fileName + "\"} 1\n"));
+		Assert.assertTrue(metrics.contains("docval_http_request_size_bytes_count 2\n"));
+		Assert.assertTrue(metrics.contains("docval_executor_queue_depth{pool=\"worker\"} 0\n"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testTimings() throws DocValClientException, IOException, InterruptedException {
+		String fileName = ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		ValidationResult result = client.validate(loadTestFile("xml/shiporder_good.xml"), "test1");
+		Assert.assertNull(result.getTimings());
+
+		client.setTimings(true);
+		result = client.validate(loadTestFile("xml/shiporder_good.xml"), "test1");
+		Assert.assertNotNull(result.getTimings());
+		Assert.assertNotNull(result.getTimings().getReadNanos());
+		Assert.assertEquals(1, result.getTimings().getValidators().size());
+		Assert.assertEquals(fileName, result.getTimings().getValidators().get(0).file);
+		Assert.assertEquals("XSD", result.getTimings().getValidators().get(0).type);
+		server.halt(0);
+	}
+
+	@Test
+	public void testAggregate() throws DocValClientException, IOException, InterruptedException {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		ValidationResult result = client.validate(loadTestFile("xml/NLCIUS-CII_ok_example.xml"), "test1");
+		Assert.assertFalse(result.isAggregated());
+		Assert.assertEquals(9, result.getErrors().size());
+
+		client.setAggregate(true);
+		result = client.validate(loadTestFile("xml/NLCIUS-CII_ok_example.xml"), "test1");
+		Assert.assertTrue(result.isAggregated());
+		Assert.assertEquals(9, result.errorCount());
+		Assert.assertEquals(2, result.getErrors().size());
+		Assert.assertEquals(8, ((AggregatedResultItem) result.getErrors().get(1)).getCount());
+		server.halt(0);
+	}
+
+	@Test
+	public void testDetail() throws DocValClientException, IOException, InterruptedException, URISyntaxException {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		client.setDetail(ValidationResult.Detail.COUNTS);
+		ValidationResult result = client.validate(loadTestFile("xml/NLCIUS-CII_ok_example.xml"), "test1");
+		Assert.assertEquals(9, result.errorCount());
+		Assert.assertTrue(result.getErrors().isEmpty());
+
+		HttpResponse<String> response = HttpClient.newHttpClient()
+				.send(HttpRequest.newBuilder(new URI("http://localhost:" + DEFAULT_TEST_PORT
+						+ "/api/validate?keyword=test1&detail=everything")).header("Content-Type", "application/xml")
+						.header("Accept", "application/json")
+						.POST(HttpRequest.BodyPublishers.ofByteArray(loadTestFile("xml/NLCIUS-CII_ok_example.xml")))
+						.build(), HttpResponse.BodyHandlers.ofString());
+		Assert.assertEquals(400, response.statusCode());
+		server.halt(0);
+	}
+
+	private HttpResponse<String> sendJobRequest(String path, String method, byte[] body, String accept)
+			throws IOException, InterruptedException, URISyntaxException {
+		HttpRequest.Builder request = HttpRequest.newBuilder(new URI("http://localhost:" + DEFAULT_TEST_PORT + path))
+				.header("Accept", accept);
+		if (body != null) {
+			request.header("Content-Type", "application/xml").method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+		} else {
+			request.method(method, HttpRequest.BodyPublishers.noBody());
+		}
+		return HttpClient.newHttpClient().send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private JSONObject waitForJob(String id) throws Exception {
+		for (int i = 0; i < 100; i++) {
+			JSONObject status = (JSONObject) new JSONParser()
+					.parse(sendJobRequest("/api/jobs/" + id, "GET", null, "application/json").body());
+			if (!"queued".equals(status.get("status")) && !"running".equals(status.get("status"))) {
+				return status;
+			}
+			Thread.sleep(100);
+		}
+		Assert.fail("Job " + id + " did not finish");
+		return null;
+	}
+
+	@Test
+	public void testJobs() throws Exception {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		Path jobDirectory = Files.createTempDirectory("ion-docval-jobs");
+		server.enableJobs(jobDirectory.toString(), 1, 10, 0);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		byte[] document = loadTestFile("xml/NLCIUS-CII_ok_example.xml");
+
+		// Callbacks can only go to the local host
+		Assert.assertEquals(400, sendJobRequest("/api/jobs?keyword=test1&callback=http://example.com/done", "POST",
+				document, "application/json").statusCode());
+
+		HttpResponse<String> response = sendJobRequest("/api/jobs?keyword=test1&aggregate=true", "POST", document,
+				"application/json");
+		Assert.assertEquals(202, response.statusCode());
+		String id = (String) ((JSONObject) new JSONParser().parse(response.body())).get("id");
+		Assert.assertEquals("/api/jobs/" + id, response.headers().firstValue("Location").get());
+		Assert.assertEquals("done", waitForJob(id).get("status"));
+
+		ValidationResult result = ValidationResult
+				.fromJSONString(sendJobRequest("/api/jobs/" + id + "/result", "GET", null, "application/json").body());
+		Assert.assertTrue(result.isAggregated());
+		Assert.assertEquals(9, result.errorCount());
+		response = sendJobRequest("/api/jobs/" + id + "/result", "GET", null, "application/xml");
+		Assert.assertEquals(200, response.statusCode());
+		Assert.assertTrue(response.body().contains("<Aggregated>"));
+		Assert.assertEquals(404, sendJobRequest("/api/jobs/unknown", "GET", null, "application/json").statusCode());
+
+		// Jobs survive a restart, and unfinished jobs are run again, up to the
+		// maximum number of queued jobs
+		server.halt(0);
+		String queuedId = "00000000-0000-0000-0000-000000000001";
+		String overflowId = "00000000-0000-0000-0000-000000000002";
+		String orphanId = "00000000-0000-0000-0000-000000000003";
+		for (int i = 1; i <= 2; i++) {
+			String jobId = i == 1 ? queuedId : overflowId;
+			Files.write(jobDirectory.resolve(jobId + ".xml"), document);
+			Files.write(jobDirectory.resolve(jobId + ".job.json"), ("{\"id\":\"" + jobId
+					+ "\",\"status\":\"running\",\"submitted\":" + i + ",\"parameters\":{\"keyword\":\"test1\"}}")
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		// A document without a job is removed
+		Files.write(jobDirectory.resolve(orphanId + ".xml"), document);
+		server = new DocValHttpServer(validatorManager);
+		server.enableJobs(jobDirectory.toString(), 1, 1, 0);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		Assert.assertFalse(Files.exists(jobDirectory.resolve(orphanId + ".xml")));
+		Assert.assertEquals("done", waitForJob(id).get("status"));
+		Assert.assertEquals("done", waitForJob(queuedId).get("status"));
+		Assert.assertEquals("failed", waitForJob(overflowId).get("status"));
+		Assert.assertFalse(Files.exists(jobDirectory.resolve(overflowId + ".xml")));
+		result = ValidationResult.fromJSONString(
+				sendJobRequest("/api/jobs/" + queuedId + "/result", "GET", null, "application/json").body());
+		Assert.assertEquals(9, result.getErrors().size());
+
+		Assert.assertEquals(204, sendJobRequest("/api/jobs/" + id, "DELETE", null, "application/json").statusCode());
+		Assert.assertEquals(404, sendJobRequest("/api/jobs/" + id, "GET", null, "application/json").statusCode());
+
+		// Finished jobs expire after the retention time
+		server.halt(0);
+		server = new DocValHttpServer(validatorManager);
+		server.enableJobs(jobDirectory.toString(), 1, 10, 1);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		for (int i = 0; i < 50
+				&& sendJobRequest("/api/jobs/" + queuedId, "GET", null, "application/json").statusCode() != 404; i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(404, sendJobRequest("/api/jobs/" + queuedId, "GET", null, "application/json").statusCode());
+		Assert.assertFalse(Files.exists(jobDirectory.resolve(queuedId + ".result.json")));
+		server.halt(0);
+		for (Path file : Files.newDirectoryStream(jobDirectory)) {
+			Files.delete(file);
+		}
+		Files.delete(jobDirectory);
+	}
+
+	private void writeFrame(DataOutputStream out, String header, byte[] document) throws IOException {
+		byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(headerBytes.length);
+		out.write(headerBytes);
+		out.writeInt(document.length);
+		out.write(document);
+	}
+
+	private String readFrame(DataInputStream in, int expectedStatus) throws IOException {
+		Assert.assertEquals(expectedStatus, in.readUnsignedByte());
+		byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testFramedProtocol() throws Exception {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		validatorManager.setUnknownKeywords(UnknownKeywords.IGNORE);
+		server.setMaxFramedDocumentSize(1024 * 1024);
+		server.setMaxFramedConnections(1);
+		server.addFramedListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		byte[] document = loadTestFile("xml/NLCIUS-CII_ok_example.xml");
+		// Larger than the buffer a document is read into at first
+		byte[] shiporder = loadTestFile("xml/shiporder_good.xml");
+		byte[] largeDocument = Arrays.copyOf(shiporder, shiporder.length + 200000);
+		Arrays.fill(largeDocument, shiporder.length, largeDocument.length, (byte) '\n');
+
+		try (Socket socket = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+			// Pipelined: all requests are sent before any response is read
+			writeFrame(out, "keyword=test1", document);
+			writeFrame(out, "keyword=test1&detail=everything", document);
+			writeFrame(out, "keyword=test1&aggregate=true", document);
+			writeFrame(out, "", shiporder);
+			writeFrame(out, "keyword=test1&detail=%zz", document);
+			writeFrame(out, "", largeDocument);
+			out.flush();
+
+			ValidationResult result = ValidationResult.fromJSONString(readFrame(in, 0));
+			Assert.assertEquals(9, result.getErrors().size());
+			Assert.assertTrue(readFrame(in, 1).contains("detail"));
+			result = ValidationResult.fromJSONString(readFrame(in, 0));
+			Assert.assertTrue(result.isAggregated());
+			Assert.assertEquals(2, result.getErrors().size());
+			result = ValidationResult.fromJSONString(readFrame(in, 0));
+			Assert.assertEquals(0, result.errorCount());
+			Assert.assertTrue(readFrame(in, 1).contains("Bad request parameters"));
+			result = ValidationResult.fromJSONString(readFrame(in, 0));
+			Assert.assertEquals(0, result.errorCount());
+
+			// Only one connection is served at a time, the next one waits
+			try (Socket waiting = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+				DataOutputStream waitingOut = new DataOutputStream(
+						new BufferedOutputStream(waiting.getOutputStream()));
+				waitingOut.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+				writeFrame(waitingOut, "", shiporder);
+				waitingOut.flush();
+				waiting.setSoTimeout(500);
+				DataInputStream waitingIn = new DataInputStream(waiting.getInputStream());
+				try {
+					waitingIn.readUnsignedByte();
+					Assert.fail("Second connection should not have been served");
+				} catch (SocketTimeoutException timeout) {
+					// expected
+				}
+				socket.close();
+				waiting.setSoTimeout(10000);
+				result = ValidationResult.fromJSONString(readFrame(waitingIn, 0));
+				Assert.assertEquals(0, result.errorCount());
+			}
+		}
+
+		try (Socket socket = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+			socket.getOutputStream().write("HTTP".getBytes(StandardCharsets.US_ASCII));
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			readFrame(in, 1);
+			// The connection is closed after an error in the protocol
+			Assert.assertEquals(-1, in.read());
+		}
+
+		// A document larger than the maximum is refused before it is read
+		try (Socket socket = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+			out.writeInt(0);
+			out.writeInt(1024 * 1024 + 1);
+			out.flush();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			Assert.assertTrue(readFrame(in, 1).contains("exceeds the maximum size"));
+			Assert.assertEquals(-1, in.read());
+		}
+		server.halt(0);
+	}
+
+	/*
+	 * Connect to a Unix domain socket; UnixDomainSocketAddress only exists on
+	 * Java 16 and later, so it is looked up at runtime
+	 */
+	private SocketChannel connectUnixSocket(Path socketFile) throws Exception {
+		SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+				.getMethod("of", Path.class).invoke(null, socketFile);
+		return SocketChannel.open(address);
+	}
+
+	/*
+	 * Returns true if any thread is serving a connection of a framed protocol
+	 * listener
+	 */
+	private boolean framedConnectionThreadsActive() {
+		for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+			for (StackTraceElement frame : stack) {
+				if (frame.getClassName().equals("net.ionite.docval.server.FramedListener")
+						&& (frame.getMethodName().equals("readRequests")
+								|| frame.getMethodName().equals("writeResponses"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testFramedClientGone() throws Exception {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		validatorManager.setUnknownKeywords(UnknownKeywords.IGNORE);
+		server.setMaxFramedConnections(1);
+		server.addFramedListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		byte[] shiporder = loadTestFile("xml/shiporder_good.xml");
+
+		// More requests than are handled at once, without reading any response;
+		// the connection is reset right away
+		try (Socket socket = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+			socket.setSoLinger(true, 0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+			for (int i = 0; i < 200; i++) {
+				writeFrame(out, "keyword=test1", shiporder);
+			}
+			out.flush();
+		}
+		// The connection may not have been accepted yet; once it has, both of its
+		// threads finish (the reading one used to wait for room in the queue
+		// forever), and its slot is released
+		for (int i = 0; i < 100 && !framedConnectionThreadsActive(); i++) {
+			Thread.sleep(100);
+		}
+		for (int i = 0; i < 300 && framedConnectionThreadsActive(); i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertFalse(framedConnectionThreadsActive());
+		try (Socket socket = new Socket("127.0.0.1", DEFAULT_TEST_PORT)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+			writeFrame(out, "", shiporder);
+			out.flush();
+			socket.setSoTimeout(10000);
+			ValidationResult result = ValidationResult
+					.fromJSONString(readFrame(new DataInputStream(socket.getInputStream()), 0));
+			Assert.assertEquals(0, result.errorCount());
+		}
+		server.halt(0);
+	}
+
+	@Test
+	public void testUnixSocket() throws Exception {
+		Assume.assumeTrue("Unix domain sockets require Java 16", Runtime.version().feature() >= 16);
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		Path socketDirectory = Files.createTempDirectory("ion-docval-socket");
+		Path socketFile = socketDirectory.resolve("ion-docval.sock");
+		server.addUnixListener(socketFile.toString(), "600");
+		server.start();
+		Assert.assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socketFile));
+
+		try (SocketChannel channel = connectUnixSocket(socketFile)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.write("DVF1".getBytes(StandardCharsets.US_ASCII));
+			writeFrame(out, "keyword=test1&detail=counts", loadTestFile("xml/NLCIUS-CII_ok_example.xml"));
+			out.flush();
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			ValidationResult result = ValidationResult.fromJSONString(readFrame(in, 0));
+			Assert.assertEquals(9, result.errorCount());
+		}
+		server.halt(0);
+		// The socket file is removed when the server stops
+		Assert.assertFalse(Files.exists(socketFile));
+		Files.delete(socketDirectory);
+	}
+
+	@Test
+	public void testUnixSocketInUse() throws Exception {
+		Assume.assumeTrue("Unix domain sockets require Java 16", Runtime.version().feature() >= 16);
+		Path socketDirectory = Files.createTempDirectory("ion-docval-socket");
+		Path socketFile = socketDirectory.resolve("ion-docval.sock");
+
+		// A socket file that nothing listens on is replaced
+		SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+				.getMethod("of", Path.class).invoke(null, socketFile);
+		try (ServerSocketChannel stale = (ServerSocketChannel) ServerSocketChannel.class
+				.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"))) {
+			stale.bind(address);
+		}
+		Assert.assertTrue(Files.exists(socketFile));
+		server.addUnixListener(socketFile.toString(), null);
+		server.start();
+
+		// One that a server is listening on is not
+		DocValHttpServer second = new DocValHttpServer(validatorManager);
+		try {
+			second.addUnixListener(socketFile.toString(), null);
+			Assert.fail("Second listener on the same socket file was started");
+		} catch (IOException expected) {
+			Assert.assertTrue(expected.getMessage().contains("another server is listening on it"));
+		}
+		try (SocketChannel channel = connectUnixSocket(socketFile)) {
+			Assert.assertTrue(channel.isConnected());
+		}
+		server.halt(0);
+		Files.delete(socketDirectory);
+	}
+
+	@Test
+	public void testStreamedResult() throws IOException, InterruptedException, URISyntaxException, ParseException {
+		String fileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		validatorManager.addValidator("test1", fileName, false);
+		server.addListener("127.0.0.1", DEFAULT_TEST_PORT);
+		server.start();
+		HttpResponse<String> response = HttpClient.newHttpClient()
+				.send(HttpRequest.newBuilder(new URI("http://localhost:" + DEFAULT_TEST_PORT
+						+ "/api/validate?keyword=test1&stream=true")).header("Content-Type", "application/xml")
+						.header("Accept", "application/json")
+						.POST(HttpRequest.BodyPublishers.ofByteArray(loadTestFile("xml/NLCIUS-CII_ok_example.xml")))
+						.build(), HttpResponse.BodyHandlers.ofString());
+		Assert.assertEquals(200, response.statusCode());
+		Assert.assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").get());
+		String[] lines = response.body().split("\n");
+		// 9 errors, the end of the validator, and the summary
+		Assert.assertEquals(11, lines.length);
+		JSONParser parser = new JSONParser();
+		for (int i = 0; i < 9; i++) {
+			Assert.assertTrue(((JSONObject) parser.parse(lines[i])).containsKey("error"));
+		}
+		Assert.assertEquals(fileName, ((JSONObject) parser.parse(lines[9])).get("validator_finished"));
+		JSONObject summary = (JSONObject) ((JSONObject) parser.parse(lines[10])).get("summary");
+		Assert.assertEquals(9L, summary.get("error_count"));
+		Assert.assertFalse(summary.containsKey("errors"));
+		server.halt(0);
+	}
+
+	@Test
+	public void testClientConnectionRefused() {
+		DocValHttpClient badClient = new DocValHttpClient("http://localhost:" + (DEFAULT_TEST_PORT + 1) + "/api/validate");
+		try {
+			badClient.validate("<foo/>".getBytes(StandardCharsets.UTF_8));
+			Assert.fail("Should have thrown DocValClientException");
+		} catch (DocValClientException clientError) {
+			// expected!
+		}
+	}
 }
@@ -0,0 +1,102 @@
+package net.ionite.docval.test;
+
+import net.ionite.docval.config.ConfigData.UnknownKeywords;
+import net.ionite.docval.loadtest.LatencyStats;
+import net.ionite.docval.loadtest.LoadGenerator;
+import net.ionite.docval.loadtest.LoadTestReport;
+import net.ionite.docval.server.DocValHttpClient;
+import net.ionite.docval.server.DocValHttpServer;
+import net.ionite.docval.validation.ValidatorManager;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.simple.SimpleLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+public class LoadGeneratorTest {
+	static int TEST_PORT = 35795;
+	private DocValHttpServer server = null;
+
+	private byte[] loadTestFile(String filename) throws IOException {
+		return Files.readAllBytes(Paths.get(ClassLoader.getSystemResource(filename).getFile()));
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "OFF");
+		ValidatorManager validatorManager = new ValidatorManager();
+		validatorManager.setUnknownKeywords(UnknownKeywords.WARN);
+		validatorManager.addValidator("shiporder", ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile(),
+				false);
+		server = new DocValHttpServer(validatorManager);
+		server.addListener("127.0.0.1", TEST_PORT);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		if (server != null) {
+			server.halt(0);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyStats stats = new LatencyStats();
+		for (int i = 1000; i >= 1; i--) {
+			stats.record(i);
+		}
+		stats.recordError();
+		long[] sorted = stats.getSortedLatencies();
+		Assert.assertEquals(500, LatencyStats.percentile(sorted, 50));
+		Assert.assertEquals(990, LatencyStats.percentile(sorted, 99));
+		Assert.assertEquals(999, LatencyStats.percentile(sorted, 99.9));
+		Assert.assertEquals(1000, LatencyStats.percentile(sorted, 100));
+		Assert.assertEquals(0, LatencyStats.percentile(new long[0], 50));
+		Assert.assertEquals(1.0 / 1001, stats.getErrorRate(), 1e-9);
+	}
+
+	@Test
+	public void testClosedLoop() throws IOException, InterruptedException {
+		LoadGenerator generator = new LoadGenerator(
+				new DocValHttpClient("http://127.0.0.1:" + TEST_PORT + "/api/validate"));
+		generator.addDocument("good", "shiporder", loadTestFile("xml/shiporder_good.xml"));
+		generator.addDocument("invoice", null, loadTestFile("xml/SI-UBL-2.0_ok_minimal.xml"));
+		generator.setConcurrency(2);
+		generator.setWarmup(Duration.ZERO);
+		generator.setDuration(Duration.ofSeconds(20));
+		generator.setMaxRequests(20);
+		LoadTestReport report = generator.run();
+
+		Assert.assertEquals(2, report.getKeywords().size());
+		Assert.assertEquals(10, report.getKeywords().get("shiporder").getCount());
+		Assert.assertEquals(20, report.getTotal().getCount());
+		Assert.assertEquals(0, report.getTotal().getErrors());
+		JSONObject total = (JSONObject) report.toJSON().get("total");
+		Assert.assertEquals(20L, total.get("requests"));
+		Assert.assertTrue(report.toText().contains("shiporder"));
+	}
+
+	@Test
+	public void testOpenLoopErrors() throws IOException, InterruptedException {
+		// Nothing listens on this port, so all requests fail
+		LoadGenerator generator = new LoadGenerator(
+				new DocValHttpClient("http://127.0.0.1:" + (TEST_PORT + 1) + "/api/validate"));
+		generator.addDocument("good", "shiporder", loadTestFile("xml/shiporder_good.xml"));
+		generator.setRate(50);
+		generator.setWarmup(Duration.ZERO);
+		generator.setDuration(Duration.ofSeconds(1));
+		LoadTestReport report = generator.run();
+
+		Assert.assertEquals(0, report.getTotal().getCount());
+		Assert.assertTrue(report.getTotal().getErrors() > 0);
+		Assert.assertEquals(1.0, report.getTotal().getErrorRate(), 0.0);
+	}
+}
@@ -0,0 +1,74 @@
+package net.ionite.docval.test;
+
+import net.ionite.docval.metrics.CounterFamily;
+import net.ionite.docval.metrics.GaugeFamily;
+import net.ionite.docval.metrics.Histogram;
+import net.ionite.docval.metrics.HistogramFamily;
+import net.ionite.docval.metrics.MetricsRegistry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testHistogramBuckets() {
+		Histogram histogram = new Histogram(new double[] { 1, 2, 4 });
+		histogram.observe(0.5);
+		histogram.observe(1);
+		histogram.observe(3);
+		histogram.observe(10);
+		Assert.assertArrayEquals(new long[] { 2, 2, 3, 4 }, histogram.getCumulativeCounts());
+		Assert.assertEquals(4, histogram.getCount());
+		Assert.assertEquals(14.5, histogram.getSum(), 0.0);
+	}
+
+	@Test
+	public void testExponentialBounds() {
+		Assert.assertArrayEquals(new double[] { 0.5, 1, 2, 4 }, Histogram.exponential(0.5, 2, 4), 0.0);
+	}
+
+	@Test
+	public void testPrometheusOutput() {
+		MetricsRegistry registry = new MetricsRegistry();
+		CounterFamily counter = registry.register(new CounterFamily("test_total", "A counter", "name"));
+		HistogramFamily histogram = registry
+				.register(new HistogramFamily("test_seconds", "A histogram", new double[] { 0.5, 1 }));
+		GaugeFamily gauge = registry.register(new GaugeFamily("test_gauge", "A gauge"));
+
+		counter.labels("a \"quoted\"\\name\n").inc(3);
+		histogram.labels().observe(0.75);
+		gauge.set(() -> 2.5);
+
+		String expected = "# HELP test_total A counter\n" + "# TYPE test_total counter\n"
+				+ "test_total{name=\"a \\\"quoted\\\"\\\\name\\n\"} 3\n" + "# HELP test_seconds A histogram\n"
+				+ "# TYPE test_seconds histogram\n" + "test_seconds_bucket{le=\"0.5\"} 0\n"
+				+ "test_seconds_bucket{le=\"1\"} 1\n" + "test_seconds_bucket{le=\"+Inf\"} 1\n"
+				+ "test_seconds_sum 0.75\n" + "test_seconds_count 1\n" + "# HELP test_gauge A gauge\n"
+				+ "# TYPE test_gauge gauge\n" + "test_gauge 2.5\n";
+		Assert.assertEquals(expected, registry.toPrometheusString());
+	}
+
+	@Test
+	public void testLabelCountMismatch() {
+		CounterFamily counter = new CounterFamily("test_total", "A counter", "a", "b");
+		try {
+			counter.labels("x");
+			Assert.fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected!
+		}
+	}
+
+	@Test
+	public void testDuplicateRegistration() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.register(new CounterFamily("test_total", "A counter"));
+		try {
+			registry.register(new CounterFamily("test_total", "Another counter"));
+			Assert.fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected!
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package net.ionite.docval.test;
+
+import net.ionite.docval.commandline.CommandLineValidator;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the results of the native image of the command-line tool with the
+ * JVM build, on the test documents. This test only runs when the system
+ * property native.image is set to the native executable, which the native
+ * profile does (mvn -P native verify).
+ */
+public class NativeImageTest {
+	private String nativeImage;
+
+	private String getDataFile(String fileName) {
+		return ClassLoader.getSystemResource(fileName).getFile();
+	}
+
+	@Before
+	public void setUp() {
+		nativeImage = System.getProperty("native.image");
+		Assume.assumeTrue("native.image not set", nativeImage != null && !nativeImage.isEmpty());
+		Assume.assumeTrue("native image " + nativeImage + " not found", new File(nativeImage).canExecute());
+	}
+
+	/* The test documents whose names start with the given prefix */
+	private List<String> getDocuments(String prefix) {
+		File[] files = new File(getDataFile("xml/shiporder_good.xml")).getParentFile()
+				.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".xml"));
+		List<String> documents = new ArrayList<String>();
+		for (File file : files) {
+			documents.add(file.getPath());
+		}
+		documents.sort(null);
+		return documents;
+	}
+
+	private String runJVM(List<String> argv, int[] returnCode) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CommandLineValidator validator = new CommandLineValidator(argv.toArray(new String[0]));
+		validator.setOutput(new PrintStream(output, true));
+		returnCode[0] = validator.run();
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String runNative(List<String> argv, int[] returnCode) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(nativeImage);
+		command.addAll(argv);
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (InputStream stdout = process.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = stdout.read(buffer)) > 0) {
+				output.write(buffer, 0, read);
+			}
+		}
+		returnCode[0] = process.waitFor();
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Validate the documents with both builds, and compare the results per
+	 * document. Failure messages may differ, as long as both builds fail.
+	 */
+	private void compare(List<String> validationArguments, List<String> documents) throws Exception {
+		List<String> argv = new ArrayList<String>(validationArguments);
+		argv.addAll(Arrays.asList("-o", "jsonl", "-j", "1"));
+		argv.addAll(documents);
+
+		int[] jvmReturnCode = new int[1];
+		int[] nativeReturnCode = new int[1];
+		String[] jvmLines = runJVM(argv, jvmReturnCode).split("\r?\n");
+		String[] nativeLines = runNative(argv, nativeReturnCode).split("\r?\n");
+		Assert.assertEquals(jvmReturnCode[0], nativeReturnCode[0]);
+		Assert.assertEquals(documents.size(), jvmLines.length);
+		Assert.assertEquals(jvmLines.length, nativeLines.length);
+
+		JSONParser parser = new JSONParser();
+		for (int i = 0; i < jvmLines.length; i++) {
+			JSONObject jvmResult = (JSONObject) parser.parse(jvmLines[i]);
+			JSONObject nativeResult = (JSONObject) parser.parse(nativeLines[i]);
+			String file = (String) jvmResult.get("file");
+			Assert.assertEquals(file, nativeResult.get("file"));
+			if (jvmResult.get("failure") != null) {
+				Assert.assertNotNull(file, nativeResult.get("failure"));
+				continue;
+			}
+			Assert.assertNull(file + ": " + nativeResult.get("failure"), nativeResult.get("failure"));
+			Assert.assertEquals(file, jvmResult.get("keyword"), nativeResult.get("keyword"));
+			Assert.assertEquals(file, jvmResult.get("error_count"), nativeResult.get("error_count"));
+			Assert.assertEquals(file, jvmResult.get("warning_count"), nativeResult.get("warning_count"));
+			Assert.assertEquals(file, jvmResult.get("errors"), nativeResult.get("errors"));
+			Assert.assertEquals(file, jvmResult.get("warnings"), nativeResult.get("warnings"));
+		}
+	}
+
+	@Test
+	public void testXSDAndSchematron() throws Exception {
+		compare(Arrays.asList("-s", getDataFile("xsd/shiporder_good.xsd"), "-s", getDataFile("sch/shiporder_good.sch")),
+				getDocuments("shiporder_"));
+	}
+
+	@Test
+	public void testXSLT() throws Exception {
+		compare(Arrays.asList("-s", getDataFile("xslt/cen-ubl.xsl"), "-s", getDataFile("xslt/si-ubl-2.0.xsl")),
+				getDocuments("SI-UBL-2.0_"));
+	}
+
+	@Test
+	public void testConfigAndKeywordDerivation() throws Exception {
+		String config = "<Config>\n" + "  <Options><UnknownKeywords>warn</UnknownKeywords></Options>\n"
+				+ "  <DocumentType>\n" + "    <Name>Ship order</Name>\n" + "    <Keyword>shiporder</Keyword>\n"
+				+ "    <ValidationFile>" + getDataFile("xsd/shiporder_good.xsd") + "</ValidationFile>\n"
+				+ "    <ValidationFile>" + getDataFile("sch/shiporder_good.sch") + "</ValidationFile>\n"
+				+ "  </DocumentType>\n" + "  <DocumentType>\n" + "    <Name>SI-UBL 2.0</Name>\n"
+				+ "    <Keyword>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:nen.nl:nlcius:v1.0::2.1</Keyword>\n"
+				+ "    <ValidationFile>" + getDataFile("xslt/cen-ubl.xsl") + "</ValidationFile>\n"
+				+ "    <ValidationFile>" + getDataFile("xslt/si-ubl-2.0.xsl") + "</ValidationFile>\n"
+				+ "  </DocumentType>\n" + "</Config>\n";
+		Path configFile = Files.createTempFile("docval-native-test", ".xml");
+		try {
+			Files.write(configFile, config.getBytes(StandardCharsets.UTF_8));
+			// All test documents, including the ones with unknown keywords
+			compare(Arrays.asList("-c", configFile.toString()), getDocuments(""));
+		} finally {
+			Files.delete(configFile);
+		}
+	}
+}
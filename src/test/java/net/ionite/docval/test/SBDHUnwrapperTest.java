@@ -0,0 +1,132 @@
+package net.ionite.docval.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import net.ionite.docval.config.ConfigData;
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidatorException;
+import net.ionite.docval.validation.ValidatorManager;
+import net.ionite.docval.xml.KeywordDeriver;
+import net.ionite.docval.xml.SBDHUnwrapper;
+
+public class SBDHUnwrapperTest {
+	private static final String SI_UBL_KEYWORD = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:nen.nl:nlcius:v1.0::2.1";
+
+	private byte[] readDataFile(String fileName) throws Exception {
+		return Files.readAllBytes(Paths.get(ClassLoader.getSystemResource(fileName).getFile()));
+	}
+
+	/*
+	 * The payload of the given test file: the document without its XML
+	 * declaration, with the line endings of the SBDH test files
+	 */
+	private String expectedPayload(String fileName) throws Exception {
+		String document = new String(readDataFile(fileName), StandardCharsets.UTF_8).replace("\r\n", "\n");
+		return document.substring(document.indexOf("<Invoice")).trim();
+	}
+
+	private String payloadString(SBDHUnwrapper.Payload payload) {
+		return new String(payload.getData(), payload.getOffset(), payload.getLength(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testUnwrap() throws Exception {
+		byte[] source = readDataFile("xml/sbdh_si-ubl_ok.xml");
+		SBDHUnwrapper.Payload payload = new SBDHUnwrapper().unwrap(source);
+		assertTrue(payload.isSBDH());
+		assertEquals(SI_UBL_KEYWORD, payload.getDocumentIdentifier());
+		// The payload is not copied
+		assertSame(source, payload.getData());
+		assertEquals(expectedPayload("xml/SI-UBL-2.0_ok_minimal.xml"), payloadString(payload));
+		assertEquals(31, payload.getLine());
+		assertEquals(1, payload.getColumn());
+	}
+
+	@Test
+	public void testUnwrapNamespacesAndComments() throws Exception {
+		SBDHUnwrapper.Payload payload = new SBDHUnwrapper().unwrap(readDataFile("xml/sbdh_si-ubl_error.xml"));
+		assertTrue(payload.isSBDH());
+		assertNull(payload.getDocumentIdentifier());
+		// The xsi namespace is declared on the StandardBusinessDocument element
+		String expected = expectedPayload("xml/SI-UBL-2.0_BR-NL-5_error_no_streetname.xml").replaceFirst("<Invoice ",
+				"<Invoice xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2 UBL-Invoice-2.1.xsd\" ");
+		assertEquals(expected, payloadString(payload));
+		assertEquals(14, payload.getLine());
+		assertEquals(5, payload.getColumn());
+	}
+
+	@Test
+	public void testUnwrapOtherEncoding() throws Exception {
+		String document = new String(readDataFile("xml/sbdh_si-ubl_error.xml"), StandardCharsets.UTF_8)
+				.replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"").replace("Simplerstraat", "Straße");
+		SBDHUnwrapper.Payload payload = new SBDHUnwrapper().unwrap(document.getBytes(StandardCharsets.ISO_8859_1));
+		assertTrue(payload.isSBDH());
+		assertEquals(14, payload.getLine());
+		// The payload is converted to UTF-8
+		assertTrue(payloadString(payload).startsWith("<Invoice xmlns:xsi="));
+		assertTrue(payloadString(payload).contains("Straße"));
+		assertTrue(payloadString(payload).endsWith("</Invoice>"));
+	}
+
+	@Test
+	public void testNoSBDH() throws Exception {
+		byte[] source = readDataFile("xml/shiporder_good.xml");
+		SBDHUnwrapper.Payload payload = new SBDHUnwrapper().unwrap(source);
+		assertFalse(payload.isSBDH());
+		assertSame(source, payload.getData());
+		assertEquals(0, payload.getOffset());
+		assertEquals(source.length, payload.getLength());
+	}
+
+	@Test(expected = ValidatorException.class)
+	public void testNoPayload() {
+		String document = "<StandardBusinessDocument xmlns=\"" + SBDHUnwrapper.SBDH_NAMESPACE + "\">"
+				+ "<StandardBusinessDocumentHeader><HeaderVersion>1.0</HeaderVersion></StandardBusinessDocumentHeader>"
+				+ "</StandardBusinessDocument>";
+		new SBDHUnwrapper().unwrap(document.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testKeywordDeriver() throws Exception {
+		KeywordDeriver deriver = new KeywordDeriver();
+		assertTrue(deriver.deriveKeyword(readDataFile("xml/sbdh_si-ubl_error.xml"))
+				.startsWith(SBDHUnwrapper.SBDH_NAMESPACE + "::StandardBusinessDocument"));
+		deriver.setUnwrapSBDH(true);
+		// From the header
+		assertEquals(SI_UBL_KEYWORD, deriver.deriveKeyword(readDataFile("xml/sbdh_si-ubl_ok.xml")));
+		// From the payload
+		assertEquals(SI_UBL_KEYWORD, deriver.deriveKeyword(readDataFile("xml/sbdh_si-ubl_error.xml")));
+	}
+
+	@Test
+	public void testValidatorManager() throws Exception {
+		ValidatorManager manager = new ValidatorManager();
+		manager.setUnknownKeywords(ConfigData.UnknownKeywords.WARN);
+		manager.addValidator(SI_UBL_KEYWORD, ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile(), false);
+		manager.addValidator(SI_UBL_KEYWORD, ClassLoader.getSystemResource("xsd/shiporder_good.xsd").getFile(), false);
+
+		ValidationResult plain = manager.validate(null,
+				readDataFile("xml/SI-UBL-2.0_BR-NL-5_error_no_streetname.xml"), false, false);
+		ValidationResult unwrapped = manager.validate(null, readDataFile("xml/sbdh_si-ubl_error.xml"), false, true);
+		assertEquals(SI_UBL_KEYWORD, unwrapped.getKeyword());
+		assertEquals(plain.errorCount(), unwrapped.errorCount());
+		assertEquals(plain.warningCount(), unwrapped.warningCount());
+		// The XSD error (the invoice is not a ship order) is reported at the
+		// position of the payload in the full document
+		ValidationResultItem xsdError = unwrapped.getErrors().get(unwrapped.errorCount() - 1);
+		assertEquals(Integer.valueOf(plain.getErrors().get(plain.errorCount() - 1).getLine() + 12), xsdError.getLine());
+
+		// The manager default
+		assertTrue(manager.validate(null, readDataFile("xml/sbdh_si-ubl_ok.xml"), false, false).getKeyword()
+				.startsWith(SBDHUnwrapper.SBDH_NAMESPACE + "::StandardBusinessDocument"));
+		manager.setUnwrapSBDH(true);
+		assertEquals(SI_UBL_KEYWORD, manager.validate(null, readDataFile("xml/sbdh_si-ubl_ok.xml")).getKeyword());
+	}
+}
@@ -4,8 +4,11 @@ import net.ionite.docval.validation.ValidationResult;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 import org.junit.Assert;
@@ -184,4 +187,38 @@ public class SCHValidatorTest {
 		}
 	}
 
+	@Test
+	public void testCache() throws Exception {
+		Path cacheDir = Files.createTempDirectory("docval-sch-cache");
+		try {
+			SCHValidator.setCacheDirectory(cacheDir.toString());
+			String fileName = ClassLoader.getSystemResource("sch/shiporder_good.sch").getFile();
+			byte[] document = Files.readAllBytes(
+					Paths.get(ClassLoader.getSystemResource("xml/shiporder_bad_sch1.xml").getFile()));
+
+			new SCHValidator(fileName);
+			Path[] cached;
+			try (Stream<Path> files = Files.list(cacheDir)) {
+				cached = files.toArray(Path[]::new);
+			}
+			assertEquals(1, cached.length);
+			assertTrue(cached[0].toString().endsWith(".xsl"));
+
+			// The cached stylesheet is used
+			Files.write(cached[0], new String(Files.readAllBytes(cached[0]), "UTF-8")
+					.replace("svrl:failed-assert", "svrl:failed-assert-cached").getBytes("UTF-8"));
+			assertEquals(0, new SCHValidator(fileName).validate(document).errorCount());
+
+			// An unusable cached stylesheet is replaced
+			Files.write(cached[0], "not a stylesheet".getBytes("UTF-8"));
+			assertEquals(1, new SCHValidator(fileName).validate(document).errorCount());
+			assertEquals(1, new SCHValidator(fileName).validate(document).errorCount());
+		} finally {
+			SCHValidator.setCacheDirectory(null);
+			try (Stream<Path> files = Files.list(cacheDir)) {
+				files.map(Path::toFile).forEach(File::delete);
+			}
+			Files.delete(cacheDir);
+		}
+	}
 }
@@ -0,0 +1,132 @@
+package net.ionite.docval.test;
+
+import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidationTimings;
+import net.ionite.docval.validation.result.LocationPath;
+import net.ionite.docval.validation.result.StringTable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import net.sf.saxon.s9api.SaxonApiException;
+
+public class ValidationResultTest {
+
+	@Test
+	public void testXMLOutput() throws SaxonApiException {
+		ValidationResult result = new ValidationResult();
+		result.setDocumentTypeName("Type & <1>");
+		result.addError("First error", "/a[1]", 3, 4, "test1");
+		result.addError("Second error", null, null, null, "test2");
+		result.addWarning("A warning", "/b[1]", null, null, "test3");
+
+		String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + "<ValidationResult>\n"
+				+ "   <ErrorCount>2</ErrorCount>\n" + "   <WarningCount>1</WarningCount>\n"
+				+ "   <DocumentType>Type &amp; &lt;1&gt;</DocumentType>\n" + "   <Errors>\n" + "      <Error>\n"
+				+ "         <Message>First error</Message>\n" + "         <Test>test1</Test>\n"
+				+ "         <Location>/a[1]</Location>\n" + "         <Line>3</Line>\n"
+				+ "         <Column>4</Column>\n" + "      </Error>\n" + "      <Error>\n"
+				+ "         <Message>Second error</Message>\n" + "         <Test>test2</Test>\n"
+				+ "      </Error>\n" + "   </Errors>\n" + "   <Warnings>\n" + "      <Warning>\n"
+				+ "         <Message>A warning</Message>\n" + "         <Test>test3</Test>\n"
+				+ "         <Location>/b[1]</Location>\n" + "      </Warning>\n" + "   </Warnings>\n"
+				+ "</ValidationResult>\n";
+		Assert.assertEquals(expected, result.toXMLString());
+	}
+
+	@Test
+	public void testXMLOutputStream() throws SaxonApiException {
+		ValidationResult result = new ValidationResult();
+		for (int i = 0; i < 10000; i++) {
+			result.addError("Error " + i, "/a[" + i + "]", null, null, "test");
+		}
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		result.writeXML(outputStream);
+		String xml = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+		Assert.assertEquals(result.toXMLString(), xml);
+		Assert.assertTrue(xml.contains("<Message>Error 9999</Message>"));
+	}
+	@Test
+	public void testTimingsOutput() throws SaxonApiException {
+		ValidationResult result = new ValidationResult();
+		ValidationTimings timings = new ValidationTimings();
+		timings.setReadNanos(1500000L);
+		timings.addValidator("a.xsd", "XSD", 2000000L);
+		timings.addValidator("b.sch", "SCH", 12345678L);
+		timings.setTotalNanos(14500000L);
+		result.setTimings(timings);
+
+		ValidationResult parsed = ValidationResult.fromJSONString(result.toJSONString());
+		Assert.assertNotNull(parsed.getTimings());
+		Assert.assertEquals(Long.valueOf(1500000L), parsed.getTimings().getReadNanos());
+		Assert.assertNull(parsed.getTimings().getKeywordDerivationNanos());
+		Assert.assertEquals(2, parsed.getTimings().getValidators().size());
+		Assert.assertEquals("b.sch", parsed.getTimings().getValidators().get(1).file);
+		Assert.assertEquals(12346000L, parsed.getTimings().getValidators().get(1).nanos);
+		Assert.assertEquals(14500000L, parsed.getTimings().getTotalNanos());
+
+		String xml = result.toXMLString();
+		Assert.assertTrue(xml.contains("<Timings>"));
+		Assert.assertTrue(xml.contains("<Read>1.5</Read>"));
+		Assert.assertTrue(xml.contains("<File>b.sch</File>"));
+		Assert.assertTrue(xml.contains("<Duration>12.346</Duration>"));
+		Assert.assertTrue(xml.contains("<Total>14.5</Total>"));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedFields() {
+		// The public fields still work, for existing users
+		ValidationResultItem item = new ValidationResultItem("message", "/Invoice", 3, null, "test");
+		Assert.assertEquals("message", item.message);
+		Assert.assertEquals("/Invoice", item.location);
+		Assert.assertEquals(Integer.valueOf(3), item.line);
+		Assert.assertNull(item.column);
+		Assert.assertEquals("test", item.test);
+		item.location = "/Invoice/cbc:ID";
+		Assert.assertEquals("/Invoice/cbc:ID", item.getLocation());
+		Assert.assertEquals("/Invoice/cbc:ID", item.getLocationPath().toString());
+		Assert.assertEquals("/Invoice/cbc:ID", item.toJSON().get("location"));
+	}
+
+	@Test
+	public void testCompactItems() {
+		LocationPath.Table locations = new LocationPath.Table();
+		String[] paths = { "/Invoice/cac:InvoiceLine[1]/cbc:ID", "/Invoice/cac:InvoiceLine[2]/cbc:ID",
+				"/*:Invoice[namespace-uri()='urn:a/b'][1]/x[@y=\"/\"]", "//a/b", "a" };
+		for (String path : paths) {
+			Assert.assertEquals(path, locations.get(path).toString());
+			Assert.assertEquals(path.length(), locations.get(path).length());
+		}
+		// Common parents are shared
+		Assert.assertSame(locations.get("/Invoice/cac:InvoiceLine[1]/cbc:ID"),
+				locations.get("/Invoice/cac:InvoiceLine[1]/cbc:ID"));
+		// The string table is bounded by the total length of its strings
+		StringTable strings = new StringTable(12);
+		Assert.assertSame(strings.get("message"), strings.get(new String("message")));
+		Assert.assertSame(strings.get("test"), strings.get(new String("test")));
+		Assert.assertEquals(2, strings.size());
+		Assert.assertEquals(11, strings.length());
+		String text = new String("not shared");
+		Assert.assertSame(text, strings.get(text));
+		Assert.assertEquals(11, strings.length());
+
+		ValidationResultItem item = new ValidationResultItem("message", locations.get(paths[0]), 3,
+				ValidationResultItem.UNKNOWN_POSITION, "test");
+		Assert.assertEquals(paths[0], item.getLocation());
+		Assert.assertEquals(Integer.valueOf(3), item.getLine());
+		Assert.assertNull(item.getColumn());
+		Assert.assertFalse(item.toJSON().containsKey("column"));
+		// Items at the same location share its string
+		Assert.assertSame(item.getLocation(),
+				new ValidationResultItem("other", locations.get(paths[0]), 1, 1, "test").getLocation());
+		item = new ValidationResultItem("message", (String) null, null, 7, "test");
+		Assert.assertNull(item.getLocation());
+		Assert.assertNull(item.getLine());
+		Assert.assertEquals(Integer.valueOf(7), item.getColumn());
+	}
+}
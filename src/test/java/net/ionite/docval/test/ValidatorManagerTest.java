@@ -1,11 +1,15 @@
 package net.ionite.docval.test;
 
 import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidationResultSink;
+import net.ionite.docval.validation.ValidationTimings;
 import net.ionite.docval.validation.ValidatorException;
 import net.ionite.docval.validation.ValidatorManager;
 import net.ionite.docval.validation.validator.DocumentValidator;
 import net.ionite.docval.config.ConfigData;
 import net.ionite.docval.config.ConfigurationError;
+import net.ionite.docval.metrics.DocValMetrics;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -15,8 +19,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 
 public class ValidatorManagerTest {
 	ValidatorManager validatorManager;
@@ -147,6 +153,37 @@ public class ValidatorManagerTest {
 
 	}
 
+	@Test
+	public void testEagerAndLazyLoading() throws IOException, ConfigurationError {
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		String loadCount = "docval_validator_load_duration_seconds_count{type=\"XSD\",file=\"" + xsdFile + "\"} 1\n";
+		ConfigData configData = new ConfigData();
+		ConfigData.DocumentType documentType = configData.new DocumentType();
+		documentType.name = "Ship order";
+		documentType.keyword = "shiporder";
+		documentType.validationFiles.add(xsdFile);
+		configData.documentTypes.add(documentType);
+
+		// Without lazy loading, the validator is compiled once, when the
+		// configuration is applied
+		DocValMetrics metrics = new DocValMetrics();
+		validatorManager.setMetrics(metrics);
+		validatorManager.applyConfig(configData);
+		Assert.assertTrue(metrics.getRegistry().toPrometheusString().contains(loadCount));
+		validatorManager.validate("shiporder", Files.readAllBytes(getDataPath("xml/shiporder_good.xml")));
+		Assert.assertTrue(metrics.getRegistry().toPrometheusString().contains(loadCount));
+
+		// With lazy loading, it is compiled on first use
+		configData.lazyLoad = true;
+		metrics = new DocValMetrics();
+		validatorManager = new ValidatorManager();
+		validatorManager.setMetrics(metrics);
+		validatorManager.applyConfig(configData);
+		Assert.assertFalse(metrics.getRegistry().toPrometheusString().contains("file=\"" + xsdFile + "\"} 1\n"));
+		validatorManager.validate("shiporder", Files.readAllBytes(getDataPath("xml/shiporder_good.xml")));
+		Assert.assertTrue(metrics.getRegistry().toPrometheusString().contains(loadCount));
+	}
+
 	@Test
 	public void testValidationLists() {
 		// Create two validation lists, with the same validation file.
@@ -159,4 +196,194 @@ public class ValidatorManagerTest {
 		DocumentValidator barVal = validatorManager.getValidatorsForKeyword("Bar").get(0);
 		Assert.assertSame(fooVal, barVal);
 	}
+	@Test
+	public void testTimings() throws IOException {
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		String schFile = getDataFile("sch/shiporder_good.sch");
+		validatorManager.addValidator("shiporder", xsdFile, false);
+		validatorManager.addValidator("shiporder", schFile, false);
+		byte[] document = Files.readAllBytes(getDataPath("xml/shiporder_good.xml"));
+
+		ValidationResult result = validatorManager.validate("shiporder", document);
+		Assert.assertNull(result.getTimings());
+		Assert.assertFalse(result.toJSON().containsKey("timings"));
+
+		result = validatorManager.validate("shiporder", document, true);
+		ValidationTimings timings = result.getTimings();
+		Assert.assertNotNull(timings);
+		Assert.assertNull(timings.getKeywordDerivationNanos());
+		Assert.assertEquals(2, timings.getValidators().size());
+		Assert.assertEquals(xsdFile, timings.getValidators().get(0).file);
+		Assert.assertEquals("XSD", timings.getValidators().get(0).type);
+		Assert.assertEquals(schFile, timings.getValidators().get(1).file);
+		Assert.assertEquals("SCH", timings.getValidators().get(1).type);
+		Assert.assertTrue(timings.getTotalNanos() >= timings.getValidators().get(0).nanos
+				+ timings.getValidators().get(1).nanos);
+		Assert.assertTrue(result.toJSON().containsKey("timings"));
+	}
+
+	/*
+	 * Stream that returns at most 100 bytes per read, like a slow network
+	 * connection, and records whether it was closed
+	 */
+	private static class SlowInputStream extends ByteArrayInputStream {
+		boolean closed = false;
+
+		SlowInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 100));
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private void assertStreamingResult(String keyword, String documentFile) throws IOException {
+		byte[] document = Files.readAllBytes(getDataPath(documentFile));
+		ValidationResult expected = validatorManager.validate(keyword, document, false, false);
+		SlowInputStream stream = new SlowInputStream(document);
+		ValidationResult result = validatorManager.validate(keyword, stream, true, false);
+		Assert.assertEquals(documentFile, expected.getKeyword(), result.getKeyword());
+		Assert.assertEquals(documentFile, expected.toJSON().get("errors"), result.toJSON().get("errors"));
+		Assert.assertEquals(documentFile, expected.toJSON().get("warnings"), result.toJSON().get("warnings"));
+		// The stream is read completely, but left open
+		Assert.assertEquals(documentFile, 0, stream.available());
+		Assert.assertFalse(documentFile, stream.closed);
+	}
+
+	@Test
+	public void testStreaming() throws IOException {
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		String schFile = getDataFile("sch/shiporder_good.sch");
+		validatorManager.addValidator("xsd", xsdFile, false);
+		validatorManager.addValidator("xsd-sch", xsdFile, false);
+		validatorManager.addValidator("xsd-sch", schFile, false);
+		validatorManager.addValidator("sch", schFile, false);
+		validatorManager.setUnknownKeywords(ConfigData.UnknownKeywords.WARN);
+
+		String[] documents = { "xml/shiporder_good.xml", "xml/shiporder_bad1.xml", "xml/shiporder_bad2.xml",
+				"xml/shiporder_bad_sch1.xml", "xml/shiporder_warning_sch1.xml", "xml/shiporder_xxe1.xml" };
+		for (String document : documents) {
+			// Streamed XML Schema validation, without and with later stages
+			assertStreamingResult("xsd", document);
+			assertStreamingResult("xsd-sch", document);
+			// Read completely before validation
+			assertStreamingResult("sch", document);
+			assertStreamingResult(null, document);
+		}
+
+		// With streaming, the read time is the time spent waiting for data
+		ValidationResult result = validatorManager.validate("xsd-sch",
+				new SlowInputStream(Files.readAllBytes(getDataPath("xml/shiporder_good.xml"))), true, false);
+		Assert.assertEquals(2, result.getTimings().getValidators().size());
+		Assert.assertNotNull(result.getTimings().getReadNanos());
+		result = validatorManager.validate("sch",
+				new SlowInputStream(Files.readAllBytes(getDataPath("xml/shiporder_good.xml"))), true, false);
+		Assert.assertNotNull(result.getTimings().getReadNanos());
+	}
+
+	@Test
+	public void testFailFast() throws IOException {
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		String schFile = getDataFile("sch/shiporder_good.sch");
+		validatorManager.addValidator("shiporder", xsdFile, false);
+		validatorManager.addValidator("shiporder", schFile, false);
+		// Not valid against the XML schema
+		byte[] xsdError = Files.readAllBytes(getDataPath("xml/shiporder_bad1.xml"));
+		// Invalid according to the schematron (and the XML schema)
+		byte[] schError = Files.readAllBytes(getDataPath("xml/shiporder_bad_sch1.xml"));
+
+		Assert.assertEquals(ConfigData.FailFast.ALWAYS, validatorManager.getFailFast("shiporder"));
+		ValidationResult all = validatorManager.validate("shiporder", xsdError);
+		Assert.assertTrue(all.getSkippedValidators().isEmpty());
+		Assert.assertFalse(all.toJSON().containsKey("skipped_validators"));
+
+		validatorManager.setFailFast("shiporder", ConfigData.FailFast.STOP_ON_XSD_ERROR);
+		ValidationResult result = validatorManager.validate("shiporder", xsdError);
+		Assert.assertEquals(1, result.getSkippedValidators().size());
+		Assert.assertEquals(schFile, result.getSkippedValidators().get(0));
+		Assert.assertTrue(result.errorCount() > 0);
+		Assert.assertTrue(result.errorCount() <= all.errorCount());
+		// The streaming validation skips the same validators
+		ValidationResult streamed = validatorManager.validate("shiporder", new ByteArrayInputStream(xsdError), true,
+				false);
+		Assert.assertEquals(result.toJSON().get("errors"), streamed.toJSON().get("errors"));
+		Assert.assertEquals(result.getSkippedValidators(), streamed.getSkippedValidators());
+		Assert.assertEquals(1, streamed.getTimings().getValidators().size());
+		// With the schematron first, only stop-on-first-error skips the XML schema
+		validatorManager.addValidator("schfirst", schFile, false);
+		validatorManager.addValidator("schfirst", xsdFile, false);
+		validatorManager.setFailFast("schfirst", ConfigData.FailFast.STOP_ON_XSD_ERROR);
+		Assert.assertTrue(validatorManager.validate("schfirst", schError).getSkippedValidators().isEmpty());
+		validatorManager.setFailFast("schfirst", ConfigData.FailFast.STOP_ON_FIRST_ERROR);
+		result = validatorManager.validate("schfirst", schError);
+		Assert.assertEquals(1, result.getSkippedValidators().size());
+		Assert.assertEquals(xsdFile, result.getSkippedValidators().get(0));
+
+		// The skipped validators are part of the serialized result
+		ValidationResult parsed = ValidationResult.fromJSONString(result.toJSONString());
+		Assert.assertEquals(result.getSkippedValidators(), parsed.getSkippedValidators());
+	}
+
+	@Test
+	public void testMaxResultItems() throws IOException {
+		String xslFile = getDataFile("xslt/si-ubl-2.0.xsl");
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		validatorManager.addValidator("test", xslFile, false);
+		validatorManager.addValidator("test", xsdFile, false);
+		byte[] document = Files.readAllBytes(getDataPath("xml/NLCIUS-CII_ok_example.xml"));
+
+		ValidationResult result = validatorManager.validate("test", document);
+		Assert.assertFalse(result.isTruncated());
+		Assert.assertEquals(10, result.errorCount());
+
+		// The validators after the one that reached the maximum are skipped
+		validatorManager.setMaxResultItems(5);
+		result = validatorManager.validate("test", document);
+		Assert.assertTrue(result.isTruncated());
+		Assert.assertEquals(5, result.errorCount());
+		Assert.assertEquals(1, result.getSkippedValidators().size());
+		Assert.assertEquals(xsdFile, result.getSkippedValidators().get(0));
+	}
+
+	@Test
+	public void testSink() throws IOException {
+		String xslFile = getDataFile("xslt/si-ubl-2.0.xsl");
+		String xsdFile = getDataFile("xsd/shiporder_good.xsd");
+		validatorManager.addValidator("test", xslFile, false);
+		validatorManager.addValidator("test", xsdFile, false);
+		byte[] document = Files.readAllBytes(getDataPath("xml/NLCIUS-CII_ok_example.xml"));
+
+		// The sink sees every error as it is added, and the end of every validator
+		ArrayList<String> events = new ArrayList<String>();
+		ValidationResult result = new ValidationResult();
+		result.setSink(new ValidationResultSink() {
+			@Override
+			public void error(ValidationResultItem item) {
+				events.add("error");
+			}
+
+			@Override
+			public void warning(ValidationResultItem item) {
+				events.add("warning");
+			}
+
+			@Override
+			public void validatorFinished(String validationFile) {
+				events.add(validationFile);
+			}
+		});
+		validatorManager.validate("test", document, false, false, result);
+		Assert.assertEquals(10, result.errorCount());
+		Assert.assertEquals(12, events.size());
+		Assert.assertEquals(xslFile, events.get(9));
+		Assert.assertEquals("error", events.get(10));
+		Assert.assertEquals(xsdFile, events.get(11));
+	}
 }
@@ -2,8 +2,16 @@ package net.ionite.docval.test;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -11,7 +19,10 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.simple.SimpleLogger;
 
+import net.ionite.docval.validation.AggregatedResultItem;
 import net.ionite.docval.validation.ValidationResult;
+import net.ionite.docval.validation.ValidationResultItem;
+import net.ionite.docval.validation.ValidationResultSink;
 import net.ionite.docval.validation.ValidatorException;
 import net.ionite.docval.validation.validator.XSLTValidator;
 
@@ -264,4 +275,171 @@ public class XSLTValidatorTest {
 
 		}
 	}
+
+	@Test
+	public void testMaxItems() throws Exception {
+		String xsltFileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		XSLTValidator xsltValidator = new XSLTValidator(xsltFileName);
+		String xmlFileName = ClassLoader.getSystemResource("xml/NLCIUS-CII_ok_example.xml").getFile();
+		byte[] document = Files.readAllBytes(Paths.get(xmlFileName));
+
+		ValidationResult full = xsltValidator.validate(document);
+		assertEquals(9, full.errorCount());
+		Assert.assertFalse(full.isTruncated());
+
+		// The transformation is aborted when the maximum is exceeded
+		ValidationResult result = new ValidationResult();
+		result.setMaxItems(3);
+		xsltValidator.validate(document, result);
+		assertEquals(3, result.errorCount());
+		Assert.assertTrue(result.isTruncated());
+		assertEquals(full.getErrors().get(2).getMessage(), result.getErrors().get(2).getMessage());
+		Assert.assertEquals(Boolean.TRUE, result.toJSON().get("truncated"));
+		Assert.assertTrue(ValidationResult.fromJSONString(result.toJSONString()).isTruncated());
+		Assert.assertTrue(result.toXMLString().contains("<Truncated>true</Truncated>"));
+
+		// Reaching the maximum exactly is not truncation
+		result = new ValidationResult();
+		result.setMaxItems(9);
+		xsltValidator.validate(document, result);
+		assertEquals(9, result.errorCount());
+		Assert.assertFalse(result.isTruncated());
+		Assert.assertFalse(result.toJSON().containsKey("truncated"));
+	}
+
+	@Test
+	public void testCancelledSink() throws Exception {
+		String xsltFileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		XSLTValidator xsltValidator = new XSLTValidator(xsltFileName);
+		String xmlFileName = ClassLoader.getSystemResource("xml/NLCIUS-CII_ok_example.xml").getFile();
+		byte[] document = Files.readAllBytes(Paths.get(xmlFileName));
+
+		// A sink that is cancelled after two errors aborts the transformation
+		ValidationResult result = new ValidationResult();
+		result.setSink(new ValidationResultSink() {
+			private int errors = 0;
+
+			@Override
+			public void error(ValidationResultItem item) {
+				errors++;
+			}
+
+			@Override
+			public void warning(ValidationResultItem item) {
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return errors >= 2;
+			}
+		});
+		xsltValidator.validate(document, result);
+		assertEquals(2, result.errorCount());
+		Assert.assertTrue(result.isFull());
+	}
+
+	@Test
+	public void testAggregated() throws Exception {
+		String xsltFileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		XSLTValidator xsltValidator = new XSLTValidator(xsltFileName);
+		String xmlFileName = ClassLoader.getSystemResource("xml/NLCIUS-CII_ok_example.xml").getFile();
+		byte[] document = Files.readAllBytes(Paths.get(xmlFileName));
+
+		ValidationResult full = xsltValidator.validate(document);
+		LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (ValidationResultItem item : full.getErrors()) {
+			counts.merge(item.getTest(), 1, Integer::sum);
+		}
+
+		ValidationResult result = new ValidationResult();
+		result.setAggregated(true);
+		result.setMaxLocations(1);
+		xsltValidator.validate(document, result);
+		// The counts are the total number of failures
+		assertEquals(full.errorCount(), result.errorCount());
+		assertEquals(full.warningCount(), result.warningCount());
+		assertEquals(counts.size(), result.getErrors().size());
+		int index = 0;
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			AggregatedResultItem item = (AggregatedResultItem) result.getErrors().get(index++);
+			assertEquals(entry.getKey(), item.getTest());
+			assertEquals(entry.getValue().intValue(), item.getCount());
+			assertEquals(AggregatedResultItem.ERROR, item.getSeverity());
+			assertEquals(1, item.getLocations().size());
+			assertEquals(item.getLocation(), item.getLocations().get(0).toString());
+		}
+
+		// JSON round trip
+		ValidationResult parsed = ValidationResult.fromJSONString(result.toJSONString());
+		Assert.assertTrue(parsed.isAggregated());
+		assertEquals(result.errorCount(), parsed.errorCount());
+		assertEquals(result.toJSONString(), parsed.toJSONString());
+		Assert.assertTrue(result.toXMLString().contains("<Count>"));
+
+		// The maximum number of items limits the number of tests
+		result = new ValidationResult();
+		result.setAggregated(true);
+		result.setMaxItems(1);
+		xsltValidator.validate(document, result);
+		assertEquals(1, result.getErrors().size());
+		assertEquals(full.errorCount(), result.errorCount());
+		assertEquals(counts.size() > 1, result.isTruncated());
+	}
+
+	@Test
+	public void testDetail() throws Exception {
+		String xsltFileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		XSLTValidator xsltValidator = new XSLTValidator(xsltFileName);
+		String xmlFileName = ClassLoader.getSystemResource("xml/NLCIUS-CII_ok_example.xml").getFile();
+		byte[] document = Files.readAllBytes(Paths.get(xmlFileName));
+
+		// Errors are counted, but not kept
+		ValidationResult result = new ValidationResult();
+		result.setDetail(ValidationResult.Detail.COUNTS);
+		result.setMaxItems(3);
+		xsltValidator.validate(document, result);
+		assertEquals(9, result.errorCount());
+		assertEquals(0, result.getErrors().size());
+		Assert.assertFalse(result.isTruncated());
+		assertEquals(2, result.toJSON().size());
+		Assert.assertFalse(result.toXMLString().contains("<Errors>"));
+
+		result = new ValidationResult();
+		result.setDetail(ValidationResult.Detail.SUMMARY);
+		result.setDocumentTypeName("SI-UBL");
+		xsltValidator.validate(document, result);
+		JSONObject json = (JSONObject) new JSONParser().parse(result.toJSONString());
+		assertEquals("SI-UBL", json.get("document_type"));
+		Assert.assertFalse(json.containsKey("errors"));
+		ValidationResult parsed = ValidationResult.fromJSON(json);
+		assertEquals(ValidationResult.Detail.SUMMARY, parsed.getDetail());
+		assertEquals(9, parsed.errorCount());
+		assertEquals(result.toJSONString(), parsed.toJSONString());
+	}
+
+	/*
+	 * Subclass that uses the deprecated transformer methods, as subclasses
+	 * written for earlier versions do
+	 */
+	private static class TransformerXSLTValidator extends XSLTValidator {
+		TransformerXSLTValidator(String filename) {
+			super(filename);
+		}
+
+		@SuppressWarnings("deprecation")
+		Transformer transformer() throws Exception {
+			setupTransformer();
+			return loadTransformer(new ByteArrayInputStream(Files.readAllBytes(Paths.get(_filename))));
+		}
+	}
+
+	@Test
+	public void testDeprecatedTransformer() throws Exception {
+		String xsltFileName = ClassLoader.getSystemResource("xslt/si-ubl-2.0.xsl").getFile();
+		Transformer transformer = new TransformerXSLTValidator(xsltFileName).transformer();
+		String xmlFileName = ClassLoader.getSystemResource("xml/NLCIUS-CII_ok_example.xml").getFile();
+		StringWriter svrl = new StringWriter();
+		transformer.transform(new StreamSource(xmlFileName), new StreamResult(svrl));
+		Assert.assertTrue(svrl.toString().contains("failed-assert"));
+	}
 }